@@ -1,15 +1,13 @@
 package triageapp.activities;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 import triageapp.components.ERAdmin;
 import triageapp.components.InvalidUserInputException;
 import triageapp.components.Patient;
+import triageapp.components.TimeFormat;
 import triageapp.database.TriageDBAdapter;
 import triageapp.user.Nurse;
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.DatePickerDialog;
 import android.app.DatePickerDialog.OnDateSetListener;
@@ -23,14 +21,9 @@ import android.widget.DatePicker;
 import android.widget.Toast;
 
 
-@SuppressLint("SimpleDateFormat") 
 /** The Activity to add a new Patient and sign them into the ER. */
 public class AddPatientActivity extends Activity{
 	
-	/** The date format used to display the Patient's date of birth on the 
-	 * AddPatientActivity screen. */
-	private static final SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yyyy");
-	
 	/** This AddPatientActivity's Button to select the patient's date of birth. 
 	 * Opens a DatePickerDialog on onClick. */
 	private Button birthDate; 
@@ -92,13 +85,13 @@ public class AddPatientActivity extends Activity{
 		String name = nameText.getText().toString();
 		String birth_date = birthDate.getText().toString();
 		
-		Date date = new Date(0);
+		long date = 0;
 		try {
-			date = AddPatientActivity.dateFormat.parse(birth_date);
+			date = TimeFormat.LIST_DATE.parse(birth_date);
 		} catch (ParseException e1) {
 			e1.printStackTrace();
 		}
-		String dob = Patient.dateFormat.format(date);
+		String dob = TimeFormat.DATE.format(date);
 		
 		// Reads the user input for the health card number of the patient.
 		EditTextErrorFixed hcnText = (EditTextErrorFixed) findViewById(R.id.healthCardEditText);
@@ -210,14 +203,14 @@ public class AddPatientActivity extends Activity{
      * month and day as represented in the Date String s.
      * */
     private int[] parseDateString (String s){
-    	Date date = new Date();
+    	long date = System.currentTimeMillis();
     	try {
-			date = dateFormat.parse(s);
+			date = TimeFormat.LIST_DATE.parse(s);
 		} catch (ParseException e) {
 			e.printStackTrace();
 		}
         Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
+        cal.setTimeInMillis(date);
         int year = cal.get(Calendar.YEAR);
         int month = cal.get(Calendar.MONTH);
         int day = cal.get(Calendar.DAY_OF_MONTH);
@@ -5,11 +5,15 @@ import triageapp.components.InvalidUserInputException;
 import triageapp.components.Patient;
 import triageapp.components.VitalSigns;
 import triageapp.database.TriageDBAdapter;
+import triageapp.metrics.Span;
+import triageapp.metrics.Tracer;
 import triageapp.user.Nurse;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
+import android.database.SQLException;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Menu;
 import android.view.View;
 import android.view.Window;
@@ -123,8 +127,12 @@ public class AddVitalSignsActivity extends Activity {
 			VitalSigns vitals = new VitalSigns(systolicValue, diastolicValue, 
 					temperatureValue, heartRateValue);
 			//ERAdmin adds the vitals signs for the Patient.
-			
-			nurse.addPatientVitals(erAdmin, patient, vitals, mDbHelper);
+			Span span = Tracer.begin("ui.addVitalSigns");
+			try {
+				nurse.addPatientVitals(erAdmin, patient, vitals, mDbHelper);
+			} finally {
+				span.end();
+			}
 			getIntent().putExtra("erAdmin", erAdmin);
 			setResult(RESULT_OK, getIntent());
 			//Finishes the AddVitalSignsActivity.
@@ -140,6 +148,9 @@ public class AddVitalSignsActivity extends Activity {
 			setErrorMessage(systolicInput, diastolicInput, temperatureInput, heartRateInput);
 			toast.show();
 
+		} catch (SQLException exception){ // The vital signs could not be stored: nothing was changed.
+			Log.e("AddVitalSignsActivity", "Saving the vital signs failed", exception);
+			Toast.makeText(this, getString(R.string.vitals_not_saved), Toast.LENGTH_LONG).show();
 		}
 
 	}
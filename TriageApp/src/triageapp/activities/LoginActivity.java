@@ -1,17 +1,35 @@
 package triageapp.activities;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 import triageapp.components.ERAdmin;
 import triageapp.components.InvalidUserInputException;
+import triageapp.database.DBAdapter;
+import triageapp.database.PatientImporter;
 import triageapp.database.TriageDBAdapter;
+import triageapp.database.VisitArchiver;
+import triageapp.metrics.StartupProfiler;
+import triageapp.metrics.Tracer;
+import triageapp.server.BoardClient;
+import triageapp.server.BoardProtocol;
+import triageapp.server.BoardServer;
+import triageapp.sync.ChangeLog;
+import triageapp.user.Physician;
 import triageapp.user.User;
 import triageapp.user.UserManager;
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
 import android.view.Gravity;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -22,6 +40,19 @@ import android.widget.Toast;
 /** The Activity to login into the Application. */
 public class LoginActivity extends Activity {
 	
+	/** The tag of this LoginActivity's log messages. */
+	private static final String TAG = "LoginActivity";
+	
+	/**
+	 * The name of the file, in the app's files directory, which exists while the
+	 * bundled patient records are seeded: if it exists at startup, the seeding 
+	 * did not complete and the database is created and seeded again.
+	 */
+	private static final String SEED_PENDING_FILE_NAME = "seed.pending";
+	
+	/** The name of the file, in the app's files directory, of the seeded patient records not imported. */
+	private static final String SEED_REJECTS_FILE_NAME = "patient_records.rejects";
+
 	/** This LoginActivity's ERAdmin. */
 	private ERAdmin erAdmin;
 
@@ -31,9 +62,19 @@ public class LoginActivity extends Activity {
 	/** This LoginActivity's DB Adapter used to save data to the DB*/
 	private TriageDBAdapter mDbHelper;
 	
+	/** The Physician who logged out, whose Patients are assigned again once the DB is open, or null. */
+	private String loggedOutPhysician;
+	
+	/** The User logged in, or null. */
+	private User loggedIn;
+	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		StartupProfiler profiler = StartupProfiler.start();
+		//Traces operations only in debug builds, where tracing is cheap enough to leave on.
+		Tracer.setEnabled((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+		profiler.beginPhase("create");
 		setContentView(R.layout.login_activity);
 		//Sets the screen orientation to portrait.
 		setRequestedOrientation (ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
@@ -42,30 +83,86 @@ public class LoginActivity extends Activity {
 		//Creates the User Manager.
 		userManager = new UserManager(); 
 		//Creates the ERAdmin, and loads all current patient data.
+		profiler.beginPhase("checkDatabase");
 		File database = getApplicationContext().getDatabasePath(TriageDBAdapter.DATABASE_NAME);
+		File seedPending = new File(getFilesDir(), SEED_PENDING_FILE_NAME);
+		if (database.exists() && seedPending.exists()) {
+			//The last seeding failed or was interrupted: starts over.
+			deleteDatabase(DBAdapter.DATABASE_NAME);
+			deleteDatabase(DBAdapter.ARCHIVE_DATABASE_NAME);
+		}
 		if (!database.exists()) {
+			profiler.beginPhase("openDatabase");
 			mDbHelper.open(); //Creates the database.
-			try {
-				erAdmin.initialLoadPatients(mDbHelper);
-				userManager.loadUserInformation(mDbHelper);
-			} catch (InvalidUserInputException e) {
-				e.printStackTrace();
-			} 
+			profiler.beginPhase("seedPatients");
+			if (seedPatients(seedPending)) {
+				try {
+					profiler.beginPhase("seedUsers");
+					userManager.loadUserInformation(mDbHelper);
+				} catch (InvalidUserInputException e) {
+					e.printStackTrace();
+				}
+			}
 		} else {
+			profiler.beginPhase("openDatabase");
 			mDbHelper.open(); //Opens the database.
 			try {
+				profiler.beginPhase("loadPatients");
 				erAdmin.loadPatients(mDbHelper);
+				profiler.beginPhase("loadUrgencyList");
 				erAdmin.loadUrgencyList(mDbHelper);
+				profiler.beginPhase("loadSentToDoctorList");
 				erAdmin.loadSentToDoctorList(mDbHelper);
 			} catch (InvalidUserInputException e) {
 				e.printStackTrace();
 			}
-			
+			//Moves old closed visits out of the main database in the background.
+			VisitArchiver.startInBackground(this);
 		}
-
-
-		
-		
+		//Keeps the Changes to send to the other devices across restarts.
+		profiler.beginPhase("openChangeLog");
+		ChangeLog.openLocal(this);
+		profiler.finish();
+		Log.i(TAG, "Startup: " + profiler.summary());
+		//Keeps the history of startups without delaying this one.
+		profiler.saveHistoryInBackground(new File(getFilesDir(), StartupProfiler.HISTORY_FILE_NAME));
+	}
+	
+	/**
+	 * Seeds the new database with the patient records bundled with the app,
+	 * writing the lines not imported to the rejects file, and tells the user
+	 * how many were not. If the seeding fails, tells the user and deletes the
+	 * database, so that the next launch seeds it again; the seedPending file,
+	 * existing until the seeding completes, also makes the next launch start
+	 * over if the app is stopped while seeding.
+	 * @param seedPending The file existing while the seeding is not complete.
+	 * @return true if the Patients were seeded.
+	 */
+	private boolean seedPatients(File seedPending) {
+		File rejects = new File(getFilesDir(), SEED_REJECTS_FILE_NAME);
+		try {
+			if (!seedPending.exists() && !seedPending.createNewFile())
+				throw new IOException("Cannot create " + seedPending);
+			PatientImporter.Result result = erAdmin.initialLoadPatients(mDbHelper, rejects);
+			Log.i(TAG, "Seeded patients: " + result);
+			if (!seedPending.delete())
+				Log.w(TAG, "Cannot delete " + seedPending);
+			long rejected = result.getDuplicates() + result.getInvalid();
+			if (rejected > 0)
+				Toast.makeText(this, getString(R.string.patients_rejected, rejected, rejects.getPath()), 
+						Toast.LENGTH_LONG).show();
+			return true;
+		} catch (IOException e) {
+			Log.e(TAG, "Seeding the patients failed", e);
+		} catch (InvalidUserInputException e) {
+			Log.e(TAG, "Seeding the patients failed", e);
+		}
+		mDbHelper.close();
+		deleteDatabase(DBAdapter.DATABASE_NAME);
+		deleteDatabase(DBAdapter.ARCHIVE_DATABASE_NAME);
+		erAdmin = new ERAdmin();
+		Toast.makeText(this, getString(R.string.patients_not_seeded), Toast.LENGTH_LONG).show();
+		return false;
 	}
 	
 	/**
@@ -91,6 +188,10 @@ public class LoginActivity extends Activity {
 		//passwords file.
 		User user = userManager.getUser(username, password, mDbHelper);
 		if (!username.matches("") && !password.matches("") && user != null) {
+			//The Patients sent to the doctor are shared between the Physicians logged in.
+			if (user instanceof Physician)
+				erAdmin.registerPhysician(user.getUsername(), mDbHelper);
+			loggedIn = user;
 			intent.putExtra("user", user);
 			intent.putExtra("eradmin", erAdmin);
 			startActivityForResult(intent, 0);
@@ -112,6 +213,14 @@ public class LoginActivity extends Activity {
 		return true;
 	}
 	
+	/** Shows whether selecting the share item starts or stops sharing the board. */
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		menu.findItem(R.id.menu_share_board).setTitle(BoardServer.isRunning() 
+				? R.string.menu_stop_sharing_board : R.string.menu_share_board);
+		return super.onPrepareOptionsMenu(menu);
+	}
+	
 	/** Used to handle events generated from the menu (e.g., when the user
 	 * selects the "About" item).
 	 */
@@ -122,18 +231,154 @@ public class LoginActivity extends Activity {
 			Intent i = new Intent(this, AboutActivity.class);
 			startActivity(i); 
 			return true;
+		case R.id.menu_share_board: // serve the board to the other stations, or stop.
+			toggleBoardSharing();
+			return true;
+		case R.id.menu_view_shared_board: // view the board shared by another station.
+			chooseSharedBoard();
+			return true;
 		}
 		return super.onOptionsItemSelected(item);
 	}
+	
+	/**
+	 * Asks the user whether to serve the board to the stations of this device
+	 * only or to those of other devices too, then starts serving it, or stops
+	 * serving it if it is served already.
+	 */
+	private void toggleBoardSharing() {
+		if (BoardServer.isRunning()) {
+			BoardServer.stopRunning();
+			Toast.makeText(this, getString(R.string.board_not_shared), Toast.LENGTH_SHORT).show();
+			return;
+		}
+		AlertDialog.Builder builder = new AlertDialog.Builder(this);
+		builder.setTitle(R.string.menu_share_board);
+		builder.setItems(new CharSequence[] {getString(R.string.share_board_local), getString(R.string.share_board_remote)},
+				new DialogInterface.OnClickListener() {
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				shareBoard(which == 1);
+			}
+		});
+		builder.create().show();
+	}
+	
+	/**
+	 * Starts serving the board, and shows the token the other stations must
+	 * connect with, and the addresses of this device if they are on other devices.
+	 * @param acceptRemote true to serve the stations of other devices too.
+	 */
+	private void shareBoard(boolean acceptRemote) {
+		String token = BoardServer.startInBackground(this, acceptRemote);
+		String message = getString(R.string.board_shared, BoardProtocol.DEFAULT_PORT, token);
+		if (acceptRemote) {
+			List<String> addresses = BoardServer.localAddresses();
+			message += "\n" + (addresses.isEmpty() ? getString(R.string.board_no_address)
+					: getString(R.string.board_addresses, TextUtils.join(", ", addresses)));
+		}
+		AlertDialog.Builder builder = new AlertDialog.Builder(this);
+		builder.setTitle(R.string.menu_share_board);
+		builder.setMessage(message);
+		builder.setPositiveButton(R.string.menu_ok, null);
+		builder.create().show();
+	}
+	
+	/**
+	 * Asks the user for the address and the token of the station sharing a
+	 * board, then shows that board.
+	 */
+	private void chooseSharedBoard() {
+		LayoutInflater inflater = getLayoutInflater();
+		View v = inflater.inflate(R.layout.shared_board_dialog, null);
+		final EditText host = (EditText) v.findViewById(R.id.sharedBoardHost);
+		final EditText token = (EditText) v.findViewById(R.id.sharedBoardToken);
+		AlertDialog.Builder builder = new AlertDialog.Builder(this);
+		builder.setTitle(R.string.menu_view_shared_board);
+		builder.setView(v);
+		builder.setPositiveButton(R.string.menu_ok, new DialogInterface.OnClickListener() {
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				viewSharedBoard(host.getText().toString().trim(), token.getText().toString().trim());
+			}
+		});
+		builder.create().show();
+	}
+	
+	/**
+	 * Gets the board of the station sharing it with a BoardClient, on a
+	 * background thread, then shows the Patients waiting for a doctor and
+	 * those sent to one, with a button to get the board again.
+	 * @param host The address of the station sharing the board.
+	 * @param token The token of the station sharing the board.
+	 */
+	private void viewSharedBoard(final String host, final String token) {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final StringBuilder board = new StringBuilder();
+				String failure = null;
+				try {
+					BoardClient client = new BoardClient(host, BoardProtocol.DEFAULT_PORT, token);
+					try {
+						board.append(getString(R.string.shared_board_waiting)).append('\n');
+						//Health card number, name, urgency, arrival time.
+						for (String[] row : client.getBoard())
+							board.append(getString(R.string.shared_board_waiting_row, row[1], row[0], row[2])).append('\n');
+						board.append('\n').append(getString(R.string.shared_board_sent)).append('\n');
+						//Health card number, name, time seen, Physician, taken.
+						for (String[] row : client.getSentToDoctor()) {
+							board.append(row[1]).append(" (").append(row[0]).append(')');
+							if (row[3].length() > 0)
+								board.append(getString(row[4].equals("1") ? R.string.shared_board_taken_by
+										: R.string.shared_board_assigned_to, row[3]));
+							board.append('\n');
+						}
+					} finally {
+						client.close();
+					}
+				} catch (IOException e) {
+					Log.w(TAG, "Getting the shared board failed", e);
+					failure = getString(R.string.shared_board_failed, e.getMessage());
+				}
+				final String result = failure;
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						if (result != null) {
+							Toast.makeText(LoginActivity.this, result, Toast.LENGTH_LONG).show();
+							return;
+						}
+						AlertDialog.Builder builder = new AlertDialog.Builder(LoginActivity.this);
+						builder.setTitle(R.string.menu_view_shared_board);
+						builder.setMessage(board.toString());
+						builder.setNeutralButton(R.string.shared_board_refresh, new DialogInterface.OnClickListener() {
+							@Override
+							public void onClick(DialogInterface dialog, int which) {
+								viewSharedBoard(host, token);
+							}
+						});
+						builder.setPositiveButton(R.string.menu_ok, null);
+						builder.create().show();
+					}
+				});
+			}
+		}, "BoardClient").start();
+	}
 
     /**
-     * Gets the updated ERAdmin object from the previous Activity.
+     * Gets the updated ERAdmin object from the previous Activity, when the
+     * User logs out. A Physician logging out gives back the Patients waiting
+     * for them, once the DB is open again in onResume.
      */
     @Override
     public void onActivityResult(int requestCode, int resultCode,
     		Intent intent) {
     	super.onActivityResult(requestCode, resultCode, intent);
     	erAdmin = (ERAdmin) intent.getSerializableExtra("eradmin");
+    	if (loggedIn instanceof Physician)
+    		loggedOutPhysician = loggedIn.getUsername();
+    	loggedIn = null;
     }
 	
     /**
@@ -141,12 +386,17 @@ public class LoginActivity extends Activity {
      * resumes after the user returns to this
      * Activity from another activity. 
      * Opens a DB connection if one is not
-     * already in existence.
+     * already in existence, and unregisters
+     * the Physician who logged out, if any.
      */
     @Override
     protected void onResume() {
     	if (!mDbHelper.isOpen())
     		mDbHelper.open();
+    	if (loggedOutPhysician != null) {
+    		erAdmin.unregisterPhysician(loggedOutPhysician, mDbHelper);
+    		loggedOutPhysician = null;
+    	}
     	super.onResume();
     }
 
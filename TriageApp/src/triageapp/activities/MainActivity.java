@@ -1,7 +1,16 @@
 package triageapp.activities;
 
+import java.io.File;
+import java.io.IOException;
+
 import triageapp.components.ERAdmin;
+import triageapp.components.InvalidUserInputException;
 import triageapp.components.Patient;
+import triageapp.database.PatientImporter;
+import triageapp.database.TriageDBAdapter;
+import triageapp.export.TextExporter;
+import triageapp.metrics.MetricsRegistry;
+import triageapp.metrics.Tracer;
 import triageapp.user.User;
 import triageapp.user.Nurse;
 import triageapp.user.Physician;
@@ -13,12 +22,14 @@ import android.app.ActionBar.Tab;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.database.SQLException;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.EditText;
 import android.widget.Toast;
 import android.support.v4.app.Fragment;
@@ -189,12 +200,15 @@ public class MainActivity extends FragmentActivity {
     /**
      * Called on creation of this screen's (MainActivity) menu.
      * Changes the screen navigability to suit User role.
-     * If the user is a Nurse, sets the Add Patient button to visible. 
-     * Otherwise if the user is a Physician, hides the Add Patient button. 
+     * If the user is a Nurse, sets the Add Patient and Import Patients buttons
+     * to visible. Otherwise if the user is a Physician, hides them,
+     * and shows the Take Next Patient button.
      * @param menu The menu for this MainActivity.
      */
     public void userOptions(Menu menu){
     	menu.findItem(R.id.menu_add_patient).setVisible((userType == User.NURSE));
+    	menu.findItem(R.id.menu_import_patients).setVisible((userType == User.NURSE));
+    	menu.findItem(R.id.menu_take_next_patient).setVisible((userType == User.PHYSICIAN));
     }
     
     /** Used to handle events generated from the menu (e.g., when the user
@@ -215,14 +229,198 @@ public class MainActivity extends FragmentActivity {
     	case R.id.menu_medical_record: // case: look up a Patient's entire medical history
     		SearchDialogFragment med_fragment = new SearchDialogFragment(this, searchWhich[1]);
     		return true;
+    	case R.id.menu_take_next_patient: // see the next patient waiting for this physician
+    		takeNextPatient();
+    		return true;
+    	case R.id.menu_export: // export the database for other systems
+    		chooseExportFormat();
+    		return true;
+    	case R.id.menu_import_patients: // import a file of patient records
+    		chooseImportFile();
+    		return true;
 		}
         return super.onOptionsItemSelected(item);
     }
     
+    /**
+     * Takes the next Patient for this Physician to see (their most urgent
+     * Patient waiting, or one of a busier Physician) and displays the
+     * Patient's info, or tells the Physician that no Patient is waiting.
+     */
+    private void takeNextPatient() {
+    	TriageDBAdapter dbAdapter = new TriageDBAdapter(this);
+    	Patient patient;
+    	try {
+    		dbAdapter.open();
+    		patient = erAdmin.takeNextPatient(user.getUsername(), dbAdapter);
+    	} catch (SQLException e) {
+    		e.printStackTrace();
+    		Toast.makeText(this, getString(R.string.patient_not_taken), Toast.LENGTH_SHORT).show();
+    		return;
+    	} finally {
+    		dbAdapter.close();
+    	}
+    	if (patient == null) {
+    		Toast.makeText(this, getString(R.string.no_patient_waiting), Toast.LENGTH_SHORT).show();
+    		return;
+    	}
+    	//The Patient stays on the board, as taken by this Physician.
+    	mDemoCollectionPagerAdapter.updateBoards();
+    	Intent i = new Intent(this, PatientActivity.class);
+    	i.putExtra("eradmin", erAdmin);
+    	i.putExtra("user", user);
+    	i.putExtra("healthcardnumber", patient.getHealthCardNumber());
+    	startActivityForResult(i, VIEW_PATIENT);
+    }
+    
+    /**
+     * Asks the user for the format to export the database in (NDJSON or CSV),
+     * then exports it.
+     */
+    private void chooseExportFormat() {
+    	AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    	builder.setTitle(R.string.menu_export);
+    	builder.setItems(new CharSequence[] {getString(R.string.export_ndjson), getString(R.string.export_csv)},
+    			new DialogInterface.OnClickListener() {
+    		@Override
+    		public void onClick(DialogInterface dialog, int which) {
+    			exportInBackground(which == 0 ? TextExporter.NDJSON : TextExporter.CSV);
+    		}
+    	});
+    	builder.create().show();
+    }
+    
+    /**
+     * Exports the database with TextExporter on a background thread, to the
+     * app's external files directory (or its files directory if there is no
+     * external storage), and tells the user where the files are once done.
+     * The export uses its own connection to the database.
+     * @param format TextExporter.NDJSON or TextExporter.CSV.
+     */
+    private void exportInBackground(final int format) {
+    	final Context context = getApplicationContext();
+    	File external = getExternalFilesDir(null);
+    	final File directory = external != null ? external : getFilesDir();
+    	new Thread(new Runnable() {
+    		@Override
+    		public void run() {
+    			TriageDBAdapter dbAdapter = new TriageDBAdapter(context);
+    			String message;
+    			try {
+    				dbAdapter.open();
+    				long rows = TextExporter.export(dbAdapter, directory, format);
+    				message = "Exported " + rows + " rows to " + directory;
+    			} catch (IOException e) {
+    				e.printStackTrace();
+    				message = "Export failed: " + e.getMessage();
+    			} catch (SQLException e) {
+    				e.printStackTrace();
+    				message = "Export failed: " + e.getMessage();
+    			} finally {
+    				dbAdapter.close();
+    			}
+    			final String result = message;
+    			runOnUiThread(new Runnable() {
+    				@Override
+    				public void run() {
+    					Toast.makeText(context, result, Toast.LENGTH_LONG).show();
+    				}
+    			});
+    		}
+    	}, "TextExporter").start();
+    }
+    
+    /**
+     * Asks the user for the name of the file of patient records to import,
+     * in the directory the exports are written to, then imports it.
+     */
+    private void chooseImportFile() {
+    	File external = getExternalFilesDir(null);
+    	final File directory = external != null ? external : getFilesDir();
+    	View v = getLayoutInflater().inflate(R.layout.import_patients_dialog, null);
+    	final EditText fileName = (EditText) v.findViewById(R.id.importFileName);
+    	AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    	builder.setTitle(getString(R.string.import_patients_from, directory.getPath()));
+    	builder.setView(v);
+    	builder.setPositiveButton(R.string.menu_ok, new DialogInterface.OnClickListener() {
+    		@Override
+    		public void onClick(DialogInterface dialog, int which) {
+    			importInBackground(new File(directory, fileName.getText().toString().trim()));
+    		}
+    	});
+    	builder.create().show();
+    }
+    
+    /**
+     * Imports a file of patient records with a PatientImporter on a background
+     * thread, with its own connection to the database, resuming a previous 
+     * import of the file if it was stopped. The lines not imported are written
+     * to the file's rejects file. Once done, adds the new Patients to the 
+     * ERAdmin and tells the user how many lines were imported and rejected.
+     * @param file The file of patient records.
+     */
+    private void importInBackground(final File file) {
+    	final Context context = getApplicationContext();
+    	final File checkpoint = new File(file.getPath() + ".checkpoint");
+    	final File rejects = new File(file.getPath() + ".rejects");
+    	new Thread(new Runnable() {
+    		@Override
+    		public void run() {
+    			TriageDBAdapter dbAdapter = new TriageDBAdapter(context);
+    			PatientImporter.Result result = null;
+    			String failure = null;
+    			try {
+    				dbAdapter.open();
+    				result = new PatientImporter(dbAdapter).importFile(file, checkpoint, rejects);
+    			} catch (IOException e) {
+    				e.printStackTrace();
+    				failure = e.getMessage();
+    			} catch (InterruptedException e) {
+    				failure = e.toString();
+    			} catch (SQLException e) {
+    				e.printStackTrace();
+    				failure = e.getMessage();
+    			} finally {
+    				dbAdapter.close();
+    			}
+    			final PatientImporter.Result imported = result;
+    			final String error = failure;
+    			runOnUiThread(new Runnable() {
+    				@Override
+    				public void run() {
+    					if (imported == null) {
+    						Toast.makeText(context, getString(R.string.import_failed, error), Toast.LENGTH_LONG).show();
+    						return;
+    					}
+    					addImportedPatients();
+    					Toast.makeText(context, getString(R.string.import_done, imported.getImported(),
+    							imported.getDuplicates() + imported.getInvalid(), rejects.getPath()), Toast.LENGTH_LONG).show();
+    				}
+    			});
+    		}
+    	}, "PatientImporter").start();
+    }
+    
+    /** Adds the Patients imported into the database to the ERAdmin. */
+    private void addImportedPatients() {
+    	TriageDBAdapter dbAdapter = new TriageDBAdapter(this);
+    	try {
+    		dbAdapter.open();
+    		erAdmin.loadNewPatients(dbAdapter);
+    	} catch (InvalidUserInputException e) {
+    		e.printStackTrace();
+    	} catch (SQLException e) {
+    		e.printStackTrace();
+    	} finally {
+    		dbAdapter.close();
+    	}
+    }
+    
     /**
      * Gets the updated ERAdmin object from the previous Activity
-     * and reloads the PatientListFragments in case a Patient
-     * was added to or removed from current patients lists in ERAdmin.
+     * and updates the boards of the PatientListFragments in place, in case
+     * a Patient was added to, moved in or removed from the current patients 
+     * lists in ERAdmin. Only the rows that changed are bound again.
      */
     @Override
     public void onActivityResult(int requestCode, int resultCode,
@@ -240,10 +438,42 @@ public class MainActivity extends FragmentActivity {
     		patientIntent.putExtra("healthcardnumber", intent.getIntExtra("healthcardnumber", 0));
 			startActivityForResult(i, VIEW_PATIENT);*/
         }
-    	mDemoCollectionPagerAdapter.notifyDataSetChanged();	
+    	mDemoCollectionPagerAdapter.updateBoards();
     	
     }
     
+    /**
+     * Gets this MainActivity's ERAdmin, shared with its PatientListTabFragments.
+     * @return This MainActivity's ERAdmin.
+     */
+    public ERAdmin getERAdmin() {
+    	return erAdmin;
+    }
+    
+    /**
+     * Catches the event when the user leaves the MainActivity
+     * or exits the app. Exports a snapshot of the database and ERAdmin
+     * metrics, and the trace if tracing is enabled, to the app's files directory,
+     * on a background thread so that writing the files does not delay the UI.
+     */
+    @Override
+    protected void onPause() {
+    	final File directory = getFilesDir();
+    	new Thread(new Runnable() {
+    		@Override
+    		public void run() {
+    			try {
+    				MetricsRegistry.exportTo(new File(directory, MetricsRegistry.EXPORT_FILE_NAME));
+    				if (Tracer.isEnabled())
+    					Tracer.writeTo(new File(directory, Tracer.TRACE_FILE_NAME));
+    			} catch (IOException e) {
+    				e.printStackTrace();
+    			}
+    		}
+    	}, "MetricsExport").start();
+    	super.onPause();
+    }
+    
     /**
      * Called before Activity is recreated (on an orientation change).
      * Saves the state (saves ERAdmin object) of the Activity 
@@ -396,18 +626,48 @@ public class MainActivity extends FragmentActivity {
     	 */
     	@Override
     	public Fragment getItem(int position) {
-    		mFragments[position] = PatientListTabFragment.newInstance(position, erAdmin, user, userType);
+    		return PatientListTabFragment.newInstance(position, user, userType);
+    	}
+    	
+    	/**
+    	 * Keeps track of the PatientListTabFragment at this tab position, 
+    	 * whether it was just created or restored by the FragmentManager.
+    	 */
+    	@Override
+    	public Object instantiateItem(ViewGroup container, int position) {
+    		mFragments[position] = (PatientListTabFragment) super.instantiateItem(container, position);
     		return mFragments[position];
     	}
+    	
+    	@Override
+    	public void destroyItem(ViewGroup container, int position, Object object) {
+    		mFragments[position] = null;
+    		super.destroyItem(container, position, object);
+    	}
+    	
+    	/**
+    	 * Updates the board of every live PatientListTabFragment with this 
+    	 * MainActivity's ERAdmin. The fragments are kept, not recreated.
+    	 */
+    	public void updateBoards() {
+    		for (PatientListTabFragment fragment : mFragments) {
+    			if (fragment != null)
+    				fragment.updateBoard(erAdmin);
+    		}
+    	}
 
     	@Override
     	public int getCount() {
     		return NUM_FRAGMENTS;
     	}
     	
+    	/**
+    	 * The tabs never change, so the fragments are kept in place
+    	 * and updated with updateBoards.
+    	 */
     	@Override
     	public int getItemPosition(Object object) {     
-    	    return POSITION_NONE;
+    	    return POSITION_UNCHANGED;
     	}
 
     }
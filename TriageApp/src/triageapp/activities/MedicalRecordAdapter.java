@@ -0,0 +1,178 @@
+package triageapp.activities;
+
+import java.util.ArrayList;
+import java.util.List;
+import triageapp.components.ERAdmin;
+import triageapp.components.ERVisit;
+import triageapp.components.Patient;
+import triageapp.database.TriageDBAdapter;
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+
+/**
+ * The adapter of a Patient's Medical Record, with one row per closed ERVisit.
+ * ERVisits are loaded from the database one page at a time as the user scrolls,
+ * and the VitalSigns of an ERVisit are only loaded and displayed when its row
+ * is expanded.
+ */
+public class MedicalRecordAdapter extends BaseAdapter {
+
+	/** The number of ERVisits loaded at a time. */
+	public static final int PAGE_SIZE = 20;
+
+	/** The display of one ERVisit of the Medical Record. */
+	private static final class RecordRow {
+		/** The ERVisit of this row. */
+		final ERVisit visit;
+		/** The display of the ERVisit's times. */
+		final String header;
+		/** The display of the ERVisit's Prescriptions. */
+		final String prescriptions;
+		/** The display of the ERVisit's VitalSigns, null until they are loaded. */
+		String vitals;
+		/** Whether the VitalSigns are displayed. */
+		boolean expanded;
+
+		RecordRow(ERVisit visit) {
+			this.visit = visit;
+			this.header = visit.getDisplayHeader();
+			this.prescriptions = visit.getPrescriptionsDisplay();
+		}
+	}
+
+	/** The views of a row, kept as the tag of the row. */
+	private static final class ViewHolder {
+		TextView header;
+		TextView toggle;
+		TextView vitals;
+		TextView prescriptions;
+	}
+
+	/** The inflater used to create the row views. */
+	private final LayoutInflater inflater;
+	/** The context, used to get the row Strings. */
+	private final Context context;
+	/** The ERAdmin loading the Medical Record. */
+	private final ERAdmin erAdmin;
+	/** The Patient whose Medical Record is displayed. */
+	private final Patient patient;
+	/** The database adapter (helper), kept open by the Activity. */
+	private final TriageDBAdapter dbAdapter;
+	/** The rows loaded so far. */
+	private final List<RecordRow> rows = new ArrayList<RecordRow>();
+	/** Whether the last page has been loaded. */
+	private boolean lastPageLoaded = false;
+
+	/**
+	 * Constructs an empty MedicalRecordAdapter. No ERVisit is loaded until
+	 * loadNextPage is called.
+	 * @param context The context used to inflate the rows.
+	 * @param erAdmin The ERAdmin loading the Medical Record.
+	 * @param patient The Patient whose Medical Record is displayed.
+	 * @param dbAdapter The database adapter (helper), which must stay open while
+	 * the adapter is in use.
+	 */
+	public MedicalRecordAdapter(Context context, ERAdmin erAdmin, Patient patient, TriageDBAdapter dbAdapter) {
+		this.inflater = LayoutInflater.from(context);
+		this.context = context;
+		this.erAdmin = erAdmin;
+		this.patient = patient;
+		this.dbAdapter = dbAdapter;
+	}
+
+	/**
+	 * Loads the next page of ERVisits, if there is one.
+	 * @return true if ERVisits were added.
+	 */
+	public boolean loadNextPage() {
+		if (lastPageLoaded)
+			return false;
+		List<ERVisit> page = erAdmin.getPatientMedicalRecordPage(patient, dbAdapter, rows.size(), PAGE_SIZE);
+		if (page.size() < PAGE_SIZE)
+			lastPageLoaded = true;
+		if (page.isEmpty())
+			return false;
+		for (ERVisit visit : page)
+			rows.add(new RecordRow(visit));
+		notifyDataSetChanged();
+		return true;
+	}
+
+	/**
+	 * Checks if more ERVisits may be loaded.
+	 * @return true if the last page has not been loaded yet.
+	 */
+	public boolean hasMorePages() {
+		return !lastPageLoaded;
+	}
+
+	/**
+	 * Expands or collapses the VitalSigns of the ERVisit at a position, loading
+	 * them the first time they are expanded.
+	 * @param position The position of the row.
+	 */
+	public void toggleVitals(int position) {
+		RecordRow row = rows.get(position);
+		if (row.vitals == null) {
+			erAdmin.loadVitalSigns(row.visit, dbAdapter);
+			row.vitals = row.visit.getVitalsDisplay();
+		}
+		row.expanded = !row.expanded;
+		notifyDataSetChanged();
+	}
+
+	@Override
+	public int getCount() {
+		return rows.size();
+	}
+
+	@Override
+	public ERVisit getItem(int position) {
+		return rows.get(position).visit;
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return rows.get(position).visit.getID();
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		ViewHolder holder;
+		if (convertView == null) {
+			convertView = inflater.inflate(R.layout.medical_record_row, parent, false);
+			holder = new ViewHolder();
+			holder.header = (TextView) convertView.findViewById(R.id.record_header);
+			holder.toggle = (TextView) convertView.findViewById(R.id.record_vitals_toggle);
+			holder.vitals = (TextView) convertView.findViewById(R.id.record_vitals);
+			holder.prescriptions = (TextView) convertView.findViewById(R.id.record_prescriptions);
+			convertView.setTag(holder);
+		} else {
+			holder = (ViewHolder) convertView.getTag();
+		}
+		RecordRow row = rows.get(position);
+		holder.header.setText(row.header);
+		if (row.expanded) {
+			holder.toggle.setText(context.getString(R.string.record_hide_vitals));
+			holder.vitals.setText(row.vitals.length() > 0 ? row.vitals
+					: context.getString(R.string.record_no_vitals));
+			holder.vitals.setVisibility(View.VISIBLE);
+		} else {
+			holder.toggle.setText(context.getString(R.string.record_show_vitals));
+			holder.vitals.setVisibility(View.GONE);
+		}
+		holder.prescriptions.setText(row.prescriptions);
+		holder.prescriptions.setVisibility(row.prescriptions.length() > 0 ? View.VISIBLE : View.GONE);
+		return convertView;
+	}
+}
@@ -9,6 +9,7 @@ import android.app.ActionBar;
 import android.app.FragmentTransaction;
 import android.app.ActionBar.Tab;
 import android.content.Intent;
+import android.database.SQLException;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
@@ -310,7 +311,14 @@ public class PatientActivity extends FragmentActivity {
     		//Saves this Patient's current visit data to their 
     	    //Medical History on DB using this PatientActivity's ERAdmin.
     	    //Used in the case when the Patient is dismissed from the ER.
-    		erAdmin.closeCase(erAdmin.lookUpPatient(healthCardNumber), mDbHelper);
+    		try {
+    			erAdmin.closeCase(erAdmin.lookUpPatient(healthCardNumber), mDbHelper);
+    		} catch (SQLException e) {
+    			//The visit is still open: the Patient stays signed in.
+    			Log.e("PatientActivity", "Closing the visit failed", e);
+    			Toast.makeText(this, getString(R.string.case_not_closed), Toast.LENGTH_LONG).show();
+    			return true;
+    		}
     		recreate(); //recreates the activity to remove the extra tab for patient 
     					//vitals and (possibly) prescriptions (for Physicians).
     		getActionBar().removeTab(vitalsTab); //removes tab
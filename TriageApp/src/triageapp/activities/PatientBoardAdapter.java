@@ -0,0 +1,196 @@
+package triageapp.activities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import triageapp.components.ERVisit;
+import triageapp.components.Patient;
+import triageapp.components.TimeFormat;
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+
+/**
+ * The adapter of a board of Patients (the urgency, sent to doctor and
+ * waiting lists). The text of every row is computed once when the board
+ * is set, so binding a row only sets its TextViews. When a new board is set,
+ * rows whose Patient and text are unchanged keep their row model, and views
+ * already showing that model are not bound again. A Patient sent to the
+ * doctor is shown with the Physician assigned to them or taking them.
+ */
+public class PatientBoardAdapter extends BaseAdapter {
+
+	/** The precomputed text of one row of the board. */
+	static final class PatientRow {
+		/** A stable id for the Patient of this row. */
+		final long id;
+		/** The health card number of the Patient of this row. */
+		final String healthCardNumber;
+		/** The text of list_row1 (the name of the Patient, and their Physician if sent to the doctor). */
+		final String name;
+		/** The text of list_row2. */
+		final String right1;
+		/** The text of list_row3. */
+		final String right2;
+
+		PatientRow(long id, String healthCardNumber, String name, String right1, String right2) {
+			this.id = id;
+			this.healthCardNumber = healthCardNumber;
+			this.name = name;
+			this.right1 = right1;
+			this.right2 = right2;
+		}
+
+		/**
+		 * Checks if this row already displays the given text.
+		 * @return true if the text of this row is the same as the given text.
+		 */
+		boolean hasText(String name, String right1, String right2) {
+			return this.name.equals(name) && this.right1.equals(right1) && this.right2.equals(right2);
+		}
+	}
+
+	/** The views of a row, kept as the tag of the row. */
+	private static final class ViewHolder {
+		TextView row1;
+		TextView row2;
+		TextView row3;
+		/** The row model currently bound to the views. */
+		PatientRow bound;
+	}
+
+	/** The inflater used to create the row views. */
+	private final LayoutInflater inflater;
+	/** Whether the board shows the time the Patient was seen by the doctor (instead of the arrival time). */
+	private final boolean showTimeSeen;
+	/** The rows of the board, in display order. */
+	private List<PatientRow> rows = new ArrayList<PatientRow>();
+	/** The rows of the board by health card number. */
+	private Map<String, PatientRow> rowsByHealthCard = new HashMap<String, PatientRow>();
+	/** The next stable id to give to a new Patient. */
+	private long nextId = 0;
+
+	/**
+	 * Constructs an empty PatientBoardAdapter.
+	 * @param context The context used to inflate the rows.
+	 * @param showTimeSeen true for the Nurse's sent to doctor board, which shows the time
+	 * the Patient was seen by the doctor before the urgency; false to show the urgency
+	 * before the arrival time.
+	 */
+	public PatientBoardAdapter(Context context, boolean showTimeSeen) {
+		this.inflater = LayoutInflater.from(context);
+		this.showTimeSeen = showTimeSeen;
+	}
+
+	/**
+	 * Sets the Patients of the board, reusing the row models of Patients whose row
+	 * has not changed. Only notifies the ListView if a row was added, removed,
+	 * moved or changed.
+	 * @param patients The Patients of the board, in display order.
+	 * @return true if the board has changed.
+	 */
+	public boolean setBoard(List<Patient> patients) {
+		List<PatientRow> newRows = new ArrayList<PatientRow>(patients.size());
+		Map<String, PatientRow> newRowsByHealthCard = new HashMap<String, PatientRow>(patients.size() * 2);
+		boolean changed = patients.size() != rows.size();
+		for (int i = 0; i < patients.size(); i++) {
+			Patient patient = patients.get(i);
+			String name = patient.getName() + annotation(patient.getCurrentERVisit());
+			String urgency = "Urgency: " + patient.getUrgency();
+			String right1, right2;
+			if (showTimeSeen) {
+				right1 = TimeFormat.LIST_DATE_TIME.format(patient.getCurrentERVisit().getTimeSeenByDoctor());
+				right2 = urgency;
+			} else {
+				right1 = urgency;
+				right2 = "Arrival: " + TimeFormat.LIST_DATE_TIME.format(patient.getCurrentERVisit().getArrivalTime());
+			}
+			PatientRow row = rowsByHealthCard.get(patient.getHealthCardNumber());
+			if (row == null)
+				row = new PatientRow(nextId++, patient.getHealthCardNumber(), name, right1, right2);
+			else if (!row.hasText(name, right1, right2))
+				row = new PatientRow(row.id, row.healthCardNumber, name, right1, right2);
+			if (!changed && rows.get(i) != row)
+				changed = true;
+			newRows.add(row);
+			newRowsByHealthCard.put(row.healthCardNumber, row);
+		}
+		rows = newRows;
+		rowsByHealthCard = newRowsByHealthCard;
+		if (changed)
+			notifyDataSetChanged();
+		return changed;
+	}
+
+	/**
+	 * Returns the text shown after the name of a Patient sent to the doctor:
+	 * the Physician who took them, or the one they wait for.
+	 * @param visit The current ERVisit of the Patient.
+	 * @return The text, empty if the Patient was not sent to the doctor.
+	 */
+	static String annotation(ERVisit visit) {
+		if (!visit.isSeenByDoctor())
+			return "";
+		if (visit.isTaken())
+			return " (Taken by " + visit.getPhysician() + ")";
+		return visit.getPhysician() != null ? " (Assigned to " + visit.getPhysician() + ")" : " (Unassigned)";
+	}
+
+	/**
+	 * Returns the health card number of the Patient at a position of the board.
+	 * @param position The position of the row.
+	 * @return The health card number of the Patient of the row.
+	 */
+	public String getHealthCardNumber(int position) {
+		return rows.get(position).healthCardNumber;
+	}
+
+	@Override
+	public int getCount() {
+		return rows.size();
+	}
+
+	@Override
+	public PatientRow getItem(int position) {
+		return rows.get(position);
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return rows.get(position).id;
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		ViewHolder holder;
+		if (convertView == null) {
+			convertView = inflater.inflate(R.layout.patient_row, parent, false);
+			holder = new ViewHolder();
+			holder.row1 = (TextView) convertView.findViewById(R.id.list_row1);
+			holder.row2 = (TextView) convertView.findViewById(R.id.list_row2);
+			holder.row3 = (TextView) convertView.findViewById(R.id.list_row3);
+			convertView.setTag(holder);
+		} else {
+			holder = (ViewHolder) convertView.getTag();
+		}
+		PatientRow row = rows.get(position);
+		//The view already shows this row (the row was not moved or changed).
+		if (holder.bound == row)
+			return convertView;
+		holder.row1.setText(row.name);
+		holder.row2.setText(row.right1);
+		holder.row3.setText(row.right2);
+		holder.bound = row;
+		return convertView;
+	}
+}
@@ -1,11 +1,9 @@
 package triageapp.activities;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import triageapp.components.ERAdmin;
 import triageapp.components.Patient;
-import android.annotation.SuppressLint;
+import triageapp.components.TimeFormat;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -18,7 +16,6 @@ import android.support.v4.app.Fragment;
  * A Fragment representing a section of the app screen,
  * displaying a Patients's info.
  */
-@SuppressLint("SimpleDateFormat") 
 public class PatientInfoTabFragment extends Fragment{
 
 	/** This PatientInfoTabFragment's ERAdmin. */
@@ -74,13 +71,13 @@ public class PatientInfoTabFragment extends Fragment{
 		TextView healthNumberTextView = (TextView) view.findViewById(R.id.patient_health_number);
 		healthNumberTextView.setText("Health Card Number: " + patient.getHealthCardNumber());
 		TextView dobTextView = (TextView) view.findViewById(R.id.patient_dob);
-		Date date = new Date(0);
+		long date = 0;
 		try {
-			date = Patient.dateFormat.parse(patient.getDob());
+			date = TimeFormat.DATE.parse(patient.getDob());
 		} catch (ParseException e) {
 			
 		}
-		dobTextView.setText("Date of Birth: " + (new SimpleDateFormat("MM-dd-yyyy")).format(date));
+		dobTextView.setText("Date of Birth: " + TimeFormat.LIST_DATE.format(date));
 		if (patient.getCurrentERVisit() != null){
 			fillExtraData();
 		} 
@@ -93,15 +90,15 @@ public class PatientInfoTabFragment extends Fragment{
 	 */
 	private void fillExtraData(){
 		TextView arrivalTimeTextView = (TextView) view.findViewById(R.id.patient_arrivalTime);
-		Date time = new Date (patient.getCurrentERVisit().getArrivalTime());
-		arrivalTimeTextView.setText("Arrival time: " + (new SimpleDateFormat("MM-dd-yyyy")).format(time) + " at " + (new SimpleDateFormat("HH:mm")).format(time));
+		long time = patient.getCurrentERVisit().getArrivalTime();
+		arrivalTimeTextView.setText("Arrival time: " + TimeFormat.LIST_DATE.format(time) + " at " + TimeFormat.TIME.format(time));
 		TextView urgencyTextView = (TextView) view.findViewById(R.id.patient_urgency);
 		urgencyTextView.setText("Urgency: " + patient.getUrgency());
 		if (patient.getCurrentERVisit().isSeenByDoctor()){
 			//fill seen by doc
 			TextView timeSeenTextView = (TextView) view.findViewById(R.id.patient_time_seen_by_doctor);
-			Date time_seen = new Date (patient.getCurrentERVisit().getTimeSeenByDoctor());
-			timeSeenTextView.setText("Time seen by doctor: " + (new SimpleDateFormat("MM-dd-yyyy")).format(time_seen) + " at " + (new SimpleDateFormat("HH:mm")).format(time_seen));
+			long time_seen = patient.getCurrentERVisit().getTimeSeenByDoctor();
+			timeSeenTextView.setText("Time seen by doctor: " + TimeFormat.LIST_DATE.format(time_seen) + " at " + TimeFormat.TIME.format(time_seen));
 		}
 	}
 	
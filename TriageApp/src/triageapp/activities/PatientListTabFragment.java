@@ -1,17 +1,13 @@
 package triageapp.activities;
 
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import triageapp.components.ERAdmin;
 import triageapp.components.Patient;
+import triageapp.reactive.Flow;
 import triageapp.user.Nurse;
 import triageapp.user.Physician;
 import triageapp.user.User;
-import android.annotation.SuppressLint;
+import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
@@ -20,7 +16,6 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ListView;
-import android.widget.SimpleAdapter;
 import android.widget.AdapterView.OnItemLongClickListener;
 
 
@@ -29,7 +24,6 @@ import android.widget.AdapterView.OnItemLongClickListener;
  * displaying a list of Patients with clickable 
  * Patient items.
  */
-@SuppressLint("SimpleDateFormat") 
 public class PatientListTabFragment extends ListFragment{
 	
 	/** The type of list this Fragment is displaying (urgency vs. sent to doctor). */
@@ -47,24 +41,30 @@ public class PatientListTabFragment extends ListFragment{
 	/** A value representing the type of this PatientListTabFragment's user.*/
 	private boolean userType;
 	
+	/** The adapter displaying the Patients of this PatientListTabFragment. */
+	private PatientBoardAdapter boardAdapter;
+	
+	/** The subscription to the board displayed, while this fragment is started. */
+	private Flow.Subscription boardSubscription;
+	
     /**
      * Create a new instance of PatientListTabFragment.
+     * The ERAdmin is not passed as an argument: it is taken from the MainActivity,
+     * which keeps the fragment updated with updateBoard.
      * @param num The Position within the adapter (tab position)
-     * @param erAdmin This PatientListTabFragment's ERAdmin.
      * @param user This PatientListTabFragment's User.
      * @param userType Boolean identifier of the type of User passed as a 
      * parameter (Nurse or Physician).
      * @return PatientListTabFragment an instance of PatientListTabFragment, 
      * with the correct display type as argument.
      */
-    static PatientListTabFragment newInstance(int num, ERAdmin erAdmin, User user, boolean userType) { 	
+    static PatientListTabFragment newInstance(int num, User user, boolean userType) { 	
     	
     	PatientListTabFragment f = new PatientListTabFragment();
         // Supply num input as an argument.
         Bundle args = new Bundle();
         args.putString(PatientListTabFragment.ARG_OBJECT, MainActivity.displayWhich[num]);
         args.putInt("num", num);
-        args.putSerializable("eradmin", erAdmin);
         args.putSerializable("user", user);
         args.putBoolean("usertype", userType);
         f.setArguments(args);
@@ -89,69 +89,148 @@ public class PatientListTabFragment extends ListFragment{
 	@Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
+        erAdmin = ((MainActivity) getActivity()).getERAdmin();
         fillData(); //fills the list
 	}
 
-	/** Fills each row of the ListFragment with Patient Data using a SimpleAdapter.
+	/** Fills each row of the ListFragment with Patient Data using a PatientBoardAdapter.
 	 * Checks the userType and displayType arguments to determine what kind of list
 	 * of patients to display (patients by urgency, or patients being seen by the doctor).
+	 * The adapter is created once, and only rebinds the rows that have changed.
 	 * */
 	public void fillData() {
 		displaytype = (String) getArguments().get(ARG_OBJECT);
-		erAdmin = (ERAdmin) getArguments().getSerializable("eradmin");
 		userType = getArguments().getBoolean("usertype");
 		
 		if (userType == User.PHYSICIAN && displaytype.equals(MainActivity.displayWhich[1]))
 			return;
-		//dummy code, REMOVE THIS!!
-		//if (userType == MainActivity.NURSE & displaytype.equals(MainActivity.displayWhich[1]))
-		//	return;
 		
 		List<Patient> patientList;
-		String[] from;
-		List<Map<String, String>> displayList = new ArrayList<Map<String, String>>();
 		
 		if (userType == User.PHYSICIAN){ //tab is currently on Waiting List.
 			 user = (Physician) getArguments().getSerializable("user");
-			 from = new String[]{"name", "textview1", "textview2"};
+			 //Each Patient shows the Physician assigned to or taking them.
 			 patientList = erAdmin.getPatientsSentToDoctorList();
 			 
 		}
 		else{ //userType is Nurse
 			user = (Nurse) getArguments().getSerializable("user");
 			if (displaytype.equals(MainActivity.displayWhich[0])){ //tab is currently on Urgency.
-				from = new String[]{"name", "textview1", "textview2"};
 				patientList = erAdmin.getUrgencyList();	
 				
 			} else{ //tab is currently on Sent To Doctor.
-				from = new String[]{"name", "textview2", "textview1"};
 				patientList = erAdmin.getPatientsSentToDoctorList();
 			}	
 		}
 
-		for (Patient patient : patientList) { 
-            Map<String, String> hashMap = new HashMap<String, String>();
-            hashMap.put("name", patient.getName());
-            String time;
-            //tab is currently on "Urgency" (for the Nurse) or 
-            //"Waiting List" (for the Doctor). Arrival time of 
-            //the patient in the ER should be displayed.
-            if (displaytype.equals(MainActivity.displayWhich[0])) 
-            	time = "Arrival: " + (new SimpleDateFormat("MM-dd-yyyy HH:mm")).format(
-            			new Date(patient.getCurrentERVisit().getArrivalTime()));
-            //tab is currently on "Sent To Doctor" for the Nurse
-            //the time seen by the doctor should be displayed in 
-            //this view.
-            else 
-            	time = (new SimpleDateFormat("MM-dd-yyyy HH:mm")).format(
-            			new Date(patient.getCurrentERVisit().getTimeSeenByDoctor()));
-            hashMap.put("textview2", time);
-            hashMap.put("textview1", "Urgency: " + patient.getUrgency());
-            displayList.add(hashMap);
-        }
-		
-        int[] to = new int[]{R.id.list_row1, R.id.list_row2, R.id.list_row3};
-        setListAdapter(new SimpleAdapter(getActivity(), displayList, R.layout.patient_row, from, to));
+		if (boardAdapter == null){
+			//tab is currently on "Urgency" (for the Nurse) or 
+			//"Waiting List" (for the Doctor): the arrival time is displayed.
+			//Otherwise the tab is on "Sent To Doctor" for the Nurse, and 
+			//the time seen by the doctor is displayed.
+			boardAdapter = new PatientBoardAdapter(getActivity(), 
+					!displaytype.equals(MainActivity.displayWhich[0]));
+			setListAdapter(boardAdapter);
+		}
+		boardAdapter.setBoard(patientList);
+	}
+	
+	/**
+	 * Updates the list with the Patients of an updated ERAdmin, without
+	 * recreating this fragment. Only the rows of Patients that were added,
+	 * moved, changed or removed are bound again. As each ERAdmin publishes
+	 * its own boards, the board of the updated ERAdmin is subscribed to
+	 * instead, if this fragment is visible.
+	 * @param erAdmin The updated ERAdmin.
+	 */
+	public void updateBoard(ERAdmin erAdmin) {
+		boolean subscribed = boardSubscription != null && erAdmin != this.erAdmin;
+		if (subscribed) {
+			boardSubscription.cancel();
+			boardSubscription = null;
+		}
+		this.erAdmin = erAdmin;
+		if (subscribed)
+			subscribeToBoard();
+		if (getView() != null)
+			fillData();
+	}
+    
+	/**
+	 * Subscribes to the board displayed, so that the changes made by the
+	 * ERAdmin of the MainActivity are displayed. Bursts of changes are
+	 * displayed once.
+	 */
+	@Override
+	public void onStart() {
+		super.onStart();
+		subscribeToBoard();
+	}
+	
+	/**
+	 * Subscribes to the board of the current ERAdmin, if this fragment
+	 * displays one.
+	 */
+	private void subscribeToBoard() {
+		Flow.Publisher<List<Patient>> publisher = boardPublisher();
+		if (publisher == null)
+			return;
+		publisher.subscribe(new Flow.Subscriber<List<Patient>>() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				boardSubscription = subscription;
+				subscription.request(1);
+			}
+
+			@Override
+			public void onNext(final List<Patient> board) {
+				Activity activity = getActivity();
+				if (activity == null)
+					return;
+				activity.runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						if (boardAdapter != null)
+							boardAdapter.setBoard(board);
+						//The next board is only requested once this one is displayed.
+						if (boardSubscription != null)
+							boardSubscription.request(1);
+					}
+				});
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				throwable.printStackTrace();
+			}
+
+			@Override
+			public void onComplete() {
+			}
+		});
+	}
+	
+	/** Stops receiving the board while this fragment is not visible. */
+	@Override
+	public void onStop() {
+		if (boardSubscription != null) {
+			boardSubscription.cancel();
+			boardSubscription = null;
+		}
+		super.onStop();
+	}
+	
+	/**
+	 * Gets the publisher of the board this fragment displays.
+	 * @return The publisher, or null if this fragment displays no board.
+	 */
+	private Flow.Publisher<List<Patient>> boardPublisher() {
+		String type = getArguments().getString(ARG_OBJECT);
+		if (getArguments().getBoolean("usertype") == User.PHYSICIAN)
+			return type.equals(MainActivity.displayWhich[1]) ? null : erAdmin.getSentToDoctorBoardPublisher();
+		if (type.equals(MainActivity.displayWhich[0]))
+			return erAdmin.getUrgencyBoardPublisher();
+		return erAdmin.getSentToDoctorBoardPublisher();
 	}
     
     @Override
@@ -178,20 +257,12 @@ public class PatientListTabFragment extends ListFragment{
 	public void onListItemClick(ListView l, View v, int position, long id) {
 		super.onListItemClick(l, v, position, id);
 		l.setItemChecked(position, false);
-		List<Patient> patientList;
-		//sets the list to "patients seen by doctor" list.
-		if (userType == User.PHYSICIAN | 
-				(userType == User.NURSE & displaytype.equals(MainActivity.displayWhich[1]))){
-			patientList = erAdmin.getPatientsSentToDoctorList();
-		}
-		else { //sets the list to the Patients "by Urgency", who have not yet seen the doctor list.
-			patientList = erAdmin.getUrgencyList();
-		}	
-		Patient patient = patientList.get(position); //position is equivalent to index of the arrayList.
+		//position is equivalent to the index of the Patient in the board.
+		String healthCardNumber = boardAdapter.getHealthCardNumber(position);
 		Intent i = new Intent(getActivity(), PatientActivity.class);
 		i.putExtra("eradmin", erAdmin);
 		i.putExtra("user", user);
-		i.putExtra("healthcardnumber", patient.getHealthCardNumber());
+		i.putExtra("healthcardnumber", healthCardNumber);
 		//go to Patient's info Page...
 		getActivity().startActivityForResult(i, MainActivity.VIEW_PATIENT);
 		//startActivityForResult(i, MainActivity.VIEW_PATIENT);
@@ -6,21 +6,30 @@ import triageapp.user.User;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
-import android.view.Gravity;
-import android.view.ViewGroup.LayoutParams;
-import android.widget.LinearLayout;
-import android.widget.ScrollView;
-import android.widget.TextView;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.ListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.AdapterView.OnItemClickListener;
 
 
-/** An Activity to display Patient's medical record.*/
+/**
+ * An Activity to display Patient's medical record.
+ * Each closed ERVisit is a row of a ListView. The ERVisits are loaded a page at a time
+ * as the user scrolls, and the VitalSigns of an ERVisit are displayed when its row is clicked.
+ */
 public class ShowMedicalRecord extends Activity {
 
-	/** This ShowMedicalRecord Activity's main layout. */
-	private LinearLayout mainLayout;
-	
-	
-	
+	/** The number of rows left below the last visible row when the next page is loaded. */
+	private static final int LOAD_AHEAD_ROWS = 5;
+
+	/** The database adapter (helper), open while this Activity exists. */
+	private TriageDBAdapter mDbHelper;
+
+	/** The adapter of the Medical Record list. */
+	private MedicalRecordAdapter recordAdapter;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -33,30 +42,43 @@ public class ShowMedicalRecord extends Activity {
 			getActionBar().setIcon(R.drawable.icon_nurse);
 		else
 			getActionBar().setIcon(R.drawable.triage);
-		// This sets up the screen to have the Patient's ERVisits and vitals to be
-		// displayed.
-		ScrollView scrollView= new ScrollView(this); // scrollable page screen.
-		mainLayout = new LinearLayout(this);
-		mainLayout.setOrientation(LinearLayout.VERTICAL);  
-		setContentView(scrollView);
-		LinearLayout layout = new LinearLayout(this);
-		TextView text = new TextView(this);
-		//restricts the width of the textView, so that extra long prescription instructions
-		//fit in a view with a width of 350 pixels.
-		text.setLayoutParams(new LayoutParams(350, LayoutParams.WRAP_CONTENT));
-		TriageDBAdapter mDbHelper = new TriageDBAdapter(this);
+		// This sets up the screen to have the Patient's ERVisits
+		// displayed as a list.
+		setContentView(R.layout.medical_record);
+		ListView listView = (ListView) findViewById(R.id.medical_record_list);
+		listView.setEmptyView(findViewById(R.id.medical_record_empty));
+		mDbHelper = new TriageDBAdapter(this);
 		mDbHelper.open();
-		String medicalRec = erAdmin.getPatientMedicalRecord(patient, mDbHelper);
-		if (medicalRec != null){
-			text.setText(medicalRec);
-		} else{
-			text.setText("No records");
-		}
+		recordAdapter = new MedicalRecordAdapter(this, erAdmin, patient, mDbHelper);
+		//Only the first page is loaded before the screen is displayed.
+		recordAdapter.loadNextPage();
+		listView.setAdapter(recordAdapter);
+		listView.setOnScrollListener(new OnScrollListener() {
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+			}
+
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem,
+					int visibleItemCount, int totalItemCount) {
+				//Loads the next page before the user reaches the end of the list.
+				if (recordAdapter.hasMorePages()
+						&& firstVisibleItem + visibleItemCount + LOAD_AHEAD_ROWS >= totalItemCount)
+					recordAdapter.loadNextPage();
+			}
+		});
+		listView.setOnItemClickListener(new OnItemClickListener() {
+			@Override
+			public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+				recordAdapter.toggleVitals(position);
+			}
+		});
+	}
+
+	/** Closes the database adapter when the Activity is destroyed. */
+	@Override
+	protected void onDestroy() {
 		mDbHelper.close();
-		layout.addView(text);
-		layout.setGravity(Gravity.CENTER);
-		mainLayout.addView(layout);
-		scrollView.addView(mainLayout);
-		setContentView(scrollView);
+		super.onDestroy();
 	}
 }
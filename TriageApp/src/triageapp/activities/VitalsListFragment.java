@@ -1,16 +1,13 @@
 package triageapp.activities;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import triageapp.components.ERAdmin;
+import triageapp.components.ERVisit;
 import triageapp.components.Patient;
-import triageapp.components.VitalSigns;
-import android.annotation.SuppressLint;
+import triageapp.components.TimeFormat;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
 import android.view.LayoutInflater;
@@ -72,7 +69,6 @@ public class VitalsListFragment extends ListFragment {
 	}
     
     /** Fills each row of the ListFragment with VitalSigns Data using a SimpleAdapter */
-    @SuppressLint("SimpleDateFormat") 
     public void fillData() {
 		erAdmin = (ERAdmin) getArguments().getSerializable("eradmin");
 		patient = erAdmin.lookUpPatient(getArguments().getString("healthcardnumber"));
@@ -81,21 +77,18 @@ public class VitalsListFragment extends ListFragment {
 		}
 		List<Map<String, String>> displayList = new ArrayList<Map<String, String>>();
 		
-		List<VitalSigns> vitalsList = patient.getCurrentERVisit().getVitalsSignRecords();
-		// Generate an iterator. Start just after the last element.
-		ListIterator<VitalSigns> iterator = vitalsList.listIterator(vitalsList.size());
+		ERVisit visit = patient.getCurrentERVisit();
 		// Iterate in reverse, since we want to retrieve Vital signs
 		// descending order of arrival time.
-		while(iterator.hasPrevious()) {
-			VitalSigns vitalsSet = iterator.previous();
+		for (int i = visit.getVitalsCount() - 1; i >= 0; i--) {
 			Map<String, String> hashMap = new HashMap<String, String>();
-            hashMap.put("systolic",  "Systolic:       " + vitalsSet.getSystolic() + "");
-            hashMap.put("diastolic", "Diastolic:      " + vitalsSet.getDiastolic() + "");
-            hashMap.put("temp",      "Temperature:    " + vitalsSet.getTemperature() + " \u00b0" + "C" + "");
-            hashMap.put("heartrate", "Heart rate:     " + vitalsSet.getHeartRate() + " BPM" + "");
-            Date time = new Date (vitalsSet.getTimestamp());
-            hashMap.put("date", "Date: " + (new SimpleDateFormat("MM-dd-yyyy")).format(time));
-            hashMap.put("time", "Time: " + (new SimpleDateFormat("HH:mm")).format(time));
+            hashMap.put("systolic",  "Systolic:       " + visit.getSystolic(i) + "");
+            hashMap.put("diastolic", "Diastolic:      " + visit.getDiastolic(i) + "");
+            hashMap.put("temp",      "Temperature:    " + visit.getTemperature(i) + " \u00b0" + "C" + "");
+            hashMap.put("heartrate", "Heart rate:     " + visit.getHeartRate(i) + " BPM" + "");
+            long time = visit.getVitalsTimestamp(i);
+            hashMap.put("date", "Date: " + TimeFormat.LIST_DATE.format(time));
+            hashMap.put("time", "Time: " + TimeFormat.TIME.format(time));
             displayList.add(hashMap);
         }
 		
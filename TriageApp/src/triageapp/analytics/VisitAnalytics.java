@@ -0,0 +1,117 @@
+package triageapp.analytics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Computes the VisitReport of the ERVisits of a VisitHistory that arrived in
+ * a range of time, e.g. a shift or a month, using every core. The ERVisits of
+ * the range are split into chunks of consecutive ERVisits, CHUNKS_PER_THREAD
+ * per thread so that a slow thread does not hold up the others; each chunk is
+ * counted into its own VisitReport, and the VisitReports are then merged. As
+ * the ERVisits are in order of arrival, the arrivals per hour are found by
+ * binary search rather than counted.
+ * A VisitAnalytics keeps its threads until shutdown.
+ */
+public final class VisitAnalytics {
+
+	/** The number of chunks per thread. */
+	private static final int CHUNKS_PER_THREAD = 4;
+	/** The smallest number of ERVisits worth a chunk of its own. */
+	private static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+	/** The threads counting the chunks. */
+	private final ExecutorService executor;
+	/** The number of threads. */
+	private final int threads;
+
+	/** Constructs a VisitAnalytics with one thread per core. */
+	public VisitAnalytics() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a VisitAnalytics.
+	 * @param threads The number of threads.
+	 */
+	public VisitAnalytics(int threads) {
+		this.threads = threads;
+		final AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "VisitAnalytics-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Computes the VisitReport of the ERVisits that arrived in a range of time.
+	 * @param history The VisitHistory.
+	 * @param from The start of the range, inclusive.
+	 * @param to The end of the range, exclusive.
+	 * @return The VisitReport.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	public VisitReport analyze(final VisitHistory history, final long from, final long to) throws InterruptedException {
+		int first = history.indexOfArrival(from);
+		int end = Math.max(first, history.indexOfArrival(to));
+		int chunks = Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, (end - first) / MIN_CHUNK_SIZE));
+		List<Callable<VisitReport>> tasks = new ArrayList<Callable<VisitReport>>(chunks);
+		for (int i = 0; i < chunks; i++) {
+			final int chunkFirst = first + (int) ((long) (end - first) * i / chunks);
+			final int chunkEnd = first + (int) ((long) (end - first) * (i + 1) / chunks);
+			tasks.add(new Callable<VisitReport>() {
+				@Override
+				public VisitReport call() {
+					VisitReport report = new VisitReport(history, from, to);
+					report.addVisits(chunkFirst, chunkEnd);
+					return report;
+				}
+			});
+		}
+		VisitReport report = new VisitReport(history, from, to);
+		try {
+			for (Future<VisitReport> chunk : executor.invokeAll(tasks))
+				report.merge(chunk.get());
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Counting a chunk of visits failed", e.getCause());
+		}
+		report.setArrivalsPerHour(arrivalsPerHour(history, from, to));
+		return report;
+	}
+
+	/**
+	 * Counts the ERVisits that arrived in each hour of a range of time.
+	 * @param history The VisitHistory.
+	 * @param from The start of the range, inclusive.
+	 * @param to The end of the range, exclusive.
+	 * @return The number of arrivals, by hour since the start of the range; the last hour may be partial.
+	 */
+	static long[] arrivalsPerHour(VisitHistory history, long from, long to) {
+		int hours = (int) Math.max(0, (to - from + VisitReport.HOUR_MILLIS - 1) / VisitReport.HOUR_MILLIS);
+		long[] arrivals = new long[hours];
+		int start = history.indexOfArrival(from);
+		for (int hour = 0; hour < hours; hour++) {
+			int next = history.indexOfArrival(Math.min(to, from + (hour + 1) * VisitReport.HOUR_MILLIS));
+			arrivals[hour] = next - start;
+			start = next;
+		}
+		return arrivals;
+	}
+
+	/** Stops the threads. The VisitAnalytics must not be used after. */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,276 @@
+package triageapp.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import triageapp.database.TriageDBAdapter;
+import triageapp.database.VitalSignsBlockCodec;
+import android.database.Cursor;
+
+
+/**
+ * The closed ERVisits of a range of time, in columns of primitives: one array
+ * per field, indexed by ERVisit, in order of arrival. The Prescriptions are
+ * held as indexes into a dictionary of medication names, with the index of
+ * the first Prescription of each ERVisit. A VisitHistory of millions of
+ * ERVisits takes a few arrays rather than millions of objects, and is scanned
+ * sequentially by VisitAnalytics. A VisitHistory never changes once built.
+ */
+public final class VisitHistory {
+
+	/** The time seen by doctor of an ERVisit whose Patient was never sent to the doctor. */
+	public static final long NOT_SEEN = -1;
+
+	/** The number of ERVisits. */
+	private final int size;
+	/** The arrival time of each ERVisit, in increasing order. */
+	private final long[] arrivalTimes;
+	/** The time each ERVisit was sent to the doctor, or NOT_SEEN. */
+	private final long[] timesSeenByDoctor;
+	/** The time of the last event recorded for each ERVisit (VitalSigns or sent to doctor). */
+	private final long[] lastEventTimes;
+	/** The last urgency of each ERVisit. */
+	private final int[] urgencies;
+	/** The index of the first Prescription of each ERVisit, and the number of Prescriptions last. */
+	private final int[] prescriptionStarts;
+	/** The medication of each Prescription, as an index into medicationNames. */
+	private final int[] medications;
+	/** The names of the medications prescribed. */
+	private final String[] medicationNames;
+
+	/**
+	 * Constructs a VisitHistory from its columns, which are not copied.
+	 * @param builder The Builder holding the columns.
+	 */
+	private VisitHistory(Builder builder) {
+		this.size = builder.size;
+		this.arrivalTimes = builder.arrivalTimes;
+		this.timesSeenByDoctor = builder.timesSeenByDoctor;
+		this.lastEventTimes = builder.lastEventTimes;
+		this.urgencies = builder.urgencies;
+		this.prescriptionStarts = builder.prescriptionStarts;
+		this.medications = builder.medications;
+		this.medicationNames = builder.medicationNames.toArray(new String[builder.medicationNames.size()]);
+	}
+
+	/**
+	 * Loads the closed ERVisits that arrived in a range of time, from both the
+	 * main and archive databases. The time of the last event of an ERVisit is
+	 * that of its last VitalSigns or of being sent to the doctor, as the time
+	 * an ERVisit is closed is not stored.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param arrivedFrom The start of the range, inclusive.
+	 * @param arrivedBefore The end of the range, exclusive.
+	 * @return The VisitHistory.
+	 */
+	public static VisitHistory load(TriageDBAdapter dbAdapter, long arrivedFrom, long arrivedBefore) {
+		Builder builder = new Builder();
+		Cursor visitCursor = dbAdapter.fetchVisitHistory(arrivedFrom, arrivedBefore);
+		Cursor prescriptionCursor = dbAdapter.fetchPrescriptionHistory(arrivedFrom, arrivedBefore);
+		try {
+			//Both Cursors are in the same order of ERVisits, so they are merged as they are read.
+			boolean hasPrescription = prescriptionCursor.moveToFirst();
+			for (boolean hasItem = visitCursor.moveToFirst(); hasItem; hasItem = visitCursor.moveToNext()) {
+				long id = visitCursor.getLong(0);
+				long arrivalTime = visitCursor.getLong(1);
+				long timeSeenByDoctor = visitCursor.isNull(2) ? NOT_SEEN : visitCursor.getLong(2);
+				long lastEventTime = Math.max(arrivalTime, timeSeenByDoctor);
+				if (!visitCursor.isNull(4)) {
+					VitalSignsBlockCodec.Columns vitals = VitalSignsBlockCodec.decode(visitCursor.getBlob(4));
+					if (vitals.count > 0)
+						lastEventTime = Math.max(lastEventTime, vitals.timestamp[vitals.count - 1]);
+				}
+				builder.addVisit(arrivalTime, timeSeenByDoctor, lastEventTime, visitCursor.getInt(3));
+				for (; hasPrescription && prescriptionCursor.getLong(0) == id; hasPrescription = prescriptionCursor.moveToNext())
+					builder.addPrescription(prescriptionCursor.getString(1));
+			}
+		} finally {
+			visitCursor.close();
+			prescriptionCursor.close();
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Gets the number of ERVisits.
+	 * @return The number of ERVisits.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the arrival time of an ERVisit.
+	 * @param visit The index of the ERVisit.
+	 * @return The arrival time.
+	 */
+	public long getArrivalTime(int visit) {
+		return arrivalTimes[visit];
+	}
+
+	/**
+	 * Gets the time an ERVisit was sent to the doctor.
+	 * @param visit The index of the ERVisit.
+	 * @return The time, or NOT_SEEN.
+	 */
+	public long getTimeSeenByDoctor(int visit) {
+		return timesSeenByDoctor[visit];
+	}
+
+	/**
+	 * Gets the time of the last event recorded for an ERVisit.
+	 * @param visit The index of the ERVisit.
+	 * @return The time, at least the arrival time.
+	 */
+	public long getLastEventTime(int visit) {
+		return lastEventTimes[visit];
+	}
+
+	/**
+	 * Gets the last urgency of an ERVisit.
+	 * @param visit The index of the ERVisit.
+	 * @return The urgency.
+	 */
+	public int getUrgency(int visit) {
+		return urgencies[visit];
+	}
+
+	/**
+	 * Gets the index of the first Prescription of an ERVisit. The Prescriptions
+	 * of the ERVisit end at the first Prescription of the next ERVisit.
+	 * @param visit The index of the ERVisit, or size() for the end of the last ERVisit.
+	 * @return The index of the Prescription.
+	 */
+	public int getPrescriptionStart(int visit) {
+		return prescriptionStarts[visit];
+	}
+
+	/**
+	 * Gets the medication of a Prescription.
+	 * @param prescription The index of the Prescription.
+	 * @return The index of the medication name.
+	 */
+	public int getMedication(int prescription) {
+		return medications[prescription];
+	}
+
+	/**
+	 * Gets the number of different medications prescribed.
+	 * @return The number of medication names.
+	 */
+	public int getMedicationCount() {
+		return medicationNames.length;
+	}
+
+	/**
+	 * Gets the name of a medication.
+	 * @param medication The index of the medication name.
+	 * @return The name.
+	 */
+	public String getMedicationName(int medication) {
+		return medicationNames[medication];
+	}
+
+	/**
+	 * Finds the first ERVisit that arrived at or after a time.
+	 * @param time The time.
+	 * @return The index of the ERVisit, or size() if none arrived since.
+	 */
+	public int indexOfArrival(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (arrivalTimes[middle] < time)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/** Builds a VisitHistory, one ERVisit at a time, in order of arrival. */
+	public static final class Builder {
+		/** The number of ERVisits added. */
+		private int size;
+		/** The arrival time of each ERVisit; the columns are grown as needed. */
+		private long[] arrivalTimes = new long[16];
+		/** The time each ERVisit was sent to the doctor. */
+		private long[] timesSeenByDoctor = new long[16];
+		/** The time of the last event of each ERVisit. */
+		private long[] lastEventTimes = new long[16];
+		/** The urgency of each ERVisit. */
+		private int[] urgencies = new int[16];
+		/** The first Prescription of each ERVisit; the last element is the end of the last ERVisit. */
+		private int[] prescriptionStarts = new int[17];
+		/** The number of Prescriptions added. */
+		private int prescriptionCount;
+		/** The medication of each Prescription. */
+		private int[] medications = new int[16];
+		/** The index of each medication name. */
+		private final Map<String, Integer> medicationIndexes = new HashMap<String, Integer>();
+		/** The medication names, by index. */
+		private final List<String> medicationNames = new ArrayList<String>();
+
+		/**
+		 * Adds an ERVisit, which arrived at or after the last one added.
+		 * @param arrivalTime The arrival time.
+		 * @param timeSeenByDoctor The time the ERVisit was sent to the doctor, or NOT_SEEN.
+		 * @param lastEventTime The time of the last event recorded for the ERVisit.
+		 * @param urgency The last urgency of the ERVisit.
+		 * @return This Builder.
+		 */
+		public Builder addVisit(long arrivalTime, long timeSeenByDoctor, long lastEventTime, int urgency) {
+			if (size > 0 && arrivalTime < arrivalTimes[size - 1])
+				throw new IllegalArgumentException("ERVisits must be added in order of arrival");
+			if (size == arrivalTimes.length) {
+				int capacity = size * 2;
+				arrivalTimes = Arrays.copyOf(arrivalTimes, capacity);
+				timesSeenByDoctor = Arrays.copyOf(timesSeenByDoctor, capacity);
+				lastEventTimes = Arrays.copyOf(lastEventTimes, capacity);
+				urgencies = Arrays.copyOf(urgencies, capacity);
+				prescriptionStarts = Arrays.copyOf(prescriptionStarts, capacity + 1);
+			}
+			arrivalTimes[size] = arrivalTime;
+			timesSeenByDoctor[size] = timeSeenByDoctor;
+			lastEventTimes[size] = lastEventTime;
+			urgencies[size] = urgency;
+			prescriptionStarts[size] = prescriptionCount;
+			size++;
+			prescriptionStarts[size] = prescriptionCount;
+			return this;
+		}
+
+		/**
+		 * Adds a Prescription to the last ERVisit added.
+		 * @param medication The name of the medication.
+		 * @return This Builder.
+		 */
+		public Builder addPrescription(String medication) {
+			if (size == 0)
+				throw new IllegalStateException("No ERVisit to add the Prescription to");
+			Integer index = medicationIndexes.get(medication);
+			if (index == null) {
+				index = Integer.valueOf(medicationNames.size());
+				medicationIndexes.put(medication, index);
+				medicationNames.add(medication);
+			}
+			if (prescriptionCount == medications.length)
+				medications = Arrays.copyOf(medications, prescriptionCount * 2);
+			medications[prescriptionCount++] = index.intValue();
+			prescriptionStarts[size] = prescriptionCount;
+			return this;
+		}
+
+		/**
+		 * Builds the VisitHistory of the ERVisits added. The Builder must not be used after.
+		 * @return The VisitHistory.
+		 */
+		public VisitHistory build() {
+			return new VisitHistory(this);
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package triageapp.analytics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+import triageapp.components.Patient;
+import triageapp.components.TimeFormat;
+
+
+/**
+ * The aggregates of the closed ERVisits that arrived in a range of time, as
+ * computed by VisitAnalytics: the arrivals per hour, the urgency mix, the
+ * time to doctor, the length of stay and the number of Prescriptions of each
+ * medication. Every aggregate is held in arrays of primitives, so that a
+ * VisitReport of part of the ERVisits can be merged into another one.
+ */
+public final class VisitReport {
+
+	/** The number of milliseconds in an hour. */
+	public static final long HOUR_MILLIS = 60 * 60 * 1000L;
+	/** The number of milliseconds in a minute. */
+	private static final long MINUTE_MILLIS = 60 * 1000L;
+
+	/** The distribution of a duration, to the minute, up to MAX_MINUTES. */
+	public static final class Durations {
+		/** The longest duration counted in its own minute; longer ones are counted together. */
+		public static final int MAX_MINUTES = 24 * 60;
+
+		/** The number of durations of each whole number of minutes, the last counting the longer ones. */
+		private final long[] minutes = new long[MAX_MINUTES + 1];
+		/** The number of durations. */
+		private long count;
+		/** The sum of the durations, in milliseconds. */
+		private long totalMillis;
+		/** The longest duration, in milliseconds. */
+		private long maxMillis;
+
+		/**
+		 * Counts a duration.
+		 * @param millis The duration, in milliseconds, not negative.
+		 */
+		void add(long millis) {
+			minutes[(int) Math.min(MAX_MINUTES, millis / MINUTE_MILLIS)]++;
+			count++;
+			totalMillis += millis;
+			maxMillis = Math.max(maxMillis, millis);
+		}
+
+		/**
+		 * Adds the durations of other Durations.
+		 * @param other The other Durations.
+		 */
+		void merge(Durations other) {
+			for (int i = 0; i <= MAX_MINUTES; i++)
+				minutes[i] += other.minutes[i];
+			count += other.count;
+			totalMillis += other.totalMillis;
+			maxMillis = Math.max(maxMillis, other.maxMillis);
+		}
+
+		/**
+		 * Gets the number of durations.
+		 * @return The number of durations.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the mean duration.
+		 * @return The mean, in minutes, or 0 if there is no duration.
+		 */
+		public double getMeanMinutes() {
+			return count == 0 ? 0 : (double) totalMillis / count / MINUTE_MILLIS;
+		}
+
+		/**
+		 * Gets a percentile of the durations, rounded down to the minute.
+		 * @param percentile The percentile, from 0 to 100.
+		 * @return The percentile, in minutes, or 0 if there is no duration. A percentile
+		 * above MAX_MINUTES is the longest duration.
+		 */
+		public long getPercentileMinutes(double percentile) {
+			if (count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < MAX_MINUTES; i++) {
+				seen += minutes[i];
+				if (seen >= rank)
+					return i;
+			}
+			return maxMillis / MINUTE_MILLIS;
+		}
+	}
+
+	/** The start of the range of arrival times, inclusive. */
+	private final long from;
+	/** The end of the range of arrival times, exclusive. */
+	private final long to;
+	/** The number of ERVisits. */
+	private long visits;
+	/** The number of ERVisits that arrived in each hour of the range. */
+	private long[] arrivalsPerHour = new long[0];
+	/** The number of ERVisits of each last urgency, the last counting the higher ones. */
+	private final long[] urgencies = new long[Patient.MAX_URGENCY + 1];
+	/** The time from arrival to being sent to the doctor, of the ERVisits sent. */
+	private final Durations doorToDoctor = new Durations();
+	/** The time from arrival to the last event, of every ERVisit. */
+	private final Durations lengthOfStay = new Durations();
+	/** The number of Prescriptions of each medication of the VisitHistory. */
+	private final long[] medicationCounts;
+	/** The VisitHistory, for the names of the medications. */
+	private final VisitHistory history;
+
+	/**
+	 * Constructs an empty VisitReport.
+	 * @param history The VisitHistory analysed.
+	 * @param from The start of the range of arrival times, inclusive.
+	 * @param to The end of the range of arrival times, exclusive.
+	 */
+	VisitReport(VisitHistory history, long from, long to) {
+		this.history = history;
+		this.from = from;
+		this.to = to;
+		this.medicationCounts = new long[history.getMedicationCount()];
+	}
+
+	/**
+	 * Counts the ERVisits of a part of the VisitHistory, except their arrivals per hour.
+	 * @param first The index of the first ERVisit.
+	 * @param end The index following the last ERVisit.
+	 */
+	void addVisits(int first, int end) {
+		for (int visit = first; visit < end; visit++) {
+			long arrivalTime = history.getArrivalTime(visit);
+			urgencies[Math.max(0, Math.min(Patient.MAX_URGENCY, history.getUrgency(visit)))]++;
+			long timeSeenByDoctor = history.getTimeSeenByDoctor(visit);
+			if (timeSeenByDoctor >= arrivalTime)
+				doorToDoctor.add(timeSeenByDoctor - arrivalTime);
+			lengthOfStay.add(Math.max(0, history.getLastEventTime(visit) - arrivalTime));
+		}
+		for (int prescription = history.getPrescriptionStart(first);
+				prescription < history.getPrescriptionStart(end); prescription++)
+			medicationCounts[history.getMedication(prescription)]++;
+		visits += end - first;
+	}
+
+	/**
+	 * Sets the number of ERVisits that arrived in each hour of the range.
+	 * @param arrivalsPerHour The number of arrivals, by hour since the start of the range.
+	 */
+	void setArrivalsPerHour(long[] arrivalsPerHour) {
+		this.arrivalsPerHour = arrivalsPerHour;
+	}
+
+	/**
+	 * Adds the counts of a VisitReport of other ERVisits of the same VisitHistory.
+	 * @param other The other VisitReport.
+	 */
+	void merge(VisitReport other) {
+		visits += other.visits;
+		for (int i = 0; i < urgencies.length; i++)
+			urgencies[i] += other.urgencies[i];
+		doorToDoctor.merge(other.doorToDoctor);
+		lengthOfStay.merge(other.lengthOfStay);
+		for (int i = 0; i < medicationCounts.length; i++)
+			medicationCounts[i] += other.medicationCounts[i];
+	}
+
+	/**
+	 * Gets the start of the range of arrival times.
+	 * @return The start, inclusive.
+	 */
+	public long getFrom() {
+		return from;
+	}
+
+	/**
+	 * Gets the end of the range of arrival times.
+	 * @return The end, exclusive.
+	 */
+	public long getTo() {
+		return to;
+	}
+
+	/**
+	 * Gets the number of ERVisits.
+	 * @return The number of ERVisits that arrived in the range.
+	 */
+	public long getVisits() {
+		return visits;
+	}
+
+	/**
+	 * Gets the number of ERVisits that arrived in each hour of the range.
+	 * @return A copy of the counts, by hour since the start of the range.
+	 */
+	public long[] getArrivalsPerHour() {
+		return arrivalsPerHour.clone();
+	}
+
+	/**
+	 * Gets the number of ERVisits of a last urgency.
+	 * @param urgency The urgency, from 0 to Patient.MAX_URGENCY.
+	 * @return The number of ERVisits.
+	 */
+	public long getUrgencyCount(int urgency) {
+		return urgencies[urgency];
+	}
+
+	/**
+	 * Gets the time from arrival to being sent to the doctor.
+	 * @return The Durations of the ERVisits sent to the doctor.
+	 */
+	public Durations getDoorToDoctor() {
+		return doorToDoctor;
+	}
+
+	/**
+	 * Gets the length of stay: the time from arrival to the last event recorded,
+	 * as the time an ERVisit is closed is not stored.
+	 * @return The Durations of every ERVisit.
+	 */
+	public Durations getLengthOfStay() {
+		return lengthOfStay;
+	}
+
+	/**
+	 * Gets the medications prescribed most often.
+	 * @param limit The largest number of medications returned.
+	 * @return The names of the medications, most prescribed first.
+	 */
+	public String[] getTopMedications(int limit) {
+		Integer[] order = new Integer[medicationCounts.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = Integer.valueOf(i);
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				long difference = medicationCounts[second.intValue()] - medicationCounts[first.intValue()];
+				return difference > 0 ? 1 : (difference < 0 ? -1 : 0);
+			}
+		});
+		int count = 0;
+		while (count < Math.min(limit, order.length) && medicationCounts[order[count].intValue()] > 0)
+			count++;
+		String[] names = new String[count];
+		for (int i = 0; i < count; i++)
+			names[i] = history.getMedicationName(order[i].intValue());
+		return names;
+	}
+
+	/**
+	 * Gets the number of Prescriptions of a medication.
+	 * @param name The name of the medication.
+	 * @return The number of Prescriptions.
+	 */
+	public long getPrescriptionCount(String name) {
+		for (int i = 0; i < medicationCounts.length; i++) {
+			if (history.getMedicationName(i).equals(name))
+				return medicationCounts[i];
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the report as text: the range and number of ERVisits, the busiest
+	 * hour, the urgency mix, the quantiles of both durations in minutes, and the
+	 * ten medications prescribed most often.
+	 * @return The report.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append("visits ").append(TimeFormat.DATE_TIME.format(from)).append(" to ")
+			.append(TimeFormat.DATE_TIME.format(to)).append(' ').append(visits).append('\n');
+		long busiest = 0;
+		for (long arrivals : arrivalsPerHour)
+			busiest = Math.max(busiest, arrivals);
+		text.append(String.format(Locale.US, "arrivals/hour mean %.1f max %d\n",
+				arrivalsPerHour.length == 0 ? 0.0 : (double) visits / arrivalsPerHour.length, busiest));
+		text.append("urgency");
+		for (long count : urgencies)
+			text.append(' ').append(count);
+		text.append('\n');
+		appendDurations(text, "doorToDoctor", doorToDoctor);
+		appendDurations(text, "lengthOfStay", lengthOfStay);
+		for (String name : getTopMedications(10))
+			text.append("medication ").append(name).append(' ').append(getPrescriptionCount(name)).append('\n');
+		return text.toString();
+	}
+
+	/**
+	 * Appends the quantiles of Durations to a report.
+	 * @param text The report.
+	 * @param name The name of the Durations.
+	 * @param durations The Durations.
+	 */
+	private static void appendDurations(StringBuilder text, String name, Durations durations) {
+		text.append(String.format(Locale.US, "%s count %d mean %.1f p50 %d p90 %d p99 %d\n", name,
+				durations.getCount(), durations.getMeanMinutes(), durations.getPercentileMinutes(50),
+				durations.getPercentileMinutes(90), durations.getPercentileMinutes(99)));
+	}
+}
@@ -0,0 +1,76 @@
+package triageapp.components;
+
+import java.io.Serializable;
+
+
+/**
+ * The boards of an ERAdmin at one point in time: the Patients waiting,
+ * ordered by urgency, and the Patients sent to a Physician. A BoardSnapshot
+ * never changes; the ERAdmin replaces it by a new one, with a higher version,
+ * on each change to a board. A reader holding a BoardSnapshot sees both boards
+ * as they were together, without locking, however the ERAdmin changes.
+ * The Patients themselves are not copied: their urgency and ERVisit may have
+ * changed since the BoardSnapshot was made.
+ */
+public final class BoardSnapshot implements Serializable {
+
+	/** A unique ID for serialization. */
+	private static final long serialVersionUID = -2754136986016211423L;
+
+	/** The BoardSnapshot of an ERAdmin before anything is loaded. */
+	static final BoardSnapshot EMPTY = new BoardSnapshot(0, PersistentList.<Patient>empty(), PersistentList.<Patient>empty());
+
+	/** The version of the boards, increased by each change. */
+	private final long version;
+	/** The Patients waiting, ordered by urgency. */
+	private final PersistentList<Patient> urgencyList;
+	/** The Patients sent to a Physician. */
+	private final PersistentList<Patient> sentToDoctorList;
+
+	/**
+	 * Constructs a BoardSnapshot.
+	 * @param version The version of the boards.
+	 * @param urgencyList The Patients waiting, ordered by urgency.
+	 * @param sentToDoctorList The Patients sent to a Physician.
+	 */
+	private BoardSnapshot(long version, PersistentList<Patient> urgencyList, PersistentList<Patient> sentToDoctorList) {
+		this.version = version;
+		this.urgencyList = urgencyList;
+		this.sentToDoctorList = sentToDoctorList;
+	}
+
+	/**
+	 * Makes the next BoardSnapshot, which shares the boards that did not change.
+	 * @param urgencyList The Patients waiting, ordered by urgency.
+	 * @param sentToDoctorList The Patients sent to a Physician.
+	 * @return The BoardSnapshot of the next version.
+	 */
+	BoardSnapshot next(PersistentList<Patient> urgencyList, PersistentList<Patient> sentToDoctorList) {
+		return new BoardSnapshot(version + 1, urgencyList, sentToDoctorList);
+	}
+
+	/**
+	 * Gets the version of the boards. Two BoardSnapshots of an ERAdmin with the
+	 * same version hold the same boards.
+	 * @return The version.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the Patients waiting, ordered by urgency.
+	 * @return The Patients, in a List which never changes.
+	 */
+	public PersistentList<Patient> getUrgencyList() {
+		return urgencyList;
+	}
+
+	/**
+	 * Gets the Patients sent to a Physician.
+	 * @return The Patients, in a List which never changes.
+	 */
+	public PersistentList<Patient> getSentToDoctorList() {
+		return sentToDoctorList;
+	}
+}
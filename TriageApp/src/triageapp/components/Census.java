@@ -0,0 +1,157 @@
+package triageapp.components;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+
+/**
+ * The number of Patients on the boards of an ERAdmin, by urgency, by whether
+ * they were sent to the doctor (seen) or are waiting (not seen), and by
+ * whether they are infants (under 2 years old) or adults. A Census never
+ * changes: the ERAdmin replaces it on each change to the boards by one
+ * differing in at most two counts, so reading it, e.g. once a second by a
+ * dashboard, takes no lock and no walk of the boards.
+ */
+public final class Census implements Serializable {
+
+	/** A unique ID for serialization. */
+	private static final long serialVersionUID = 5148624403791626352L;
+
+	/** The cell of a Patient on no board. */
+	static final int NONE = -1;
+	/** The number of counts: by urgency, seen or not seen, infant or adult. */
+	private static final int CELLS = (Patient.MAX_URGENCY + 1) * 4;
+
+	/** The Census of an ERAdmin before anything is loaded. */
+	static final Census EMPTY = new Census(new int[CELLS]);
+
+	/** The counts, by cell. Never changed. */
+	private final int[] counts;
+
+	/**
+	 * Constructs a Census.
+	 * @param counts The counts, which are not copied.
+	 */
+	private Census(int[] counts) {
+		this.counts = counts;
+	}
+
+	/**
+	 * Makes a Census of the Patients in some cells.
+	 * @param cells The cell of each Patient.
+	 * @return The Census.
+	 */
+	static Census of(Collection<Integer> cells) {
+		int[] counts = new int[CELLS];
+		for (Integer cell : cells)
+			counts[cell.intValue()]++;
+		return new Census(counts);
+	}
+
+	/**
+	 * Gets the cell counting a Patient.
+	 * @param patient The Patient.
+	 * @param seen Whether the Patient was sent to the doctor.
+	 * @return The cell.
+	 */
+	static int cellOf(Patient patient, boolean seen) {
+		return cell(Math.max(0, Math.min(Patient.MAX_URGENCY, patient.getUrgency())), seen, patient.isInfant());
+	}
+
+	/**
+	 * Gets the cell of a count.
+	 * @param urgency The urgency, from 0 to Patient.MAX_URGENCY.
+	 * @param seen Whether the Patients were sent to the doctor.
+	 * @param infant Whether the Patients are infants.
+	 * @return The cell.
+	 */
+	private static int cell(int urgency, boolean seen, boolean infant) {
+		return urgency * 4 + (seen ? 2 : 0) + (infant ? 1 : 0);
+	}
+
+	/**
+	 * Checks whether a cell counts Patients sent to the doctor.
+	 * @param cell The cell.
+	 * @return true if the Patients were sent to the doctor.
+	 */
+	static boolean isSeen(int cell) {
+		return (cell & 2) != 0;
+	}
+
+	/**
+	 * Makes the Census after a Patient moved from a cell to another.
+	 * @param from The cell of the Patient before, or NONE if newly counted.
+	 * @param to The cell of the Patient after, or NONE if no longer counted.
+	 * @return The new Census.
+	 */
+	Census moved(int from, int to) {
+		int[] next = counts.clone();
+		if (from != NONE)
+			next[from]--;
+		if (to != NONE)
+			next[to]++;
+		return new Census(next);
+	}
+
+	/**
+	 * Gets the number of Patients of an urgency, status and age.
+	 * @param urgency The urgency, from 0 to Patient.MAX_URGENCY.
+	 * @param seen true for the Patients sent to the doctor, false for those waiting.
+	 * @param infant true for the infants, false for the adults.
+	 * @return The number of Patients.
+	 */
+	public int getCount(int urgency, boolean seen, boolean infant) {
+		return counts[cell(urgency, seen, infant)];
+	}
+
+	/**
+	 * Gets the number of Patients of an urgency and status, infants and adults.
+	 * @param urgency The urgency, from 0 to Patient.MAX_URGENCY.
+	 * @param seen true for the Patients sent to the doctor, false for those waiting.
+	 * @return The number of Patients.
+	 */
+	public int getCount(int urgency, boolean seen) {
+		return getCount(urgency, seen, false) + getCount(urgency, seen, true);
+	}
+
+	/**
+	 * Gets the number of Patients of a status, of every urgency.
+	 * @param seen true for the Patients sent to the doctor, false for those waiting.
+	 * @return The number of Patients.
+	 */
+	public int getTotal(boolean seen) {
+		int total = 0;
+		for (int urgency = 0; urgency <= Patient.MAX_URGENCY; urgency++)
+			total += getCount(urgency, seen);
+		return total;
+	}
+
+	/**
+	 * Gets the number of infants of a status, of every urgency.
+	 * @param seen true for the infants sent to the doctor, false for those waiting.
+	 * @return The number of infants.
+	 */
+	public int getInfants(boolean seen) {
+		int total = 0;
+		for (int urgency = 0; urgency <= Patient.MAX_URGENCY; urgency++)
+			total += getCount(urgency, seen, true);
+		return total;
+	}
+
+	/**
+	 * Returns the counts, one line per urgency: waiting adults, waiting infants,
+	 * seen adults and seen infants.
+	 * @return The Census as text.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder("urgency waitingAdults waitingInfants seenAdults seenInfants\n");
+		for (int urgency = 0; urgency <= Patient.MAX_URGENCY; urgency++) {
+			text.append(urgency).append(' ').append(getCount(urgency, false, false))
+				.append(' ').append(getCount(urgency, false, true))
+				.append(' ').append(getCount(urgency, true, false))
+				.append(' ').append(getCount(urgency, true, true)).append('\n');
+		}
+		return text.toString();
+	}
+}
@@ -1,15 +1,38 @@
 package triageapp.components;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+import triageapp.database.PatientImporter;
 import triageapp.database.TriageDBAdapter;
+import triageapp.database.VitalSignsBlockCodec;
+import triageapp.metrics.CountingInputStream;
+import triageapp.metrics.MetricsRegistry;
+import triageapp.metrics.OperationMetrics;
+import triageapp.metrics.Span;
+import triageapp.metrics.Tracer;
+import triageapp.metrics.WaitTimeStats;
+import triageapp.reactive.CoalescingPublisher;
+import triageapp.reactive.Flow;
+import triageapp.sync.Change;
+import triageapp.sync.ChangeLog;
 
 import android.database.Cursor;
+import android.database.SQLException;
 
 
 /**
@@ -23,38 +46,169 @@ import android.database.Cursor;
  *		signing in Patient
  *		closing Visit Record
  *		loading lists     
+ * Every operation using the database records its latency, and its time in SQL 
+ * and in mapping rows to objects, in the MetricsRegistry.
+ * Every operation changing the board records its Change in the ChangeLog of
+ * this device (or the one given to the constructor), to be sent to the other
+ * devices sharing the board.
+ * An ERAdmin may be used by several threads at once (loading, sync, the
+ * board server). The operations on a Patient hold the lock of its health
+ * card number, so that those on different Patients run in parallel; the
+ * boards are changed while also holding boardLock, always taken second.
+ * The Patients sent to the doctor also wait in PhysicianQueues, whose
+ * locks are taken last, until a Physician takes them; they stay on the sent
+ * to doctor board until their ERVisit is closed. The Physician each one is
+ * assigned to, or taken by, is kept in their ERVisit, stored in the database
+ * and recorded in the ChangeLog, so that it survives a reload and is shared
+ * with the other devices. These locks, like the Patients and the boards they
+ * guard and the publishers of the boards, belong to each ERAdmin, and a copy
+ * made by serialization gets its own. Several ERAdmins (the copies the
+ * Activities receive, the board server's) may change the database at once,
+ * as TriageDBAdapter serializes its writes; each only sees the changes of
+ * the others once it loads its lists again.
+ * The boards are published as an immutable BoardSnapshot, replaced on each
+ * change, so that looking up a Patient or reading the boards takes no lock.
+ * The number of Patients on the boards, by urgency, status and age, is kept
+ * in a Census replaced along with the boards.
  */
 public class ERAdmin implements Serializable{
 
 	/** A unique ID for serialization. */
 	private static final long serialVersionUID = -8228083728561572751L;
 	
-	/** A list of all Patients currently signed in, ordered by urgency. */
-	protected List<Patient> urgencyList = new ArrayList<Patient>();
-	/** A HashMap that maps health card numbers to Patients. All Patients (past, present) are included. */
-	protected Map<String, Patient> PatientList = new HashMap<String, Patient>();
-	/** A list of Patients already sent to be evaluated by a physician. */
-	protected List<Patient> patientsSentToDoctor = new ArrayList<Patient>();
+	/** A ConcurrentHashMap that maps health card numbers to Patients. All Patients (past, present) are included. */
+	protected ConcurrentMap<String, Patient> PatientList = new ConcurrentHashMap<String, Patient>();
+	/**
+	 * The Patients currently signed in, ordered by urgency, and the Patients
+	 * already sent to be evaluated by a physician. Replaced holding boardLock.
+	 */
+	private volatile BoardSnapshot board = BoardSnapshot.EMPTY;
+	/** Taken to replace board, and guards the urgency of the Patients waiting. */
+	private final ReentrantLock boardLock = new ReentrantLock();
+	/** The Patients sent to the doctor and not yet taken by a Physician, by Physician. Taken last. */
+	private final PhysicianQueues physicianQueues = new PhysicianQueues();
+	/** The number of Patients on the boards. Replaced holding boardLock. */
+	private volatile Census census = Census.EMPTY;
+	/** The cell of the Census counting each Patient on the boards, by health card number. Guarded by boardLock. */
+	private final Map<String, Integer> censusCells = new HashMap<String, Integer>();
+	/** The ChangeLog the Changes are recorded in, or null for the ChangeLog of this device. */
+	private transient ChangeLog changeLog;
+	
+	/** The number of locks the health card numbers are spread over. */
+	private static final int PATIENT_LOCK_STRIPES = 64;
+	/**
+	 * The locks of the operations on a Patient, by hash of its health card number.
+	 * Like the Patients they guard, they belong to this ERAdmin.
+	 */
+	private transient Object[] patientLocks = newPatientLocks();
+	/** The urgency board of this ERAdmin, published after each change. */
+	private transient CoalescingPublisher<List<Patient>> urgencyBoard = new CoalescingPublisher<List<Patient>>();
+	/** The sent to doctor board of this ERAdmin, published after each change. */
+	private transient CoalescingPublisher<List<Patient>> sentToDoctorBoard = new CoalescingPublisher<List<Patient>>();
+	
+	/** The order of the Patients waiting: by urgency, most urgent first, then by arrival time. */
+	private static final Comparator<Patient> URGENCY_ORDER = new Comparator<Patient>() {
+		@Override
+		public int compare(Patient first, Patient second) {
+			if (first.getUrgency() != second.getUrgency())
+				return first.getUrgency() > second.getUrgency() ? -1 : 1;
+			long firstArrival = first.getCurrentERVisit().getArrivalTime();
+			long secondArrival = second.getCurrentERVisit().getArrivalTime();
+			return firstArrival < secondArrival ? -1 : (firstArrival == secondArrival ? 0 : 1);
+		}
+	};
 	
 	/** File path for the file that contains all Patients' basic information. */
 	protected static final String PATIENT_RECORDS_PATH = "/files/patient_records.txt";
+	
+	/** The metrics of the operations, by method. */
+	private static final OperationMetrics ADD_VITALS_METRICS = MetricsRegistry.get("eradmin.addPatientVitals");
+	private static final OperationMetrics ADD_PRESCRIPTION_METRICS = MetricsRegistry.get("eradmin.addPatientPrescription");
+	private static final OperationMetrics SEND_TO_DOCTOR_METRICS = MetricsRegistry.get("eradmin.sendToDoctor");
+	private static final OperationMetrics CLOSE_CASE_METRICS = MetricsRegistry.get("eradmin.closeCase");
+	private static final OperationMetrics SIGN_IN_METRICS = MetricsRegistry.get("eradmin.signInPatient");
+	private static final OperationMetrics ADD_PATIENT_METRICS = MetricsRegistry.get("eradmin.addPatient");
+	private static final OperationMetrics MEDICAL_RECORD_METRICS = MetricsRegistry.get("eradmin.getPatientMedicalRecord");
+	private static final OperationMetrics MEDICAL_RECORD_PAGE_METRICS = MetricsRegistry.get("eradmin.getPatientMedicalRecordPage");
+	private static final OperationMetrics INITIAL_LOAD_METRICS = MetricsRegistry.get("eradmin.initialLoadPatients");
+	private static final OperationMetrics LOAD_PATIENTS_METRICS = MetricsRegistry.get("eradmin.loadPatients");
+	private static final OperationMetrics LOAD_CURRENT_ERVISIT_METRICS = MetricsRegistry.get("eradmin.loadCurrentERVisit");
+	private static final OperationMetrics LOAD_VITALS_METRICS = MetricsRegistry.get("eradmin.loadVitalSigns");
+	private static final OperationMetrics LOAD_URGENCY_METRICS = MetricsRegistry.get("eradmin.loadUrgencyList");
+	private static final OperationMetrics LOAD_SENT_TO_DOCTOR_METRICS = MetricsRegistry.get("eradmin.loadSentToDoctorList");
 		
+	/** Constructs an ERAdmin recording its Changes in the ChangeLog of this device. */
+	public ERAdmin() {
+	}
+	
 	/**
-	 * Adds a new VitalSigns to the patients's current ERVisit and update the urgencyList and the database accordingly.
+	 * Constructs an ERAdmin recording its Changes in a given ChangeLog, e.g. to
+	 * run several devices in one process. A copy made by serialization records
+	 * them in the ChangeLog of this device.
+	 * @param changeLog The ChangeLog.
+	 */
+	public ERAdmin(ChangeLog changeLog) {
+		this.changeLog = changeLog;
+	}
+	
+	/**
+	 * Gets the ChangeLog the Changes are recorded in.
+	 * @return The ChangeLog.
+	 */
+	private ChangeLog changeLog() {
+		return changeLog != null ? changeLog : ChangeLog.local();
+	}
+	
+	/**
+	 * Adds a new VitalSigns to the patients's current ERVisit and update the board and the database accordingly.
+	 * The database is written first: if it fails, the Patient, the board and the ChangeLog are left unchanged.
 	 * @param patient The Patient whose VitalSigns is being added.
 	 * @param vitals The VitalSigns being added to the Patient's current ERVisit.
 	 * @param dbAdapter The database adapter (helper).
+	 * @throws SQLException if the VitalSigns could not be stored.
 	 */
     public void addPatientVitals(Patient patient, VitalSigns vitals, TriageDBAdapter dbAdapter){
-    	patient.getCurrentERVisit().addVitalsSignRecord(vitals);
-        patient.setUrgency(); 
-        
-        //Update the database with the new VitalSigns.
-    	dbAdapter.createVitalSigns(patient.getCurrentERVisit().getID(), vitals.getSystolic(), vitals.getDiastolic(), 
-    			vitals.getTemperature(), vitals.getHeartRate(), vitals.getTimestamp(), patient.getUrgency());
-    	
-    	//Reload the urgencyList from the database.
-    	this.loadUrgencyList(dbAdapter);
+    	long start = System.nanoTime();
+    	long sqlStart = MetricsRegistry.threadSqlNanos();
+    	Span span = Tracer.begin("eradmin.addPatientVitals")
+    			.attribute("patient", Tracer.hashHealthCard(patient.getHealthCardNumber()));
+    	try {
+    		synchronized (patientLock(patient.getHealthCardNumber())) {
+    			ERVisit visit = patient.getCurrentERVisit();
+    			//The urgency the Patient will have once the VitalSigns, the latest, are added.
+    			int urgency = vitals.getPoints() + (patient.isInfant() ? 1 : 0);
+    			//Update the database with the new VitalSigns.
+    			if (!dbAdapter.createVitalSigns(visit.getID(), vitals.getSystolic(), vitals.getDiastolic(), 
+    					vitals.getTemperature(), vitals.getHeartRate(), vitals.getTimestamp(), urgency))
+    				throw new SQLException("Cannot add the vital signs of ERVisit " + visit.getID());
+    			
+    			visit.addVitalsSignRecord(vitals);
+    			boardLock.lock();
+    			try {
+    				Span urgencySpan = Tracer.begin("patient.setUrgency");
+    				patient.setUrgency(); 
+    				urgencySpan.attribute("urgency", patient.getUrgency()).end();
+    				//Moves the Patient to its new place on the board, if waiting.
+    				BoardSnapshot current = this.board;
+    				int index = current.getUrgencyList().indexOf(patient);
+    				if (index >= 0) {
+    					this.replaceBoard(current.next(addByUrgency(current.getUrgencyList().minus(index), patient), 
+    							current.getSentToDoctorList()));
+    					this.count(patient.getHealthCardNumber(), Census.cellOf(patient, false));
+    				} else {
+    					this.physicianQueues.requeue(patient);
+    					if (this.censusCells.containsKey(patient.getHealthCardNumber()))
+    						this.count(patient.getHealthCardNumber(), Census.cellOf(patient, true));
+    				}
+    			} finally {
+    				boardLock.unlock();
+    			}
+    			changeLog().record(Change.vitals(patient.getHealthCardNumber(), visit.getArrivalTime(), vitals));
+    		}
+    	} finally {
+    		span.end();
+    	}
+    	ADD_VITALS_METRICS.recordOperation(start, sqlStart, 1);
     }
     
     /**
@@ -64,10 +218,17 @@ public class ERAdmin implements Serializable{
      * @param dbAdapter The database adapter (helper).
      */
     public void addPatientPrescription(Patient patient, Prescription prescription, TriageDBAdapter dbAdapter){
-    	patient.getCurrentERVisit().addPrescriptionRecord(prescription);
-    	
-    	//Update the database with the new Prescription.
-    	dbAdapter.createPrescription(patient.getCurrentERVisit().getID(), prescription.getMedicationName(), prescription.getInstructions());
+    	long start = System.nanoTime();
+    	long sqlStart = MetricsRegistry.threadSqlNanos();
+    	synchronized (patientLock(patient.getHealthCardNumber())) {
+    		patient.getCurrentERVisit().addPrescriptionRecord(prescription);
+
+    		//Update the database with the new Prescription.
+    		dbAdapter.createPrescription(patient.getCurrentERVisit().getID(), prescription.getMedicationName(), prescription.getInstructions());
+    		changeLog().record(Change.prescription(patient.getHealthCardNumber(), 
+    				patient.getCurrentERVisit().getArrivalTime(), prescription));
+    	}
+    	ADD_PRESCRIPTION_METRICS.recordOperation(start, sqlStart, 1);
     }
     
     /**
@@ -76,32 +237,111 @@ public class ERAdmin implements Serializable{
      * @param dbAdapter The database adapter (helper).
      */
     public void sendToDoctor(Patient patient, TriageDBAdapter dbAdapter){
-    	patient.getCurrentERVisit().setSeenByDoctor();
-    	this.patientsSentToDoctor.add(patient);
-    	this.urgencyList.remove(patient);
-    	
-    	//Update the Patient's current ERVisit in the database with the time seen by doctor.
-        dbAdapter.updateERVisit(patient.getCurrentERVisit().getID(), patient.getCurrentERVisit().getTimeSeenByDoctor());
+    	this.sendToDoctor(patient, Calendar.getInstance().getTimeInMillis(), dbAdapter);
+    }
+    
+    /**
+     * Send a Patient to the doctor at the given time. Sets the seenByDoctor variable in the Patient's current ERVisit to true.
+     * @param patient The Patient being sent to a Physician.
+     * @param timeSeenByDoctor The time the Patient is sent to the Physician.
+     * @param dbAdapter The database adapter (helper).
+     */
+    public void sendToDoctor(Patient patient, long timeSeenByDoctor, TriageDBAdapter dbAdapter){
+    	long start = System.nanoTime();
+    	long sqlStart = MetricsRegistry.threadSqlNanos();
+    	synchronized (patientLock(patient.getHealthCardNumber())) {
+    		patient.getCurrentERVisit().setSeenByDoctor(timeSeenByDoctor);
+    		boardLock.lock();
+    		try {
+    			BoardSnapshot current = this.board;
+    			PersistentList<Patient> sentToDoctor = current.getSentToDoctorList();
+    			this.replaceBoard(current.next(current.getUrgencyList().minus(patient), 
+    					sentToDoctor.plus(sentToDoctor.size(), patient)));
+    			this.count(patient.getHealthCardNumber(), Census.cellOf(patient, true));
+    		} finally {
+    			boardLock.unlock();
+    		}
+    		String physician = this.physicianQueues.assign(patient);
+
+    		//Update the Patient's current ERVisit in the database with the time seen by doctor.
+    		dbAdapter.updateERVisit(patient.getCurrentERVisit().getID(), patient.getCurrentERVisit().getTimeSeenByDoctor());
+    		changeLog().record(Change.sendToDoctor(patient.getHealthCardNumber(), 
+    				patient.getCurrentERVisit().getArrivalTime(), timeSeenByDoctor));
+    		//Recorded even for no Physician, so that every device keeps this assignment.
+    		this.storeAssignment(patient, physician, dbAdapter);
+    		WaitTimeStats.doorToDoctor().record(patient.getCurrentERVisit().getArrivalTime(), 
+    				timeSeenByDoctor, patient.getUrgency());
+    	}
+        SEND_TO_DOCTOR_METRICS.recordOperation(start, sqlStart, 1);
     }
     
     /**
      * Closes a Patient's current ERVisit.
-	 * Removes references of the patient in urgencyList and patientsSentToDoctor.
+	 * Removes the patient from the board.
 	 * Updates the ERVisit entry in the database. 
+	 * If the database cannot close it, the ERVisit stays open everywhere: the
+	 * ChangeLog, the statistics, the queues and the board are left unchanged.
      * @param patient The Patient whose ERVisit is being closed.
      * @param dbAdapter The database adapter (helper).
+     * @throws SQLException if the ERVisit could not be closed in the database.
      */
 	public void closeCase(Patient patient, TriageDBAdapter dbAdapter){
-		//Sets the closed parameter for the Patient's current ERVisit to 1. 
-		dbAdapter.updateERVisit(patient.getCurrentERVisit().getID(), true);
-		
-		patient.getCurrentERVisit().setClosed();
-		patient.setCurrentERVisit(null);
-		
-		//Sets the urgency level to 0.
-		patient.setUrgency();
-		this.urgencyList.remove(patient);
-		this.patientsSentToDoctor.remove(patient);
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		synchronized (patientLock(patient.getHealthCardNumber())) {
+			//Sets the closed parameter for the Patient's current ERVisit to 1, and packs
+			//its VitalSigns, which no longer change, into a block.
+			if (!dbAdapter.closeERVisit(patient.getCurrentERVisit().getID()))
+				throw new SQLException("Cannot close ERVisit " + patient.getCurrentERVisit().getID());
+			changeLog().record(Change.close(patient.getHealthCardNumber(), patient.getCurrentERVisit().getArrivalTime()));
+			//Recorded before the urgency is reset below.
+			WaitTimeStats.lengthOfStay().record(patient.getCurrentERVisit().getArrivalTime(), 
+					Calendar.getInstance().getTimeInMillis(), patient.getUrgency());
+
+			this.physicianQueues.remove(patient);
+			boardLock.lock();
+			try {
+				BoardSnapshot current = this.board;
+				this.replaceBoard(current.next(current.getUrgencyList().minus(patient), 
+						current.getSentToDoctorList().minus(patient)));
+				this.count(patient.getHealthCardNumber(), Census.NONE);
+				patient.getCurrentERVisit().setClosed();
+				patient.setCurrentERVisit(null);
+				//Sets the urgency level to 0.
+				patient.setUrgency();
+			} finally {
+				boardLock.unlock();
+			}
+		}
+		CLOSE_CASE_METRICS.recordOperation(start, sqlStart, 1);
+	}
+	
+	/**
+	 * Discards a Patient's current ERVisit, which lost to an ERVisit signed
+	 * in at the same time on another device: it is deleted from the database,
+	 * with its VitalSigns and Prescriptions, and removed from the board and
+	 * the queues. No Change is recorded, as every device discards it.
+	 * @param patient The Patient whose ERVisit is discarded.
+	 * @param dbAdapter The database adapter (helper).
+	 * @throws SQLException if the ERVisit could not be deleted from the database.
+	 */
+	public void discardCurrentERVisit(Patient patient, TriageDBAdapter dbAdapter){
+		synchronized (patientLock(patient.getHealthCardNumber())) {
+			if (!dbAdapter.deleteERVisit(patient.getCurrentERVisit().getID()))
+				throw new SQLException("Cannot delete ERVisit " + patient.getCurrentERVisit().getID());
+			this.physicianQueues.remove(patient);
+			boardLock.lock();
+			try {
+				BoardSnapshot current = this.board;
+				this.replaceBoard(current.next(current.getUrgencyList().minus(patient), 
+						current.getSentToDoctorList().minus(patient)));
+				this.count(patient.getHealthCardNumber(), Census.NONE);
+				patient.setCurrentERVisit(null);
+				patient.setUrgency();
+			} finally {
+				boardLock.unlock();
+			}
+		}
 	}
 	
 	/**
@@ -111,14 +351,48 @@ public class ERAdmin implements Serializable{
 	 * @return The Patient being signed in.
 	 */
 	public Patient signInPatient(String healthNumber, TriageDBAdapter dbAdapter){
+		return this.signInPatient(healthNumber, Calendar.getInstance().getTimeInMillis(), dbAdapter);
+	}
+	
+	/**
+	 * Signs in an existing Patient who arrived at the given time. Creates a new ERVisit for the Patient and add a corresponding entry in the database.
+	 * @param healthNumber The Patient's health card number.
+	 * @param arrivalTime The arrival time of the Patient.
+	 * @param dbAdapter The database adapter (helper).
+	 * @return The Patient being signed in.
+	 */
+	public Patient signInPatient(String healthNumber, long arrivalTime, TriageDBAdapter dbAdapter){
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
 		Patient patient = this.lookUpPatient(healthNumber);
-		patient.addNewERVisit();
-		this.urgencyList.add(patient);
-		
-		//Create an entry for a new ERVisit int the database.
-		long ERVisitID = dbAdapter.createERVisit(patient.getCurrentERVisit().getArrivalTime(), healthNumber, patient.getUrgency());
-		//Sets the ERVisitID in for the ERVisit. Used to navigate in the database.
-		patient.getCurrentERVisit().setID(ERVisitID);
+		synchronized (patientLock(healthNumber)) {
+			ERVisit visit = new ERVisit(0, arrivalTime, false, null);
+			int urgency;
+			boardLock.lock();
+			try {
+				//The new ERVisit has no VitalSigns yet: its urgency only counts the Patient's age.
+				patient.setCurrentERVisit(visit);
+				urgency = patient.getUrgency();
+			} finally {
+				boardLock.unlock();
+			}
+			//Create an entry for a new ERVisit int the database.
+			long ERVisitID = dbAdapter.createERVisit(arrivalTime, healthNumber, urgency);
+			//Sets the ERVisitID in for the ERVisit. Used to navigate in the database.
+			visit.setID(ERVisitID);
+			changeLog().record(Change.signIn(healthNumber, arrivalTime));
+
+			boardLock.lock();
+			try {
+				BoardSnapshot current = this.board;
+				this.replaceBoard(current.next(addByUrgency(current.getUrgencyList(), patient), 
+						current.getSentToDoctorList()));
+				this.count(healthNumber, Census.cellOf(patient, false));
+			} finally {
+				boardLock.unlock();
+			}
+		}
+		SIGN_IN_METRICS.recordOperation(start, sqlStart, 1);
 		return patient;
 	}
 	
@@ -131,16 +405,33 @@ public class ERAdmin implements Serializable{
 	 * @throws InvalidUserInputException 
 	 */
 	public void addPatient(String name, String dob, String healthNumber, TriageDBAdapter dbAdapter) throws InvalidUserInputException{
-		//Checks if the health card number is unique
-		if (lookUpPatient(healthNumber) != null)
-			throw new InvalidUserInputException();
-		Patient patient = new Patient(name, dob, healthNumber);
-		this.PatientList.put(healthNumber, patient);	
-		//Create an entry in the database for the new Patient.
-		dbAdapter.createPatient(healthNumber, name, dob);
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		this.registerPatient(name, dob, healthNumber, dbAdapter);
 		
 		//Sign in the Patient.
 		this.signInPatient(healthNumber, dbAdapter);
+		ADD_PATIENT_METRICS.recordOperation(start, sqlStart, 1);
+	}
+	
+	/**
+	 * Adds a new Patient to the database and PatientList, without signing the Patient in.
+	 * @param name The Patient's name.
+	 * @param dob The Patient's date of birth.
+	 * @param healthNumber The Patient's health card number.
+	 * @param dbAdapter The database adapter (helper).
+	 * @throws InvalidUserInputException if the health card number is taken or the Patient is invalid.
+	 */
+	public void registerPatient(String name, String dob, String healthNumber, TriageDBAdapter dbAdapter) throws InvalidUserInputException{
+		Patient patient = new Patient(name, dob, healthNumber);
+		synchronized (patientLock(healthNumber)) {
+			//Checks if the health card number is unique
+			if (this.PatientList.putIfAbsent(healthNumber, patient) != null)
+				throw new InvalidUserInputException();
+			//Create an entry in the database for the new Patient.
+			dbAdapter.createPatient(healthNumber, name, dob);
+			changeLog().record(Change.patient(healthNumber, name, dob));
+		}
 	}
 	
 	/**
@@ -156,57 +447,397 @@ public class ERAdmin implements Serializable{
 	 * Gets the formatted String to display the Medical Record for the Patient.
 	 * @param patient The Patient whose Medical Record is being displayed.
 	 * @param dbAdapter The database adapter (helper).
-	 * @return The formatted String representing the Patient's Medical Record.
+	 * @return The formatted String representing the Patient's Medical Record,
+	 * or null if the Patient has no closed ERVisits.
 	 */
 	public String getPatientMedicalRecord(Patient patient, TriageDBAdapter dbAdapter){
-		//Gets a formatted String representing the Patient's medical record.
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		//Gets the Patient's closed ERVisits, most recent first.
 		Cursor medicalRecordCursor = dbAdapter.fetchMedicalRecordForThisPatient(patient.getHealthCardNumber());
-		//The String is at row 0, column 0.
-		String medRecText = medicalRecordCursor.getString(0);
+		StringBuilder medRecText = null;
+		for (boolean hasItem = medicalRecordCursor.moveToFirst(); hasItem; hasItem = medicalRecordCursor.moveToNext()) {
+			ERVisit visit = new ERVisit(medicalRecordCursor.getLong(0), medicalRecordCursor.getLong(1), true, 
+					medicalRecordCursor.isNull(2) ? null : medicalRecordCursor.getLong(2));
+			try {
+				this.loadERVisitRecords(visit, dbAdapter);
+			} catch (InvalidUserInputException e) {
+				//Stored Prescriptions were validated when they were written.
+				e.printStackTrace();
+			}
+			//Each ERVisit's record is separated by a space.
+			if (medRecText == null)
+				medRecText = new StringBuilder();
+			else
+				medRecText.append(' ');
+			medRecText.append(visit.getDisplay());
+		}
 		//Closes the Cursor.
+		MEDICAL_RECORD_METRICS.recordOperation(start, sqlStart, medicalRecordCursor.getCount());
 		medicalRecordCursor.close();
-		return medRecText;
+		return medRecText == null ? null : medRecText.toString();
 	}
 	
 	/**
-	 * Gets urgencyList.
-	 * @return The urgencyList.
+	 * Gets one page of the Patient's Medical Record: the closed ERVisits of the 
+	 * Patient, most recent first, with their Prescriptions. The VitalSigns of
+	 * the ERVisits are not loaded; use loadVitalSigns to load them when needed.
+	 * @param patient The Patient whose Medical Record is being displayed.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param offset The number of ERVisits before the page.
+	 * @param limit The maximum number of ERVisits in the page.
+	 * @return The ERVisits of the page, an empty List after the last page.
+	 */
+	public List<ERVisit> getPatientMedicalRecordPage(Patient patient, TriageDBAdapter dbAdapter, int offset, int limit){
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		Cursor medicalRecordCursor = dbAdapter.fetchMedicalRecordPageForThisPatient(patient.getHealthCardNumber(), offset, limit);
+		List<ERVisit> visits = new ArrayList<ERVisit>(medicalRecordCursor.getCount());
+		for (boolean hasItem = medicalRecordCursor.moveToFirst(); hasItem; hasItem = medicalRecordCursor.moveToNext()) {
+			ERVisit visit = new ERVisit(medicalRecordCursor.getLong(0), medicalRecordCursor.getLong(1), true, 
+					medicalRecordCursor.isNull(2) ? null : medicalRecordCursor.getLong(2));
+			try {
+				this.loadPrescriptions(visit, dbAdapter);
+			} catch (InvalidUserInputException e) {
+				//Stored Prescriptions were validated when they were written.
+				e.printStackTrace();
+			}
+			visits.add(visit);
+		}
+		//Closes the Cursor.
+		medicalRecordCursor.close();
+		MEDICAL_RECORD_PAGE_METRICS.recordOperation(start, sqlStart, visits.size());
+		return visits;
+	}
+	
+	/**
+	 * Gets the current BoardSnapshot, holding both boards as they are now.
+	 * @return The BoardSnapshot.
+	 */
+	public BoardSnapshot getBoardSnapshot(){
+		return this.board;
+	}
+	
+	/**
+	 * Gets the Patients currently signed in, ordered by urgency.
+	 * @return The Patients, in a List which never changes.
 	 */
 	public List<Patient> getUrgencyList(){
-		return this.urgencyList;
+		return this.board.getUrgencyList();
 	}
 	
 	/**
-	 * Gets patientsSentToDoctor.
-	 * @return The list of Patients already sent to a Physician.
+	 * Gets the Patients already sent to a Physician.
+	 * @return The Patients, in a List which never changes.
 	 */
 	public List<Patient> getPatientsSentToDoctorList(){
-		return this.patientsSentToDoctor;
+		return this.board.getSentToDoctorList();
 	}
 	
 	/**
-	 * Initial load of patient_records.txt. Populates PatientList and writes the information to the database.
+	 * Gets the number of Patients on the boards, by urgency, status and age.
+	 * @return The Census, which never changes.
+	 */
+	public Census getCensus(){
+		return this.census;
+	}
+	
+	/**
+	 * Adds a Physician to whom the Patients sent to the doctor may be assigned,
+	 * e.g. when they log in, and assigns them the Patients waiting for no Physician.
+	 * @param username The username of the Physician.
 	 * @param dbAdapter The database adapter (helper).
+	 */
+	public void registerPhysician(String username, TriageDBAdapter dbAdapter){
+		for (Patient patient : this.physicianQueues.registerPhysician(username)) {
+			synchronized (patientLock(patient.getHealthCardNumber())) {
+				//The ERVisit may have been closed meanwhile.
+				if (patient.getCurrentERVisit() != null)
+					this.storeAssignment(patient, username, dbAdapter);
+			}
+		}
+		this.republishSentToDoctor();
+	}
+	
+	/**
+	 * Removes a Physician, e.g. when they log out, and assigns the Patients
+	 * waiting for them to the other Physicians, or to no Physician if there is
+	 * none left.
+	 * @param username The username of the Physician.
+	 * @param dbAdapter The database adapter (helper).
+	 */
+	public void unregisterPhysician(String username, TriageDBAdapter dbAdapter){
+		for (Patient patient : this.physicianQueues.unregisterPhysician(username)) {
+			synchronized (patientLock(patient.getHealthCardNumber())) {
+				ERVisit visit = patient.getCurrentERVisit();
+				//The ERVisit may have been closed or taken meanwhile.
+				if (visit != null && !visit.isTaken())
+					this.storeAssignment(patient, this.physicianQueues.assign(patient), dbAdapter);
+			}
+		}
+		this.republishSentToDoctor();
+	}
+	
+	/**
+	 * Gets the Patients sent to the doctor and waiting for a Physician.
+	 * @param username The username of the Physician.
+	 * @return The Patients waiting for the Physician, most urgent first.
+	 */
+	public List<Patient> getPhysicianQueue(String username){
+		return this.physicianQueues.getQueue(username);
+	}
+	
+	/**
+	 * Takes the next Patient for a Physician to see: the most urgent Patient
+	 * waiting for the Physician or, if there is none, the most urgent Patient
+	 * of the Physician with the most Patients waiting. The Patient stays on
+	 * the sent to doctor board, as taken by the Physician, until the ERVisit
+	 * is closed. If the database cannot store it, the Patient waits again.
+	 * @param username The username of the Physician.
+	 * @param dbAdapter The database adapter (helper).
+	 * @return The Patient, or null if no Patient is waiting for a Physician.
+	 * @throws SQLException if the database could not store that the Patient was taken.
+	 */
+	public Patient takeNextPatient(String username, TriageDBAdapter dbAdapter){
+		while (true) {
+			Patient patient = this.physicianQueues.takeNext(username);
+			if (patient == null)
+				return null;
+			synchronized (patientLock(patient.getHealthCardNumber())) {
+				ERVisit visit = patient.getCurrentERVisit();
+				//Closed, or taken on another device, since it was taken from its queue.
+				if (visit == null || visit.isTaken())
+					continue;
+				long timeTaken = Calendar.getInstance().getTimeInMillis();
+				if (!dbAdapter.takeERVisit(visit.getID(), username, timeTaken)) {
+					this.physicianQueues.assign(patient, visit.getPhysician());
+					throw new SQLException("Cannot take ERVisit " + visit.getID());
+				}
+				visit.setTakenBy(username, timeTaken);
+				changeLog().record(Change.take(patient.getHealthCardNumber(), visit.getArrivalTime(), username, timeTaken));
+			}
+			this.republishSentToDoctor();
+			return patient;
+		}
+	}
+	
+	/**
+	 * Assigns a Patient sent to the doctor to a given Physician, e.g. as
+	 * received from another device. A Patient already taken stays with the
+	 * Physician who took them.
+	 * @param patient The Patient.
+	 * @param username The username of the Physician, or null for no Physician.
+	 * @param dbAdapter The database adapter (helper).
+	 */
+	public void assignPatient(Patient patient, String username, TriageDBAdapter dbAdapter){
+		synchronized (patientLock(patient.getHealthCardNumber())) {
+			ERVisit visit = patient.getCurrentERVisit();
+			if (visit == null || !visit.isSeenByDoctor() || visit.isTaken())
+				return;
+			this.physicianQueues.remove(patient);
+			this.physicianQueues.assign(patient, username);
+			this.storeAssignment(patient, username, dbAdapter);
+		}
+		this.republishSentToDoctor();
+	}
+	
+	/**
+	 * Records that a Physician took a Patient sent to the doctor, e.g. as
+	 * received from another device. When two Physicians take the same
+	 * Patient, the one who took them first keeps them on every device.
+	 * @param patient The Patient.
+	 * @param username The username of the Physician.
+	 * @param timeTaken The time the Physician took the Patient.
+	 * @param dbAdapter The database adapter (helper).
+	 * @throws SQLException if the database could not store that the Patient was taken.
+	 */
+	public void takePatient(Patient patient, String username, long timeTaken, TriageDBAdapter dbAdapter){
+		synchronized (patientLock(patient.getHealthCardNumber())) {
+			ERVisit visit = patient.getCurrentERVisit();
+			if (visit == null || !visit.isSeenByDoctor())
+				return;
+			if (visit.isTaken() && (visit.getTimeTaken() < timeTaken 
+					|| (visit.getTimeTaken() == timeTaken && visit.getPhysician().compareTo(username) <= 0)))
+				return;
+			if (!dbAdapter.takeERVisit(visit.getID(), username, timeTaken))
+				throw new SQLException("Cannot take ERVisit " + visit.getID());
+			this.physicianQueues.remove(patient);
+			visit.setTakenBy(username, timeTaken);
+			changeLog().record(Change.take(patient.getHealthCardNumber(), visit.getArrivalTime(), username, timeTaken));
+		}
+		this.republishSentToDoctor();
+	}
+	
+	/**
+	 * Stores the Physician a Patient sent to the doctor is assigned to, in the
+	 * ERVisit and the database, and records the Change. Must be called
+	 * holding the lock of the Patient.
+	 * @param patient The Patient, who must have a current ERVisit.
+	 * @param username The username of the Physician, or null for no Physician.
+	 * @param dbAdapter The database adapter (helper).
+	 */
+	private void storeAssignment(Patient patient, String username, TriageDBAdapter dbAdapter){
+		ERVisit visit = patient.getCurrentERVisit();
+		dbAdapter.assignERVisit(visit.getID(), username);
+		visit.setAssignedTo(username);
+		changeLog().record(Change.assign(patient.getHealthCardNumber(), visit.getArrivalTime(), username));
+	}
+	
+	/**
+	 * Publishes the sent to doctor board again, unchanged, so that its
+	 * subscribers show the Physicians assigned to its Patients.
+	 */
+	private void republishSentToDoctor(){
+		boardLock.lock();
+		try {
+			sentToDoctorBoard.submit(this.board.getSentToDoctorList());
+		} finally {
+			boardLock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the publisher of the list of Patients signed in, ordered by urgency,
+	 * as changed by this ERAdmin. Its subscribers receive the latest list at most once per frame, however
+	 * many changes were made in between.
+	 * @return The publisher of the urgency board.
+	 */
+	public Flow.Publisher<List<Patient>> getUrgencyBoardPublisher(){
+		return urgencyBoard;
+	}
+	
+	/**
+	 * Gets the publisher of the list of Patients sent to a Physician, as
+	 * changed by this ERAdmin. Its subscribers receive the latest list at most once per frame, however
+	 * many changes were made in between.
+	 * @return The publisher of the sent to doctor board.
+	 */
+	public Flow.Publisher<List<Patient>> getSentToDoctorBoardPublisher(){
+		return sentToDoctorBoard;
+	}
+	
+	/**
+	 * Gets the lock of the operations on a Patient.
+	 * @param healthNumber The Patient's health card number.
+	 * @return The lock.
+	 */
+	private Object patientLock(String healthNumber){
+		//Spreads the bits of the hash, as String hashes of close numbers differ in their low bits only.
+		int hash = healthNumber.hashCode();
+		hash ^= (hash >>> 16);
+		return patientLocks[(hash & 0x7fffffff) % PATIENT_LOCK_STRIPES];
+	}
+	
+	/**
+	 * Creates the locks of the operations on the Patients.
+	 * @return The locks, one per stripe.
+	 */
+	private static Object[] newPatientLocks(){
+		Object[] locks = new Object[PATIENT_LOCK_STRIPES];
+		for (int i = 0; i < PATIENT_LOCK_STRIPES; i++)
+			locks[i] = new Object();
+		return locks;
+	}
+	
+	/**
+	 * Restores an ERAdmin copied by serialization, with its own locks and
+	 * publishers, which have no Subscribers yet.
+	 * @param in The stream the ERAdmin is read from.
+	 * @throws IOException if the stream cannot be read.
+	 * @throws ClassNotFoundException if a class of the stream is missing.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.patientLocks = newPatientLocks();
+		this.urgencyBoard = new CoalescingPublisher<List<Patient>>();
+		this.sentToDoctorBoard = new CoalescingPublisher<List<Patient>>();
+	}
+	
+	/**
+	 * Inserts a Patient in a list ordered by urgency, after the Patients at
+	 * least as urgent who arrived before. Must be called holding boardLock.
+	 * @param urgencyList The Patients waiting, ordered by urgency.
+	 * @param patient The Patient, who must have a current ERVisit.
+	 * @return The new list of Patients waiting.
+	 */
+	private static PersistentList<Patient> addByUrgency(PersistentList<Patient> urgencyList, Patient patient){
+		int low = 0;
+		int high = urgencyList.size();
+		while (low < high){
+			int middle = (low + high) >>> 1;
+			if (URGENCY_ORDER.compare(urgencyList.get(middle), patient) <= 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return urgencyList.plus(low, patient);
+	}
+	
+	/**
+	 * Replaces the BoardSnapshot, and publishes the boards which changed.
+	 * Must be called holding boardLock.
+	 * @param next The new BoardSnapshot.
+	 */
+	private void replaceBoard(BoardSnapshot next){
+		BoardSnapshot previous = this.board;
+		this.board = next;
+		if (next.getUrgencyList() != previous.getUrgencyList())
+			urgencyBoard.submit(next.getUrgencyList());
+		if (next.getSentToDoctorList() != previous.getSentToDoctorList())
+			sentToDoctorBoard.submit(next.getSentToDoctorList());
+	}
+	
+	/**
+	 * Moves a Patient to another cell of the Census, and replaces the Census.
+	 * Must be called holding boardLock.
+	 * @param healthNumber The Patient's health card number.
+	 * @param cell The new cell of the Patient, or Census.NONE if no longer on a board.
+	 */
+	private void count(String healthNumber, int cell){
+		Integer previous = cell == Census.NONE ? this.censusCells.remove(healthNumber) 
+				: this.censusCells.put(healthNumber, Integer.valueOf(cell));
+		int from = previous == null ? Census.NONE : previous.intValue();
+		if (from != cell)
+			this.census = this.census.moved(from, cell);
+	}
+	
+	/**
+	 * Counts again the Patients of a board which was loaded, and replaces the Census.
+	 * Must be called holding boardLock.
+	 * @param patients The Patients on the board.
+	 * @param seen Whether the board is that of the Patients sent to the doctor.
+	 */
+	private void recount(List<Patient> patients, boolean seen){
+		for (Iterator<Integer> cells = this.censusCells.values().iterator(); cells.hasNext(); ){
+			if (Census.isSeen(cells.next().intValue()) == seen)
+				cells.remove();
+		}
+		for (Patient patient : patients)
+			this.censusCells.put(patient.getHealthCardNumber(), Integer.valueOf(Census.cellOf(patient, seen)));
+		this.census = Census.of(this.censusCells.values());
+	}
+	
+	/**
+	 * Initial load of patient_records.txt, bundled with the app. Imports its valid
+	 * Patients into the database with a PatientImporter, then populates PatientList.
+	 * @param dbAdapter The database adapter (helper), not in a transaction.
+	 * @param rejects The rejects file, where each line not imported is written
+	 * with its reason, or null to only count them.
+	 * @return The numbers of lines imported, duplicate and not valid.
+	 * @throws IOException if patient_records.txt is missing or cannot be read,
+	 * or the rejects file cannot be written.
 	 * @throws InvalidUserInputException
 	 */
-    public void initialLoadPatients(TriageDBAdapter dbAdapter) throws InvalidUserInputException{
-    	try{
-    		Scanner scanner = new Scanner(getClass().getResourceAsStream(PATIENT_RECORDS_PATH));
-    		String nxt_line;
-    		String[] tokens;
-    		while (scanner.hasNextLine()){
-    			nxt_line = scanner.nextLine();
-    			tokens = nxt_line.split(",");
-    			//Replaces the \n and \r from the last character (certain JREs fail to skip over one or the other.
-    			this.PatientList.put(tokens[0], new Patient(tokens[1], tokens[2].replace("\r","").replace("\n",""), tokens[0]));
-    			//Populates the database with the patient information.
-    			dbAdapter.createPatient(tokens[0], tokens[1], tokens[2].replace("\r","").replace("\n",""));
-    		}
-    		//Closes the Cursor.
-    		scanner.close();
-    	}catch(NullPointerException e){
-    		e.printStackTrace();
-    	}
+    public PatientImporter.Result initialLoadPatients(TriageDBAdapter dbAdapter, File rejects) throws IOException, InvalidUserInputException{
+    	long start = System.nanoTime();
+    	long sqlStart = MetricsRegistry.threadSqlNanos();
+    	InputStream records = getClass().getResourceAsStream(PATIENT_RECORDS_PATH);
+    	if (records == null)
+    		throw new FileNotFoundException(PATIENT_RECORDS_PATH);
+    	PatientImporter.Result result = new PatientImporter(dbAdapter).importStream(new CountingInputStream(records), rejects);
+    	this.loadPatientList(dbAdapter);
+    	INITIAL_LOAD_METRICS.recordOperation(start, sqlStart, this.PatientList.size());
+    	return result;
     }
 	
     /**
@@ -215,6 +846,44 @@ public class ERAdmin implements Serializable{
      * @throws InvalidUserInputException
      */
 	public void loadPatients(TriageDBAdapter dbAdapter) throws InvalidUserInputException{
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		this.loadPatientList(dbAdapter);
+		//Load the current ERVisit (and the VitalSigns and Prescription for the ERVisit) for each Patient.
+		this.loadCurrentERVisit(dbAdapter);
+		LOAD_PATIENTS_METRICS.recordOperation(start, sqlStart, this.PatientList.size());
+	}
+	
+	/**
+	 * Adds the Patients of the database which are not in PatientList yet, e.g.
+	 * those imported from a file by a PatientImporter, without their ERVisits,
+	 * as imported Patients have none. The Patients in PatientList are kept.
+	 * @param dbAdapter The database adapter (helper).
+	 * @return The number of Patients added.
+	 * @throws InvalidUserInputException
+	 */
+	public int loadNewPatients(TriageDBAdapter dbAdapter) throws InvalidUserInputException{
+		int added = 0;
+		Cursor patientsCursor = dbAdapter.fetchAllPatients();
+		try {
+			for (boolean hasItem = patientsCursor.moveToFirst(); hasItem; hasItem = patientsCursor.moveToNext()) {
+				String healthCard = patientsCursor.getString(0);
+				if (!this.PatientList.containsKey(healthCard) && this.PatientList.putIfAbsent(healthCard,
+						new Patient(patientsCursor.getString(1), patientsCursor.getString(2), healthCard)) == null)
+					added++;
+			}
+		} finally {
+			patientsCursor.close();
+		}
+		return added;
+	}
+	
+	/**
+	 * Populates PatientList with the Patients of the database.
+	 * @param dbAdapter The database adapter (helper).
+	 * @throws InvalidUserInputException
+	 */
+	private void loadPatientList(TriageDBAdapter dbAdapter) throws InvalidUserInputException{
 		//Gets all the Patient information in a table from the database.
 		Cursor patientsCursor = dbAdapter.fetchAllPatients();
 		for (boolean hasItem = patientsCursor.moveToFirst(); hasItem; hasItem = patientsCursor.moveToNext()) {
@@ -224,8 +893,6 @@ public class ERAdmin implements Serializable{
     	} 
 		//Closes the Cursor.
 		patientsCursor.close();
-		//Load the current ERVisit (and the VitalSigns and Prescription for the ERVisit) for each Patient.
-		this.loadCurrentERVisit(dbAdapter);
 	}
 	
 	/**
@@ -234,6 +901,9 @@ public class ERAdmin implements Serializable{
 	 * @throws InvalidUserInputException
 	 */
 	public void loadCurrentERVisit(TriageDBAdapter dbAdapter) throws InvalidUserInputException{
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		int loaded = 0;
 		for (Patient patient: this.PatientList.values()){
 			//Gets the current ERVisit for each Patient.
 			Cursor ERVisitCursor = dbAdapter.fetchCurrentERVisitForThisPatient(patient.getHealthCardNumber());
@@ -242,66 +912,153 @@ public class ERAdmin implements Serializable{
 				//The ERVisit is not closed.
 				ERVisit currentERVisit = new ERVisit(ERVisitCursor.getLong(0), ERVisitCursor.getLong(1), false, ERVisitCursor.getLong(2) == 0 ? null : ERVisitCursor.getLong(2));
 				
-				//Gets the Prescriptions for this ERVisit.
-				Cursor prescriptionCursor = dbAdapter.fetchPrescriptionsForThisVisit(currentERVisit.getID());
-				for (boolean hasItem = prescriptionCursor.moveToFirst(); hasItem; hasItem = prescriptionCursor.moveToNext()) {
-					//Adds the Prescription to the ERVisit.
-					currentERVisit.addPrescriptionRecord(new Prescription(prescriptionCursor.getString(0), prescriptionCursor.getString(1)));
-		    	}
-				//Closes the Cursor.
-				prescriptionCursor.close();
-				
-				//Gets the VitalSigns for this ERVisit.
-				Cursor vitalSignsCursor = dbAdapter.fetchVitalSignsForThisVisit(currentERVisit.getID());
-				for (boolean hasItem = vitalSignsCursor.moveToFirst(); hasItem; hasItem = vitalSignsCursor.moveToNext()) {
-					//Adds the VitalSigns to the ERVisit.
-					currentERVisit.addVitalsSignRecord(new VitalSigns(vitalSignsCursor.getInt(0), vitalSignsCursor.getInt(1), 
-							vitalSignsCursor.getFloat(2), vitalSignsCursor.getFloat(3), vitalSignsCursor.getLong(4)));
-		    	}
-				//Closes the Cursor.
-				vitalSignsCursor.close();
+				//Gets the Prescriptions and VitalSigns for this ERVisit.
+				this.loadERVisitRecords(currentERVisit, dbAdapter);
 				
 				//Sets the Patient's urgency level.
 				patient.setUrgency(ERVisitCursor.getInt(3));
 				patient.setCurrentERVisit(currentERVisit);
+				loaded++;
 			}
 			//Closes the Cursor.
 			ERVisitCursor.close();
 		}
+		LOAD_CURRENT_ERVISIT_METRICS.recordOperation(start, sqlStart, loaded);
 	}
 	
 	/**
-	 * Loads the list of Patients ordered by urgency from the database and populates urgencyList.
+	 * Loads the Prescriptions and VitalSigns of an ERVisit from the database.
+	 * @param visit The ERVisit whose records are loaded.
 	 * @param dbAdapter The database adapter (helper).
+	 * @throws InvalidUserInputException
 	 */
-	public void loadUrgencyList(TriageDBAdapter dbAdapter){
-		//Gets a list of Patients sorted by urgency.
-		Cursor urgencyListCursor = dbAdapter.fetchPatientsByUrgency();
-		//Removes all entries from urgencyList.
-    	this.urgencyList.clear();
-    	
-    	for (boolean hasItem = urgencyListCursor.moveToFirst(); hasItem; hasItem = urgencyListCursor.moveToNext()) {
-    		//Repopulates urgencyList.
-    		this.urgencyList.add(this.lookUpPatient(urgencyListCursor.getString(0)));  
+	private void loadERVisitRecords(ERVisit visit, TriageDBAdapter dbAdapter) throws InvalidUserInputException{
+		this.loadPrescriptions(visit, dbAdapter);
+		this.loadVitalSigns(visit, dbAdapter);
+	}
+	
+	/**
+	 * Loads the Prescriptions of an ERVisit from the database.
+	 * @param visit The ERVisit whose Prescriptions are loaded.
+	 * @param dbAdapter The database adapter (helper).
+	 * @throws InvalidUserInputException
+	 */
+	private void loadPrescriptions(ERVisit visit, TriageDBAdapter dbAdapter) throws InvalidUserInputException{
+		//Gets the Prescriptions for this ERVisit.
+		Cursor prescriptionCursor = dbAdapter.fetchPrescriptionsForThisVisit(visit.getID());
+		for (boolean hasItem = prescriptionCursor.moveToFirst(); hasItem; hasItem = prescriptionCursor.moveToNext()) {
+			//Adds the Prescription to the ERVisit.
+			visit.addPrescriptionRecord(new Prescription(prescriptionCursor.getString(0), prescriptionCursor.getString(1)));
     	}
-    	//Closes the Cursor.
-    	urgencyListCursor.close();
+		//Closes the Cursor.
+		prescriptionCursor.close();
 	}
 	
 	/**
-	 * Loads the list of Patients sent to the doctor from the database and populates patientsSentToDoctor.
+	 * Loads the VitalSigns of an ERVisit from the database.
+	 * VitalSigns of closed ERVisits are decoded from their compacted block,
+	 * followed by any VitalSigns still stored as rows.
+	 * @param visit The ERVisit whose VitalSigns are loaded.
 	 * @param dbAdapter The database adapter (helper).
 	 */
-	public void loadSentToDoctorList(TriageDBAdapter dbAdapter){
-		//Gets a list of Patients sent to the doctor.
-		Cursor sentToDoctorCursor = dbAdapter.fetchPatientsSentToDoctor();
-		//Removes all entries from patientsSentToDoctor.
-		this.patientsSentToDoctor.clear();
-		for (boolean hasItem = sentToDoctorCursor.moveToFirst(); hasItem; hasItem = sentToDoctorCursor.moveToNext()) {
-			//Repopulates patientsSentToDoctor.
-    		this.patientsSentToDoctor.add(this.lookUpPatient(sentToDoctorCursor.getString(0)));  
+	public void loadVitalSigns(ERVisit visit, TriageDBAdapter dbAdapter){
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		int countAtStart = visit.getVitalsCount();
+		//Gets the compacted VitalSigns for this ERVisit.
+		Cursor blockCursor = dbAdapter.fetchVitalSignsBlockForThisVisit(visit.getID());
+		if (blockCursor.getCount() > 0){
+			VitalSignsBlockCodec.Columns block = VitalSignsBlockCodec.decode(blockCursor.getBlob(1));
+			for (int i = 0; i < block.count; i++){
+				visit.addVitalsSignRecord(block.systolic[i], block.diastolic[i], 
+						block.temperature[i], block.heartRate[i], block.timestamp[i]);
+			}
+		}
+		//Closes the Cursor.
+		blockCursor.close();
+		
+		//Gets the VitalSigns rows for this ERVisit.
+		Cursor vitalSignsCursor = dbAdapter.fetchVitalSignsForThisVisit(visit.getID());
+		for (boolean hasItem = vitalSignsCursor.moveToFirst(); hasItem; hasItem = vitalSignsCursor.moveToNext()) {
+			//Adds the VitalSigns to the ERVisit.
+			visit.addVitalsSignRecord(vitalSignsCursor.getInt(0), vitalSignsCursor.getInt(1), 
+					vitalSignsCursor.getFloat(2), vitalSignsCursor.getFloat(3), vitalSignsCursor.getLong(4));
     	}
 		//Closes the Cursor.
-		sentToDoctorCursor.close();
+		vitalSignsCursor.close();
+		LOAD_VITALS_METRICS.recordOperation(start, sqlStart, visit.getVitalsCount() - countAtStart);
+	}
+	
+	/**
+	 * Loads the list of Patients ordered by urgency from the database and replaces the urgency board.
+	 * @param dbAdapter The database adapter (helper).
+	 */
+	public void loadUrgencyList(TriageDBAdapter dbAdapter){
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		int rows = 0;
+		Span span = Tracer.begin("eradmin.loadUrgencyList");
+		try {
+			boardLock.lock();
+			try {
+				//Gets a list of Patients sorted by urgency.
+				Cursor urgencyListCursor = dbAdapter.fetchPatientsByUrgency();
+				List<Patient> urgencyList = new ArrayList<Patient>(urgencyListCursor.getCount());
+
+				for (boolean hasItem = urgencyListCursor.moveToFirst(); hasItem; hasItem = urgencyListCursor.moveToNext()) {
+					//Repopulates urgencyList.
+					urgencyList.add(this.lookUpPatient(urgencyListCursor.getString(0)));  
+				}
+				//Closes the Cursor.
+				urgencyListCursor.close();
+				rows = urgencyList.size();
+				span.attribute("rows", rows);
+				this.replaceBoard(this.board.next(PersistentList.of(urgencyList), this.board.getSentToDoctorList()));
+				this.recount(urgencyList, false);
+			} finally {
+				boardLock.unlock();
+			}
+		} finally {
+			span.end();
+		}
+    	LOAD_URGENCY_METRICS.recordOperation(start, sqlStart, rows);
+	}
+	
+	/**
+	 * Loads the list of Patients sent to the doctor from the database and replaces the sent to doctor board.
+	 * @param dbAdapter The database adapter (helper).
+	 */
+	public void loadSentToDoctorList(TriageDBAdapter dbAdapter){
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		int rows;
+		boardLock.lock();
+		try {
+			//Gets a list of Patients sent to the doctor.
+			Cursor sentToDoctorCursor = dbAdapter.fetchPatientsSentToDoctor();
+			List<Patient> sentToDoctor = new ArrayList<Patient>(sentToDoctorCursor.getCount());
+			//The Patients not yet taken wait again for the Physician they are assigned to.
+			this.physicianQueues.clear();
+			for (boolean hasItem = sentToDoctorCursor.moveToFirst(); hasItem; hasItem = sentToDoctorCursor.moveToNext()) {
+				//Repopulates the board.
+				Patient patient = this.lookUpPatient(sentToDoctorCursor.getString(0));
+				String physician = sentToDoctorCursor.isNull(1) ? null : sentToDoctorCursor.getString(1);
+				if (sentToDoctorCursor.isNull(2)) {
+					patient.getCurrentERVisit().setAssignedTo(physician);
+					this.physicianQueues.assign(patient, physician);
+				} else {
+					patient.getCurrentERVisit().setTakenBy(physician, sentToDoctorCursor.getLong(2));
+				}
+				sentToDoctor.add(patient);  
+			}
+			//Closes the Cursor.
+			sentToDoctorCursor.close();
+			rows = sentToDoctor.size();
+			this.replaceBoard(this.board.next(this.board.getUrgencyList(), PersistentList.of(sentToDoctor)));
+			this.recount(sentToDoctor, true);
+		} finally {
+			boardLock.unlock();
+		}
+		LOAD_SENT_TO_DOCTOR_METRICS.recordOperation(start, sqlStart, rows);
 	}
 }
\ No newline at end of file
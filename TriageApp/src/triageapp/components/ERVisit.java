@@ -1,41 +1,84 @@
 package triageapp.components;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
 
-import android.annotation.SuppressLint;
-
 
 /** An ER Visit Record class. */
-@SuppressLint("SimpleDateFormat") 
 public class ERVisit implements Serializable{
 	
 	/** A unique ID for serialization. */
 	private static final long serialVersionUID = 3158772401410039603L;
-
-	/** The date-time format  */
-	public static final SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
 	
+	/** The Physician an ERVisit sent to the doctor is assigned to, or taken by. */
+	private static final class Assignment implements Serializable {
+		/** A unique ID for serialization. */
+		private static final long serialVersionUID = -1849276630458113927L;
+		/** The username of the Physician. */
+		final String physician;
+		/** The time the Physician took the Patient, or 0 while the Patient waits. */
+		final long timeTaken;
+		
+		/**
+		 * Constructs an Assignment.
+		 * @param physician The username of the Physician.
+		 * @param timeTaken The time the Physician took the Patient, or 0.
+		 */
+		Assignment(String physician, long timeTaken) {
+			this.physician = physician;
+			this.timeTaken = timeTaken;
+		}
+	}
+
 	/** This ERVisit's id in the DB */
 	public long id;
 	/** The Patient's arrival time at the ER. */
 	private long arrivalTime;
 	/** The time that the patient was seen by a doctor. */
 	private long timeSeenByDoctor;
-	/** Collection of Vital Sign records ordered by arrival time in ascending order. */
-	private List<VitalSigns> vitalSignsRecords;
-	/** Collection of Prescription records. */
+	/** The initial capacity of the vital signs columns once the first reading is added. */
+	private static final int INITIAL_VITALS_CAPACITY = 4;
+	/** The initial capacity of the Prescription records once the first one is added. */
+	private static final int INITIAL_PRESCRIPTIONS_CAPACITY = 2;
+	/** Shared empty int column used until this ERVisit records its first vital signs. */
+	private static final int[] NO_INTS = new int[0];
+	/** Shared empty float column used until this ERVisit records its first vital signs. */
+	private static final float[] NO_FLOATS = new float[0];
+	/** Shared empty long column used until this ERVisit records its first vital signs. */
+	private static final long[] NO_LONGS = new long[0];
+	
+	// Vital Sign records are stored as parallel columns ordered by time taken
+	// in ascending order. Reading i is made up of the i-th entry of each column.
+	/** The number of Vital Sign records taken during this visit. */
+	private int vitalsCount;
+	/** Systolic blood pressure column of the Vital Sign records. */
+	private int[] systolics;
+	/** Diastolic blood pressure column of the Vital Sign records. */
+	private int[] diastolics;
+	/** Temperature column of the Vital Sign records. */
+	private float[] temperatures;
+	/** Heart rate column of the Vital Sign records. */
+	private float[] heartRates;
+	/** Timestamp column of the Vital Sign records. */
+	private long[] vitalsTimestamps;
+	/** Collection of Prescription records, the shared empty list until the first one is added. */
 	private List<Prescription> prescriptionRecords;
 	/**	This visit's current status. */
 	private boolean isClosed;
 	/** A boolean value representing whether or not the Patient 
 	 * has been seen by a Physician during This ERVisit*/
 	private boolean seenByDoctor;
+	/** The Physician this ERVisit is assigned to or taken by, or null while
+	 * it has none, so that an ERVisit not sent to the doctor only pays for
+	 * the reference (FootprintAnalyzer.BUDGET_BYTES_PER_VISIT). */
+	private Assignment assignment;
 
 	/**
 	 * Constructs an ERVisit Record with closed status initially false.
@@ -44,8 +87,8 @@ public class ERVisit implements Serializable{
 	public ERVisit(){
 		isClosed = false;
 		seenByDoctor = false;
-		vitalSignsRecords = new ArrayList<VitalSigns>();
-		prescriptionRecords = new ArrayList<Prescription>();
+		clearVitals();
+		prescriptionRecords = Collections.emptyList();
 		arrivalTime = Calendar.getInstance().getTimeInMillis();
 	}
 	
@@ -60,8 +103,8 @@ public class ERVisit implements Serializable{
 		this.id = id;
 		this.isClosed = closed;
 		//this.healthCardNumber = healthCardNumber;
-		this.vitalSignsRecords = new ArrayList<VitalSigns>();
-		this.prescriptionRecords = new ArrayList<Prescription>();
+		clearVitals();
+		this.prescriptionRecords = Collections.emptyList();
 		this.arrivalTime = arrivalTime;
 		if (timeSeenByDoctor != null){
 			this.timeSeenByDoctor = timeSeenByDoctor;
@@ -119,7 +162,16 @@ public class ERVisit implements Serializable{
 	 * this Patient's timeSeenByDoctor.
 	 */
 	public void setSeenByDoctor(){
-		timeSeenByDoctor = Calendar.getInstance().getTimeInMillis();
+		setSeenByDoctor(Calendar.getInstance().getTimeInMillis());
+	}
+	
+	/**
+	 * Sets this ERVisit's seenByDoctor to true, and sets the time stamp of 
+	 * this Patient's timeSeenByDoctor to the given time.
+	 * @param timeSeenByDoctor The time this Patient was seen by a Physician.
+	 */
+	public void setSeenByDoctor(long timeSeenByDoctor){
+		this.timeSeenByDoctor = timeSeenByDoctor;
 		seenByDoctor = true;
 	}
 
@@ -133,6 +185,48 @@ public class ERVisit implements Serializable{
 		return timeSeenByDoctor;
 	}
 	
+	/**
+	 * Sets the Physician this ERVisit, sent to the doctor, is assigned to,
+	 * who has not taken the Patient yet.
+	 * @param physician The username of the Physician, or null for no Physician.
+	 */
+	public void setAssignedTo(String physician){
+		assignment = physician != null ? new Assignment(physician, 0) : null;
+	}
+	
+	/**
+	 * Sets the Physician who took the Patient of this ERVisit.
+	 * @param physician The username of the Physician.
+	 * @param timeTaken The time the Physician took the Patient.
+	 */
+	public void setTakenBy(String physician, long timeTaken){
+		assignment = new Assignment(physician, timeTaken);
+	}
+	
+	/**
+	 * Returns the Physician this ERVisit is assigned to, or who took its Patient.
+	 * @return The username of the Physician, or null if assigned to no Physician.
+	 */
+	public String getPhysician(){
+		return assignment != null ? assignment.physician : null;
+	}
+	
+	/**
+	 * Returns true iff a Physician took the Patient of this ERVisit.
+	 * @return true iff a Physician took the Patient.
+	 */
+	public boolean isTaken(){
+		return assignment != null && assignment.timeTaken != 0;
+	}
+	
+	/**
+	 * Returns the time a Physician took the Patient of this ERVisit.
+	 * @return The time, or 0 if no Physician took the Patient.
+	 */
+	public long getTimeTaken(){
+		return assignment != null ? assignment.timeTaken : 0;
+	}
+	
 	/**
 	 * Returns the Patient's arrival time at the ER.
 	 * @return The ER Arrival time.
@@ -142,11 +236,72 @@ public class ERVisit implements Serializable{
 	}
 	
 	/**
-	 * Returns the collection of VitalSigns taken during this visit.
-	 * @return An ArrayList of VitalSign records.
+	 * Returns the number of VitalSigns records taken during this visit.
+	 * @return The number of VitalSigns records.
+	 */
+	public int getVitalsCount(){
+		return vitalsCount;
+	}
+	
+	/**
+	 * Gets the systolic blood pressure of the index-th VitalSigns record.
+	 * @param index The position of the record, in ascending order of time taken.
+	 * @return The systolic blood pressure of the record.
 	 */
-	public List<VitalSigns> getVitalsSignRecords(){
-		return vitalSignsRecords;
+	public int getSystolic(int index){
+		checkVitalsIndex(index);
+		return systolics[index];
+	}
+	
+	/**
+	 * Gets the diastolic blood pressure of the index-th VitalSigns record.
+	 * @param index The position of the record, in ascending order of time taken.
+	 * @return The diastolic blood pressure of the record.
+	 */
+	public int getDiastolic(int index){
+		checkVitalsIndex(index);
+		return diastolics[index];
+	}
+	
+	/**
+	 * Gets the temperature of the index-th VitalSigns record.
+	 * @param index The position of the record, in ascending order of time taken.
+	 * @return The temperature of the record.
+	 */
+	public float getTemperature(int index){
+		checkVitalsIndex(index);
+		return temperatures[index];
+	}
+	
+	/**
+	 * Gets the heart rate of the index-th VitalSigns record.
+	 * @param index The position of the record, in ascending order of time taken.
+	 * @return The heart rate of the record.
+	 */
+	public float getHeartRate(int index){
+		checkVitalsIndex(index);
+		return heartRates[index];
+	}
+	
+	/**
+	 * Gets the time stamp (milliseconds) of the index-th VitalSigns record.
+	 * @param index The position of the record, in ascending order of time taken.
+	 * @return The time stamp of the record.
+	 */
+	public long getVitalsTimestamp(int index){
+		checkVitalsIndex(index);
+		return vitalsTimestamps[index];
+	}
+	
+	/**
+	 * Gets the urgency points of the index-th VitalSigns record.
+	 * @param index The position of the record, in ascending order of time taken.
+	 * @return The urgency points of the record.
+	 */
+	public int getVitalsPoints(int index){
+		checkVitalsIndex(index);
+		return VitalSigns.calculateUrgencyPoints(systolics[index], diastolics[index], 
+				temperatures[index], heartRates[index]);
 	}
 	
 	/**
@@ -154,12 +309,79 @@ public class ERVisit implements Serializable{
 	 * @param vitalsign The VitalSigns of a Patient that this ER Visit Record belongs to.
 	 */
 	public void addVitalsSignRecord(VitalSigns vitalsign){
-		vitalSignsRecords.add(vitalsign);
+		addVitalsSignRecord(vitalsign.getSystolic(), vitalsign.getDiastolic(), 
+				vitalsign.getTemperature(), vitalsign.getHeartRate(), vitalsign.getTimestamp());
+	}
+	
+	/**
+	 * Adds a new VitalSigns record to this ER Visit Record without creating 
+	 * a VitalSigns object (used when loading records from the database).
+	 * @param sys The systolic blood pressure of the Patient.
+	 * @param dia The diastolic blood pressure of the Patient.
+	 * @param temp The body temperature of the Patient.
+	 * @param HR The heart rate of the Patient.
+	 * @param timeStamp The time the vital signs were taken.
+	 */
+	public void addVitalsSignRecord(int sys, int dia, float temp, float HR, long timeStamp){
+		if (vitalsCount == systolics.length){
+			growVitals(Math.max(INITIAL_VITALS_CAPACITY, vitalsCount * 2));
+		}
+		systolics[vitalsCount] = sys;
+		diastolics[vitalsCount] = dia;
+		temperatures[vitalsCount] = temp;
+		heartRates[vitalsCount] = HR;
+		vitalsTimestamps[vitalsCount] = timeStamp;
+		vitalsCount++;
+	}
+	
+	/** Resets the vital signs columns to the shared empty columns. */
+	private void clearVitals(){
+		vitalsCount = 0;
+		systolics = NO_INTS;
+		diastolics = NO_INTS;
+		temperatures = NO_FLOATS;
+		heartRates = NO_FLOATS;
+		vitalsTimestamps = NO_LONGS;
+	}
+	
+	/**
+	 * Resizes every vital signs column to the given capacity.
+	 * @param capacity The new capacity of the columns, at least vitalsCount.
+	 */
+	private void growVitals(int capacity){
+		systolics = Arrays.copyOf(systolics, capacity);
+		diastolics = Arrays.copyOf(diastolics, capacity);
+		temperatures = Arrays.copyOf(temperatures, capacity);
+		heartRates = Arrays.copyOf(heartRates, capacity);
+		vitalsTimestamps = Arrays.copyOf(vitalsTimestamps, capacity);
+	}
+	
+	/**
+	 * Throws an IndexOutOfBoundsException if there is no VitalSigns record at index.
+	 * @param index The position of the record.
+	 */
+	private void checkVitalsIndex(int index){
+		if (index < 0 || index >= vitalsCount)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + vitalsCount);
+	}
+	
+	/**
+	 * Trims the vital signs columns to their used size before this ERVisit 
+	 * is serialized, so that spare capacity is not written out.
+	 * @param out The stream this ERVisit is written to.
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		if (vitalsCount == 0)
+			clearVitals();
+		else if (vitalsCount < systolics.length)
+			growVitals(vitalsCount);
+		out.defaultWriteObject();
 	}
 	
 	/**
 	 * Returns the collection of Prescriptions recorded by the Physician during this visit.
-	 * @return An ArrayList of Prescription records.
+	 * @return A List of Prescription records, which must not be modified.
 	 */
 	public List<Prescription> getPrescriptionRecords(){
 		return prescriptionRecords;
@@ -170,32 +392,27 @@ public class ERVisit implements Serializable{
 	 * @param prescription The Medication for the Patient that this ER Visit Record belongs to.
 	 */
 	public void addPrescriptionRecord(Prescription prescription){
+		if (prescriptionRecords.isEmpty())
+			prescriptionRecords = new ArrayList<Prescription>(INITIAL_PRESCRIPTIONS_CAPACITY);
 		prescriptionRecords.add(prescription);
 	}
 	
+	@Override
 	/**
-	 * Gets most recent record of VitalSigns.
-	 * @return The latest record of VitalSigns.
+	 * @return A String representation of this ERVisit, with "~" between fields.
+	 * Data is handed to other systems with triageapp.export.TextExporter, not with this format.
 	 */
-	public VitalSigns getLatestVitalSigns(){
-		if (vitalSignsRecords.isEmpty())
-			return null;
-		else
-			return vitalSignsRecords.get(vitalSignsRecords.size() - 1);
-	}
-	
-	@Override
-	/** @return A String representation of this ERVisit. */
 	public String toString(){
-		String arrivaltime = dateTimeFormat.format(new Date(arrivalTime));
+		String arrivaltime = TimeFormat.DATE_TIME.format(arrivalTime);
 				//arrivalTime
 		//String erVisitString = "ERVisit~" + healthCardNumber + "~" + arrivaltime;
 		String erVisitString = "ERVisit~" + arrivaltime;
 		if (isSeenByDoctor())
-			erVisitString += "~" + dateTimeFormat.format(new Date(timeSeenByDoctor));
+			erVisitString += "~" + TimeFormat.DATE_TIME.format(timeSeenByDoctor);
 		erVisitString += "\n";
-		for (VitalSigns vitals : vitalSignsRecords){
-			erVisitString += vitals.toString();
+		for (int i = 0; i < vitalsCount; i++){
+			erVisitString += VitalSigns.toString(systolics[i], diastolics[i], 
+					temperatures[i], heartRates[i], vitalsTimestamps[i]);
 		}
 		for (Prescription pres : prescriptionRecords){
 			erVisitString += pres.toString();
@@ -208,57 +425,69 @@ public class ERVisit implements Serializable{
 	 * @return A string representation to display this ERVisit record.
 	 */
 	public String getDisplay() {
-		SimpleDateFormat calendarFormat = new SimpleDateFormat("MM/dd/yyyy");
-		SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
+		return getDisplayHeader() + getVitalsDisplay() + getPrescriptionsDisplay();
+	}
+
+	/**
+	 * Returns the header (arrival and seen by doctor times) of the display of this ERVisit record.
+	 * @return A string representation to display the times of this ERVisit record.
+	 */
+	public String getDisplayHeader() {
 		//Formats the arrival time by splitting it up into a Calendar date,
 		//and a time.
-		String calendarDate = calendarFormat.format(new Date(arrivalTime));
-		String time = timeFormat.format(new Date(arrivalTime));
+		String calendarDate = TimeFormat.DISPLAY_DATE.format(arrivalTime);
+		String time = TimeFormat.TIME.format(arrivalTime);
 		String displayHeader = "+++++++++++++++++++++ \n Record \n" + "+++++++++++++++++++++ \n" +
 				"Arrival Date: " + calendarDate + "\n" +
 				"Arrival Time: " + time + "\n";
 		
 		if (this.seenByDoctor){
-			calendarDate = calendarFormat.format(new Date(timeSeenByDoctor));
-			time = timeFormat.format(new Date(timeSeenByDoctor));
+			calendarDate = TimeFormat.DISPLAY_DATE.format(timeSeenByDoctor);
+			time = TimeFormat.TIME.format(timeSeenByDoctor);
 			displayHeader += "Seen by Doctor Date: " + calendarDate + "\n" +
 								"Seen by Doctor Time: " + time + "\n";
 							
 		}
-		
+		return displayHeader;
+	}
+
+	/**
+	 * Returns the display of every VitalSigns of this ERVisit record.
+	 * @return A string representation to display the VitalSigns, or an 
+	 * empty String if there are none.
+	 */
+	public String getVitalsDisplay() {
 		// Constructs the display of every VitalSign.
-		String vitalsString = "";
-		for(VitalSigns vitals : vitalSignsRecords) {
+		StringBuilder vitalsString = new StringBuilder();
+		for(int i = 0; i < vitalsCount; i++) {
 			//Formats the date-time of each VitalSign's timestamp for display.
-			calendarDate = calendarFormat.format(new Date(vitals.getTimestamp()));
-			time = timeFormat.format(new Date(vitals.getTimestamp()));
-			vitalsString = vitalsString + 
-					"------------------" + "\n" +
+			vitalsString.append("------------------" + "\n" +
 					"Vital Signs:" + "\n" +
-					"Date: " + calendarDate + "\n" +
-					"Time: " + time + "\n" +
-					"Systolic: " +
-					vitals.getSystolic() + "\n" +
-					"Diastolic: " +
-					vitals.getDiastolic() + "\n" +
-					"Temperature: " +
-					vitals.getTemperature() + "\n" +
-					"Heart Rate: " +
-					vitals.getHeartRate() + "\n"; 
+					"Date: ").append(TimeFormat.DISPLAY_DATE.format(vitalsTimestamps[i])).append("\n" +
+					"Time: ").append(TimeFormat.TIME.format(vitalsTimestamps[i])).append("\n" +
+					"Systolic: ").append(systolics[i]).append("\n" +
+					"Diastolic: ").append(diastolics[i]).append("\n" +
+					"Temperature: ").append(temperatures[i]).append("\n" +
+					"Heart Rate: ").append(heartRates[i]).append("\n");
 		}
+		return vitalsString.toString();
+	}
+
+	/**
+	 * Returns the display of every Prescription of this ERVisit record.
+	 * @return A string representation to display the Prescriptions, or an 
+	 * empty String if there are none.
+	 */
+	public String getPrescriptionsDisplay() {
 		// Constructs the display of every Prescription.
-		String prescriptionString = "";
+		StringBuilder prescriptionString = new StringBuilder();
 		for(Prescription prescription : prescriptionRecords) {
-			prescriptionString = prescriptionString + 
-					"------------------" + "\n" +
+			prescriptionString.append("------------------" + "\n" +
 					"Prescription:" + "\n" +
-					"Name: " +
-					prescription.getMedicationName() + "\n" +
-					"Instructions: " +
-					prescription.getInstructions() + "\n";	
+					"Name: ").append(prescription.getMedicationName()).append("\n" +
+					"Instructions: ").append(prescription.getInstructions()).append("\n");
 		}
-		
-		return displayHeader + vitalsString + prescriptionString;
+		return prescriptionString.toString();
 	}
 
 	
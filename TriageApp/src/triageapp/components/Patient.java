@@ -2,23 +2,18 @@ package triageapp.components;
 
 import java.io.Serializable;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Calendar;
-import android.annotation.SuppressLint;
 
 
 /** 
  * Class Patient holds the patient's personal information and medical history. 
  * It is used to access and update the Patient's medical record, 
  * and keep track of the patient's current ER visit. */
-@SuppressLint("SimpleDateFormat") 
 public class Patient implements Serializable {
 
-	/** The date formatted as yyyy-MM-dd.  */
-	public static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 	/** The standard for number of characters in a Health Card Number */
 	public static final int HEALTH_CARD_NUM_CHARACTERS = 6;
+	/** The highest urgency: one point per vital sign out of range, and one for Patients under 2. */
+	public static final int MAX_URGENCY = 4;
 	/** A unique ID for serialization. */
 	private static final long serialVersionUID = -4967725129578310921L;
 	/** The name of the Patient. */
@@ -31,8 +26,12 @@ public class Patient implements Serializable {
 	private ERVisit currentERVisit;
 	/** The urgency points of Patient. */
 	private int urgency;
+	/** The date of birth of the Patient, as days since 1970-01-01. */
+	private int dobEpochDay;
 	/** The age of patient. */
 	private int age;
+	/** The day age was computed on, as days since 1970-01-01. */
+	private int ageEpochDay;
 	
 	
 	/**
@@ -55,24 +54,15 @@ public class Patient implements Serializable {
 		this.urgency = 0;
 		this.currentERVisit = null;
 		
-		Date date = new Date();
 		try {
-			date = dateFormat.parse(dob);
+			this.dobEpochDay = TimeFormat.epochDay(dob);
 		} catch (ParseException e) {
 			// If there is a ParseException, printStackTrace
 			e.printStackTrace();
+			this.dobEpochDay = TimeFormat.todayEpochDay();
 		}
-		Calendar dobcalendar = Calendar.getInstance();
-		dobcalendar.setTime(date);
-		Calendar today = Calendar.getInstance();
-		this.age = today.get(Calendar.YEAR) - dobcalendar.get(Calendar.YEAR);
-		if (today.get(Calendar.MONTH) < dobcalendar.get(Calendar.MONTH)) {
-			this.age--;
-		}
-		else if (today.get(Calendar.MONTH) == dobcalendar.get(Calendar.MONTH) 
-				&& today.get(Calendar.DAY_OF_MONTH) < dobcalendar.get(Calendar.DAY_OF_MONTH)) {
-			this.age--;
-		}
+		this.ageEpochDay = TimeFormat.todayEpochDay();
+		this.age = TimeFormat.ageInYears(dobEpochDay, ageEpochDay);
 	}
 
 	/** Adds a new ERVisit to Patient. */
@@ -153,12 +143,13 @@ public class Patient implements Serializable {
 			this.urgency = 0;
 			return;
 		}
-		if (currentERVisit.getLatestVitalSigns() == null){
+		int vitalsCount = currentERVisit.getVitalsCount();
+		if (vitalsCount == 0){
 			this.urgency = 0;
 		} else {
-			this.urgency = currentERVisit.getLatestVitalSigns().getPoints();
+			this.urgency = currentERVisit.getVitalsPoints(vitalsCount - 1);
 		}
-		if (age < 2){
+		if (isInfant()){
 			this.urgency++;
 		}
 	}
@@ -170,4 +161,26 @@ public class Patient implements Serializable {
 	public void setUrgency(int urgency){
 		this.urgency = urgency;
 	}
+	
+	/**
+	 * Checks whether the Patient is an infant, whose urgency is one more.
+	 * @return true if the Patient is under 2 years old.
+	 */
+	public boolean isInfant(){
+		return getAge() < 2;
+	}
+	
+	/**
+	 * Gets the age of the Patient, which is only recomputed
+	 * when the day has changed since it was last computed.
+	 * @return The age of the Patient in whole years.
+	 */
+	private int getAge(){
+		int today = TimeFormat.todayEpochDay();
+		if (today != ageEpochDay){
+			this.age = TimeFormat.ageInYears(dobEpochDay, today);
+			this.ageEpochDay = today;
+		}
+		return age;
+	}
 }
\ No newline at end of file
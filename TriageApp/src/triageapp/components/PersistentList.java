@@ -0,0 +1,237 @@
+package triageapp.components;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+
+/**
+ * An immutable List which is changed by making a new PersistentList sharing
+ * most of its elements with the old one. The elements are kept in chunks of
+ * up to MAX_CHUNK_SIZE: inserting or removing an element copies its chunk
+ * and the array of chunks, and shares the other chunks, so that a change to
+ * a board of n Patients copies at most MAX_CHUNK_SIZE + n / CHUNK_SIZE
+ * references rather than n.
+ * @param <E> The type of the elements.
+ */
+public final class PersistentList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+
+	/** A unique ID for serialization. */
+	private static final long serialVersionUID = 4137018203611957247L;
+
+	/** The size of the chunks of a PersistentList made from a List. */
+	private static final int CHUNK_SIZE = 32;
+	/** The largest size of a chunk: a chunk growing larger is split in two. */
+	private static final int MAX_CHUNK_SIZE = 2 * CHUNK_SIZE;
+	/** The PersistentList with no elements. */
+	private static final PersistentList<Object> EMPTY = new PersistentList<Object>(new Object[0][]);
+
+	/** The chunks of elements, in order; none is empty. Never changed. */
+	private final Object[][] chunks;
+	/** The index following the last element of each chunk. */
+	private final int[] ends;
+
+	/**
+	 * Constructs a PersistentList.
+	 * @param chunks The chunks, which are not copied.
+	 */
+	private PersistentList(Object[][] chunks) {
+		this.chunks = chunks;
+		this.ends = new int[chunks.length];
+		int end = 0;
+		for (int i = 0; i < chunks.length; i++) {
+			end += chunks[i].length;
+			ends[i] = end;
+		}
+	}
+
+	/**
+	 * Gets the PersistentList with no elements.
+	 * @param <E> The type of the elements.
+	 * @return The PersistentList.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E> PersistentList<E> empty() {
+		return (PersistentList<E>) EMPTY;
+	}
+
+	/**
+	 * Makes a PersistentList of the elements of a List.
+	 * @param <E> The type of the elements.
+	 * @param elements The List, which is copied.
+	 * @return The PersistentList.
+	 */
+	public static <E> PersistentList<E> of(List<? extends E> elements) {
+		Object[] all = elements.toArray();
+		Object[][] chunks = new Object[(all.length + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+		for (int i = 0; i < chunks.length; i++) {
+			int from = i * CHUNK_SIZE;
+			chunks[i] = new Object[Math.min(CHUNK_SIZE, all.length - from)];
+			System.arraycopy(all, from, chunks[i], 0, chunks[i].length);
+		}
+		return new PersistentList<E>(chunks);
+	}
+
+	@Override
+	public int size() {
+		return ends.length == 0 ? 0 : ends[ends.length - 1];
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+		int chunk = chunkOf(index);
+		return (E) chunks[chunk][index - start(chunk)];
+	}
+
+	@Override
+	public int indexOf(Object element) {
+		int start = 0;
+		for (Object[] chunk : chunks) {
+			for (int i = 0; i < chunk.length; i++) {
+				if (element == null ? chunk[i] == null : element.equals(chunk[i]))
+					return start + i;
+			}
+			start += chunk.length;
+		}
+		return -1;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			/** The chunk of the next element. */
+			private int chunk;
+			/** The index of the next element in its chunk. */
+			private int offset;
+
+			@Override
+			public boolean hasNext() {
+				return chunk < chunks.length;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public E next() {
+				if (chunk >= chunks.length)
+					throw new NoSuchElementException();
+				E element = (E) chunks[chunk][offset];
+				if (++offset == chunks[chunk].length) {
+					chunk++;
+					offset = 0;
+				}
+				return element;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns a PersistentList with an element inserted.
+	 * @param index The index of the element in the new PersistentList.
+	 * @param element The element.
+	 * @return The new PersistentList.
+	 */
+	public PersistentList<E> plus(int index, E element) {
+		if (index < 0 || index > size())
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+		if (chunks.length == 0)
+			return new PersistentList<E>(new Object[][] {{element}});
+		//An element added at the end goes into the last chunk.
+		int chunk = index == size() ? chunks.length - 1 : chunkOf(index);
+		int offset = index - start(chunk);
+		Object[] old = chunks[chunk];
+		Object[] grown = new Object[old.length + 1];
+		System.arraycopy(old, 0, grown, 0, offset);
+		grown[offset] = element;
+		System.arraycopy(old, offset, grown, offset + 1, old.length - offset);
+		if (grown.length <= MAX_CHUNK_SIZE) {
+			Object[][] newChunks = chunks.clone();
+			newChunks[chunk] = grown;
+			return new PersistentList<E>(newChunks);
+		}
+		//Splits the chunk in two halves.
+		Object[] first = new Object[grown.length / 2];
+		Object[] second = new Object[grown.length - first.length];
+		System.arraycopy(grown, 0, first, 0, first.length);
+		System.arraycopy(grown, first.length, second, 0, second.length);
+		Object[][] newChunks = new Object[chunks.length + 1][];
+		System.arraycopy(chunks, 0, newChunks, 0, chunk);
+		newChunks[chunk] = first;
+		newChunks[chunk + 1] = second;
+		System.arraycopy(chunks, chunk + 1, newChunks, chunk + 2, chunks.length - chunk - 1);
+		return new PersistentList<E>(newChunks);
+	}
+
+	/**
+	 * Returns a PersistentList with an element removed.
+	 * @param index The index of the element.
+	 * @return The new PersistentList.
+	 */
+	public PersistentList<E> minus(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+		int chunk = chunkOf(index);
+		int offset = index - start(chunk);
+		Object[] old = chunks[chunk];
+		if (old.length == 1) {
+			//Removes the chunk, which would be empty.
+			Object[][] newChunks = new Object[chunks.length - 1][];
+			System.arraycopy(chunks, 0, newChunks, 0, chunk);
+			System.arraycopy(chunks, chunk + 1, newChunks, chunk, chunks.length - chunk - 1);
+			return new PersistentList<E>(newChunks);
+		}
+		Object[] shrunk = new Object[old.length - 1];
+		System.arraycopy(old, 0, shrunk, 0, offset);
+		System.arraycopy(old, offset + 1, shrunk, offset, shrunk.length - offset);
+		Object[][] newChunks = chunks.clone();
+		newChunks[chunk] = shrunk;
+		return new PersistentList<E>(newChunks);
+	}
+
+	/**
+	 * Returns a PersistentList without an element.
+	 * @param element The element.
+	 * @return The new PersistentList, or this PersistentList if it does not contain the element.
+	 */
+	public PersistentList<E> minus(Object element) {
+		int index = indexOf(element);
+		return index < 0 ? this : minus(index);
+	}
+
+	/**
+	 * Finds the chunk holding an element.
+	 * @param index The index of the element, which is in the PersistentList.
+	 * @return The index of the chunk.
+	 */
+	private int chunkOf(int index) {
+		int low = 0;
+		int high = ends.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (ends[middle] <= index)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Gets the index of the first element of a chunk.
+	 * @param chunk The index of the chunk.
+	 * @return The index of its first element.
+	 */
+	private int start(int chunk) {
+		return chunk == 0 ? 0 : ends[chunk - 1];
+	}
+}
@@ -0,0 +1,404 @@
+package triageapp.components;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The Patients sent to the doctor and waiting to be seen, in one queue per
+ * Physician, each ordered by urgency, then by arrival time. A Patient sent to
+ * the doctor is assigned to the Physician with the fewest Patients waiting.
+ * A Physician takes the next Patient from their own queue; a Physician whose
+ * queue is empty steals the most urgent Patient of the longest queue, so that
+ * no Patient waits for a busy Physician while another one is idle.
+ * Each queue has its own lock, so Physicians working on their own queues do
+ * not contend with each other. Patients sent while no Physician is registered
+ * wait in a queue of their own, from which every Physician steals, until
+ * the next Physician registers and is assigned them. A Physician who logs
+ * out is unregistered, and gives back the Patients waiting for them.
+ * The queues only hold the Patients; the callers store who is assigned to
+ * whom (see ERAdmin), and put them back in their queues when loading.
+ */
+public class PhysicianQueues implements Serializable {
+
+	/** A unique ID for serialization. */
+	private static final long serialVersionUID = -6016482391287347265L;
+
+	/** The name of the queue of the Patients sent while no Physician was registered. */
+	private static final String UNASSIGNED = "";
+
+	/** The queues, by username of their Physician. */
+	private final ConcurrentMap<String, PhysicianQueue> queues = new ConcurrentHashMap<String, PhysicianQueue>();
+	/** The queue of each Patient waiting, by health card number. */
+	private final ConcurrentMap<String, PhysicianQueue> assignments = new ConcurrentHashMap<String, PhysicianQueue>();
+
+	/** A Patient waiting, with the urgency and arrival time it is ordered by. */
+	private static final class QueuedPatient implements Serializable {
+		/** A unique ID for serialization. */
+		private static final long serialVersionUID = 2284179931744205124L;
+		/** The Patient. */
+		final Patient patient;
+		/** The urgency of the Patient when queued. */
+		final int urgency;
+		/** The arrival time of the Patient's current ERVisit. */
+		final long arrivalTime;
+
+		/**
+		 * Constructs a QueuedPatient with the current urgency of a Patient.
+		 * @param patient The Patient, who must have a current ERVisit.
+		 */
+		QueuedPatient(Patient patient) {
+			this.patient = patient;
+			this.urgency = patient.getUrgency();
+			this.arrivalTime = patient.getCurrentERVisit().getArrivalTime();
+		}
+
+		/**
+		 * Checks whether this QueuedPatient is seen before another one.
+		 * @param other The other QueuedPatient.
+		 * @return true if this Patient is more urgent, or as urgent and arrived first.
+		 */
+		boolean before(QueuedPatient other) {
+			return urgency != other.urgency ? urgency > other.urgency : arrivalTime < other.arrivalTime;
+		}
+	}
+
+	/** The Patients waiting for one Physician. */
+	private static final class PhysicianQueue implements Serializable {
+		/** A unique ID for serialization. */
+		private static final long serialVersionUID = -3526904453839411630L;
+		/** The username of the Physician. */
+		final String physician;
+		/** Guards patients. */
+		final ReentrantLock lock = new ReentrantLock();
+		/** The Patients waiting, most urgent first. */
+		final List<QueuedPatient> patients = new ArrayList<QueuedPatient>();
+		/** The number of Patients waiting, read without the lock to choose a queue. */
+		volatile int size;
+		/** Whether the Physician was unregistered, after which no Patient is inserted. Guarded by lock. */
+		boolean removed;
+
+		/**
+		 * Constructs an empty PhysicianQueue.
+		 * @param physician The username of the Physician.
+		 */
+		PhysicianQueue(String physician) {
+			this.physician = physician;
+		}
+
+		/**
+		 * Inserts a Patient after the Patients seen before it. Must be called holding lock.
+		 * @param queued The Patient.
+		 */
+		void insert(QueuedPatient queued) {
+			int low = 0;
+			int high = patients.size();
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (queued.before(patients.get(middle)))
+					high = middle;
+				else
+					low = middle + 1;
+			}
+			patients.add(low, queued);
+			size = patients.size();
+		}
+
+		/**
+		 * Finds a Patient. Must be called holding lock.
+		 * @param patient The Patient.
+		 * @return The index of the Patient, or -1 if not waiting in this queue.
+		 */
+		int indexOf(Patient patient) {
+			for (int i = 0; i < patients.size(); i++) {
+				if (patients.get(i).patient == patient)
+					return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Removes a Patient. Must be called holding lock.
+		 * @param index The index of the Patient.
+		 * @return The Patient.
+		 */
+		Patient remove(int index) {
+			Patient patient = patients.remove(index).patient;
+			size = patients.size();
+			return patient;
+		}
+	}
+
+	/** Constructs PhysicianQueues with no Physician. */
+	public PhysicianQueues() {
+		queues.put(UNASSIGNED, new PhysicianQueue(UNASSIGNED));
+	}
+
+	/**
+	 * Adds a queue for a Physician, if the Physician has none, and assigns
+	 * them the Patients sent while no Physician was registered (e.g. loaded
+	 * from the database before any Physician logged in).
+	 * @param physician The username of the Physician.
+	 * @return The Patients assigned to the Physician, which were waiting for no Physician.
+	 */
+	public List<Patient> registerPhysician(String physician) {
+		List<Patient> moved = new ArrayList<Patient>();
+		if (UNASSIGNED.equals(physician))
+			return moved;
+		PhysicianQueue unassigned = queues.get(UNASSIGNED);
+		List<QueuedPatient> waiting;
+		unassigned.lock.lock();
+		try {
+			waiting = new ArrayList<QueuedPatient>(unassigned.patients);
+			unassigned.patients.clear();
+			unassigned.size = 0;
+		} finally {
+			unassigned.lock.unlock();
+		}
+		//Only one queue lock is held at a time, as everywhere else.
+		PhysicianQueue queue = lockQueue(physician);
+		try {
+			for (QueuedPatient queued : waiting) {
+				//A Patient removed meanwhile is no longer assigned to the unassigned queue.
+				if (assignments.replace(queued.patient.getHealthCardNumber(), unassigned, queue)) {
+					queue.insert(queued);
+					moved.add(queued.patient);
+				}
+			}
+		} finally {
+			queue.lock.unlock();
+		}
+		return moved;
+	}
+
+	/**
+	 * Removes the queue of a Physician, e.g. when they log out. The Patients
+	 * waiting for them no longer wait in any queue, and are to be assigned again.
+	 * @param physician The username of the Physician.
+	 * @return The Patients who were waiting for the Physician, most urgent first.
+	 */
+	public List<Patient> unregisterPhysician(String physician) {
+		List<Patient> waiting = new ArrayList<Patient>();
+		if (UNASSIGNED.equals(physician))
+			return waiting;
+		PhysicianQueue queue = queues.remove(physician);
+		if (queue == null)
+			return waiting;
+		queue.lock.lock();
+		try {
+			queue.removed = true;
+			for (QueuedPatient queued : queue.patients) {
+				if (assignments.remove(queued.patient.getHealthCardNumber(), queue))
+					waiting.add(queued.patient);
+			}
+			queue.patients.clear();
+			queue.size = 0;
+		} finally {
+			queue.lock.unlock();
+		}
+		return waiting;
+	}
+
+	/**
+	 * Gets and locks the queue of a Physician, adding it if the Physician has none.
+	 * @param physician The username of the Physician.
+	 * @return The queue, whose lock the caller must unlock.
+	 */
+	private PhysicianQueue lockQueue(String physician) {
+		while (true) {
+			PhysicianQueue queue = queues.get(physician);
+			if (queue == null) {
+				queues.putIfAbsent(physician, new PhysicianQueue(physician));
+				continue;
+			}
+			queue.lock.lock();
+			//A queue unregistered meanwhile is no longer in queues.
+			if (!queue.removed)
+				return queue;
+			queue.lock.unlock();
+		}
+	}
+
+	/**
+	 * Assigns a Patient sent to the doctor to the Physician with the fewest
+	 * Patients waiting. Must not be called for a Patient already waiting.
+	 * @param patient The Patient, who must have a current ERVisit.
+	 * @return The username of the Physician, or null if no Physician is registered.
+	 */
+	public String assign(Patient patient) {
+		while (true) {
+			PhysicianQueue shortest = null;
+			for (PhysicianQueue queue : queues.values()) {
+				if (!UNASSIGNED.equals(queue.physician) && (shortest == null || queue.size < shortest.size))
+					shortest = queue;
+			}
+			if (shortest == null)
+				shortest = queues.get(UNASSIGNED);
+			shortest.lock.lock();
+			try {
+				//The Physician may have been unregistered since the queue was chosen.
+				if (shortest.removed)
+					continue;
+				shortest.insert(new QueuedPatient(patient));
+				assignments.put(patient.getHealthCardNumber(), shortest);
+			} finally {
+				shortest.lock.unlock();
+			}
+			return UNASSIGNED.equals(shortest.physician) ? null : shortest.physician;
+		}
+	}
+
+	/**
+	 * Assigns a Patient sent to the doctor to a given Physician, e.g. as
+	 * stored in the database or received from another device. The Physician
+	 * gets a queue if they have none. Must not be called for a Patient already waiting.
+	 * @param patient The Patient, who must have a current ERVisit.
+	 * @param physician The username of the Physician, or null to assign the Patient to no Physician.
+	 */
+	public void assign(Patient patient, String physician) {
+		PhysicianQueue queue = lockQueue(physician == null ? UNASSIGNED : physician);
+		try {
+			queue.insert(new QueuedPatient(patient));
+			assignments.put(patient.getHealthCardNumber(), queue);
+		} finally {
+			queue.lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves a waiting Patient to its place for its current urgency, in the same queue.
+	 * @param patient The Patient.
+	 */
+	public void requeue(Patient patient) {
+		PhysicianQueue queue = assignments.get(patient.getHealthCardNumber());
+		if (queue == null)
+			return;
+		queue.lock.lock();
+		try {
+			int index = queue.indexOf(patient);
+			if (index >= 0) {
+				queue.remove(index);
+				queue.insert(new QueuedPatient(patient));
+			}
+		} finally {
+			queue.lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes a Patient from their queue, e.g. when their ERVisit is closed.
+	 * @param patient The Patient.
+	 * @return true if the Patient was waiting.
+	 */
+	public boolean remove(Patient patient) {
+		PhysicianQueue queue = assignments.remove(patient.getHealthCardNumber());
+		if (queue == null)
+			return false;
+		queue.lock.lock();
+		try {
+			int index = queue.indexOf(patient);
+			if (index < 0)
+				return false;
+			queue.remove(index);
+			return true;
+		} finally {
+			queue.lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the next Patient for a Physician to see: the most urgent Patient of
+	 * the Physician's queue or, if it is empty, of the longest queue.
+	 * @param physician The username of the Physician.
+	 * @return The Patient, who is no longer waiting, or null if no Patient is waiting.
+	 */
+	public Patient takeNext(String physician) {
+		PhysicianQueue own = queues.get(physician);
+		if (own != null) {
+			Patient patient = poll(own);
+			if (patient != null)
+				return patient;
+		}
+		//Steals from the longest queue; another Physician may empty it first.
+		while (true) {
+			PhysicianQueue longest = null;
+			for (PhysicianQueue queue : queues.values()) {
+				if (queue.size > 0 && (longest == null || queue.size > longest.size))
+					longest = queue;
+			}
+			if (longest == null)
+				return null;
+			Patient patient = poll(longest);
+			if (patient != null)
+				return patient;
+		}
+	}
+
+	/**
+	 * Takes the most urgent Patient of a queue.
+	 * @param queue The queue.
+	 * @return The Patient, or null if the queue is empty.
+	 */
+	private Patient poll(PhysicianQueue queue) {
+		queue.lock.lock();
+		try {
+			if (queue.patients.isEmpty())
+				return null;
+			Patient patient = queue.remove(0);
+			assignments.remove(patient.getHealthCardNumber(), queue);
+			return patient;
+		} finally {
+			queue.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the Patients waiting for a Physician.
+	 * @param physician The username of the Physician.
+	 * @return A copy of the queue, most urgent first; empty if the Physician is not registered.
+	 */
+	public List<Patient> getQueue(String physician) {
+		PhysicianQueue queue = queues.get(physician);
+		List<Patient> patients = new ArrayList<Patient>();
+		if (queue == null)
+			return patients;
+		queue.lock.lock();
+		try {
+			for (QueuedPatient queued : queue.patients)
+				patients.add(queued.patient);
+		} finally {
+			queue.lock.unlock();
+		}
+		return patients;
+	}
+
+	/**
+	 * Gets the Physician a Patient waits for.
+	 * @param healthCardNumber The health card number of the Patient.
+	 * @return The username of the Physician, or null if the Patient is not
+	 * waiting or waits for no Physician in particular.
+	 */
+	public String getPhysician(String healthCardNumber) {
+		PhysicianQueue queue = assignments.get(healthCardNumber);
+		return queue == null || UNASSIGNED.equals(queue.physician) ? null : queue.physician;
+	}
+
+	/** Removes every Patient from the queues, keeping the Physicians. */
+	public void clear() {
+		for (PhysicianQueue queue : queues.values()) {
+			queue.lock.lock();
+			try {
+				for (QueuedPatient queued : queue.patients)
+					assignments.remove(queued.patient.getHealthCardNumber(), queue);
+				queue.patients.clear();
+				queue.size = 0;
+			} finally {
+				queue.lock.unlock();
+			}
+		}
+	}
+}
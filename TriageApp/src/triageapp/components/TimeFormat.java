@@ -0,0 +1,231 @@
+package triageapp.components;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import android.annotation.SuppressLint;
+
+
+/**
+ * An immutable, thread-safe date-time format used everywhere TriageApp
+ * displays or stores a time. Every pattern has minute precision at most, so
+ * formatted Strings are cached per minute: formatting the same minute twice
+ * (e.g. every row of a list refreshed) returns the cached String.
+ * Also converts dates to epoch days (days since 1970-01-01), used to
+ * compute ages without a Calendar.
+ */
+@SuppressLint("SimpleDateFormat")
+public final class TimeFormat {
+
+	/** The date-time format used in ERVisit and VitalSigns records. */
+	public static final TimeFormat DATE_TIME = new TimeFormat("yyyy-MM-dd HH:mm");
+	/** The date format used to store a Patient's date of birth. */
+	public static final TimeFormat DATE = new TimeFormat("yyyy-MM-dd");
+	/** The date format used in the Medical Record display. */
+	public static final TimeFormat DISPLAY_DATE = new TimeFormat("MM/dd/yyyy");
+	/** The date format used in the Patient screens and lists. */
+	public static final TimeFormat LIST_DATE = new TimeFormat("MM-dd-yyyy");
+	/** The date-time format used in the Patient lists. */
+	public static final TimeFormat LIST_DATE_TIME = new TimeFormat("MM-dd-yyyy HH:mm");
+	/** The time of day format. */
+	public static final TimeFormat TIME = new TimeFormat("HH:mm");
+
+	/** The number of milliseconds in a minute. */
+	private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+	/** The number of milliseconds in a day. */
+	private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+	/** The number of cached minutes per format (a power of 2). */
+	private static final int CACHE_SIZE = 256;
+
+	/** The pattern of this TimeFormat, as used by SimpleDateFormat. */
+	private final String pattern;
+	/** One SimpleDateFormat per thread, as SimpleDateFormat is not thread-safe. */
+	private final ThreadLocal<SimpleDateFormat> formats;
+	/** Cached formatted minutes, indexed by minute modulo CACHE_SIZE. */
+	private final AtomicReferenceArray<CachedMinute> cache =
+			new AtomicReferenceArray<CachedMinute>(CACHE_SIZE);
+
+	/** An immutable formatted minute in the cache. */
+	private static final class CachedMinute {
+		/** The minute since the epoch. */
+		final long minute;
+		/** The formatted minute. */
+		final String text;
+
+		CachedMinute(long minute, String text) {
+			this.minute = minute;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Constructs a TimeFormat using the default time zone.
+	 * @param pattern The pattern, as used by SimpleDateFormat, with minute precision at most.
+	 */
+	private TimeFormat(final String pattern) {
+		this.pattern = pattern;
+		this.formats = new ThreadLocal<SimpleDateFormat>() {
+			@Override
+			protected SimpleDateFormat initialValue() {
+				return new SimpleDateFormat(pattern);
+			}
+		};
+	}
+
+	/**
+	 * Formats a time.
+	 * @param millis The time in milliseconds since the epoch.
+	 * @return The formatted time.
+	 */
+	public String format(long millis) {
+		long minute = floorDiv(millis, MILLIS_PER_MINUTE);
+		int slot = (int) (minute & (CACHE_SIZE - 1));
+		CachedMinute cached = cache.get(slot);
+		if (cached != null && cached.minute == minute)
+			return cached.text;
+		String text = formats.get().format(new Date(minute * MILLIS_PER_MINUTE));
+		//Racing threads may both format the same minute; either result is correct.
+		cache.set(slot, new CachedMinute(minute, text));
+		return text;
+	}
+
+	/**
+	 * Parses a time formatted with this TimeFormat.
+	 * @param text The formatted time.
+	 * @return The time in milliseconds since the epoch.
+	 * @throws ParseException if the text is not in this format.
+	 */
+	public long parse(String text) throws ParseException {
+		return formats.get().parse(text).getTime();
+	}
+
+	/**
+	 * Returns the pattern of this TimeFormat.
+	 * @return The pattern, as used by SimpleDateFormat.
+	 */
+	public String toString() {
+		return pattern;
+	}
+
+	/**
+	 * Returns the epoch day of a date formatted as yyyy-MM-dd, without
+	 * creating a Calendar.
+	 * @param date A date formatted as yyyy-MM-dd.
+	 * @return The number of days between 1970-01-01 and the date.
+	 * @throws ParseException if the date is not a valid yyyy-MM-dd date.
+	 */
+	public static int epochDay(String date) throws ParseException {
+		if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-')
+			throw new ParseException("Unparseable date: " + date, 0);
+		int year = parseDigits(date, 0, 4);
+		int month = parseDigits(date, 5, 7);
+		int day = parseDigits(date, 8, 10);
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month))
+			throw new ParseException("Unparseable date: " + date, 5);
+		return epochDay(year, month, day);
+	}
+
+	/**
+	 * Returns the epoch day of the current date in the default time zone.
+	 * @return The number of days between 1970-01-01 and today.
+	 */
+	public static int todayEpochDay() {
+		long now = System.currentTimeMillis();
+		return (int) floorDiv(now + TimeZone.getDefault().getOffset(now), MILLIS_PER_DAY);
+	}
+
+	/**
+	 * Returns the age in whole years on a day of someone born on another day.
+	 * @param birthEpochDay The epoch day of the date of birth.
+	 * @param onEpochDay The epoch day the age is computed on.
+	 * @return The age in whole years.
+	 */
+	public static int ageInYears(int birthEpochDay, int onEpochDay) {
+		int[] birth = civilDate(birthEpochDay);
+		int[] on = civilDate(onEpochDay);
+		int age = on[0] - birth[0];
+		if (on[1] < birth[1] || (on[1] == birth[1] && on[2] < birth[2]))
+			age--;
+		return age;
+	}
+
+	/**
+	 * Returns the epoch day of a date in the proleptic Gregorian calendar.
+	 * @param year The year.
+	 * @param month The month, from 1 to 12.
+	 * @param day The day of the month, from 1.
+	 * @return The number of days between 1970-01-01 and the date.
+	 */
+	private static int epochDay(int year, int month, int day) {
+		//Counts years from March, so that the leap day is the last day of a year.
+		int y = month <= 2 ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Returns the date of an epoch day (the inverse of epochDay).
+	 * @param epochDay The number of days since 1970-01-01.
+	 * @return An array holding the year, month (1 to 12) and day of the month.
+	 */
+	private static int[] civilDate(int epochDay) {
+		int z = epochDay + 719468;
+		int era = (z >= 0 ? z : z - 146096) / 146097;
+		int dayOfEra = z - era * 146097;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return new int[] {year, month, day};
+	}
+
+	/**
+	 * Returns the number of days in a month.
+	 * @param year The year.
+	 * @param month The month, from 1 to 12.
+	 * @return The number of days in the month.
+	 */
+	private static int daysInMonth(int year, int month) {
+		if (month == 2)
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+	}
+
+	/**
+	 * Parses the decimal digits of text between start (inclusive) and end (exclusive).
+	 * @param text The text to parse.
+	 * @param start The index of the first digit.
+	 * @param end The index after the last digit.
+	 * @return The parsed number.
+	 * @throws ParseException if a character is not a digit.
+	 */
+	private static int parseDigits(String text, int start, int end) throws ParseException {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9')
+				throw new ParseException("Unparseable date: " + text, i);
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Divides rounding towards negative infinity.
+	 * @param dividend The dividend.
+	 * @param divisor The (positive) divisor.
+	 * @return The largest whole number not greater than dividend / divisor.
+	 */
+	private static long floorDiv(long dividend, long divisor) {
+		long quotient = dividend / divisor;
+		return (dividend % divisor < 0) ? quotient - 1 : quotient;
+	}
+}
@@ -2,15 +2,12 @@ package triageapp.components;
 
 import java.io.Serializable;
 import java.util.Calendar;
-import java.util.Date;
-import android.annotation.SuppressLint;
 
 
 /**
  * VitalSigns stores the vital signs (eg. blood pressure, temperature, heart rate) of a patient 
  * at the time he/she was checked.
  */
-@SuppressLint("SimpleDateFormat") 
 public class VitalSigns implements Serializable{
 	
 	/** A unique ID for serialization. */
@@ -83,17 +80,29 @@ public class VitalSigns implements Serializable{
 	 * Calculates urgency level based on vital sign data.
 	 */
 	private void calculateUrgencyPoints(){
+		this.points = calculateUrgencyPoints(systolic, diastolic, temperature, heartRate);
+	}
+	
+	/**
+	 * Calculates the urgency points for a set of vital sign values.
+	 * @param sys The systolic blood pressure of the Patient. 
+	 * @param dia The diastolic blood pressure of the Patient.
+	 * @param temp The body temperature of the Patient.
+	 * @param HR The heart rate of the Patient.
+	 * @return The urgency points for these vital sign values.
+	 */
+	public static int calculateUrgencyPoints(int sys, int dia, float temp, float HR){
 		int pts=0;
-		if (temperature>=TEMPERATURE_RANGE){
+		if (temp>=TEMPERATURE_RANGE){
 			pts++;
 		}
-		if (systolic>=BLOOD_PRESSURE_RANGE[0] | diastolic>=BLOOD_PRESSURE_RANGE[1]){
+		if (sys>=BLOOD_PRESSURE_RANGE[0] | dia>=BLOOD_PRESSURE_RANGE[1]){
 			pts++;
 		}
-		if (heartRate>=HEART_RATE_RANGE[0] | heartRate<=HEART_RATE_RANGE[1]){
+		if (HR>=HEART_RATE_RANGE[0] | HR<=HEART_RATE_RANGE[1]){
 			pts++;
 		}
-		this.points = pts;
+		return pts;
 	}
 
 	/**
@@ -149,7 +158,20 @@ public class VitalSigns implements Serializable{
 	 * @return A String representation of the patient's vital signs.
 	 */
 	public String toString() {
-		String dateString = ERVisit.dateTimeFormat.format(new Date(timestamp));
-		return "VitalSigns~"+systolic+"~"+diastolic+"~"+temperature+"~"+heartRate+"~"+ dateString + "\n";
+		return toString(systolic, diastolic, temperature, heartRate, timestamp);
+	}
+	
+	/**
+	 * Returns a String representation of a set of vital sign values.
+	 * @param sys The systolic blood pressure of the Patient. 
+	 * @param dia The diastolic blood pressure of the Patient.
+	 * @param temp The body temperature of the Patient.
+	 * @param HR The heart rate of the Patient.
+	 * @param timeStamp The time the vital signs were taken.
+	 * @return A String representation of the vital sign values.
+	 */
+	public static String toString(int sys, int dia, float temp, float HR, long timeStamp) {
+		String dateString = TimeFormat.DATE_TIME.format(timeStamp);
+		return "VitalSigns~"+sys+"~"+dia+"~"+temp+"~"+HR+"~"+ dateString + "\n";
 	}
 }
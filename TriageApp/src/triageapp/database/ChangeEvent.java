@@ -0,0 +1,74 @@
+package triageapp.database;
+
+
+/**
+ * A committed mutation of the database, as published by the ChangeStream.
+ * Events are numbered by a sequence number which increases with every
+ * mutation, in commit order, and is never reused; it is the row id of the
+ * event in the ChangeEvent table.
+ */
+public final class ChangeEvent {
+
+	/** A Patient row was inserted; rowID is the Patient, healthCardNumber is set. */
+	public static final int PATIENT_CREATED = 1;
+	/** An ERVisit row was inserted; value is the arrival time, healthCardNumber and urgency are set. */
+	public static final int ERVISIT_CREATED = 2;
+	/** A VitalSigns row was inserted; value is its timestamp, urgency is the ERVisit's new urgency. */
+	public static final int VITALS_CREATED = 3;
+	/** A Prescription row was inserted. */
+	public static final int PRESCRIPTION_CREATED = 4;
+	/** An ERVisit was sent to a doctor; value is the time seen by the doctor. */
+	public static final int ERVISIT_SENT_TO_DOCTOR = 5;
+	/** An ERVisit was closed. */
+	public static final int ERVISIT_CLOSED = 6;
+	/** An ERVisit was deleted, with its VitalSigns and Prescriptions. */
+	public static final int ERVISIT_DELETED = 7;
+	/** An ERVisit was assigned to a Physician, or to none; value is the time the Physician took the Patient, or 0. */
+	public static final int ERVISIT_ASSIGNED = 8;
+
+	/** The sequence number of the event. */
+	public final long sequence;
+	/** The type of the event. */
+	public final int type;
+	/** The row id of the row inserted or updated. */
+	public final long rowID;
+	/** The row id of the ERVisit the event belongs to, or 0 for a Patient. */
+	public final long ervisitID;
+	/** The health card number of the Patient, or null if the event does not carry it. */
+	public final String healthCardNumber;
+	/** The time carried by the event (see the types), or 0. */
+	public final long value;
+	/** The urgency of the ERVisit, or 0 if the event does not carry it. */
+	public final int urgency;
+	/** The time the event was committed. */
+	public final long time;
+
+	/**
+	 * Constructs a ChangeEvent.
+	 * @param sequence The sequence number of the event.
+	 * @param type The type of the event.
+	 * @param rowID The row id of the row inserted or updated.
+	 * @param ervisitID The row id of the ERVisit, or 0.
+	 * @param healthCardNumber The health card number of the Patient, or null.
+	 * @param value The time carried by the event, or 0.
+	 * @param urgency The urgency of the ERVisit, or 0.
+	 * @param time The time the event was committed.
+	 */
+	public ChangeEvent(long sequence, int type, long rowID, long ervisitID, String healthCardNumber,
+			long value, int urgency, long time) {
+		this.sequence = sequence;
+		this.type = type;
+		this.rowID = rowID;
+		this.ervisitID = ervisitID;
+		this.healthCardNumber = healthCardNumber;
+		this.value = value;
+		this.urgency = urgency;
+		this.time = time;
+	}
+
+	@Override
+	public String toString() {
+		return "#" + sequence + " type " + type + " row " + rowID + " visit " + ervisitID
+				+ (healthCardNumber != null ? " patient " + healthCardNumber : "");
+	}
+}
@@ -0,0 +1,197 @@
+package triageapp.database;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.database.Cursor;
+import android.util.Log;
+
+
+/**
+ * Publishes every mutation committed by a TriageDBAdapter as a ChangeEvent,
+ * in sequence order, to the subscribers of this process (board views, caches,
+ * analytics, sync). A subscriber keeps the sequence number of the last event
+ * it handled, and resumes from it when it subscribes again: the events it
+ * missed are replayed from the ChangeEvent table before the new ones.
+ * The missed events are replayed on the thread subscribing; the new ones are
+ * delivered on the stream's own thread, one at a time and in sequence order,
+ * after their transaction has committed and without holding any lock of the
+ * TriageDBAdapters, so a slow subscriber delays the other subscribers but
+ * never a mutation.
+ */
+public final class ChangeStream {
+
+	/** Receives the ChangeEvents of the stream. */
+	public interface Subscriber {
+		/**
+		 * Handles an event. Events arrive once each, in sequence order.
+		 * @param event The event.
+		 */
+		void onChange(ChangeEvent event);
+
+		/**
+		 * Called instead of replaying the missed events when some of them were
+		 * already deleted from the ChangeEvent table: the subscriber must reload
+		 * its state from the tables, then handle the events that follow.
+		 */
+		void onReset();
+	}
+
+	/** A Subscriber and the last event delivered to it. */
+	public static final class Subscription {
+		/** The Subscriber. */
+		private final Subscriber subscriber;
+		/** The sequence number of the last event delivered. Written by one thread at a time. */
+		private volatile long lastSequence;
+
+		/**
+		 * Constructs a Subscription.
+		 * @param subscriber The Subscriber.
+		 * @param lastSequence The sequence number of the last event the Subscriber handled.
+		 */
+		private Subscription(Subscriber subscriber, long lastSequence) {
+			this.subscriber = subscriber;
+			this.lastSequence = lastSequence;
+		}
+
+		/**
+		 * Gets the sequence number of the last event delivered, from which the
+		 * Subscriber may resume later.
+		 * @return The sequence number.
+		 */
+		public long getLastSequence() {
+			return lastSequence;
+		}
+
+		/** Stops delivering events to the Subscriber. */
+		public void cancel() {
+			SUBSCRIPTIONS.remove(this);
+		}
+
+		/**
+		 * Delivers an event, unless it was already delivered.
+		 * @param event The event.
+		 */
+		private void deliver(ChangeEvent event) {
+			if (event.sequence <= lastSequence)
+				return;
+			lastSequence = event.sequence;
+			subscriber.onChange(event);
+		}
+	}
+
+	/** The tag of the log messages. */
+	private static final String TAG = "ChangeStream";
+	/** The number of events replayed per query when a subscriber resumes. */
+	private static final int REPLAY_PAGE_SIZE = 256;
+
+	/**
+	 * Held by the TriageDBAdapters from the start of a mutation's transaction
+	 * until its events are published, so that events are committed and
+	 * published in sequence order.
+	 */
+	static final Object WRITE_LOCK = new Object();
+	/** The current subscriptions. */
+	private static final List<Subscription> SUBSCRIPTIONS = new CopyOnWriteArrayList<Subscription>();
+	/** Delivers the published events, in the order they were published. */
+	private static final ExecutorService DELIVERY = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "ChangeStream");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** This class only has static methods. */
+	private ChangeStream() {
+	}
+
+	/**
+	 * Subscribes to the events following the given sequence number. The events
+	 * already committed are replayed first, from the database, on this thread.
+	 * @param subscriber The Subscriber.
+	 * @param afterSequence The sequence number of the last event the Subscriber
+	 * handled, or 0 for every event still in the ChangeEvent table.
+	 * @param dbAdapter An open database adapter (helper), to replay the events from.
+	 * @return The Subscription.
+	 */
+	public static Subscription subscribe(Subscriber subscriber, long afterSequence, TriageDBAdapter dbAdapter) {
+		Subscription subscription = new Subscription(subscriber, afterSequence);
+		if (afterSequence > 0 && missedDeletedEvents(afterSequence, dbAdapter))
+			subscriber.onReset();
+		//Most events are replayed without blocking the mutations; only those
+		//committed meanwhile are replayed holding WRITE_LOCK, so that none is
+		//missed before the Subscription receives the new ones.
+		replay(subscription, dbAdapter);
+		synchronized (WRITE_LOCK) {
+			replay(subscription, dbAdapter);
+			SUBSCRIPTIONS.add(subscription);
+		}
+		return subscription;
+	}
+
+	/**
+	 * Delivers the events of the ChangeEvent table following the last one delivered to a Subscription.
+	 * @param subscription The Subscription.
+	 * @param dbAdapter An open database adapter (helper).
+	 */
+	private static void replay(Subscription subscription, TriageDBAdapter dbAdapter) {
+		while (true) {
+			Cursor events = dbAdapter.fetchChangeEventsSince(subscription.lastSequence, REPLAY_PAGE_SIZE);
+			try {
+				for (boolean hasItem = events.moveToFirst(); hasItem; hasItem = events.moveToNext())
+					subscription.deliver(TriageDBAdapter.readChangeEvent(events));
+				if (events.getCount() < REPLAY_PAGE_SIZE)
+					return;
+			} finally {
+				events.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns whether some of the events following a sequence number were
+	 * deleted from the ChangeEvent table, including when all of them were.
+	 * @param afterSequence The sequence number of the last event handled.
+	 * @param dbAdapter An open database adapter (helper).
+	 * @return true iff events following afterSequence were committed and deleted.
+	 */
+	private static boolean missedDeletedEvents(long afterSequence, TriageDBAdapter dbAdapter) {
+		long lastSequence = dbAdapter.getLastChangeSequence();
+		if (afterSequence > lastSequence) {
+			//The database was recreated since.
+			return true;
+		}
+		if (afterSequence == lastSequence)
+			return false;
+		long firstSequence = dbAdapter.getFirstChangeSequence();
+		return firstSequence == 0 || firstSequence > afterSequence + 1;
+	}
+
+	/**
+	 * Publishes committed events to the subscribers, on the stream's thread.
+	 * Must be called holding WRITE_LOCK, so that events are queued in sequence order.
+	 * @param events The events, in sequence order.
+	 */
+	static void publish(final List<ChangeEvent> events) {
+		DELIVERY.execute(new Runnable() {
+			@Override
+			public void run() {
+				for (ChangeEvent event : events) {
+					for (Subscription subscription : SUBSCRIPTIONS) {
+						try {
+							subscription.deliver(event);
+						} catch (RuntimeException e) {
+							//The mutation is committed; a failing subscriber must not stop the others.
+							Log.e(TAG, "A subscriber failed to handle " + event, e);
+						}
+					}
+				}
+			}
+		});
+	}
+}
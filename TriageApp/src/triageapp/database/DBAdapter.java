@@ -18,7 +18,9 @@ public class DBAdapter {
 	
 	/** Name of Database file. */
 	public static final String DATABASE_NAME = "triageApp_DB";
-	protected static final int DATABASE_VERSION = 2;
+	/** Name of the archive Database file, holding closed ERVisits moved out of the main Database. */
+	public static final String ARCHIVE_DATABASE_NAME = "triageApp_Archive_DB";
+	protected static final int DATABASE_VERSION = 7;
 	/** Tag used for log messages related to the Database */
 	protected static final String TAG = "TriageAppDbAdapter";
 	
@@ -68,6 +70,16 @@ public class DBAdapter {
 					"timestamp	INTEGER NOT NULL, " +
 					"FOREIGN KEY (ERVisitID) REFERENCES ERVisit(_ID) ON DELETE CASCADE" + 
 				");";
+	/** Sql statement for the creation of the VitalSignsBlock table, which holds
+	 * the delta-compressed VitalSigns of closed ERVisits (one row per ERVisit). */
+	protected static final String DATABASE_CREATE_VITALSIGNS_BLOCK =
+			"CREATE TABLE VitalSignsBlock (" +
+					"_ID	INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, " +
+					"ERVisitID	INTEGER NOT NULL UNIQUE, " +
+					"readingCount	INTEGER NOT NULL, " +
+					"data	BLOB NOT NULL, " +
+					"FOREIGN KEY (ERVisitID) REFERENCES ERVisit(_ID) ON DELETE CASCADE" + 
+				");";
 	/** Sql statement for the creation of the User table. */
 	protected static final String DATABASE_CREATE_USER =				
 			"CREATE TABLE User (" +
@@ -87,6 +99,130 @@ public class DBAdapter {
 					"FOREIGN KEY (ERVisitID) REFERENCES ERVisit(_ID) ON DELETE CASCADE" + 
 				");";
 	
+	/** Sql statement for the creation of the PhysicianAssignment table, which
+	 * keeps the Physician each ERVisit sent to the doctor is assigned to, and
+	 * when that Physician took the Patient (NULL while the Patient waits). */
+	protected static final String DATABASE_CREATE_PHYSICIAN_ASSIGNMENT =
+			"CREATE TABLE IF NOT EXISTS PhysicianAssignment (" +
+					"ERVisitID	INTEGER NOT NULL PRIMARY KEY, " +
+					"physician	TEXT NOT NULL, " +
+					"timeTaken	INTEGER, " +
+					"FOREIGN KEY (ERVisitID) REFERENCES ERVisit(_ID) ON DELETE CASCADE" + 
+				");";
+	
+	/** Sql statement for the creation of the ChangeEvent table, which logs every
+	 * mutation made by TriageDBAdapter for the ChangeStream. The row id is the 
+	 * sequence number of the event; AUTOINCREMENT ensures it is never reused. */
+	protected static final String DATABASE_CREATE_CHANGE_EVENT =
+			"CREATE TABLE IF NOT EXISTS ChangeEvent (" +
+					"_ID	INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, " +
+					"type	INTEGER NOT NULL, " +
+					"rowID	INTEGER NOT NULL, " +
+					"ERVisitID	INTEGER NOT NULL DEFAULT 0, " +
+					"healthCardNumber	TEXT, " +
+					"value	INTEGER NOT NULL DEFAULT 0, " +
+					"urgency	INTEGER NOT NULL DEFAULT 0, " +
+					"time	INTEGER NOT NULL" +
+				");";
+	
+	/** Sql statement for the creation of the SyncChange table, which keeps the
+	 * Changes of the sync ChangeLog that some device has not acknowledged yet, 
+	 * in the order they were applied (the row id). The data is the Change as 
+	 * written in a sync batch. */
+	protected static final String DATABASE_CREATE_SYNC_CHANGE =
+			"CREATE TABLE IF NOT EXISTS SyncChange (" +
+					"_ID	INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, " +
+					"origin	TEXT NOT NULL, " +
+					"sequence	INTEGER NOT NULL, " +
+					"data	BLOB NOT NULL, " +
+					"UNIQUE (origin, sequence)" +
+				");";
+	
+	/** Sql statement for the creation of the SyncVersion table, which keeps the
+	 * VersionVector of the sync ChangeLog (the last sequence number applied, by
+	 * origin), so that it survives the trimming of SyncChange. The row with 
+	 * isLocal=1 is the origin of this device, chosen once. */
+	protected static final String DATABASE_CREATE_SYNC_VERSION =
+			"CREATE TABLE IF NOT EXISTS SyncVersion (" +
+					"origin	TEXT NOT NULL PRIMARY KEY, " +
+					"sequence	INTEGER NOT NULL DEFAULT 0, " +
+					"isLocal	INTEGER NOT NULL DEFAULT 0" +
+				");";
+	
+	/** Sql statements for the creation of the indexes used by the queries of
+	 * TriageDBAdapter, so that none of them scans a whole table (checked by 
+	 * QueryPlanTest): a Patient's ERVisits, the open ERVisits by urgency, 
+	 * and the records of an ERVisit. */
+	protected static final String[] DATABASE_CREATE_INDEXES = {
+			"CREATE INDEX IF NOT EXISTS ERVisitPatientClosedIndex ON ERVisit (PatientID, isClosed);",
+			"CREATE INDEX IF NOT EXISTS ERVisitClosedUrgencyIndex ON ERVisit (isClosed, urgency DESC, arrivalTime);",
+			"CREATE INDEX IF NOT EXISTS VitalSignsVisitIndex ON VitalSigns (ERVisitID);",
+			"CREATE INDEX IF NOT EXISTS PrescriptionVisitIndex ON Prescription (ERVisitID);"
+	};
+	
+	// Archive database sql statements. The archive holds the same columns as
+	// the main tables (in the same order), without the foreign keys, as SQLite
+	// does not support foreign keys across databases.
+	
+	/** Sql statement for the creation of the archive ERVisit table. */
+	protected static final String ARCHIVE_CREATE_ERVISIT =
+			"CREATE TABLE IF NOT EXISTS archive.ERVisit (" +
+					"_ID	INTEGER NOT NULL PRIMARY KEY, " +
+					"PatientID	INTEGER NOT NULL, " +
+					"arrivalTime	INTEGER NOT NULL, " +
+					"timeSeenByDoctor	INTEGER, " +
+					"isClosed	INTEGER NOT NULL DEFAULT 1, " +
+					"urgency	INTEGER NOT NULL DEFAULT 0" +
+				");";
+	/** Sql statement for the creation of the archive VitalSigns table. */
+	protected static final String ARCHIVE_CREATE_VITALSIGNS =
+			"CREATE TABLE IF NOT EXISTS archive.VitalSigns (" +
+					"_ID	INTEGER NOT NULL PRIMARY KEY, " +
+					"ERVisitID	INTEGER NOT NULL, " +
+					"systolic	INTEGER NOT NULL, " +
+					"diastolic	INTEGER NOT NULL, " +
+					"temperature	REAL NOT NULL, " +
+					"heartRate	REAL NOT NULL, " +
+					"timestamp	INTEGER NOT NULL" +
+				");";
+	/** Sql statement for the creation of the archive VitalSignsBlock table. */
+	protected static final String ARCHIVE_CREATE_VITALSIGNS_BLOCK =
+			"CREATE TABLE IF NOT EXISTS archive.VitalSignsBlock (" +
+					"_ID	INTEGER NOT NULL PRIMARY KEY, " +
+					"ERVisitID	INTEGER NOT NULL UNIQUE, " +
+					"readingCount	INTEGER NOT NULL, " +
+					"data	BLOB NOT NULL" +
+				");";
+	/** Sql statement for the creation of the archive Prescription table. */
+	protected static final String ARCHIVE_CREATE_PRESCRIPTION =
+			"CREATE TABLE IF NOT EXISTS archive.Prescription (" +
+					"_ID	INTEGER NOT NULL PRIMARY KEY, " +
+					"ERVisitID	INTEGER NOT NULL, " +
+					"medication	TEXT NOT NULL, " +
+					"instructions	TEXT NOT NULL" +
+				");";
+	/** Sql statements for the creation of the archive indexes used to look up 
+	 * a Patient's history and the records of an ERVisit. */
+	protected static final String[] ARCHIVE_CREATE_INDEXES = {
+			"CREATE INDEX IF NOT EXISTS archive.ERVisitPatientIndex ON ERVisit (PatientID);",
+			"CREATE INDEX IF NOT EXISTS archive.VitalSignsVisitIndex ON VitalSigns (ERVisitID);",
+			"CREATE INDEX IF NOT EXISTS archive.PrescriptionVisitIndex ON Prescription (ERVisitID);"
+	};
+	/** Sql statements for the creation of the views that combine each main table
+	 * with its archive table, used to read a Patient's history. The views are 
+	 * temporary, as they are recreated on every connection after the archive 
+	 * is attached. */
+	protected static final String[] CREATE_HISTORY_VIEWS = {
+			"CREATE TEMP VIEW IF NOT EXISTS AllERVisit AS " +
+					"SELECT * FROM main.ERVisit UNION ALL SELECT * FROM archive.ERVisit;",
+			"CREATE TEMP VIEW IF NOT EXISTS AllVitalSigns AS " +
+					"SELECT * FROM main.VitalSigns UNION ALL SELECT * FROM archive.VitalSigns;",
+			"CREATE TEMP VIEW IF NOT EXISTS AllVitalSignsBlock AS " +
+					"SELECT * FROM main.VitalSignsBlock UNION ALL SELECT * FROM archive.VitalSignsBlock;",
+			"CREATE TEMP VIEW IF NOT EXISTS AllPrescription AS " +
+					"SELECT * FROM main.Prescription UNION ALL SELECT * FROM archive.Prescription;"
+	};
+	
 	/**
      * Constructs a DBAdapter object and takes the context 
      * to allow the database to be opened/created.
@@ -107,9 +243,13 @@ public class DBAdapter {
     	/** Insertion statement for the Role table */
     	private static final String INSERT_ROLE = "INSERT INTO Role (roleName) VALUES (?)";
     	
+    	/** The path of the archive database file attached to every connection. */
+    	private final String archivePath;
+    	
         DatabaseHelper(Context context) 
         {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            archivePath = context.getDatabasePath(ARCHIVE_DATABASE_NAME).getPath();
         }
 
         @Override
@@ -123,8 +263,15 @@ public class DBAdapter {
             db.execSQL(DATABASE_CREATE_PATIENT);
             db.execSQL(DATABASE_CREATE_ERVISIT);
             db.execSQL(DATABASE_CREATE_VITALSIGNS); 
+            db.execSQL(DATABASE_CREATE_VITALSIGNS_BLOCK); 
             db.execSQL(DATABASE_CREATE_USER); 
             db.execSQL(DATABASE_CREATE_PRESCRIPTION); 
+            db.execSQL(DATABASE_CREATE_PHYSICIAN_ASSIGNMENT); 
+            db.execSQL(DATABASE_CREATE_CHANGE_EVENT); 
+            db.execSQL(DATABASE_CREATE_SYNC_CHANGE); 
+            db.execSQL(DATABASE_CREATE_SYNC_VERSION); 
+            for (String createIndex : DATABASE_CREATE_INDEXES)
+            	db.execSQL(createIndex);
             
             //Inserts nurse and physician role Strings into Role Table.
             SQLiteStatement statement = db.compileStatement(INSERT_ROLE);
@@ -140,20 +287,57 @@ public class DBAdapter {
         public void onOpen(SQLiteDatabase db){
         	super.onOpen(db);
         	db.execSQL("PRAGMA foreign_keys=ON;");
+        	
+        	//Attaches the archive database (creating it if needed) and the
+        	//views reading history from both databases.
+        	db.execSQL("ATTACH DATABASE ? AS archive;", new Object[] {archivePath});
+        	db.execSQL(ARCHIVE_CREATE_ERVISIT);
+        	db.execSQL(ARCHIVE_CREATE_VITALSIGNS);
+        	db.execSQL(ARCHIVE_CREATE_VITALSIGNS_BLOCK);
+        	db.execSQL(ARCHIVE_CREATE_PRESCRIPTION);
+        	for (String createIndex : ARCHIVE_CREATE_INDEXES)
+        		db.execSQL(createIndex);
+        	for (String createView : CREATE_HISTORY_VIEWS)
+        		db.execSQL(createView);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) 
         {           
+        	if (oldVersion >= 2) {
+        		//Version 2 databases are migrated in place, keeping all old data.
+        		Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
+        				+ newVersion);
+        		if (oldVersion < 3)
+        			db.execSQL(DATABASE_CREATE_VITALSIGNS_BLOCK);
+        		if (oldVersion < 4) {
+        			for (String createIndex : DATABASE_CREATE_INDEXES)
+        				db.execSQL(createIndex);
+        		}
+        		if (oldVersion < 5)
+        			db.execSQL(DATABASE_CREATE_CHANGE_EVENT);
+        		if (oldVersion < 6) {
+        			db.execSQL(DATABASE_CREATE_SYNC_CHANGE);
+        			db.execSQL(DATABASE_CREATE_SYNC_VERSION);
+        		}
+        		if (oldVersion < 7)
+        			db.execSQL(DATABASE_CREATE_PHYSICIAN_ASSIGNMENT);
+        		return;
+        	}
         	Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
                     + newVersion + ", which will destroy all old data");
         	db.execSQL("DROP TABLE IF EXISTS Patient");
             db.execSQL("DROP TABLE IF EXISTS Role");
             db.execSQL("DROP TABLE IF EXISTS ERVisit");
             db.execSQL("DROP TABLE IF EXISTS VitalSigns");
+            db.execSQL("DROP TABLE IF EXISTS VitalSignsBlock");
             db.execSQL("DROP TABLE IF EXISTS User");
             db.execSQL("DROP TABLE IF EXISTS UrgencyLevel");
             db.execSQL("DROP TABLE IF EXISTS Prescription");
+            db.execSQL("DROP TABLE IF EXISTS PhysicianAssignment");
+            db.execSQL("DROP TABLE IF EXISTS ChangeEvent");
+            db.execSQL("DROP TABLE IF EXISTS SyncChange");
+            db.execSQL("DROP TABLE IF EXISTS SyncVersion");
             onCreate(db);
         }
     } 
@@ -0,0 +1,790 @@
+package triageapp.database;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import triageapp.components.Patient;
+import triageapp.metrics.MetricsRegistry;
+import triageapp.metrics.OperationMetrics;
+
+
+/**
+ * Imports Patients from a file of patient records, one a line:
+ * 		healthCardNumber,name,dob
+ * e.g. "452133,Vijay Vazirani,1994-03-12", as in patient_records.txt.
+ * The file is split into chunks of whole lines, which are parsed and validated
+ * in parallel: the health card number must be HEALTH_CARD_NUM_CHARACTERS
+ * digits, the name must not be empty nor hold "~", and the date of birth must
+ * be a valid yyyy-MM-dd date, not in the future. The chunks are then taken in
+ * order by the calling thread, the only one writing to the database: a
+ * Patient whose health card number was already seen in the file, or is already
+ * in the database, is a duplicate, and the others of each chunk are inserted as
+ * one batch, in one transaction. As health card numbers are digits,
+ * those seen fit in a BitSet, and at most MAX_CHUNKS_IN_FLIGHT_PER_THREAD chunks
+ * a thread are held, so the memory used does not depend on the size of the file.
+ * Each line not imported is written to a rejects file, with its position in the
+ * file and the reason. Once a chunk is written, a checkpoint file records where
+ * the next chunk starts and the length of the rejects file, so that an import
+ * stopped part way resumes from the last chunk written; the duplicates of lines
+ * before the checkpoint are then found in the database. As a chunk is inserted
+ * in one transaction, a chunk is either written and checkpointed or not written,
+ * unless the import stops between the two, in which case the Patients of that
+ * chunk are counted as duplicates when resuming, though imported once.
+ */
+public class PatientImporter {
+
+	/** The number of bytes of a chunk (the chunk is extended to the end of its last line). */
+	static final int CHUNK_SIZE = 1024 * 1024;
+	/** The number of chunks read or parsed ahead of the writer, per thread. */
+	private static final int MAX_CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+	/** The number of possible health card numbers: HEALTH_CARD_NUM_CHARACTERS digits. */
+	private static final int HEALTH_CARD_NUMBERS = (int) Math.pow(10, Patient.HEALTH_CARD_NUM_CHARACTERS);
+
+	/** The reason a line was rejected: it does not have three fields. */
+	public static final String REJECT_FIELDS = "fields";
+	/** The reason a line was rejected: its health card number is not HEALTH_CARD_NUM_CHARACTERS digits. */
+	public static final String REJECT_HEALTH_CARD = "healthCardNumber";
+	/** The reason a line was rejected: its name is empty or holds "~". */
+	public static final String REJECT_NAME = "name";
+	/** The reason a line was rejected: its date of birth is not a valid yyyy-MM-dd date, or is in the future. */
+	public static final String REJECT_DOB = "dob";
+	/** The reason a line was rejected: its health card number was seen before, in the file or the database. */
+	public static final String REJECT_DUPLICATE = "duplicate";
+
+	/** The metrics of the imports. */
+	private static final OperationMetrics IMPORT_METRICS = MetricsRegistry.get("import.patients");
+
+	/** Inserts the batches of Patients. */
+	private final BatchWriter batchWriter;
+	/** The number of threads parsing chunks. */
+	private final int threads;
+
+	/** Inserts batches of Patients, skipping those already inserted. */
+	interface BatchWriter {
+		/**
+		 * Inserts a batch of Patients, as TriageDBAdapter.createPatients.
+		 * @param healthCards The patients' health card numbers.
+		 * @param names The patients' names.
+		 * @param dobs The patients' birth dates.
+		 * @param count The number of Patients of the batch.
+		 * @param created Set to whether each Patient was inserted.
+		 * @return The number of Patients inserted.
+		 */
+		int write(String[] healthCards, String[] names, String[] dobs, int count, boolean[] created);
+	}
+
+	/** The numbers of lines of an import. */
+	public static final class Result {
+		/** The number of Patients inserted. */
+		long imported;
+		/** The number of lines that were duplicates. */
+		long duplicates;
+		/** The number of lines that were not valid. */
+		long invalid;
+		/** Whether the import resumed from a checkpoint. */
+		boolean resumed;
+
+		/**
+		 * Gets the number of Patients inserted.
+		 * @return The number of Patients inserted, since the start of the file.
+		 */
+		public long getImported() {
+			return imported;
+		}
+
+		/**
+		 * Gets the number of lines that were duplicates.
+		 * @return The number of lines, since the start of the file.
+		 */
+		public long getDuplicates() {
+			return duplicates;
+		}
+
+		/**
+		 * Gets the number of lines that were not valid.
+		 * @return The number of lines, since the start of the file.
+		 */
+		public long getInvalid() {
+			return invalid;
+		}
+
+		/**
+		 * Gets whether the import resumed from a checkpoint.
+		 * @return true if it resumed from a checkpoint.
+		 */
+		public boolean isResumed() {
+			return resumed;
+		}
+
+		@Override
+		public String toString() {
+			return "imported " + imported + ", duplicates " + duplicates + ", invalid " + invalid
+					+ (resumed ? " (resumed)" : "");
+		}
+	}
+
+	/** The valid Patients and the rejected lines of a chunk, in order. */
+	static final class Chunk {
+		/** The position of the start of the chunk in the file. */
+		final long start;
+		/** The position of the end of the chunk in the file. */
+		final long end;
+		/** The number of valid Patients. */
+		int count;
+		/** The health card numbers of the valid Patients. */
+		String[] healthCards = new String[256];
+		/** The names of the valid Patients. */
+		String[] names = new String[256];
+		/** The dates of birth of the valid Patients. */
+		String[] dobs = new String[256];
+		/** The health card numbers of the valid Patients, as numbers. */
+		int[] cards = new int[256];
+		/** The position of the line of each valid Patient in the file. */
+		long[] positions = new long[256];
+		/** The rejected lines, already formatted for the rejects file. */
+		final StringBuilder rejects = new StringBuilder();
+		/** The number of rejected lines. */
+		int invalid;
+
+		/**
+		 * Constructs an empty Chunk.
+		 * @param start The position of the start of the chunk in the file.
+		 * @param end The position of the end of the chunk in the file.
+		 */
+		Chunk(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * Adds a valid Patient.
+		 * @param position The position of its line in the file.
+		 * @param card The health card number, as a number.
+		 * @param healthCard The health card number.
+		 * @param name The name.
+		 * @param dob The date of birth.
+		 */
+		void add(long position, int card, String healthCard, String name, String dob) {
+			if (count == cards.length) {
+				int capacity = count * 2;
+				healthCards = Arrays.copyOf(healthCards, capacity);
+				names = Arrays.copyOf(names, capacity);
+				dobs = Arrays.copyOf(dobs, capacity);
+				cards = Arrays.copyOf(cards, capacity);
+				positions = Arrays.copyOf(positions, capacity);
+			}
+			positions[count] = position;
+			cards[count] = card;
+			healthCards[count] = healthCard;
+			names[count] = name;
+			dobs[count] = dob;
+			count++;
+		}
+	}
+
+	/**
+	 * Constructs a PatientImporter writing to the database, with one thread per core.
+	 * @param dbAdapter The database adapter (helper), open, and not in a transaction.
+	 */
+	public PatientImporter(final TriageDBAdapter dbAdapter) {
+		this(new BatchWriter() {
+			@Override
+			public int write(String[] healthCards, String[] names, String[] dobs, int count, boolean[] created) {
+				return dbAdapter.createPatients(healthCards, names, dobs, count, created);
+			}
+		}, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a PatientImporter.
+	 * @param batchWriter Inserts the batches of Patients.
+	 * @param threads The number of threads parsing chunks.
+	 */
+	PatientImporter(BatchWriter batchWriter, int threads) {
+		this.batchWriter = batchWriter;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Imports a file of patient records, resuming from the checkpoint if there is one.
+	 * The checkpoint file is deleted once the whole file is imported.
+	 * @param file The file of patient records.
+	 * @param checkpoint The checkpoint file.
+	 * @param rejects The rejects file, where each line not imported is written as
+	 * "position<TAB>reason<TAB>line".
+	 * @return The numbers of lines of the import, since the start of the file.
+	 * @throws IOException if a file cannot be read or written.
+	 * @throws InterruptedException if interrupted while waiting for a chunk.
+	 */
+	public Result importFile(File file, File checkpoint, File rejects) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		Result result = new Result();
+		long position = readCheckpoint(checkpoint, rejects, result);
+		Writer rejectsOut = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(rejects, result.resumed), "UTF-8"), 64 * 1024);
+		FileInputStream in = new FileInputStream(file);
+		ExecutorService executor = newExecutor();
+		try {
+			final FileChannel channel = in.getChannel();
+			long length = channel.size();
+			BitSet seen = new BitSet(HEALTH_CARD_NUMBERS);
+			Batch batch = new Batch();
+			ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+			while (position < length || !inFlight.isEmpty()) {
+				//Keeps the threads busy while the writer writes the oldest chunk.
+				while (position < length && inFlight.size() < threads * MAX_CHUNKS_IN_FLIGHT_PER_THREAD) {
+					final long chunkStart = position;
+					final long chunkEnd = lineEnd(channel, Math.min(length, position + CHUNK_SIZE), length);
+					inFlight.add(executor.submit(new Callable<Chunk>() {
+						@Override
+						public Chunk call() throws IOException {
+							return parse(read(channel, chunkStart, chunkEnd), chunkStart, chunkEnd);
+						}
+					}));
+					position = chunkEnd;
+				}
+				Chunk chunk = get(inFlight.poll());
+				write(chunk, seen, batch, rejectsOut, result);
+				rejectsOut.flush();
+				writeCheckpoint(checkpoint, chunk.end, rejects.length(), result);
+			}
+		} finally {
+			executor.shutdownNow();
+			in.close();
+			rejectsOut.close();
+		}
+		checkpoint.delete();
+		IMPORT_METRICS.recordOperation(start, sqlStart, (int) Math.min(Integer.MAX_VALUE, result.imported));
+		return result;
+	}
+
+	/**
+	 * Imports patient records from a stream, e.g. a resource bundled with the
+	 * app, on the calling thread, without a checkpoint.
+	 * @param in The stream of patient records, which is closed.
+	 * @param rejects The rejects file, or null to only count the lines not imported.
+	 * @return The numbers of lines of the import.
+	 * @throws IOException if the stream cannot be read, or the rejects file written.
+	 */
+	public Result importStream(InputStream in, File rejects) throws IOException {
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		Result result = new Result();
+		Writer rejectsOut = rejects == null ? null : new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(rejects), "UTF-8"), 64 * 1024);
+		try {
+			BitSet seen = new BitSet(HEALTH_CARD_NUMBERS);
+			Batch batch = new Batch();
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int buffered = 0;
+			long position = 0;
+			boolean ended = false;
+			while (!ended || buffered > 0) {
+				int read = ended ? -1 : in.read(buffer, buffered, buffer.length - buffered);
+				if (read == -1)
+					ended = true;
+				else
+					buffered += read;
+				//Parses the whole lines buffered, or what is left once the stream ends.
+				int end = ended ? buffered : lastLineEnd(buffer, buffered);
+				if (end == 0 && buffered == buffer.length)
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				if (end == 0)
+					continue;
+				Chunk chunk = parse(Arrays.copyOf(buffer, end), position, position + end);
+				write(chunk, seen, batch, rejectsOut, result);
+				System.arraycopy(buffer, end, buffer, 0, buffered - end);
+				buffered -= end;
+				position += end;
+			}
+		} finally {
+			in.close();
+			if (rejectsOut != null)
+				rejectsOut.close();
+		}
+		IMPORT_METRICS.recordOperation(start, sqlStart, (int) Math.min(Integer.MAX_VALUE, result.imported));
+		return result;
+	}
+
+	/** The Patients of a chunk waiting to be inserted, and whether each was. */
+	private static final class Batch {
+		/** The number of Patients. */
+		int count;
+		/** The health card numbers. */
+		String[] healthCards = new String[0];
+		/** The names. */
+		String[] names = new String[0];
+		/** The dates of birth. */
+		String[] dobs = new String[0];
+		/** The position of the line of each Patient in the file. */
+		long[] positions = new long[0];
+		/** Whether each Patient was inserted. */
+		boolean[] created = new boolean[0];
+
+		/**
+		 * Makes room for the Patients of a chunk, keeping the arrays for the next chunks.
+		 * @param capacity The number of Patients.
+		 */
+		void ensureCapacity(int capacity) {
+			if (capacity <= created.length)
+				return;
+			healthCards = new String[capacity];
+			names = new String[capacity];
+			dobs = new String[capacity];
+			positions = new long[capacity];
+			created = new boolean[capacity];
+		}
+	}
+
+	/**
+	 * Writes the Patients of a chunk, in order, skipping the duplicates, and the
+	 * rejected lines. The Patients are written as one batch, so that the chunk
+	 * is done once this returns.
+	 * @param chunk The chunk.
+	 * @param seen The health card numbers seen so far.
+	 * @param batch The batch.
+	 * @param rejectsOut The Writer of the rejects file, or null.
+	 * @param result The numbers of lines, updated.
+	 * @throws IOException if the rejects file cannot be written.
+	 */
+	private void write(Chunk chunk, BitSet seen, Batch batch, Writer rejectsOut, Result result) throws IOException {
+		if (rejectsOut != null)
+			rejectsOut.write(chunk.rejects.toString());
+		result.invalid += chunk.invalid;
+		batch.ensureCapacity(chunk.count);
+		for (int i = 0; i < chunk.count; i++) {
+			if (seen.get(chunk.cards[i])) {
+				reject(rejectsOut, chunk.positions[i], REJECT_DUPLICATE, chunk.healthCards[i], chunk.names[i], chunk.dobs[i]);
+				result.duplicates++;
+				continue;
+			}
+			seen.set(chunk.cards[i]);
+			batch.healthCards[batch.count] = chunk.healthCards[i];
+			batch.names[batch.count] = chunk.names[i];
+			batch.dobs[batch.count] = chunk.dobs[i];
+			batch.positions[batch.count] = chunk.positions[i];
+			batch.count++;
+		}
+		flush(batch, rejectsOut, result);
+	}
+
+	/**
+	 * Inserts the Patients of a batch, and rejects those already in the database.
+	 * @param batch The batch, emptied.
+	 * @param rejectsOut The Writer of the rejects file, or null.
+	 * @param result The numbers of lines, updated.
+	 * @throws IOException if the rejects file cannot be written.
+	 */
+	private void flush(Batch batch, Writer rejectsOut, Result result) throws IOException {
+		if (batch.count == 0)
+			return;
+		int inserted = batchWriter.write(batch.healthCards, batch.names, batch.dobs, batch.count, batch.created);
+		result.imported += inserted;
+		if (inserted < batch.count) {
+			for (int i = 0; i < batch.count; i++) {
+				if (!batch.created[i])
+					reject(rejectsOut, batch.positions[i], REJECT_DUPLICATE, batch.healthCards[i], batch.names[i], batch.dobs[i]);
+			}
+			result.duplicates += batch.count - inserted;
+		}
+		batch.count = 0;
+	}
+
+	/**
+	 * Writes a duplicate line to the rejects file.
+	 * @param rejectsOut The Writer of the rejects file, or null.
+	 * @param position The position of the line in the file.
+	 * @param reason The reason.
+	 * @param healthCard The health card number.
+	 * @param name The name.
+	 * @param dob The date of birth.
+	 * @throws IOException if the rejects file cannot be written.
+	 */
+	private static void reject(Writer rejectsOut, long position, String reason, String healthCard,
+			String name, String dob) throws IOException {
+		if (rejectsOut != null)
+			rejectsOut.write(position + "\t" + reason + "\t" + healthCard + "," + name + "," + dob + "\n");
+	}
+
+	/**
+	 * Parses and validates the lines of a chunk.
+	 * @param data The bytes of the chunk, whole lines of UTF-8.
+	 * @param start The position of the start of the chunk in the file.
+	 * @param end The position of the end of the chunk in the file.
+	 * @return The Chunk.
+	 * @throws IOException never, as UTF-8 is always supported.
+	 */
+	static Chunk parse(byte[] data, long start, long end) throws IOException {
+		Chunk chunk = new Chunk(start, end);
+		String text = new String(data, "UTF-8");
+		String today = todayDate();
+		int lineStart = 0;
+		//Skips the byte order mark at the start of the file, if any.
+		if (start == 0 && text.length() > 0 && text.charAt(0) == '\uFEFF')
+			lineStart = 1;
+		long lineStartPosition = start + (lineStart == 1 ? 3 : 0);
+		while (lineStart < text.length()) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			if (lineEnd == -1)
+				lineEnd = text.length();
+			int contentEnd = lineEnd;
+			if (contentEnd > lineStart && text.charAt(contentEnd - 1) == '\r')
+				contentEnd--;
+			if (contentEnd > lineStart)
+				parseLine(chunk, text, lineStart, contentEnd, lineStartPosition, today);
+			//Positions are in bytes, so the line is measured in UTF-8 unless it is ASCII.
+			lineStartPosition += utf8Length(text, lineStart, Math.min(text.length(), lineEnd + 1));
+			lineStart = lineEnd + 1;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Parses and validates a line, and adds it to the chunk as a valid Patient or a rejected line.
+	 * @param chunk The chunk.
+	 * @param text The text of the chunk.
+	 * @param start The index of the start of the line in the text.
+	 * @param end The index of the end of the line, without its line break.
+	 * @param position The position of the line in the file.
+	 * @param today Today's date, as yyyy-MM-dd.
+	 */
+	private static void parseLine(Chunk chunk, String text, int start, int end, long position, String today) {
+		int firstComma = indexOfComma(text, start, end);
+		int secondComma = firstComma == -1 ? -1 : indexOfComma(text, firstComma + 1, end);
+		String reason = null;
+		if (secondComma == -1 || indexOfComma(text, secondComma + 1, end) != -1) {
+			reason = REJECT_FIELDS;
+		} else {
+			int card = parseHealthCard(text, start, firstComma);
+			if (card == -1)
+				reason = REJECT_HEALTH_CARD;
+			else if (!isValidName(text, firstComma + 1, secondComma))
+				reason = REJECT_NAME;
+			else if (!isValidDate(text, secondComma + 1, end, today))
+				reason = REJECT_DOB;
+			else
+				chunk.add(position, card, text.substring(start, firstComma),
+						text.substring(firstComma + 1, secondComma).trim(), text.substring(secondComma + 1, end));
+		}
+		if (reason != null) {
+			chunk.rejects.append(position).append('\t').append(reason).append('\t').append(text, start, end).append('\n');
+			chunk.invalid++;
+		}
+	}
+
+	/**
+	 * Parses a health card number of HEALTH_CARD_NUM_CHARACTERS digits.
+	 * @param text The text.
+	 * @param start The index of its start.
+	 * @param end The index of its end.
+	 * @return The number, or -1 if it is not valid.
+	 */
+	static int parseHealthCard(String text, int start, int end) {
+		if (end - start != Patient.HEALTH_CARD_NUM_CHARACTERS)
+			return -1;
+		int card = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			card = card * 10 + (c - '0');
+		}
+		return card;
+	}
+
+	/**
+	 * Checks a name: not blank, and without "~".
+	 * @param text The text.
+	 * @param start The index of its start.
+	 * @param end The index of its end.
+	 * @return true if the name is valid.
+	 */
+	static boolean isValidName(String text, int start, int end) {
+		boolean blank = true;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c == '~')
+				return false;
+			if (!Character.isWhitespace(c))
+				blank = false;
+		}
+		return !blank;
+	}
+
+	/**
+	 * Checks a date of birth: a valid yyyy-MM-dd date, from 1800, not after today.
+	 * @param text The text.
+	 * @param start The index of its start.
+	 * @param end The index of its end.
+	 * @param today Today's date, as yyyy-MM-dd.
+	 * @return true if the date is valid.
+	 */
+	static boolean isValidDate(String text, int start, int end, String today) {
+		if (end - start != 10 || text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-')
+			return false;
+		int year = digits(text, start, start + 4);
+		int month = digits(text, start + 5, start + 7);
+		int day = digits(text, start + 8, start + 10);
+		if (year < 1800 || month < 1 || month > 12 || day < 1)
+			return false;
+		boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+		int days = month == 2 ? (leap ? 29 : 28) : (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+		//Dates as yyyy-MM-dd compare as Strings.
+		return day <= days && compare(text, start, today) <= 0;
+	}
+
+	/**
+	 * Finds a comma in part of a text.
+	 * @param text The text.
+	 * @param start The index to search from.
+	 * @param end The index to search to.
+	 * @return The index of the first comma, or -1 if there is none.
+	 */
+	private static int indexOfComma(String text, int start, int end) {
+		int index = text.indexOf(',', start);
+		return index < end ? index : -1;
+	}
+
+	/**
+	 * Parses digits.
+	 * @param text The text.
+	 * @param start The index of the first digit.
+	 * @param end The index after the last digit.
+	 * @return The number, or -1 if a character is not a digit.
+	 */
+	private static int digits(String text, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Compares a date in a text with another date.
+	 * @param text The text.
+	 * @param start The index of the date in the text.
+	 * @param date The other date, as yyyy-MM-dd.
+	 * @return A negative number, 0 or a positive number as the date of the text is before, the same as or after the other.
+	 */
+	private static int compare(String text, int start, String date) {
+		for (int i = 0; i < 10; i++) {
+			int difference = text.charAt(start + i) - date.charAt(i);
+			if (difference != 0)
+				return difference;
+		}
+		return 0;
+	}
+
+	/**
+	 * Gets today's date.
+	 * @return Today's date, as yyyy-MM-dd.
+	 */
+	private static String todayDate() {
+		Calendar today = Calendar.getInstance();
+		return String.format("%04d-%02d-%02d", today.get(Calendar.YEAR),
+				today.get(Calendar.MONTH) + 1, today.get(Calendar.DAY_OF_MONTH));
+	}
+
+	/**
+	 * Measures part of a text in UTF-8.
+	 * @param text The text.
+	 * @param start The index of the start.
+	 * @param end The index of the end.
+	 * @return The number of bytes.
+	 */
+	private static int utf8Length(String text, int start, int end) {
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < end) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Finds the end of the line holding a position, i.e. the position after its line break.
+	 * @param channel The file.
+	 * @param position The position.
+	 * @param length The length of the file.
+	 * @return The end of the line, or the length of the file if its last line has no line break.
+	 * @throws IOException if the file cannot be read.
+	 */
+	private static long lineEnd(FileChannel channel, long position, long length) throws IOException {
+		if (position == length)
+			return position;
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		//The line ends after position if the byte before position is not a line break.
+		long scan = position - 1;
+		while (scan < length) {
+			buffer.clear();
+			int read = channel.read(buffer, scan);
+			if (read <= 0)
+				break;
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n')
+					return scan + i + 1;
+			}
+			scan += read;
+		}
+		return length;
+	}
+
+	/**
+	 * Finds the end of the last whole line of a buffer.
+	 * @param buffer The buffer.
+	 * @param length The number of bytes in the buffer.
+	 * @return The position after the last line break, or 0 if there is none.
+	 */
+	private static int lastLineEnd(byte[] buffer, int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (buffer[i] == '\n')
+				return i + 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads part of a file.
+	 * @param channel The file, read at a position, so it can be shared by threads.
+	 * @param start The position of the start.
+	 * @param end The position of the end.
+	 * @return The bytes.
+	 * @throws IOException if the file cannot be read.
+	 */
+	private static byte[] read(FileChannel channel, long start, long end) throws IOException {
+		byte[] data = new byte[(int) (end - start)];
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, start + buffer.position()) == -1)
+				throw new IOException("The file was truncated while being imported");
+		}
+		return data;
+	}
+
+	/**
+	 * Waits for a chunk to be parsed.
+	 * @param future The chunk.
+	 * @return The Chunk.
+	 * @throws IOException if the chunk could not be read.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	private static Chunk get(Future<Chunk> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IllegalStateException("Parsing a chunk of patient records failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Reads a checkpoint, and truncates the rejects file to its length at the checkpoint.
+	 * @param checkpoint The checkpoint file.
+	 * @param rejects The rejects file.
+	 * @param result The numbers of lines, set to those at the checkpoint.
+	 * @return The position to resume from, or 0 if there is no checkpoint.
+	 * @throws IOException if a file cannot be read or written.
+	 */
+	private static long readCheckpoint(File checkpoint, File rejects, Result result) throws IOException {
+		if (!checkpoint.exists())
+			return 0;
+		RandomAccessFile in = new RandomAccessFile(checkpoint, "r");
+		long position;
+		long rejectsLength;
+		try {
+			position = in.readLong();
+			rejectsLength = in.readLong();
+			result.imported = in.readLong();
+			result.duplicates = in.readLong();
+			result.invalid = in.readLong();
+		} finally {
+			in.close();
+		}
+		//Lines rejected after the checkpoint are rejected again when resuming.
+		RandomAccessFile rejectsFile = new RandomAccessFile(rejects, "rw");
+		try {
+			rejectsFile.setLength(Math.min(rejectsFile.length(), rejectsLength));
+		} finally {
+			rejectsFile.close();
+		}
+		result.resumed = true;
+		return position;
+	}
+
+	/**
+	 * Writes a checkpoint, replacing the previous one only once it is written.
+	 * @param checkpoint The checkpoint file.
+	 * @param position The position to resume from.
+	 * @param rejectsLength The length of the rejects file.
+	 * @param result The numbers of lines so far.
+	 * @throws IOException if the checkpoint cannot be written.
+	 */
+	private static void writeCheckpoint(File checkpoint, long position, long rejectsLength, Result result) throws IOException {
+		File partial = new File(checkpoint.getPath() + ".partial");
+		RandomAccessFile out = new RandomAccessFile(partial, "rw");
+		try {
+			out.setLength(0);
+			out.writeLong(position);
+			out.writeLong(rejectsLength);
+			out.writeLong(result.imported);
+			out.writeLong(result.duplicates);
+			out.writeLong(result.invalid);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (checkpoint.exists() && !checkpoint.delete() || !partial.renameTo(checkpoint))
+			throw new IOException("Cannot replace " + checkpoint);
+	}
+
+	/**
+	 * Creates the threads parsing chunks.
+	 * @return The ExecutorService.
+	 */
+	private ExecutorService newExecutor() {
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "PatientImporter-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
@@ -1,8 +1,18 @@
 package triageapp.database;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTransactionListener;
+import triageapp.metrics.MetricsRegistry;
+import triageapp.metrics.OperationMetrics;
+import triageapp.metrics.Span;
+import triageapp.metrics.Tracer;
 
 
 /**
@@ -12,6 +22,12 @@ import android.database.Cursor;
  * Patient or ERVisit, create new rows in the tables corresponding to a new
  * ERVisit, VitalSigns, Prescription, or Patient. Also allows retrieval and 
  * modification of a specific ERVisit. Uses Cursors.
+ * Every query and mutation records its latency and row count in the MetricsRegistry;
+ * those on the vitals save path are also traced by the Tracer.
+ * Every mutation of the Patient, ERVisit, VitalSigns and Prescription tables 
+ * logs a ChangeEvent in the same transaction, and publishes it to the 
+ * ChangeStream once committed. Mutations must not be nested in another 
+ * transaction, as their events are published when their own transaction ends.
  */
 public class TriageDBAdapter extends DBAdapter{
 	
@@ -69,9 +85,28 @@ public class TriageDBAdapter extends DBAdapter{
     /** Column containing timestamp values of the set of VitalSigns stored as INTEGER (long). */
     public static final String KEY_TIMESTAMP = "timestamp";
     
+    // Column names for the VitalSignsBlock table
+    /** VitalSignsBlock table name. */
+    public static final String DATABASE_TABLE_VITALS_BLOCK = "VitalSignsBlock";
+    /** Column containing the number of VitalSigns in a block stored as INTEGER. */
+    public static final String KEY_READINGCOUNT = "readingCount";
+    /** Column containing the delta-compressed VitalSigns of a closed ERVisit 
+     * stored as a BLOB (see VitalSignsBlockCodec). */
+    public static final String KEY_DATA = "data";
+    
+    // Names of the views combining each table with its archive table.
+    /** View over the ERVisit table and the archived ERVisits. */
+    public static final String VIEW_ALL_ERVISIT = "AllERVisit";
+    /** View over the VitalSigns table and the archived VitalSigns. */
+    public static final String VIEW_ALL_VITALS = "AllVitalSigns";
+    /** View over the VitalSignsBlock table and the archived VitalSignsBlocks. */
+    public static final String VIEW_ALL_VITALS_BLOCK = "AllVitalSignsBlock";
+    /** View over the Prescription table and the archived Prescriptions. */
+    public static final String VIEW_ALL_PRESCRIPTION = "AllPrescription";
+    
     /**
      * Foreign key pointing to the rowID of the ERVisit.
-     * Column name equivalent in both VitalSigns and Prescription tables.
+     * Column name equivalent in the VitalSigns, VitalSignsBlock and Prescription tables.
      */
     public static final String KEY_ERVISITID = "ERVisitID";
     
@@ -82,6 +117,38 @@ public class TriageDBAdapter extends DBAdapter{
     public static final String KEY_MEDICATION = "medication";
     /** Column containing Prescription instructions stored as TEXT. */
 	public static final String KEY_INSTRUCTIONS = "instructions";
+	
+	// Column names for the PhysicianAssignment table.
+	/** PhysicianAssignment table name. The ERVisitID is the key of each row. */
+	public static final String DATABASE_TABLE_PHYSICIAN_ASSIGNMENT = "PhysicianAssignment";
+	/** Column containing the username of the Physician an ERVisit is assigned to stored as TEXT. */
+	public static final String KEY_PHYSICIAN = "physician";
+	/** Column containing the time the Physician took the Patient stored as INTEGER (long), or NULL while waiting. */
+	public static final String KEY_TIMETAKEN = "timeTaken";
+	
+	// Column names for the ChangeEvent table.
+	/** ChangeEvent table name. The row id is the sequence number of the event. */
+	public static final String DATABASE_TABLE_CHANGE_EVENT = "ChangeEvent";
+	/** Column containing the type of the event (see ChangeEvent) stored as INTEGER. */
+	public static final String KEY_TYPE = "type";
+	/** Column containing the row id of the row inserted or updated stored as INTEGER. */
+	public static final String KEY_CHANGED_ROWID = "rowID";
+	/** Column containing the time carried by the event stored as INTEGER (long). */
+	public static final String KEY_VALUE = "value";
+	/** Column containing the commit time of the event stored as INTEGER (long). */
+	public static final String KEY_TIME = "time";
+	
+	// Column names for the SyncChange and SyncVersion tables.
+	/** SyncChange table name. The row id is the order the Change was applied in. */
+	public static final String DATABASE_TABLE_SYNC_CHANGE = "SyncChange";
+	/** SyncVersion table name. */
+	public static final String DATABASE_TABLE_SYNC_VERSION = "SyncVersion";
+	/** Column containing the device a Change was made on stored as TEXT. */
+	public static final String KEY_ORIGIN = "origin";
+	/** Column containing the sequence number of a Change on its device stored as INTEGER (long). */
+	public static final String KEY_SEQUENCE = "sequence";
+	/** Column containing 1 for the origin of this device, 0 otherwise, stored as INTEGER. */
+	public static final String KEY_LOCAL = "isLocal";
     
 	// Column names for the User table.
 	/** User table name. */
@@ -94,22 +161,44 @@ public class TriageDBAdapter extends DBAdapter{
 	 * name in the Role table. */
     public static final String KEY_ROLEID = "RoleID";
     
+    /** SQL query to fetch the health card number, name and date of birth of every Patient. */
+    static final String FETCH_ALL_PATIENTS = 
+    		"SELECT healthCardNumber, name, dob FROM Patient";
+    
+    /**
+     * SQL query to fetch the row id of a Patient. The query has one parameter,
+     * the health card number string of the Patient.
+     */
+    static final String FETCH_PATIENT_ID = 
+    		"SELECT _ID FROM Patient WHERE healthCardNumber= ?";
+    
     /** 
      * SQL query to fetch a Patient's current ERVisit. The query has one parameter,
      * the health card number string of the Patient.
      **/
-    private static final String FETCH_CURRENT_ERVISIT_FOR_THIS_PATIENT = 
+    static final String FETCH_CURRENT_ERVISIT_FOR_THIS_PATIENT = 
 	"SELECT ERVisit._ID, arrivalTime, timeSeenByDoctor, urgency " +
 	"FROM ERVisit " +
 	"JOIN Patient ON Patient._ID=ERVisit.PatientID " +
 	"WHERE Patient.healthCardNumber= ? AND  ERVisit.isClosed=0";
 
+    /**
+     * SQL query to fetch the arrival time of a Patient's latest ERVisit, open
+     * or closed, from both the main and archive databases. The query has one
+     * parameter, the health card number string of the Patient.
+     */
+    static final String FETCH_LAST_ARRIVAL_TIME = 
+    		"SELECT MAX(arrivalTime) " +
+    		"FROM AllERVisit " +
+    		"JOIN Patient ON AllERVisit.PatientID=Patient._ID " +
+    		"WHERE Patient.healthCardNumber= ?";
+    
     /**
      * SQL query to fetch all Patients currently in the ER who 
      * HAVE NOT yet been seen by the doctor in order of 
      * urgency.
      */
-    private static final String FETCH_PATIENTS_BY_URGENCY = 
+    static final String FETCH_PATIENTS_BY_URGENCY = 
 	"SELECT healthCardNumber " +
 	"FROM ERVisit " +
 	"JOIN Patient ON Patient._ID=ERVisit.PatientID " +
@@ -118,12 +207,15 @@ public class TriageDBAdapter extends DBAdapter{
     
     /**
      * SQL query to fetch all Patients currently in the ER who 
-     * ARE being seen by the doctor.
+     * ARE being seen by the doctor, with the Physician their ERVisit is
+     * assigned to and the time the Physician took them (both NULL if the
+     * ERVisit is assigned to no Physician).
      */
-    private static final String FETCH_PATIENTS_SENT_TO_DOCTOR =
-    "SELECT healthCardNumber " +
+    static final String FETCH_PATIENTS_SENT_TO_DOCTOR =
+    "SELECT healthCardNumber, physician, timeTaken " +
     "FROM ERVisit " +
     "JOIN Patient ON Patient._ID=ERVisit.PatientID " +
+    "LEFT JOIN PhysicianAssignment ON PhysicianAssignment.ERVisitID=ERVisit._ID " +
 	"WHERE isClosed=0 AND timeSeenByDoctor IS NOT NULL";
 
     /**
@@ -131,61 +223,265 @@ public class TriageDBAdapter extends DBAdapter{
      * exists. The query has two parameters: the User's
      * username and password.
      */
-    private static final String FETCH_USER = 
+    static final String FETCH_USER = 
     "SELECT Role.roleName " +
     "FROM User " + 
     "JOIN Role ON RoleID= Role._ID " +
     "WHERE User.username = ? AND User.password= ?";
     
     /**
-     * SQL query to fetch a formatted string containing all of the
-     * Patient's medical history. The query has one parameter, 
-     * the patient's health card number.
+     * SQL query to fetch the closed ERVisits making up a Patient's
+     * medical history, most recent first, from both the main and 
+     * archive databases. The query has one parameter, the patient's 
+     * health card number.
      */
     public static final String FETCH_MEDICAL_RECORD = 
-    		"SELECT group_concat(Medicalrecord ,' ') AS PatientMedicalRecord FROM ( " +
-    				 "select " +   
-    				  "'+++++++++++++++++++++ \n Record \n' || '+++++++++++++++++++++ \n' || " +
-    					"'Arrival Date: ' || strftime('%m/%d/%Y ', datetime(arrivalTime/1000, 'unixepoch', 'localtime')) || '\n' || " +
-    					"'Arrival Time: ' || strftime('%H:%M', datetime(arrivalTime/1000, 'unixepoch', 'localtime')) || '\n' || " +
-    				        "(CASE  WHEN timeSeenByDoctor IS NULL THEN '' " +
-    				               "ELSE  'Seen by Doctor Date: ' ||  strftime('%m/%d/%Y ', datetime(timeSeenByDoctor/1000, 'unixepoch', 'localtime')) || '\n' || " +
-    						"'Seen by Doctor Time: ' || strftime('%H:%M', datetime(timeSeenByDoctor/1000, 'unixepoch', 'localtime')) || '\n' " +
-    				         "END)   || CASE  WHEN AllVisitVitals IS NULL THEN '' ELSE AllVisitVitals END " +
-    				          "|| CASE  WHEN AllPrescriptions IS NULL THEN '' ELSE AllPrescriptions END " +
-    				          "as Medicalrecord " +
-    				 "FROM ERVisit " + 
-    				 "JOIN Patient ON ERVisit.PatientID=Patient._ID " +
-    				 "LEFT JOIN (SELECT ERVisitID, group_concat(VisitVitalSign ,'') AS AllVisitVitals FROM ( " +
-    				          "SELECT ERVisitID, " +
-    				          "'------------------'  ||  '\n'  || " + 
-    					 "'Vital Signs:'  ||  '\n'  ||  " +
-    					 "'Date: ' || strftime('%m/%d/%Y ', datetime(timestamp/1000, 'unixepoch', 'localtime')) || '\n' || " +
-    					 "'Time: ' || strftime('%H:%M', datetime(timestamp/1000, 'unixepoch', 'localtime')) || '\n' || " +
-    					 "'Systolic: ' || " +
-    					 "CAST(systolic AS TEXT)  || '\n' || " +
-    					 "'Diastolic: ' || " +
-    					 "CAST(diastolic AS TEXT)  || '\n' || " +
-    					 "'Temperature: ' || " +
-    					 "CAST(temperature AS TEXT)  || '\n' || " +
-    					 "'Heart Rate: ' || " +
-    					 "CAST(heartRate AS TEXT) || '\n' " +  
-    				          "AS VisitVitalSign " +
-    				         "FROM  VitalSigns ORDER BY timestamp DESC " + 
-    				        ") GROUP BY ERVisitID) V  ON V. ERVisitID =ERVisit._ID " +
-    				  "LEFT JOIN ( " +
-    				  "SELECT ERVisitID, group_concat(Prescriptions ,' ') as AllPrescriptions FROM ( " +  
-    				        "SELECT ERVisitID,  '------------------' ||  '\n' || " + 
-    					"'Prescription:' ||  '\n' || " + 
-    					"'Name: ' || " + 
-    					"medication ||  '\n' || " + 
-    					"'Instructions: ' || " +
-    					"instructions ||  '\n' " +
-    				        "AS Prescriptions " +
-    				         "FROM  Prescription " +
-    				        ") GROUP BY ERVisitID " +
-    				  ") P  ON P. ERVisitID =ERVisit._ID " +
-    				  "WHERE IsClosed =1 AND Patient.healthCardNumber= ? ORDER BY arrivalTime DESC)";
+    		"SELECT AllERVisit._ID, arrivalTime, timeSeenByDoctor " +
+    		"FROM AllERVisit " +
+    		"JOIN Patient ON AllERVisit.PatientID=Patient._ID " +
+    		"WHERE isClosed=1 AND Patient.healthCardNumber= ? " +
+    		"ORDER BY arrivalTime DESC";
+    
+    /**
+     * SQL query to fetch one page of the closed ERVisits of FETCH_MEDICAL_RECORD.
+     * The query has three parameters, the patient's health card number, the
+     * maximum number of ERVisits in the page and the number before it.
+     */
+    static final String FETCH_MEDICAL_RECORD_PAGE = 
+    		FETCH_MEDICAL_RECORD + " LIMIT ? OFFSET ?";
+    
+    /**
+     * SQL query to fetch the distinct Prescriptions (medication, instructions)
+     * of an ERVisit, from both the main and archive databases, in the order
+     * they were written. The query has one parameter, the ERVisit's row id.
+     */
+    static final String FETCH_PRESCRIPTIONS_FOR_THIS_VISIT = 
+    		"SELECT DISTINCT medication, instructions FROM AllPrescription " +
+    		"WHERE ERVisitID= ? ORDER BY _ID ASC";
+    
+    /**
+     * SQL query to fetch the distinct VitalSigns rows (systolic, diastolic,
+     * temperature, heart rate, timestamp) of an ERVisit, from both the main
+     * and archive databases, oldest first. The query has one parameter, the
+     * ERVisit's row id.
+     */
+    static final String FETCH_VITALS_FOR_THIS_VISIT = 
+    		"SELECT DISTINCT systolic, diastolic, temperature, heartRate, timestamp FROM AllVitalSigns " +
+    		"WHERE ERVisitID= ? ORDER BY timestamp ASC";
+    
+    /**
+     * SQL query to fetch the block (reading count, data) of compacted VitalSigns
+     * of an ERVisit, from both the main and archive databases. The query has
+     * one parameter, the ERVisit's row id.
+     */
+    static final String FETCH_VITALS_BLOCK_FOR_THIS_VISIT = 
+    		"SELECT readingCount, data FROM AllVitalSignsBlock WHERE ERVisitID= ?";
+    
+    /**
+     * SQL query to fetch the row id of a role. The query has one parameter,
+     * the role name.
+     */
+    static final String FETCH_ROLE_ID = 
+    		"SELECT _ID FROM Role WHERE roleName= ?";
+    
+    /**
+     * SQL statement to set the urgency of an ERVisit. The statement has two
+     * parameters, the urgency and the ERVisit's row id.
+     */
+    static final String UPDATE_ERVISIT_URGENCY = 
+    		"UPDATE ERVisit SET urgency= ? WHERE _ID= ?";
+    
+    /**
+     * SQL statement to delete the VitalSigns rows of an ERVisit of the main
+     * database. The statement has one parameter, the ERVisit's row id.
+     */
+    static final String DELETE_VITALS_FOR_THIS_VISIT = 
+    		"DELETE FROM VitalSigns WHERE ERVisitID= ?";
+    
+    /**
+     * SQL statement to delete the VitalSigns block of an ERVisit of the main
+     * database. The statement has one parameter, the ERVisit's row id.
+     */
+    static final String DELETE_VITALS_BLOCK_FOR_THIS_VISIT = 
+    		"DELETE FROM VitalSignsBlock WHERE ERVisitID= ?";
+    
+    /**
+     * SQL query to fetch the closed ERVisits (row id, arrival time, time seen
+     * by doctor, urgency, block of VitalSigns) that arrived in a range of time,
+     * from both the main and archive databases, in order of arrival. The query
+     * has two parameters, the start (inclusive) and end (exclusive) of the range.
+     * It reads the whole history, and is only used to load it for analytics.
+     */
+    public static final String FETCH_VISIT_HISTORY = 
+    		"SELECT AllERVisit._ID, arrivalTime, timeSeenByDoctor, urgency, data " +
+    		"FROM AllERVisit " +
+    		"LEFT JOIN AllVitalSignsBlock ON AllVitalSignsBlock.ERVisitID=AllERVisit._ID " +
+    		"WHERE isClosed=1 AND arrivalTime >= ? AND arrivalTime < ? " +
+    		"ORDER BY arrivalTime, AllERVisit._ID";
+    
+    /**
+     * SQL query to fetch the Prescriptions (ERVisit row id, medication) of the
+     * ERVisits of FETCH_VISIT_HISTORY, in the same order. The query has the
+     * same two parameters.
+     */
+    public static final String FETCH_PRESCRIPTION_HISTORY = 
+    		"SELECT AllERVisit._ID, medication " +
+    		"FROM AllERVisit " +
+    		"JOIN AllPrescription ON AllPrescription.ERVisitID=AllERVisit._ID " +
+    		"WHERE isClosed=1 AND arrivalTime >= ? AND arrivalTime < ? " +
+    		"ORDER BY arrivalTime, AllERVisit._ID";
+    
+    /** SQL query to fetch every Patient (row id, health card number, name, date of birth), for export. */
+    public static final String FETCH_PATIENTS_FOR_EXPORT = 
+    		"SELECT _ID, healthCardNumber, name, dob FROM Patient ORDER BY _ID";
+    
+    /**
+     * SQL query to fetch every ERVisit (row id, health card number, arrival time,
+     * time seen by doctor, urgency, closed) of the main and archive databases, 
+     * in order of arrival, for export.
+     */
+    public static final String FETCH_ERVISITS_FOR_EXPORT = 
+    		"SELECT AllERVisit._ID, healthCardNumber, arrivalTime, timeSeenByDoctor, urgency, isClosed " +
+    		"FROM AllERVisit " +
+    		"JOIN Patient ON AllERVisit.PatientID=Patient._ID " +
+    		"ORDER BY arrivalTime, AllERVisit._ID";
+    
+    /**
+     * SQL query to fetch every VitalSigns not compacted into a block (ERVisit row 
+     * id, timestamp, systolic, diastolic, temperature, heart rate) of the main 
+     * and archive databases, by ERVisit, for export.
+     */
+    public static final String FETCH_VITALS_FOR_EXPORT = 
+    		"SELECT ERVisitID, timestamp, systolic, diastolic, temperature, heartRate " +
+    		"FROM AllVitalSigns ORDER BY ERVisitID, timestamp";
+    
+    /**
+     * SQL query to fetch every block of compacted VitalSigns (ERVisit row id, data)
+     * of the main and archive databases, by ERVisit, for export.
+     */
+    public static final String FETCH_VITALS_BLOCKS_FOR_EXPORT = 
+    		"SELECT ERVisitID, data FROM AllVitalSignsBlock ORDER BY ERVisitID";
+    
+    /**
+     * SQL query to fetch every Prescription (ERVisit row id, medication, instructions)
+     * of the main and archive databases, by ERVisit, for export.
+     */
+    public static final String FETCH_PRESCRIPTIONS_FOR_EXPORT = 
+    		"SELECT ERVisitID, medication, instructions " +
+    		"FROM AllPrescription ORDER BY ERVisitID, _ID";
+    
+    /**
+     * SQL query to fetch the last sequence number given to a ChangeEvent, which
+     * SQLite keeps for the AUTOINCREMENT row ids of the table.
+     */
+    private static final String FETCH_LAST_CHANGE_SEQUENCE = 
+    		"SELECT seq FROM sqlite_sequence WHERE name='ChangeEvent'";
+    
+    /** SQL statement to insert a Patient, unless one has the same health card number. */
+    private static final String INSERT_PATIENT_IF_NEW = 
+    		"INSERT OR IGNORE INTO Patient (healthCardNumber, name, dob) VALUES (?, ?, ?)";
+    
+    /**
+     * SQL query to fetch the row ids of (at most) 500 closed ERVisits that 
+     * arrived before a given time and have not been archived yet. The query
+     * has one parameter, the arrival time.
+     */
+    static final String FETCH_VISITS_TO_ARCHIVE = 
+    		"SELECT _ID FROM main.ERVisit " +
+    		"WHERE isClosed=1 AND arrivalTime < ? " +
+    		"ORDER BY _ID LIMIT 500";
+    
+    /**
+     * SQL query to fetch the row ids of the closed ERVisits of the main database
+     * that still have VitalSigns rows, to be compacted into blocks.
+     */
+    static final String FETCH_CLOSED_VISITS_TO_COMPACT = 
+    		"SELECT DISTINCT main.VitalSigns.ERVisitID FROM main.VitalSigns " +
+    		"JOIN main.ERVisit ON main.VitalSigns.ERVisitID=main.ERVisit._ID " +
+    		"WHERE main.ERVisit.isClosed=1";
+    
+    /** SQL statement creating the temporary table listing the ERVisits to archive. */
+    static final String CREATE_ARCHIVE_BATCH = 
+    		"CREATE TEMP TABLE IF NOT EXISTS ArchiveBatch (_ID INTEGER PRIMARY KEY)";
+    
+    /**
+     * SQL statements moving the ERVisits listed in the temporary table 
+     * ArchiveBatch, and their records, from the main to the archive database.
+     * Records are copied with their row ids, which the main database never 
+     * reuses (AUTOINCREMENT), then deleted from the main database.
+     */
+    static final String[] ARCHIVE_BATCH = {
+    		"INSERT INTO archive.VitalSigns SELECT * FROM main.VitalSigns " +
+    				"WHERE ERVisitID IN (SELECT _ID FROM temp.ArchiveBatch)",
+    		"INSERT INTO archive.VitalSignsBlock SELECT * FROM main.VitalSignsBlock " +
+    				"WHERE ERVisitID IN (SELECT _ID FROM temp.ArchiveBatch)",
+    		"INSERT INTO archive.Prescription SELECT * FROM main.Prescription " +
+    				"WHERE ERVisitID IN (SELECT _ID FROM temp.ArchiveBatch)",
+    		"INSERT INTO archive.ERVisit SELECT * FROM main.ERVisit " +
+    				"WHERE _ID IN (SELECT _ID FROM temp.ArchiveBatch)",
+    		"DELETE FROM main.VitalSigns WHERE ERVisitID IN (SELECT _ID FROM temp.ArchiveBatch)",
+    		"DELETE FROM main.VitalSignsBlock WHERE ERVisitID IN (SELECT _ID FROM temp.ArchiveBatch)",
+    		"DELETE FROM main.Prescription WHERE ERVisitID IN (SELECT _ID FROM temp.ArchiveBatch)",
+    		"DELETE FROM main.ERVisit WHERE _ID IN (SELECT _ID FROM temp.ArchiveBatch)"
+    };
+    
+    /** The metrics of the queries and mutations, by method. */
+    private static final OperationMetrics FETCH_ALL_PATIENTS_METRICS = MetricsRegistry.get("db.fetchAllPatients");
+    private static final OperationMetrics FETCH_CURRENT_ERVISIT_METRICS = MetricsRegistry.get("db.fetchCurrentERVisitForThisPatient");
+    private static final OperationMetrics FETCH_PRESCRIPTIONS_METRICS = MetricsRegistry.get("db.fetchPrescriptionsForThisVisit");
+    private static final OperationMetrics FETCH_VITALS_METRICS = MetricsRegistry.get("db.fetchVitalSignsForThisVisit");
+    private static final OperationMetrics FETCH_MEDICAL_RECORD_METRICS = MetricsRegistry.get("db.fetchMedicalRecordForThisPatient");
+    private static final OperationMetrics FETCH_MEDICAL_RECORD_PAGE_METRICS = MetricsRegistry.get("db.fetchMedicalRecordPageForThisPatient");
+    private static final OperationMetrics FETCH_VITALS_BLOCK_METRICS = MetricsRegistry.get("db.fetchVitalSignsBlockForThisVisit");
+    private static final OperationMetrics FETCH_BY_URGENCY_METRICS = MetricsRegistry.get("db.fetchPatientsByUrgency");
+    private static final OperationMetrics FETCH_SENT_TO_DOCTOR_METRICS = MetricsRegistry.get("db.fetchPatientsSentToDoctor");
+    private static final OperationMetrics FETCH_VISIT_HISTORY_METRICS = MetricsRegistry.get("db.fetchVisitHistory");
+    private static final OperationMetrics FETCH_PRESCRIPTION_HISTORY_METRICS = MetricsRegistry.get("db.fetchPrescriptionHistory");
+    private static final OperationMetrics FETCH_FOR_EXPORT_METRICS = MetricsRegistry.get("db.fetchForExport");
+    private static final OperationMetrics FETCH_USER_METRICS = MetricsRegistry.get("db.fetchUser");
+    private static final OperationMetrics CREATE_USER_METRICS = MetricsRegistry.get("db.createUser");
+    private static final OperationMetrics CREATE_PATIENT_METRICS = MetricsRegistry.get("db.createPatient");
+    private static final OperationMetrics CREATE_PATIENTS_METRICS = MetricsRegistry.get("db.createPatients");
+    private static final OperationMetrics CREATE_ERVISIT_METRICS = MetricsRegistry.get("db.createERVisit");
+    private static final OperationMetrics CREATE_VITALS_METRICS = MetricsRegistry.get("db.createVitalSigns");
+    private static final OperationMetrics CREATE_PRESCRIPTION_METRICS = MetricsRegistry.get("db.createPrescription");
+    private static final OperationMetrics COMPACT_VITALS_METRICS = MetricsRegistry.get("db.compactVitalSignsForThisVisit");
+    private static final OperationMetrics ARCHIVE_METRICS = MetricsRegistry.get("db.archiveClosedVisits");
+    private static final OperationMetrics UPDATE_ERVISIT_METRICS = MetricsRegistry.get("db.updateERVisit");
+    private static final OperationMetrics CLOSE_ERVISIT_METRICS = MetricsRegistry.get("db.closeERVisit");
+    private static final OperationMetrics DELETE_ERVISIT_METRICS = MetricsRegistry.get("db.deleteERVisit");
+    private static final OperationMetrics ASSIGN_ERVISIT_METRICS = MetricsRegistry.get("db.assignERVisit");
+    private static final OperationMetrics COMPACT_CLOSED_VISITS_METRICS = MetricsRegistry.get("db.compactClosedVisits");
+    private static final OperationMetrics FETCH_CHANGE_EVENTS_METRICS = MetricsRegistry.get("db.fetchChangeEventsSince");
+    private static final OperationMetrics DELETE_CHANGE_EVENTS_METRICS = MetricsRegistry.get("db.deleteChangeEventsBefore");
+    private static final OperationMetrics CREATE_SYNC_CHANGE_METRICS = MetricsRegistry.get("db.createSyncChange");
+    private static final OperationMetrics FETCH_SYNC_CHANGES_METRICS = MetricsRegistry.get("db.fetchSyncChanges");
+    private static final OperationMetrics DELETE_SYNC_CHANGES_METRICS = MetricsRegistry.get("db.deleteSyncChanges");
+    
+    /** The number of ChangeEvents logged through this adapter, committed or not. */
+    private volatile long changesLogged;
+    /**
+     * The ChangeEvents logged in the current transaction, published once the
+     * outermost transaction commits. Guarded by ChangeStream.WRITE_LOCK.
+     */
+    private final List<ChangeEvent> pendingEvents = new ArrayList<ChangeEvent>();
+    /** Discards the pending ChangeEvents when the outermost transaction begins or rolls back. */
+    private final SQLiteTransactionListener pendingEventsListener = new SQLiteTransactionListener() {
+    	@Override
+    	public void onBegin() {
+    		//Left by a transaction whose commit failed.
+    		pendingEvents.clear();
+    	}
+    	
+    	@Override
+    	public void onCommit() {
+    	}
+    	
+    	@Override
+    	public void onRollback() {
+    		pendingEvents.clear();
+    	}
+    };
     
 	/**
      * Constructs a TriageDBAdapter object and takes the context 
@@ -201,9 +497,10 @@ public class TriageDBAdapter extends DBAdapter{
      * @return Cursor over all Patients.
      */
     public Cursor fetchAllPatients() {
-        return mDb.query(DATABASE_TABLE_PATIENT, new String[] {KEY_HEALTHCARD,
-        		KEY_NAME, KEY_DOB}, null, null, null, null, null);
-
+    	long start = System.nanoTime();
+        Cursor mCursor = mDb.rawQuery(FETCH_ALL_PATIENTS, null);
+        FETCH_ALL_PATIENTS_METRICS.recordQuery(start, mCursor.getCount());
+        return mCursor;
     }
     
 	/**
@@ -213,82 +510,135 @@ public class TriageDBAdapter extends DBAdapter{
      */
     public Cursor fetchCurrentERVisitForThisPatient(String patientHealthCard) {
     	//KEY_ROWID, KEY_ARRIVALTIME, KEY_TIMESEENBYDOCTOR, KEY_URGENCY
+    	long start = System.nanoTime();
     	String[] args = {patientHealthCard};
 		Cursor mCursor = mDb.rawQuery(FETCH_CURRENT_ERVISIT_FOR_THIS_PATIENT, args);
 		if (mCursor != null) {
 			mCursor.moveToFirst();
 		}
+		FETCH_CURRENT_ERVISIT_METRICS.recordQuery(start, mCursor.getCount());
 		return mCursor;
     }
     
 	/**
      * Return a Cursor over the list of all the Prescriptions for the ERVisit
-     * with this row id.
+     * with this row id, whether the ERVisit is in the main or archive database.
      * @return Cursor over all the Prescriptions for the ERVisit.
      */
     public Cursor fetchPrescriptionsForThisVisit(long ervisitID){
         //KEY_MEDICATION, KEY_INSTRUCTIONS
-    	Cursor mCursor =
-    			//searches for the Prescriptions in the database
-    			//the first parameter true indicates that we are interested 
-    			//in one distinct result.
-    			mDb.query(true, DATABASE_TABLE_PRESCRIPTION, 
-    					new String[] {KEY_MEDICATION, KEY_INSTRUCTIONS}, 
-    					KEY_ERVISITID + "=" + ervisitID, 
-    					null, null, null, KEY_ROWID + " ASC", null);
+    	long start = System.nanoTime();
+    	String[] args = {Long.toString(ervisitID)};
+    	Cursor mCursor = mDb.rawQuery(FETCH_PRESCRIPTIONS_FOR_THIS_VISIT, args);
     	
     	if (mCursor != null) {
     		mCursor.moveToFirst();
     	}
+    	FETCH_PRESCRIPTIONS_METRICS.recordQuery(start, mCursor.getCount());
     	// Return a Cursor positioned at the first Prescription that
     	// matches the given ervisit rowId.
     	return mCursor; 
     }
     
 	/**
-     * Return a Cursor over the list of all the Vitals for the ERVisit
-     * with this row id.
+     * Return a Cursor over the list of all the Vitals rows for the ERVisit
+     * with this row id, whether the ERVisit is in the main or archive database.
      * @return Cursor over all the VitalSigns for the ERVisit.
      */
     public Cursor fetchVitalSignsForThisVisit(long ervisitID){
-    	Cursor mCursor =
-    			//searches for the Prescriptions in the database
-    			//the first parameter true indicates that we are interested 
-    			//in one distinct result.
-    			mDb.query(true, DATABASE_TABLE_VITALS, 
-    					new String[] {KEY_SYSTOLIC, KEY_DIASTOLIC, KEY_TEMPERATURE, KEY_HEARTRATE, KEY_TIMESTAMP}, 
-    					KEY_ERVISITID + "=" + ervisitID, 
-    					null, null, null, KEY_TIMESTAMP + " ASC", null);
+    	long start = System.nanoTime();
+    	Cursor mCursor = queryVitalSignsForThisVisit(ervisitID);
+    	FETCH_VITALS_METRICS.recordQuery(start, mCursor.getCount());
+    	// Return a Cursor positioned at the first VitalSigns that 
+    	// matches the given ervisit rowId.
+    	return mCursor; 
+    }
+    
+    /**
+     * Queries the Vitals rows for the ERVisit with this row id, without
+     * recording metrics (used by the methods that record their own).
+     * @return Cursor positioned at the first VitalSigns for the ERVisit.
+     */
+    private Cursor queryVitalSignsForThisVisit(long ervisitID){
+    	String[] args = {Long.toString(ervisitID)};
+    	Cursor mCursor = mDb.rawQuery(FETCH_VITALS_FOR_THIS_VISIT, args);
     	
     	if (mCursor != null) {
     		mCursor.moveToFirst();
     	}
-    	// Return a Cursor positioned at the first VitalSigns that 
-    	// matches the given ervisit rowId.
     	return mCursor; 
     }
     
     /**
-     * Return a Cursor positioned at the String containing the 
-     * condensed formatted String representation of the Patient's
-     * Medical Record to be used for display if the Patient
-     * has Medical History at this ER.
+     * Return a Cursor over the closed ERVisits (_ID, arrival time, 
+     * time seen by doctor) making up the Patient's Medical Record, 
+     * most recent first. The VitalSigns and Prescriptions of each ERVisit
+     * are fetched separately, so the record can be formatted on demand.
      * @param patientHealthCard The health card number identifying the
      * patient whose medical record information is to be retrieved.
-     * @return Cursor positioned to the MedicalRecord String representation,
-     * if the Medical Record exists, otherwise return an empty Cursor.
+     * @return Cursor positioned at the most recent closed ERVisit,
+     * or an empty Cursor if the Patient has no Medical History.
      */
     public Cursor fetchMedicalRecordForThisPatient(String patientHealthCard) {
-    	//will return Medical Record TEXT already formatted. No need to do 
-    	//anything else.
+    	long start = System.nanoTime();
     	String[] args = {patientHealthCard};
     	Cursor mCursor = mDb.rawQuery(FETCH_MEDICAL_RECORD, args);
 		if (mCursor != null) {
 			mCursor.moveToFirst();
 		}
+		FETCH_MEDICAL_RECORD_METRICS.recordQuery(start, mCursor.getCount());
+		return mCursor;
+    }
+    
+    /**
+     * Return a Cursor over one page of the closed ERVisits (row id, arrival 
+     * time, time seen by doctor) of the Patient with this health card number, 
+     * most recent first.
+     * @param patientHealthCard The health card number of the Patient.
+     * @param offset The number of ERVisits before the page.
+     * @param limit The maximum number of ERVisits in the page.
+     * @return Cursor positioned at the first ERVisit of the page.
+     */
+    public Cursor fetchMedicalRecordPageForThisPatient(String patientHealthCard, int offset, int limit) {
+    	long start = System.nanoTime();
+    	String[] args = {patientHealthCard, Integer.toString(limit), Integer.toString(offset)};
+    	Cursor mCursor = mDb.rawQuery(FETCH_MEDICAL_RECORD_PAGE, args);
+		if (mCursor != null) {
+			mCursor.moveToFirst();
+		}
+		FETCH_MEDICAL_RECORD_PAGE_METRICS.recordQuery(start, mCursor.getCount());
 		return mCursor;
     }
     
+    /**
+     * Return a Cursor positioned at the block (reading count, data) holding 
+     * the compacted VitalSigns of the ERVisit with this row id, whether the 
+     * ERVisit is in the main or archive database.
+     * @param ervisitID The row id of the visit in the ERVisit table.
+     * @return Cursor positioned at the block, or an empty Cursor if the 
+     * ERVisit's VitalSigns have not been compacted.
+     */
+    public Cursor fetchVitalSignsBlockForThisVisit(long ervisitID){
+    	long start = System.nanoTime();
+    	Cursor mCursor = queryVitalSignsBlockForThisVisit(ervisitID);
+    	FETCH_VITALS_BLOCK_METRICS.recordQuery(start, mCursor.getCount());
+    	return mCursor;
+    }
+    
+    /**
+     * Queries the VitalSigns block of the ERVisit with this row id, without
+     * recording metrics (used by the methods that record their own).
+     * @return Cursor positioned at the block, or an empty Cursor.
+     */
+    private Cursor queryVitalSignsBlockForThisVisit(long ervisitID){
+    	String[] args = {Long.toString(ervisitID)};
+    	Cursor mCursor = mDb.rawQuery(FETCH_VITALS_BLOCK_FOR_THIS_VISIT, args);
+    	if (mCursor != null) {
+    		mCursor.moveToFirst();
+    	}
+    	return mCursor;
+    }
+    
     /**
      * Return a Cursor over the list of health card numbers of patients
      * in the database who are currently visiting the ER and HAVEN'T been
@@ -302,18 +652,123 @@ public class TriageDBAdapter extends DBAdapter{
     	//multiple lines
     	//Patients that are currently in the ER, aka have one ERVisit.isClosed = false
     	//(HCNs are ordered by urgency, and by arrival time.)
-		return mDb.rawQuery(FETCH_PATIENTS_BY_URGENCY, null);
+    	long start = System.nanoTime();
+    	Span span = Tracer.begin("db.fetchPatientsByUrgency");
+    	try {
+    		Cursor mCursor = mDb.rawQuery(FETCH_PATIENTS_BY_URGENCY, null);
+    		//getCount runs the query, so its time is recorded here.
+    		int rows = mCursor.getCount();
+    		FETCH_BY_URGENCY_METRICS.recordQuery(start, rows);
+    		span.attribute("rows", rows);
+    		return mCursor;
+    	} finally {
+    		span.end();
+    	}
     }
     
     /**
      * Return a Cursor over the list of health card numbers of patients
      * in the database who are currently visiting the ER and ARE being
-     * seen by a doctor.
+     * seen by a doctor, with the username of the Physician assigned to
+     * them and the time the Physician took them, or NULL.
      * @return Cursor over health card numbers of current patients 
-     * seen by the doctor.
+     * seen by the doctor, Physicians and times taken.
      */
     public Cursor fetchPatientsSentToDoctor(){
-    	return mDb.rawQuery(FETCH_PATIENTS_SENT_TO_DOCTOR, null);
+    	long start = System.nanoTime();
+    	Cursor mCursor = mDb.rawQuery(FETCH_PATIENTS_SENT_TO_DOCTOR, null);
+    	FETCH_SENT_TO_DOCTOR_METRICS.recordQuery(start, mCursor.getCount());
+    	return mCursor;
+    }
+
+    /**
+     * Return a Cursor over the closed ERVisits (row id, arrival time, time seen
+     * by doctor, urgency, VitalSigns block data) that arrived in a range of time,
+     * whether in the main or archive database, in order of arrival.
+     * @param arrivedFrom The start of the range, inclusive.
+     * @param arrivedBefore The end of the range, exclusive.
+     * @return Cursor before the first ERVisit.
+     */
+    public Cursor fetchVisitHistory(long arrivedFrom, long arrivedBefore) {
+    	long start = System.nanoTime();
+    	String[] args = {Long.toString(arrivedFrom), Long.toString(arrivedBefore)};
+    	Cursor mCursor = mDb.rawQuery(FETCH_VISIT_HISTORY, args);
+    	FETCH_VISIT_HISTORY_METRICS.recordQuery(start, mCursor.getCount());
+    	return mCursor;
+    }
+    
+    /**
+     * Return a Cursor over the Prescriptions (ERVisit row id, medication) of the
+     * ERVisits of fetchVisitHistory, in the same order of ERVisits.
+     * @param arrivedFrom The start of the range, inclusive.
+     * @param arrivedBefore The end of the range, exclusive.
+     * @return Cursor before the first Prescription.
+     */
+    public Cursor fetchPrescriptionHistory(long arrivedFrom, long arrivedBefore) {
+    	long start = System.nanoTime();
+    	String[] args = {Long.toString(arrivedFrom), Long.toString(arrivedBefore)};
+    	Cursor mCursor = mDb.rawQuery(FETCH_PRESCRIPTION_HISTORY, args);
+    	FETCH_PRESCRIPTION_HISTORY_METRICS.recordQuery(start, mCursor.getCount());
+    	return mCursor;
+    }
+
+    /**
+     * Return a Cursor over every Patient (row id, health card number, name,
+     * date of birth), by row id.
+     * @return Cursor before the first Patient, to be read forward once.
+     */
+    public Cursor fetchPatientsForExport() {
+    	return queryForExport(FETCH_PATIENTS_FOR_EXPORT);
+    }
+    
+    /**
+     * Return a Cursor over every ERVisit (row id, health card number, arrival 
+     * time, time seen by doctor, urgency, closed), in order of arrival.
+     * @return Cursor before the first ERVisit, to be read forward once.
+     */
+    public Cursor fetchERVisitsForExport() {
+    	return queryForExport(FETCH_ERVISITS_FOR_EXPORT);
+    }
+    
+    /**
+     * Return a Cursor over every VitalSigns not compacted into a block (ERVisit
+     * row id, timestamp, systolic, diastolic, temperature, heart rate), by ERVisit.
+     * @return Cursor before the first VitalSigns, to be read forward once.
+     */
+    public Cursor fetchVitalSignsForExport() {
+    	return queryForExport(FETCH_VITALS_FOR_EXPORT);
+    }
+    
+    /**
+     * Return a Cursor over every block of compacted VitalSigns (ERVisit row id, 
+     * data, see VitalSignsBlockCodec), by ERVisit.
+     * @return Cursor before the first block, to be read forward once.
+     */
+    public Cursor fetchVitalSignsBlocksForExport() {
+    	return queryForExport(FETCH_VITALS_BLOCKS_FOR_EXPORT);
+    }
+    
+    /**
+     * Return a Cursor over every Prescription (ERVisit row id, medication, 
+     * instructions), by ERVisit.
+     * @return Cursor before the first Prescription, to be read forward once.
+     */
+    public Cursor fetchPrescriptionsForExport() {
+    	return queryForExport(FETCH_PRESCRIPTIONS_FOR_EXPORT);
+    }
+    
+    /**
+     * Runs a query reading a whole table for export. The row count is not 
+     * recorded: getCount would run the query to its end before the first row
+     * is read, and the Cursor is only meant to be read forward once.
+     * @param query The query.
+     * @return Cursor before the first row.
+     */
+    private Cursor queryForExport(String query) {
+    	long start = System.nanoTime();
+    	Cursor mCursor = mDb.rawQuery(query, null);
+    	FETCH_FOR_EXPORT_METRICS.recordQuery(start, 0);
+    	return mCursor;
     }
 
     /**
@@ -326,11 +781,13 @@ public class TriageDBAdapter extends DBAdapter{
     public Cursor fetchUser(String username, String password){
     	//KEY_ROLENAME
     	//validation of username, password happens here.
+    	long start = System.nanoTime();
     	String[] args = {username, password};
     	Cursor mCursor = mDb.rawQuery(FETCH_USER, args);
 		if (mCursor != null) {
 			mCursor.moveToFirst();
 		}
+		FETCH_USER_METRICS.recordQuery(start, mCursor.getCount());
 		return mCursor;
     }
     
@@ -343,21 +800,24 @@ public class TriageDBAdapter extends DBAdapter{
     public boolean createUser(String username, String password, String role){
     	//Retrieve the RoleID for the role String in the Role table
     	//to be used as the foreign key for the user row.
-    	Cursor mCursor = 
-    			mDb.query(DATABASE_TABLE_ROLE, 
-				new String[] {KEY_ROWID}, 
-				KEY_ROLENAME + "='" + role + "'", 
-				null, null, null, null, null);
+    	long start = System.nanoTime();
+    	String[] args = {role};
+    	Cursor mCursor = mDb.rawQuery(FETCH_ROLE_ID, args);
     	if (!mCursor.moveToFirst()) {
+    		mCursor.close();
+    		CREATE_USER_METRICS.recordQuery(start, 0);
 			return false;
 		}
     	long roleID = mCursor.getLong(0);
+    	mCursor.close();
     	
     	ContentValues initialValues = new ContentValues();
         initialValues.put(KEY_USERNAME, username); // key-value pairs
         initialValues.put(KEY_PASSWORD, password);
         initialValues.put(KEY_ROLEID, roleID);
-    	return mDb.insert(DATABASE_TABLE_USER, null, initialValues) != -1;
+        boolean created = mDb.insert(DATABASE_TABLE_USER, null, initialValues) != -1;
+        CREATE_USER_METRICS.recordQuery(start, created ? 1 : 0);
+    	return created;
     }
     
     /**
@@ -368,12 +828,75 @@ public class TriageDBAdapter extends DBAdapter{
      * @return true if insertion is successful.
      */
     public boolean createPatient(String healthCard, String name, String dob) {
+    	long start = System.nanoTime();
         ContentValues initialValues = new ContentValues();
         initialValues.put(KEY_HEALTHCARD, healthCard); // key-value pairs
         initialValues.put(KEY_NAME, name);
         initialValues.put(KEY_DOB, dob);
         //returns true if creation successful
-        return mDb.insert(DATABASE_TABLE_PATIENT, null, initialValues) != -1;
+        boolean created;
+        synchronized (ChangeStream.WRITE_LOCK) {
+        	beginMutation();
+        	try {
+        		long patientID = mDb.insert(DATABASE_TABLE_PATIENT, null, initialValues);
+        		created = patientID != -1;
+        		if (created)
+        			logChange(ChangeEvent.PATIENT_CREATED, patientID, 0, healthCard, 0, 0);
+        		mDb.setTransactionSuccessful();
+        	} finally {
+        		mDb.endTransaction();
+        	}
+        	publish();
+        }
+        CREATE_PATIENT_METRICS.recordQuery(start, created ? 1 : 0);
+        return created;
+    }
+    
+    /**
+     * Insert a batch of new Patient rows into the Patient table, in one 
+     * transaction, with one compiled statement. A Patient whose health card 
+     * number is already in the table is skipped. The batch is its own 
+     * transaction: it must not be called inside another one, so that the
+     * caller knows the batch is committed once it returns.
+     * @param healthCards The patients' health card numbers.
+     * @param names The patients' names.
+     * @param dobs The patients' birth dates.
+     * @param count The number of Patients of the batch, from the start of the arrays.
+     * @param created Set to whether each Patient was inserted.
+     * @return The number of Patients inserted.
+     */
+    public int createPatients(String[] healthCards, String[] names, String[] dobs, int count, boolean[] created) {
+    	long start = System.nanoTime();
+    	if (mDb.inTransaction())
+    		throw new IllegalStateException("createPatients must not be nested in a transaction");
+    	int inserted = 0;
+    	synchronized (ChangeStream.WRITE_LOCK) {
+    		beginMutation();
+    		try {
+    			SQLiteStatement insert = mDb.compileStatement(INSERT_PATIENT_IF_NEW);
+    			try {
+    				for (int i = 0; i < count; i++) {
+    					insert.bindString(1, healthCards[i]);
+    					insert.bindString(2, names[i]);
+    					insert.bindString(3, dobs[i]);
+    					long patientID = insert.executeInsert();
+    					created[i] = patientID != -1;
+    					if (created[i]) {
+    						inserted++;
+    						logChange(ChangeEvent.PATIENT_CREATED, patientID, 0, healthCards[i], 0, 0);
+    					}
+    				}
+    			} finally {
+    				insert.close();
+    			}
+    			mDb.setTransactionSuccessful();
+    		} finally {
+    			mDb.endTransaction();
+    		}
+    		publish();
+    	}
+    	CREATE_PATIENTS_METRICS.recordQuery(start, inserted);
+    	return inserted;
     }
     
     /**
@@ -388,15 +911,16 @@ public class TriageDBAdapter extends DBAdapter{
     public long createERVisit(long arrivalTime, String patientHealthCard, int urgency)  {
         //returns the row _id value for the newly created row.
     	//returns ervisitID in reality
-    	Cursor mCursor = 
-    			mDb.query(DATABASE_TABLE_PATIENT, 
-				new String[] {KEY_ROWID}, 
-				KEY_HEALTHCARD + "='" + patientHealthCard + "'", 
-				null, null, null, null, null);
+    	long start = System.nanoTime();
+    	String[] args = {patientHealthCard};
+    	Cursor mCursor = mDb.rawQuery(FETCH_PATIENT_ID, args);
     	if (!mCursor.moveToFirst()) {
+    		mCursor.close();
+    		CREATE_ERVISIT_METRICS.recordQuery(start, 0);
 			return 0L;
 		}
     	long patientID = mCursor.getLong(0);
+    	mCursor.close();
     	
     	 ContentValues initialValues = new ContentValues();
          initialValues.put(KEY_ARRIVALTIME, arrivalTime); // key-value pairs
@@ -404,7 +928,22 @@ public class TriageDBAdapter extends DBAdapter{
          initialValues.put(KEY_URGENCY, urgency); // key-value pairs
          //"insert" returns the row _id value for the newly created row, 
          //or -1 if an error occurred.
-         return mDb.insert(DATABASE_TABLE_ERVISIT, null, initialValues);
+         long ervisitID;
+         synchronized (ChangeStream.WRITE_LOCK) {
+        	 beginMutation();
+        	 try {
+        		 ervisitID = mDb.insert(DATABASE_TABLE_ERVISIT, null, initialValues);
+        		 if (ervisitID != -1)
+        			 logChange(ChangeEvent.ERVISIT_CREATED, ervisitID, ervisitID, 
+        					 patientHealthCard, arrivalTime, urgency);
+        		 mDb.setTransactionSuccessful();
+        	 } finally {
+        		 mDb.endTransaction();
+        	 }
+        	 publish();
+         }
+         CREATE_ERVISIT_METRICS.recordQuery(start, ervisitID != -1 ? 1 : 0);
+         return ervisitID;
     }
     
     /**
@@ -426,6 +965,8 @@ public class TriageDBAdapter extends DBAdapter{
     		int sys, int dia, float temp, float HR, long timeStamp, int urgency) { 	
     	//Note: urgency parameter - this is the urgency taken from patient.
     	//Two transactions with one method. Two birds with one stone.
+    	long start = System.nanoTime();
+    	Span span = Tracer.begin("db.createVitalSigns");
         ContentValues initialValues = new ContentValues();
         initialValues.put(KEY_SYSTOLIC, sys); // key-value pairs.
         initialValues.put(KEY_DIASTOLIC, dia);
@@ -433,11 +974,29 @@ public class TriageDBAdapter extends DBAdapter{
         initialValues.put(KEY_HEARTRATE, HR);
         initialValues.put(KEY_TIMESTAMP, timeStamp);
         initialValues.put(KEY_ERVISITID, ervisitID);
-        ContentValues args = new ContentValues();
-        args.put(KEY_URGENCY, urgency); // key-value pairs.
         //return true if creation and update were successful.
-        return  mDb.insert(DATABASE_TABLE_VITALS, null, initialValues) != -1 &&
-        		mDb.update(DATABASE_TABLE_ERVISIT, args, KEY_ROWID + "=" + ervisitID, null) > 0;
+        try {
+        	boolean created = false;
+        	synchronized (ChangeStream.WRITE_LOCK) {
+        		beginMutation();
+        		try {
+        			long vitalsID = mDb.insert(DATABASE_TABLE_VITALS, null, initialValues);
+        			if (vitalsID != -1 && updateUrgency(ervisitID, urgency) > 0) {
+        				logChange(ChangeEvent.VITALS_CREATED, vitalsID, ervisitID, null, timeStamp, urgency);
+        				mDb.setTransactionSuccessful();
+        				created = true;
+        			}
+        		} finally {
+        			mDb.endTransaction();
+        		}
+        		publish();
+        	}
+        	CREATE_VITALS_METRICS.recordQuery(start, created ? 1 : 0);
+        	span.attribute("rows", created ? 1 : 0);
+        	return created;
+        } finally {
+        	span.end();
+        }
     }
     
     /**
@@ -451,11 +1010,198 @@ public class TriageDBAdapter extends DBAdapter{
      */
     public boolean createPrescription(long ervisitID, String name, String instructions) {
     	//returns true if creation successful.
+    	long start = System.nanoTime();
         ContentValues initialValues = new ContentValues();
         initialValues.put(KEY_MEDICATION, name); // key-value pairs.
         initialValues.put(KEY_INSTRUCTIONS, instructions);
         initialValues.put(KEY_ERVISITID, ervisitID);
-        return mDb.insert(DATABASE_TABLE_PRESCRIPTION, null, initialValues) != -1;
+        boolean created;
+        synchronized (ChangeStream.WRITE_LOCK) {
+        	beginMutation();
+        	try {
+        		long prescriptionID = mDb.insert(DATABASE_TABLE_PRESCRIPTION, null, initialValues);
+        		created = prescriptionID != -1;
+        		if (created)
+        			logChange(ChangeEvent.PRESCRIPTION_CREATED, prescriptionID, ervisitID, null, 0, 0);
+        		mDb.setTransactionSuccessful();
+        	} finally {
+        		mDb.endTransaction();
+        	}
+        	publish();
+        }
+        CREATE_PRESCRIPTION_METRICS.recordQuery(start, created ? 1 : 0);
+        return created;
+    }
+    
+    /**
+     * Packs the VitalSigns rows of the ERVisit with this row id into a single
+     * delta-compressed row of the VitalSignsBlock table, and deletes the rows.
+     * Only used for closed ERVisits, whose VitalSigns no longer change, so
+     * that open ERVisits keep cheap row inserts.
+     * @param ervisitID The row id of the closed visit in the ERVisit table.
+     * @return true if the VitalSigns were compacted (or there was nothing to compact).
+     */
+    public boolean compactVitalSignsForThisVisit(long ervisitID) {
+    	long start = System.nanoTime();
+    	int compacted = -1;
+    	mDb.beginTransaction();
+    	try {
+    		compacted = compactVitalSigns(ervisitID);
+    		if (compacted != -1)
+    			mDb.setTransactionSuccessful();
+    	} finally {
+    		mDb.endTransaction();
+    		COMPACT_VITALS_METRICS.recordQuery(start, Math.max(0, compacted));
+    	}
+    	return compacted != -1;
+    }
+    
+    /**
+     * Compacts the VitalSigns of every closed ERVisit that still has VitalSigns
+     * rows: those closed before the VitalSignsBlock table existed, and those 
+     * whose compaction failed when they were closed. Each ERVisit is compacted
+     * in its own transaction, so that the database is never locked for long.
+     * @return The number of ERVisits compacted.
+     */
+    public int compactClosedVisits() {
+    	long start = System.nanoTime();
+    	Cursor mCursor = mDb.rawQuery(FETCH_CLOSED_VISITS_TO_COMPACT, null);
+    	int compacted = 0;
+    	try {
+    		for (boolean hasItem = mCursor.moveToFirst(); hasItem; hasItem = mCursor.moveToNext()) {
+    			if (compactVitalSignsForThisVisit(mCursor.getLong(0)))
+    				compacted++;
+    		}
+    	} finally {
+    		mCursor.close();
+    	}
+    	COMPACT_CLOSED_VISITS_METRICS.recordQuery(start, compacted);
+    	return compacted;
+    }
+    
+    /**
+     * Replaces the VitalSigns rows of an ERVisit by its VitalSignsBlock, in 
+     * the transaction of the caller, so that a reading is never stored twice
+     * or lost.
+     * @param ervisitID The row id of the visit in the ERVisit table.
+     * @return The number of readings in the block, 0 if there were no rows 
+     * to compact, or -1 if the block could not be written.
+     */
+    private int compactVitalSigns(long ervisitID) {
+    	Cursor rowsCursor = queryVitalSignsForThisVisit(ervisitID);
+    	if (rowsCursor.getCount() == 0) {
+    		rowsCursor.close();
+    		return 0;
+    	}
+    	//Readings already in a block (if any) come before the remaining rows.
+    	Cursor blockCursor = queryVitalSignsBlockForThisVisit(ervisitID);
+    	VitalSignsBlockCodec.Columns previous = blockCursor.getCount() > 0 ?
+    			VitalSignsBlockCodec.decode(blockCursor.getBlob(1)) : new VitalSignsBlockCodec.Columns(0);
+    	blockCursor.close();
+    	VitalSignsBlockCodec.Columns columns = 
+    			new VitalSignsBlockCodec.Columns(previous.count + rowsCursor.getCount());
+    	for (int i = 0; i < previous.count; i++) {
+    		columns.systolic[i] = previous.systolic[i];
+    		columns.diastolic[i] = previous.diastolic[i];
+    		columns.temperature[i] = previous.temperature[i];
+    		columns.heartRate[i] = previous.heartRate[i];
+    		columns.timestamp[i] = previous.timestamp[i];
+    	}
+    	int i = previous.count;
+    	for (boolean hasItem = rowsCursor.moveToFirst(); hasItem; hasItem = rowsCursor.moveToNext()) {
+    		columns.systolic[i] = rowsCursor.getInt(0);
+    		columns.diastolic[i] = rowsCursor.getInt(1);
+    		columns.temperature[i] = rowsCursor.getFloat(2);
+    		columns.heartRate[i] = rowsCursor.getFloat(3);
+    		columns.timestamp[i] = rowsCursor.getLong(4);
+    		i++;
+    	}
+    	rowsCursor.close();
+    	
+    	ContentValues blockValues = new ContentValues();
+    	blockValues.put(KEY_ERVISITID, ervisitID); // key-value pairs.
+    	blockValues.put(KEY_READINGCOUNT, columns.count);
+    	blockValues.put(KEY_DATA, VitalSignsBlockCodec.encode(columns));
+    	deleteForThisVisit(DELETE_VITALS_BLOCK_FOR_THIS_VISIT, ervisitID);
+    	if (mDb.insert(DATABASE_TABLE_VITALS_BLOCK, null, blockValues) == -1)
+    		return -1;
+    	deleteForThisVisit(DELETE_VITALS_FOR_THIS_VISIT, ervisitID);
+    	return columns.count;
+    }
+    
+    /**
+     * Sets the urgency of the ERVisit with this row id, with UPDATE_ERVISIT_URGENCY.
+     * @param ervisitID The row id of the visit in the ERVisit table.
+     * @param urgency The urgency of the visit.
+     * @return The number of ERVisits updated, 0 if the ERVisit is missing.
+     */
+    private int updateUrgency(long ervisitID, int urgency) {
+    	SQLiteStatement update = mDb.compileStatement(UPDATE_ERVISIT_URGENCY);
+    	try {
+    		update.bindLong(1, urgency);
+    		update.bindLong(2, ervisitID);
+    		return update.executeUpdateDelete();
+    	} finally {
+    		update.close();
+    	}
+    }
+    
+    /**
+     * Runs a statement deleting the rows of the ERVisit with this row id, like
+     * DELETE_VITALS_FOR_THIS_VISIT.
+     * @param sql The statement, whose one parameter is the ERVisit's row id.
+     * @param ervisitID The row id of the visit in the ERVisit table.
+     * @return The number of rows deleted.
+     */
+    private int deleteForThisVisit(String sql, long ervisitID) {
+    	SQLiteStatement delete = mDb.compileStatement(sql);
+    	try {
+    		delete.bindLong(1, ervisitID);
+    		return delete.executeUpdateDelete();
+    	} finally {
+    		delete.close();
+    	}
+    }
+    
+    /**
+     * Moves closed ERVisits that arrived before the given time, with their
+     * VitalSigns and Prescriptions, from the main database to the archive 
+     * database. Visits are moved in batches, each in its own transaction,
+     * so that the main database is never locked for long.
+     * @param arrivedBefore ERVisits with an earlier arrival time are archived.
+     * @return The number of ERVisits archived.
+     */
+    public int archiveClosedVisits(long arrivedBefore) {
+    	long start = System.nanoTime();
+    	String[] args = {Long.toString(arrivedBefore)};
+    	int archived = 0;
+    	mDb.execSQL(CREATE_ARCHIVE_BATCH);
+    	while (true) {
+    		Cursor batchCursor = mDb.rawQuery(FETCH_VISITS_TO_ARCHIVE, args);
+    		int batchSize = batchCursor.getCount();
+    		if (batchSize == 0) {
+    			batchCursor.close();
+    			ARCHIVE_METRICS.recordQuery(start, archived);
+    			return archived;
+    		}
+    		mDb.beginTransaction();
+    		try {
+    			mDb.execSQL("DELETE FROM temp.ArchiveBatch");
+    			SQLiteStatement insertId = mDb.compileStatement("INSERT INTO temp.ArchiveBatch (_ID) VALUES (?)");
+    			for (boolean hasItem = batchCursor.moveToFirst(); hasItem; hasItem = batchCursor.moveToNext()) {
+    				insertId.bindLong(1, batchCursor.getLong(0));
+    				insertId.executeInsert();
+    			}
+    			insertId.close();
+    			for (String statement : ARCHIVE_BATCH)
+    				mDb.execSQL(statement);
+    			mDb.setTransactionSuccessful();
+    		} finally {
+    			mDb.endTransaction();
+    			batchCursor.close();
+    		}
+    		archived += batchSize;
+    	}
     }
     
     /**
@@ -468,10 +1214,25 @@ public class TriageDBAdapter extends DBAdapter{
      * @return true if the ER Visit was successfully updated, false otherwise.
      */
     public boolean updateERVisit(long ervisitID, long timeSeenByDoctor) {
+    	long start = System.nanoTime();
     	ContentValues args = new ContentValues();
         args.put(KEY_TIMESEENBYDOCTOR, timeSeenByDoctor); // key-value pairs
         //return true if update was successful.
-        return mDb.update(DATABASE_TABLE_ERVISIT, args, KEY_ROWID + "=" + ervisitID, null) > 0;
+        int updated;
+        synchronized (ChangeStream.WRITE_LOCK) {
+        	beginMutation();
+        	try {
+        		updated = mDb.update(DATABASE_TABLE_ERVISIT, args, KEY_ROWID + "=" + ervisitID, null);
+        		if (updated > 0)
+        			logChange(ChangeEvent.ERVISIT_SENT_TO_DOCTOR, ervisitID, ervisitID, null, timeSeenByDoctor, 0);
+        		mDb.setTransactionSuccessful();
+        	} finally {
+        		mDb.endTransaction();
+        	}
+        	publish();
+        }
+        UPDATE_ERVISIT_METRICS.recordQuery(start, updated);
+        return updated > 0;
     }
     
     /**
@@ -488,10 +1249,421 @@ public class TriageDBAdapter extends DBAdapter{
     	//I am expecting here "1" for true, b/c the only time you use this method
     	//is when you close the ERVisit.
     	
+    	long start = System.nanoTime();
         ContentValues args = new ContentValues();
         args.put(KEY_CLOSED, closed); // key-value pairs.
         //return true if update was successful.
-        return mDb.update(DATABASE_TABLE_ERVISIT, args, KEY_ROWID + "=" + ervisitID, null) > 0;
+        int updated;
+        synchronized (ChangeStream.WRITE_LOCK) {
+        	beginMutation();
+        	try {
+        		updated = mDb.update(DATABASE_TABLE_ERVISIT, args, KEY_ROWID + "=" + ervisitID, null);
+        		if (updated > 0 && closed)
+        			logChange(ChangeEvent.ERVISIT_CLOSED, ervisitID, ervisitID, null, 0, 0);
+        		mDb.setTransactionSuccessful();
+        	} finally {
+        		mDb.endTransaction();
+        	}
+        	publish();
+        }
+        UPDATE_ERVISIT_METRICS.recordQuery(start, updated);
+        return updated > 0;
+    }
+
+    /**
+     * Closes the ERVisit with this row id and compacts its VitalSigns, in one
+     * transaction, so that a closed ERVisit never keeps its VitalSigns rows
+     * and a failed compaction leaves the ERVisit open.
+     * @param ervisitID id of the ER visit to close.
+     * @return true if the ER Visit was closed, false otherwise.
+     */
+    public boolean closeERVisit(long ervisitID) {
+    	long start = System.nanoTime();
+        ContentValues args = new ContentValues();
+        args.put(KEY_CLOSED, true); // key-value pairs.
+        boolean closed = false;
+        synchronized (ChangeStream.WRITE_LOCK) {
+        	beginMutation();
+        	try {
+        		if (mDb.update(DATABASE_TABLE_ERVISIT, args, KEY_ROWID + "=" + ervisitID, null) > 0
+        				&& compactVitalSigns(ervisitID) != -1) {
+        			logChange(ChangeEvent.ERVISIT_CLOSED, ervisitID, ervisitID, null, 0, 0);
+        			mDb.setTransactionSuccessful();
+        			closed = true;
+        		}
+        	} finally {
+        		mDb.endTransaction();
+        	}
+        	publish();
+        }
+        CLOSE_ERVISIT_METRICS.recordQuery(start, closed ? 1 : 0);
+        return closed;
+    }
+
+    /**
+     * Deletes the ERVisit with this row id, with its VitalSigns and 
+     * Prescriptions, e.g. when another device signed its Patient in at the
+     * same time and its ERVisit won.
+     * @param ervisitID id of the ER visit to delete.
+     * @return true if the ER Visit was deleted, false otherwise.
+     */
+    public boolean deleteERVisit(long ervisitID) {
+    	long start = System.nanoTime();
+    	int deleted;
+    	synchronized (ChangeStream.WRITE_LOCK) {
+    		beginMutation();
+    		try {
+    			deleted = mDb.delete(DATABASE_TABLE_ERVISIT, KEY_ROWID + "=" + ervisitID, null);
+    			if (deleted > 0)
+    				logChange(ChangeEvent.ERVISIT_DELETED, ervisitID, ervisitID, null, 0, 0);
+    			mDb.setTransactionSuccessful();
+    		} finally {
+    			mDb.endTransaction();
+    		}
+    		publish();
+    	}
+    	DELETE_ERVISIT_METRICS.recordQuery(start, deleted);
+    	return deleted > 0;
+    }
+    
+    /**
+     * Assigns the ERVisit with this row id to a Physician, who has not taken
+     * the Patient yet, replacing any previous assignment.
+     * @param ervisitID id of the ER visit.
+     * @param physician The username of the Physician, or null to assign the ERVisit to no Physician.
+     * @return true if the ERVisit was assigned (or, with no Physician, its assignment removed), false otherwise.
+     */
+    public boolean assignERVisit(long ervisitID, String physician) {
+    	return physician == null ? unassignERVisit(ervisitID) : replaceAssignment(ervisitID, physician, null);
+    }
+    
+    /**
+     * Records that a Physician took the Patient of the ERVisit with this row
+     * id, replacing any previous assignment.
+     * @param ervisitID id of the ER visit.
+     * @param physician The username of the Physician.
+     * @param timeTaken The time the Physician took the Patient.
+     * @return true if the assignment was stored, false otherwise.
+     */
+    public boolean takeERVisit(long ervisitID, String physician, long timeTaken) {
+    	return replaceAssignment(ervisitID, physician, timeTaken);
+    }
+    
+    /**
+     * Replaces the assignment of an ERVisit.
+     * @param ervisitID id of the ER visit.
+     * @param physician The username of the Physician.
+     * @param timeTaken The time the Physician took the Patient, or null while the Patient waits.
+     * @return true if the assignment was stored, false otherwise (e.g. no such ERVisit).
+     */
+    private boolean replaceAssignment(long ervisitID, String physician, Long timeTaken) {
+    	long start = System.nanoTime();
+    	ContentValues values = new ContentValues();
+    	values.put(KEY_ERVISITID, ervisitID);
+    	values.put(KEY_PHYSICIAN, physician);
+    	values.put(KEY_TIMETAKEN, timeTaken);
+    	long rowID;
+    	synchronized (ChangeStream.WRITE_LOCK) {
+    		beginMutation();
+    		try {
+    			//Fails (-1) on the foreign key if the ERVisit does not exist.
+    			rowID = mDb.insertWithOnConflict(DATABASE_TABLE_PHYSICIAN_ASSIGNMENT, null, values, 
+    					SQLiteDatabase.CONFLICT_REPLACE);
+    			if (rowID != -1)
+    				logChange(ChangeEvent.ERVISIT_ASSIGNED, ervisitID, ervisitID, null, 
+    						timeTaken != null ? timeTaken : 0, 0);
+    			mDb.setTransactionSuccessful();
+    		} finally {
+    			mDb.endTransaction();
+    		}
+    		publish();
+    	}
+    	ASSIGN_ERVISIT_METRICS.recordQuery(start, rowID != -1 ? 1 : 0);
+    	return rowID != -1;
+    }
+    
+    /**
+     * Removes the assignment of an ERVisit, which waits for no Physician.
+     * @param ervisitID id of the ER visit.
+     * @return true, as an ERVisit with no assignment is assigned to no Physician.
+     */
+    private boolean unassignERVisit(long ervisitID) {
+    	long start = System.nanoTime();
+    	int deleted;
+    	synchronized (ChangeStream.WRITE_LOCK) {
+    		beginMutation();
+    		try {
+    			deleted = mDb.delete(DATABASE_TABLE_PHYSICIAN_ASSIGNMENT, KEY_ERVISITID + "=" + ervisitID, null);
+    			if (deleted > 0)
+    				logChange(ChangeEvent.ERVISIT_ASSIGNED, ervisitID, ervisitID, null, 0, 0);
+    			mDb.setTransactionSuccessful();
+    		} finally {
+    			mDb.endTransaction();
+    		}
+    		publish();
+    	}
+    	ASSIGN_ERVISIT_METRICS.recordQuery(start, deleted);
+    	return true;
+    }
+    
+    /**
+     * Gets the arrival time of a Patient's latest ERVisit, open or closed,
+     * archived or not.
+     * @param patientHealthCard The health card number of the Patient.
+     * @return The arrival time, or 0 if the Patient never visited the ER.
+     */
+    public long getLastArrivalTime(String patientHealthCard) {
+    	Cursor mCursor = mDb.rawQuery(FETCH_LAST_ARRIVAL_TIME, new String[] {patientHealthCard});
+    	try {
+    		return mCursor.moveToFirst() && !mCursor.isNull(0) ? mCursor.getLong(0) : 0;
+    	} finally {
+    		mCursor.close();
+    	}
+    }
+
+    /**
+     * Return a Cursor over the ChangeEvents following the one with this 
+     * sequence number, in sequence order.
+     * @param afterSequence The sequence number of the last event already handled.
+     * @param limit The maximum number of events.
+     * @return Cursor over the events, to be read with readChangeEvent().
+     */
+    public Cursor fetchChangeEventsSince(long afterSequence, int limit) {
+    	long start = System.nanoTime();
+    	Cursor mCursor = mDb.query(DATABASE_TABLE_CHANGE_EVENT, 
+    			new String[] {KEY_ROWID, KEY_TYPE, KEY_CHANGED_ROWID, KEY_ERVISITID, KEY_HEALTHCARD, 
+    					KEY_VALUE, KEY_URGENCY, KEY_TIME}, 
+    			KEY_ROWID + ">" + afterSequence, 
+    			null, null, null, KEY_ROWID + " ASC", Integer.toString(limit));
+    	FETCH_CHANGE_EVENTS_METRICS.recordQuery(start, mCursor.getCount());
+    	return mCursor;
+    }
+    
+    /**
+     * Gets the sequence number of the last ChangeEvent logged, by this or any
+     * other connection. It changes whenever a mutation is committed, even 
+     * after the event was deleted, as sequence numbers are never reused.
+     * @return The sequence number, or 0 if no event was ever logged.
+     */
+    public long getLastChangeSequence() {
+    	Cursor mCursor = mDb.rawQuery(FETCH_LAST_CHANGE_SEQUENCE, null);
+    	try {
+    		return mCursor.moveToFirst() ? mCursor.getLong(0) : 0;
+    	} finally {
+    		mCursor.close();
+    	}
+    }
+    
+    /**
+     * Gets the sequence number of the oldest ChangeEvent still in the ChangeEvent table.
+     * @return The sequence number, or 0 if the table is empty.
+     */
+    public long getFirstChangeSequence() {
+    	Cursor mCursor = mDb.rawQuery("SELECT MIN(" + KEY_ROWID + ") FROM " + DATABASE_TABLE_CHANGE_EVENT, null);
+    	try {
+    		return mCursor.moveToFirst() && !mCursor.isNull(0) ? mCursor.getLong(0) : 0;
+    	} finally {
+    		mCursor.close();
+    	}
+    }
+    
+    /**
+     * Gets the number of ChangeEvents logged through this adapter. Comparing it
+     * with getLastChangeSequence() around a mutation tells whether another 
+     * connection committed a mutation meanwhile.
+     * @return The number of events logged.
+     */
+    public long getChangesLogged() {
+    	return changesLogged;
+    }
+    
+    /**
+     * Reads the ChangeEvent at the current position of a Cursor returned 
+     * by fetchChangeEventsSince().
+     * @param cursor The Cursor.
+     * @return The ChangeEvent.
+     */
+    public static ChangeEvent readChangeEvent(Cursor cursor) {
+    	return new ChangeEvent(cursor.getLong(0), cursor.getInt(1), cursor.getLong(2), cursor.getLong(3),
+    			cursor.isNull(4) ? null : cursor.getString(4), cursor.getLong(5), cursor.getInt(6), cursor.getLong(7));
+    }
+    
+    /**
+     * Deletes the ChangeEvents committed before the given time. Subscribers
+     * resuming from a deleted event are reset (see ChangeStream).
+     * @param committedBefore Events with an earlier commit time are deleted.
+     * @return The number of events deleted.
+     */
+    public int deleteChangeEventsBefore(long committedBefore) {
+    	long start = System.nanoTime();
+    	int deleted = mDb.delete(DATABASE_TABLE_CHANGE_EVENT, KEY_TIME + "<" + committedBefore, null);
+    	DELETE_CHANGE_EVENTS_METRICS.recordQuery(start, deleted);
+    	return deleted;
+    }
+    
+    /**
+     * Return a Cursor over the SyncVersion table: the origin, last sequence
+     * number and isLocal flag of every origin known to the sync ChangeLog.
+     * @return Cursor over the origins.
+     */
+    public Cursor fetchSyncVersion() {
+    	return mDb.query(DATABASE_TABLE_SYNC_VERSION, new String[] {KEY_ORIGIN, KEY_SEQUENCE, KEY_LOCAL},
+    			null, null, null, null, null);
+    }
+    
+    /**
+     * Records the origin of this device in the SyncVersion table.
+     * @param origin The origin, unique to this device.
+     * @return true if the origin was recorded.
+     */
+    public boolean createLocalSyncOrigin(String origin) {
+    	ContentValues initialValues = new ContentValues();
+    	initialValues.put(KEY_ORIGIN, origin); // key-value pairs.
+    	initialValues.put(KEY_SEQUENCE, 0);
+    	initialValues.put(KEY_LOCAL, 1);
+    	return mDb.insert(DATABASE_TABLE_SYNC_VERSION, null, initialValues) != -1;
+    }
+    
+    /**
+     * Appends a Change to the SyncChange table and advances the sequence 
+     * number of its origin in the SyncVersion table, in one transaction.
+     * @param origin The device the Change was made on.
+     * @param sequence The sequence number of the Change on its device.
+     * @param data The Change, as written in a sync batch.
+     * @return true if the Change was appended.
+     */
+    public boolean createSyncChange(String origin, long sequence, byte[] data) {
+    	long start = System.nanoTime();
+    	ContentValues changeValues = new ContentValues();
+    	changeValues.put(KEY_ORIGIN, origin); // key-value pairs.
+    	changeValues.put(KEY_SEQUENCE, sequence);
+    	changeValues.put(KEY_DATA, data);
+    	ContentValues versionValues = new ContentValues();
+    	versionValues.put(KEY_SEQUENCE, sequence);
+    	String[] args = {origin};
+    	boolean created = false;
+    	mDb.beginTransaction();
+    	try {
+    		if (mDb.insert(DATABASE_TABLE_SYNC_CHANGE, null, changeValues) != -1) {
+    			if (mDb.update(DATABASE_TABLE_SYNC_VERSION, versionValues, KEY_ORIGIN + "=?", args) == 0) {
+    				versionValues.put(KEY_ORIGIN, origin);
+    				mDb.insert(DATABASE_TABLE_SYNC_VERSION, null, versionValues);
+    			}
+    			mDb.setTransactionSuccessful();
+    			created = true;
+    		}
+    	} finally {
+    		mDb.endTransaction();
+    	}
+    	CREATE_SYNC_CHANGE_METRICS.recordQuery(start, created ? 1 : 0);
+    	return created;
+    }
+    
+    /**
+     * Return a Cursor over the SyncChange table (origin, sequence number, data),
+     * in the order the Changes were applied.
+     * @return Cursor over the Changes.
+     */
+    public Cursor fetchSyncChanges() {
+    	long start = System.nanoTime();
+    	Cursor mCursor = mDb.query(DATABASE_TABLE_SYNC_CHANGE, new String[] {KEY_ORIGIN, KEY_SEQUENCE, KEY_DATA},
+    			null, null, null, null, KEY_ROWID + " ASC");
+    	FETCH_SYNC_CHANGES_METRICS.recordQuery(start, mCursor.getCount());
+    	return mCursor;
+    }
+    
+    /**
+     * Counts the Changes of the SyncChange table.
+     * @return The number of Changes.
+     */
+    public int countSyncChanges() {
+    	Cursor mCursor = mDb.rawQuery("SELECT COUNT(*) FROM " + DATABASE_TABLE_SYNC_CHANGE, null);
+    	try {
+    		return mCursor.moveToFirst() ? mCursor.getInt(0) : 0;
+    	} finally {
+    		mCursor.close();
+    	}
+    }
+    
+    /**
+     * Deletes the Changes of an origin up to a sequence number from the SyncChange table.
+     * @param origin The device the Changes were made on.
+     * @param sequence The sequence number of the last Change to delete.
+     * @return The number of Changes deleted.
+     */
+    public int deleteSyncChanges(String origin, long sequence) {
+    	long start = System.nanoTime();
+    	int deleted = mDb.delete(DATABASE_TABLE_SYNC_CHANGE, KEY_ORIGIN + "=? AND " + KEY_SEQUENCE + "<=" + sequence, 
+    			new String[] {origin});
+    	DELETE_SYNC_CHANGES_METRICS.recordQuery(start, deleted);
+    	return deleted;
+    }
+    
+    /**
+     * Deletes the oldest Changes of the SyncChange table, whatever their origin.
+     * @param count The number of Changes to delete.
+     * @return The number of Changes deleted.
+     */
+    public int deleteOldestSyncChanges(int count) {
+    	long start = System.nanoTime();
+    	int deleted = mDb.delete(DATABASE_TABLE_SYNC_CHANGE, KEY_ROWID + " IN (SELECT " + KEY_ROWID + " FROM " 
+    			+ DATABASE_TABLE_SYNC_CHANGE + " ORDER BY " + KEY_ROWID + " LIMIT " + count + ")", null);
+    	DELETE_SYNC_CHANGES_METRICS.recordQuery(start, deleted);
+    	return deleted;
+    }
+    
+    /**
+     * Begins the transaction of a mutation logging ChangeEvents, or of any
+     * transaction around such mutations. Must be called holding 
+     * ChangeStream.WRITE_LOCK, and followed by publish() once the transaction ends. The outermost transaction of this adapter
+     * discards the events logged since it began if it rolls back, including 
+     * those of nested mutations which had succeeded.
+     */
+    private void beginMutation() {
+    	if (mDb.inTransaction())
+    		mDb.beginTransaction();
+    	else
+    		mDb.beginTransactionWithListener(pendingEventsListener);
+    }
+    
+    /**
+     * Logs a ChangeEvent in the ChangeEvent table, in the transaction of its
+     * mutation, and keeps it to be published once the outermost transaction commits.
+     * @param type The type of the event.
+     * @param rowID The row id of the row inserted or updated.
+     * @param ervisitID The row id of the ERVisit, or 0.
+     * @param healthCard The health card number of the Patient, or null.
+     * @param value The time carried by the event, or 0.
+     * @param urgency The urgency of the ERVisit, or 0.
+     */
+    private void logChange(int type, long rowID, long ervisitID, String healthCard, long value, int urgency) {
+    	long time = System.currentTimeMillis();
+    	ContentValues eventValues = new ContentValues();
+    	eventValues.put(KEY_TYPE, type); // key-value pairs.
+    	eventValues.put(KEY_CHANGED_ROWID, rowID);
+    	eventValues.put(KEY_ERVISITID, ervisitID);
+    	eventValues.put(KEY_HEALTHCARD, healthCard);
+    	eventValues.put(KEY_VALUE, value);
+    	eventValues.put(KEY_URGENCY, urgency);
+    	eventValues.put(KEY_TIME, time);
+    	long sequence = mDb.insert(DATABASE_TABLE_CHANGE_EVENT, null, eventValues);
+    	if (sequence != -1) {
+    		changesLogged++;
+    		pendingEvents.add(new ChangeEvent(sequence, type, rowID, ervisitID, healthCard, value, urgency, time));
+    	}
+    }
+    
+    /**
+     * Publishes the ChangeEvents of the transaction which just ended to the
+     * ChangeStream, once the outermost transaction has committed; inside
+     * another transaction, they wait for it. Must be called holding 
+     * ChangeStream.WRITE_LOCK, once the transaction of the mutation has ended.
+     */
+    private void publish() {
+    	if (mDb.inTransaction() || pendingEvents.isEmpty())
+    		return;
+    	ChangeStream.publish(new ArrayList<ChangeEvent>(pendingEvents));
+    	pendingEvents.clear();
     }
 
 }
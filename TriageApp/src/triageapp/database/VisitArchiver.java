@@ -0,0 +1,68 @@
+package triageapp.database;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.util.Log;
+
+
+/**
+ * A background task that compacts the VitalSigns of closed ERVisits that still
+ * have VitalSigns rows (those closed before VitalSignsBlock existed), moves old
+ * closed ERVisits into the archive database,
+ * keeping the ERVisit, VitalSigns and Prescription tables of the main database
+ * limited to recent history, and deletes the ChangeEvents older than
+ * CHANGE_EVENT_RETENTION_MILLIS. Uses its own connection to the database, so it can
+ * run on its own thread while the Activities use theirs.
+ */
+public class VisitArchiver implements Runnable {
+
+	/** Closed ERVisits that arrived more than this many milliseconds ago are archived (30 days). */
+	public static final long ARCHIVE_AFTER_MILLIS = 30L * 24 * 60 * 60 * 1000;
+	/** ChangeEvents committed more than this many milliseconds ago are deleted (7 days). */
+	public static final long CHANGE_EVENT_RETENTION_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+	/** The context to use to open the database. */
+	private final Context context;
+
+	/**
+	 * Constructs a VisitArchiver.
+	 * @param context The context to use to open the database. The application
+	 * context should be used, as the archiver may outlive the Activity starting it.
+	 */
+	public VisitArchiver(Context context) {
+		this.context = context;
+	}
+
+	/**
+	 * Starts a VisitArchiver on a low priority background thread.
+	 * @param context The context to use to open the database.
+	 */
+	public static void startInBackground(Context context) {
+		Thread thread = new Thread(new VisitArchiver(context.getApplicationContext()), "VisitArchiver");
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Compacts the VitalSigns of closed ERVisits, then archives closed 
+	 * ERVisits older than ARCHIVE_AFTER_MILLIS.
+	 * If the database is busy the ERVisits are left for the next run.
+	 */
+	@Override
+	public void run() {
+		TriageDBAdapter dbAdapter = new TriageDBAdapter(context);
+		try {
+			dbAdapter.open();
+			int compacted = dbAdapter.compactClosedVisits();
+			Log.i(DBAdapter.TAG, "Compacted the vital signs of " + compacted + " closed ER visits");
+			int archived = dbAdapter.archiveClosedVisits(System.currentTimeMillis() - ARCHIVE_AFTER_MILLIS);
+			Log.i(DBAdapter.TAG, "Archived " + archived + " closed ER visits");
+			int deleted = dbAdapter.deleteChangeEventsBefore(System.currentTimeMillis() - CHANGE_EVENT_RETENTION_MILLIS);
+			Log.i(DBAdapter.TAG, "Deleted " + deleted + " old change events");
+		} catch (SQLException e) {
+			Log.w(DBAdapter.TAG, "Archiving closed ER visits failed", e);
+		} finally {
+			dbAdapter.close();
+		}
+	}
+}
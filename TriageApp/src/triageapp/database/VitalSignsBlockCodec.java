@@ -0,0 +1,213 @@
+package triageapp.database;
+
+import java.io.ByteArrayOutputStream;
+
+
+/**
+ * Encodes and decodes the columnar blocks stored in the VitalSignsBlock table.
+ * A block holds every set of VitalSigns taken during one closed ERVisit.
+ * Each column is written one after the other:
+ * 		timestamps are stored with delta-of-delta encoding,
+ * 		blood pressure values are delta encoded,
+ * 		temperature and heart rate are quantized to tenths and delta encoded.
+ * All numbers are written as zigzag variable length integers, so readings
+ * taken at a regular interval take one or two bytes per value.
+ */
+public final class VitalSignsBlockCodec {
+
+	/** The version of the block format, written as the first byte of a block. */
+	private static final int FORMAT_VERSION = 1;
+	/** Temperature values are stored as whole tenths of a degree. */
+	private static final float TEMPERATURE_SCALE = 10.0f;
+	/** Heart rate values are stored as whole tenths of a beat per minute. */
+	private static final float HEART_RATE_SCALE = 10.0f;
+
+	/** This class only has static methods. */
+	private VitalSignsBlockCodec() {
+	}
+
+	/**
+	 * The decoded columns of a block. Reading i is made up of the
+	 * i-th entry of each column.
+	 */
+	public static final class Columns {
+		/** The number of readings in the block. */
+		public final int count;
+		/** The systolic blood pressure column. */
+		public final int[] systolic;
+		/** The diastolic blood pressure column. */
+		public final int[] diastolic;
+		/** The temperature column. */
+		public final float[] temperature;
+		/** The heart rate column. */
+		public final float[] heartRate;
+		/** The timestamp column. */
+		public final long[] timestamp;
+
+		/**
+		 * Constructs empty columns for the given number of readings.
+		 * @param count The number of readings.
+		 */
+		public Columns(int count) {
+			this.count = count;
+			this.systolic = new int[count];
+			this.diastolic = new int[count];
+			this.temperature = new float[count];
+			this.heartRate = new float[count];
+			this.timestamp = new long[count];
+		}
+	}
+
+	/**
+	 * Encodes the given columns into a block.
+	 * @param columns The columns to encode.
+	 * @return The encoded block.
+	 */
+	public static byte[] encode(Columns columns) {
+		int count = columns.count;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8 + count * 8);
+		out.write(FORMAT_VERSION);
+		writeVarLong(out, count);
+
+		long previousTime = 0;
+		long previousDelta = 0;
+		for (int i = 0; i < count; i++) {
+			long delta = columns.timestamp[i] - previousTime;
+			writeVarLong(out, zigzag(delta - previousDelta));
+			previousDelta = delta;
+			previousTime = columns.timestamp[i];
+		}
+		writeDeltas(out, columns.systolic, count);
+		writeDeltas(out, columns.diastolic, count);
+		writeDeltas(out, quantize(columns.temperature, count, TEMPERATURE_SCALE), count);
+		writeDeltas(out, quantize(columns.heartRate, count, HEART_RATE_SCALE), count);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a block created by encode.
+	 * @param data The encoded block.
+	 * @return The decoded columns.
+	 * @throws IllegalArgumentException if the block is not in a known format.
+	 */
+	public static Columns decode(byte[] data) {
+		if (data.length == 0 || data[0] != FORMAT_VERSION)
+			throw new IllegalArgumentException("Unknown VitalSigns block format");
+		int[] position = {1};
+		int count = (int) readVarLong(data, position);
+		Columns columns = new Columns(count);
+
+		long previousTime = 0;
+		long previousDelta = 0;
+		for (int i = 0; i < count; i++) {
+			long delta = previousDelta + unzigzag(readVarLong(data, position));
+			columns.timestamp[i] = previousTime + delta;
+			previousDelta = delta;
+			previousTime = columns.timestamp[i];
+		}
+		readDeltas(data, position, columns.systolic, count);
+		readDeltas(data, position, columns.diastolic, count);
+		int[] quantized = new int[count];
+		readDeltas(data, position, quantized, count);
+		for (int i = 0; i < count; i++)
+			columns.temperature[i] = quantized[i] / TEMPERATURE_SCALE;
+		readDeltas(data, position, quantized, count);
+		for (int i = 0; i < count; i++)
+			columns.heartRate[i] = quantized[i] / HEART_RATE_SCALE;
+		return columns;
+	}
+
+	/**
+	 * Rounds each value to the nearest 1/scale.
+	 * @param values The values to quantize.
+	 * @param count The number of values to quantize.
+	 * @param scale The number of steps per unit.
+	 * @return The quantized values as whole steps.
+	 */
+	private static int[] quantize(float[] values, int count, float scale) {
+		int[] quantized = new int[count];
+		for (int i = 0; i < count; i++)
+			quantized[i] = Math.round(values[i] * scale);
+		return quantized;
+	}
+
+	/**
+	 * Writes the difference between each value and the previous one.
+	 * @param out The stream to write to.
+	 * @param values The values to write.
+	 * @param count The number of values to write.
+	 */
+	private static void writeDeltas(ByteArrayOutputStream out, int[] values, int count) {
+		int previous = 0;
+		for (int i = 0; i < count; i++) {
+			writeVarLong(out, zigzag((long) values[i] - previous));
+			previous = values[i];
+		}
+	}
+
+	/**
+	 * Reads values written by writeDeltas.
+	 * @param data The encoded block.
+	 * @param position A one element array holding the read position, which is advanced.
+	 * @param values The array to fill.
+	 * @param count The number of values to read.
+	 */
+	private static void readDeltas(byte[] data, int[] position, int[] values, int count) {
+		int previous = 0;
+		for (int i = 0; i < count; i++) {
+			previous += (int) unzigzag(readVarLong(data, position));
+			values[i] = previous;
+		}
+	}
+
+	/**
+	 * Maps signed values to unsigned ones so that small negative numbers stay small.
+	 * @param value A signed value.
+	 * @return The zigzag encoded value.
+	 */
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Reverses zigzag.
+	 * @param value A zigzag encoded value.
+	 * @return The signed value.
+	 */
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes a value 7 bits at a time, lowest bits first.
+	 * @param out The stream to write to.
+	 * @param value The unsigned value to write.
+	 */
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Reads a value written by writeVarLong.
+	 * @param data The encoded block.
+	 * @param position A one element array holding the read position, which is advanced.
+	 * @return The unsigned value.
+	 */
+	private static long readVarLong(byte[] data, int[] position) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if (position[0] >= data.length || shift > 63)
+				throw new IllegalArgumentException("Truncated VitalSigns block");
+			b = data[position[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
@@ -0,0 +1,221 @@
+package triageapp.export;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import triageapp.database.TriageDBAdapter;
+import triageapp.database.VitalSignsBlockCodec;
+import triageapp.metrics.MetricsRegistry;
+import triageapp.metrics.OperationMetrics;
+import android.database.Cursor;
+
+
+/**
+ * Exports the Patients and the history of the main and archive databases
+ * (ERVisits, VitalSigns and Prescriptions) to a columnar file, with one table
+ * per database table. Each database table is read through a Cursor moved
+ * forward once. The ERVisits are in order of arrival, so that a reader can
+ * skip the blocks of ERVisits outside a range of arrival times, and the
+ * VitalSigns and Prescriptions in order of ERVisit row id, so that a reader
+ * can skip those outside a range of row ids. The VitalSigns compacted into
+ * blocks are decoded, so that every VitalSigns is a row of its table.
+ */
+public final class ColumnarExporter {
+
+	/** The name of the table of Patients. */
+	public static final String PATIENT_TABLE = "Patient";
+	/** The columns of the table of Patients. */
+	public static final String[] PATIENT_COLUMNS = {"id", "healthCardNumber", "name", "dob"};
+	/** The name of the table of ERVisits. */
+	public static final String ERVISIT_TABLE = "ERVisit";
+	/** The columns of the table of ERVisits. timeSeenByDoctor is null if not seen; closed is 0 or 1. */
+	public static final String[] ERVISIT_COLUMNS =
+		{"id", "healthCardNumber", "arrivalTime", "timeSeenByDoctor", "urgency", "closed"};
+	/** The name of the table of VitalSigns. */
+	public static final String VITALS_TABLE = "VitalSigns";
+	/** The columns of the table of VitalSigns. */
+	public static final String[] VITALS_COLUMNS =
+		{"ervisitId", "timestamp", "systolic", "diastolic", "temperature", "heartRate"};
+	/** The name of the table of Prescriptions. */
+	public static final String PRESCRIPTION_TABLE = "Prescription";
+	/** The columns of the table of Prescriptions. */
+	public static final String[] PRESCRIPTION_COLUMNS = {"ervisitId", "medication", "instructions"};
+
+	/** The types of the columns of each table. */
+	private static final byte[] PATIENT_TYPES =
+		{ColumnarFormat.LONG, ColumnarFormat.STRING, ColumnarFormat.STRING, ColumnarFormat.STRING};
+	private static final byte[] ERVISIT_TYPES = {ColumnarFormat.LONG, ColumnarFormat.STRING,
+		ColumnarFormat.LONG, ColumnarFormat.LONG, ColumnarFormat.LONG, ColumnarFormat.LONG};
+	private static final byte[] VITALS_TYPES = {ColumnarFormat.LONG, ColumnarFormat.LONG,
+		ColumnarFormat.LONG, ColumnarFormat.LONG, ColumnarFormat.DOUBLE, ColumnarFormat.DOUBLE};
+	private static final byte[] PRESCRIPTION_TYPES =
+		{ColumnarFormat.LONG, ColumnarFormat.STRING, ColumnarFormat.STRING};
+
+	/** The metrics of the exports. */
+	private static final OperationMetrics EXPORT_METRICS = MetricsRegistry.get("export.columnar");
+
+	/** This class only has static methods. */
+	private ColumnarExporter() {
+	}
+
+	/**
+	 * Exports the database to a columnar file, replacing it. The file is first
+	 * written under a temporary name, so that an export which fails leaves no
+	 * partial file behind.
+	 * @param dbAdapter The database adapter (helper), open.
+	 * @param file The file to write.
+	 * @return The number of rows exported.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static long export(TriageDBAdapter dbAdapter, File file) throws IOException {
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		File partial = new File(file.getPath() + ".partial");
+		long rows = 0;
+		ColumnarWriter writer = new ColumnarWriter(new BufferedOutputStream(new FileOutputStream(partial), 64 * 1024));
+		boolean written = false;
+		try {
+			rows += exportPatients(dbAdapter, writer);
+			rows += exportERVisits(dbAdapter, writer);
+			rows += exportVitalSigns(dbAdapter, writer);
+			rows += exportPrescriptions(dbAdapter, writer);
+			written = true;
+		} finally {
+			writer.close();
+			if (!written)
+				partial.delete();
+		}
+		if (file.exists() && !file.delete() || !partial.renameTo(file))
+			throw new IOException("Cannot replace " + file);
+		EXPORT_METRICS.recordOperation(start, sqlStart, (int) Math.min(Integer.MAX_VALUE, rows));
+		return rows;
+	}
+
+	/**
+	 * Writes the table of Patients.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param writer The ColumnarWriter.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportPatients(TriageDBAdapter dbAdapter, ColumnarWriter writer) throws IOException {
+		writer.startTable(PATIENT_TABLE, PATIENT_COLUMNS, PATIENT_TYPES);
+		Cursor cursor = dbAdapter.fetchPatientsForExport();
+		long rows = 0;
+		try {
+			while (cursor.moveToNext()) {
+				writer.setLong(0, cursor.getLong(0));
+				writer.setString(1, cursor.getString(1));
+				writer.setString(2, cursor.getString(2));
+				writer.setString(3, cursor.getString(3));
+				writer.endRow();
+				rows++;
+			}
+		} finally {
+			cursor.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the table of ERVisits.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param writer The ColumnarWriter.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportERVisits(TriageDBAdapter dbAdapter, ColumnarWriter writer) throws IOException {
+		writer.startTable(ERVISIT_TABLE, ERVISIT_COLUMNS, ERVISIT_TYPES);
+		Cursor cursor = dbAdapter.fetchERVisitsForExport();
+		long rows = 0;
+		try {
+			while (cursor.moveToNext()) {
+				writer.setLong(0, cursor.getLong(0));
+				writer.setString(1, cursor.getString(1));
+				writer.setLong(2, cursor.getLong(2));
+				writer.setLong(3, cursor.isNull(3) ? ColumnarFormat.NULL : cursor.getLong(3));
+				writer.setLong(4, cursor.getLong(4));
+				writer.setLong(5, cursor.getLong(5));
+				writer.endRow();
+				rows++;
+			}
+		} finally {
+			cursor.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the table of VitalSigns: those not compacted, then those of the blocks.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param writer The ColumnarWriter.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportVitalSigns(TriageDBAdapter dbAdapter, ColumnarWriter writer) throws IOException {
+		writer.startTable(VITALS_TABLE, VITALS_COLUMNS, VITALS_TYPES);
+		long rows = 0;
+		Cursor cursor = dbAdapter.fetchVitalSignsForExport();
+		try {
+			while (cursor.moveToNext()) {
+				writer.setLong(0, cursor.getLong(0));
+				writer.setLong(1, cursor.getLong(1));
+				writer.setLong(2, cursor.getLong(2));
+				writer.setLong(3, cursor.getLong(3));
+				writer.setDouble(4, cursor.getFloat(4));
+				writer.setDouble(5, cursor.getFloat(5));
+				writer.endRow();
+				rows++;
+			}
+		} finally {
+			cursor.close();
+		}
+		Cursor blockCursor = dbAdapter.fetchVitalSignsBlocksForExport();
+		try {
+			while (blockCursor.moveToNext()) {
+				long ervisitID = blockCursor.getLong(0);
+				VitalSignsBlockCodec.Columns vitals = VitalSignsBlockCodec.decode(blockCursor.getBlob(1));
+				for (int i = 0; i < vitals.count; i++) {
+					writer.setLong(0, ervisitID);
+					writer.setLong(1, vitals.timestamp[i]);
+					writer.setLong(2, vitals.systolic[i]);
+					writer.setLong(3, vitals.diastolic[i]);
+					writer.setDouble(4, vitals.temperature[i]);
+					writer.setDouble(5, vitals.heartRate[i]);
+					writer.endRow();
+				}
+				rows += vitals.count;
+			}
+		} finally {
+			blockCursor.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the table of Prescriptions.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param writer The ColumnarWriter.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportPrescriptions(TriageDBAdapter dbAdapter, ColumnarWriter writer) throws IOException {
+		writer.startTable(PRESCRIPTION_TABLE, PRESCRIPTION_COLUMNS, PRESCRIPTION_TYPES);
+		Cursor cursor = dbAdapter.fetchPrescriptionsForExport();
+		long rows = 0;
+		try {
+			while (cursor.moveToNext()) {
+				writer.setLong(0, cursor.getLong(0));
+				writer.setString(1, cursor.getString(1));
+				writer.setString(2, cursor.getString(2));
+				writer.endRow();
+				rows++;
+			}
+		} finally {
+			cursor.close();
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,224 @@
+package triageapp.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The constants and encodings of the columnar files written by ColumnarWriter
+ * and read by ColumnarReader. A file holds tables; each table is split into
+ * blocks of up to BLOCK_ROWS rows, and each block stores each column on its
+ * own, compressed with Deflate, so that a reader decompresses only the
+ * columns it needs. The footer, at the end of the file, lists the tables,
+ * their columns, and the position and statistics (minimum and maximum of the
+ * numbers) of each column of each block, so that a reader can skip the
+ * blocks none of whose rows can match. The layout is:
+ * 		MAGIC, VERSION
+ * 		the column chunks of each block of each table
+ * 		the footer
+ * 		the position of the footer (8 bytes), MAGIC
+ * Column chunks are encoded, before compression, as:
+ * 		LONG: for each row, 1 + its value minus the previous value not null,
+ * 		zigzag encoded, as a VarLong (0 for NULL)
+ * 		DOUBLE: the 8 bytes of each value
+ * 		STRING: the number of distinct values, each distinct value (length as a
+ * 		VarLong, then UTF-8 bytes), then for each row 1 + the index of its value
+ * 		in the distinct values (0 for null), as a VarLong
+ */
+public final class ColumnarFormat {
+
+	/** The bytes starting and ending every columnar file. */
+	static final byte[] MAGIC = {'T', 'R', 'I', 'A', 'G', 'E', 'C', 'F'};
+	/** The version of the format. */
+	static final int VERSION = 1;
+	/** The largest number of rows of a block. */
+	public static final int BLOCK_ROWS = 8192;
+
+	/** The type of a column of whole numbers (longs). */
+	public static final byte LONG = 1;
+	/** The type of a column of real numbers (doubles). */
+	public static final byte DOUBLE = 2;
+	/** The type of a column of Strings, each block holding its distinct values once. */
+	public static final byte STRING = 3;
+
+	/** The value of a LONG column standing for null. It is left out of the statistics. */
+	public static final long NULL = Long.MIN_VALUE;
+
+	/** The columns of a table, and where its blocks are, as listed in the footer. */
+	static final class TableInfo {
+		/** The name of the table. */
+		final String name;
+		/** The names of the columns. */
+		final String[] columns;
+		/** The type of each column. */
+		final byte[] types;
+		/** The blocks, in order. */
+		final List<BlockInfo> blocks = new ArrayList<BlockInfo>();
+
+		/**
+		 * Constructs a TableInfo with no block.
+		 * @param name The name of the table.
+		 * @param columns The names of the columns.
+		 * @param types The type of each column.
+		 */
+		TableInfo(String name, String[] columns, byte[] types) {
+			this.name = name;
+			this.columns = columns;
+			this.types = types;
+		}
+	}
+
+	/** Where the column chunks of a block are, and their statistics, as listed in the footer. */
+	static final class BlockInfo {
+		/** The number of rows. */
+		final int rows;
+		/** The position of each column chunk in the file. */
+		final long[] offsets;
+		/** The compressed length of each column chunk. */
+		final int[] lengths;
+		/** The length of each column chunk once decompressed. */
+		final int[] rawLengths;
+		/** The smallest value of each column: a long for LONG, the bits of a double for DOUBLE. */
+		final long[] mins;
+		/** The largest value of each column, as for mins. */
+		final long[] maxs;
+
+		/**
+		 * Constructs a BlockInfo.
+		 * @param rows The number of rows.
+		 * @param columns The number of columns.
+		 */
+		BlockInfo(int rows, int columns) {
+			this.rows = rows;
+			this.offsets = new long[columns];
+			this.lengths = new int[columns];
+			this.rawLengths = new int[columns];
+			this.mins = new long[columns];
+			this.maxs = new long[columns];
+		}
+	}
+
+	/** This class only has constants and static methods. */
+	private ColumnarFormat() {
+	}
+
+	/**
+	 * Writes the footer.
+	 * @param out The stream to write to.
+	 * @param tables The tables of the file.
+	 * @throws IOException if the footer cannot be written.
+	 */
+	static void writeFooter(DataOutputStream out, List<TableInfo> tables) throws IOException {
+		out.writeInt(tables.size());
+		for (TableInfo table : tables) {
+			out.writeUTF(table.name);
+			out.writeInt(table.columns.length);
+			for (int column = 0; column < table.columns.length; column++) {
+				out.writeUTF(table.columns[column]);
+				out.writeByte(table.types[column]);
+			}
+			out.writeInt(table.blocks.size());
+			for (BlockInfo block : table.blocks) {
+				out.writeInt(block.rows);
+				for (int column = 0; column < table.columns.length; column++) {
+					out.writeLong(block.offsets[column]);
+					out.writeInt(block.lengths[column]);
+					out.writeInt(block.rawLengths[column]);
+					out.writeLong(block.mins[column]);
+					out.writeLong(block.maxs[column]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a footer written by writeFooter.
+	 * @param in The stream to read from.
+	 * @return The tables of the file.
+	 * @throws IOException if the footer cannot be read.
+	 */
+	static List<TableInfo> readFooter(DataInputStream in) throws IOException {
+		int tableCount = in.readInt();
+		List<TableInfo> tables = new ArrayList<TableInfo>(tableCount);
+		for (int t = 0; t < tableCount; t++) {
+			String name = in.readUTF();
+			int columnCount = in.readInt();
+			String[] columns = new String[columnCount];
+			byte[] types = new byte[columnCount];
+			for (int column = 0; column < columnCount; column++) {
+				columns[column] = in.readUTF();
+				types[column] = in.readByte();
+			}
+			TableInfo table = new TableInfo(name, columns, types);
+			int blockCount = in.readInt();
+			for (int b = 0; b < blockCount; b++) {
+				BlockInfo block = new BlockInfo(in.readInt(), columnCount);
+				for (int column = 0; column < columnCount; column++) {
+					block.offsets[column] = in.readLong();
+					block.lengths[column] = in.readInt();
+					block.rawLengths[column] = in.readInt();
+					block.mins[column] = in.readLong();
+					block.maxs[column] = in.readLong();
+				}
+				table.blocks.add(block);
+			}
+			tables.add(table);
+		}
+		return tables;
+	}
+
+	/**
+	 * Encodes a signed value so that values close to 0 are small.
+	 * @param value The value.
+	 * @return The encoded value.
+	 */
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Decodes a value encoded by zigzag.
+	 * @param value The encoded value.
+	 * @return The value.
+	 */
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes a value 7 bits at a time, lowest bits first.
+	 * @param out The stream to write to.
+	 * @param value The unsigned value to write.
+	 */
+	static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Reads a value written by writeVarLong.
+	 * @param data The encoded column chunk.
+	 * @param position A one element array holding the read position, which is advanced.
+	 * @return The unsigned value.
+	 */
+	static long readVarLong(byte[] data, int[] position) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if (position[0] >= data.length || shift > 63)
+				throw new IllegalArgumentException("Truncated column chunk");
+			b = data[position[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
@@ -0,0 +1,330 @@
+package triageapp.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * Reads a columnar file written by ColumnarWriter. Opening the file reads
+ * only its footer; each column of each block is then read and decompressed
+ * on its own, when asked for. The statistics of the blocks let a reader skip
+ * the blocks none of whose values of a column are in a range, e.g. the
+ * ERVisits that did not arrive in a month:
+ * 		for (ColumnarReader.Block block : reader.getTable("ERVisit").getBlocks("arrivalTime", from, to))
+ * 			long[] arrivals = block.readLongs("arrivalTime");
+ * A ColumnarReader may be used by one thread at a time.
+ */
+public final class ColumnarReader implements Closeable {
+
+	/** The file. */
+	private final RandomAccessFile file;
+	/** The tables of the file. */
+	private final List<Table> tables = new ArrayList<Table>();
+	/** The decompressor of the column chunks. */
+	private final Inflater inflater = new Inflater();
+
+	/** A table of the file. */
+	public final class Table {
+		/** The columns and blocks of the table, from the footer. */
+		private final ColumnarFormat.TableInfo info;
+		/** The blocks of the table. */
+		private final List<Block> blocks = new ArrayList<Block>();
+
+		/**
+		 * Constructs a Table.
+		 * @param info The columns and blocks of the table.
+		 */
+		Table(ColumnarFormat.TableInfo info) {
+			this.info = info;
+			for (ColumnarFormat.BlockInfo block : info.blocks)
+				blocks.add(new Block(this, block));
+		}
+
+		/**
+		 * Gets the name of the table.
+		 * @return The name.
+		 */
+		public String getName() {
+			return info.name;
+		}
+
+		/**
+		 * Gets the names of the columns.
+		 * @return The names, in a List which never changes.
+		 */
+		public List<String> getColumns() {
+			return Collections.unmodifiableList(Arrays.asList(info.columns));
+		}
+
+		/**
+		 * Gets the type of a column.
+		 * @param column The name of the column.
+		 * @return ColumnarFormat.LONG, DOUBLE or STRING.
+		 */
+		public byte getType(String column) {
+			return info.types[indexOf(column)];
+		}
+
+		/**
+		 * Gets the number of rows of the table.
+		 * @return The number of rows.
+		 */
+		public long getRowCount() {
+			long rows = 0;
+			for (ColumnarFormat.BlockInfo block : info.blocks)
+				rows += block.rows;
+			return rows;
+		}
+
+		/**
+		 * Gets the blocks of the table.
+		 * @return The blocks, in order, in a List which never changes.
+		 */
+		public List<Block> getBlocks() {
+			return Collections.unmodifiableList(blocks);
+		}
+
+		/**
+		 * Gets the blocks which may hold rows whose value of a LONG column is in
+		 * a range. The other blocks are skipped without being read.
+		 * @param column The name of the LONG column.
+		 * @param from The start of the range, inclusive.
+		 * @param to The end of the range, exclusive.
+		 * @return The blocks, in order.
+		 */
+		public List<Block> getBlocks(String column, long from, long to) {
+			int index = indexOf(column);
+			if (info.types[index] != ColumnarFormat.LONG)
+				throw new IllegalArgumentException("Column " + column + " does not hold longs");
+			List<Block> matching = new ArrayList<Block>();
+			for (Block block : blocks) {
+				if (block.info.maxs[index] >= from && block.info.mins[index] < to)
+					matching.add(block);
+			}
+			return matching;
+		}
+
+		/**
+		 * Finds a column.
+		 * @param column The name of the column.
+		 * @return The index of the column.
+		 */
+		int indexOf(String column) {
+			for (int i = 0; i < info.columns.length; i++) {
+				if (info.columns[i].equals(column))
+					return i;
+			}
+			throw new IllegalArgumentException("Table " + info.name + " has no column " + column);
+		}
+	}
+
+	/** A block of rows of a table, whose columns are read one at a time. */
+	public final class Block {
+		/** The table. */
+		private final Table table;
+		/** The position and statistics of the columns, from the footer. */
+		private final ColumnarFormat.BlockInfo info;
+
+		/**
+		 * Constructs a Block.
+		 * @param table The table.
+		 * @param info The position and statistics of the columns.
+		 */
+		Block(Table table, ColumnarFormat.BlockInfo info) {
+			this.table = table;
+			this.info = info;
+		}
+
+		/**
+		 * Gets the number of rows of the block.
+		 * @return The number of rows.
+		 */
+		public int getRowCount() {
+			return info.rows;
+		}
+
+		/**
+		 * Gets the smallest value of a LONG column in the block.
+		 * @param column The name of the column.
+		 * @return The smallest value not null, or Long.MAX_VALUE if every value is null.
+		 */
+		public long getMin(String column) {
+			return info.mins[table.indexOf(column)];
+		}
+
+		/**
+		 * Gets the largest value of a LONG column in the block.
+		 * @param column The name of the column.
+		 * @return The largest value not null, or Long.MIN_VALUE if every value is null.
+		 */
+		public long getMax(String column) {
+			return info.maxs[table.indexOf(column)];
+		}
+
+		/**
+		 * Reads a LONG column.
+		 * @param column The name of the column.
+		 * @return The value of each row, ColumnarFormat.NULL for null.
+		 * @throws IOException if the column cannot be read.
+		 */
+		public long[] readLongs(String column) throws IOException {
+			byte[] data = readChunk(column, ColumnarFormat.LONG);
+			int[] position = {0};
+			long[] values = new long[info.rows];
+			long previous = 0;
+			for (int row = 0; row < info.rows; row++) {
+				long encoded = ColumnarFormat.readVarLong(data, position);
+				if (encoded == 0) {
+					values[row] = ColumnarFormat.NULL;
+				} else {
+					previous += ColumnarFormat.unzigzag(encoded - 1);
+					values[row] = previous;
+				}
+			}
+			return values;
+		}
+
+		/**
+		 * Reads a DOUBLE column.
+		 * @param column The name of the column.
+		 * @return The value of each row.
+		 * @throws IOException if the column cannot be read.
+		 */
+		public double[] readDoubles(String column) throws IOException {
+			byte[] data = readChunk(column, ColumnarFormat.DOUBLE);
+			double[] values = new double[info.rows];
+			for (int row = 0; row < info.rows; row++) {
+				long bits = 0;
+				for (int i = row * 8; i < row * 8 + 8; i++)
+					bits = (bits << 8) | (data[i] & 0xFF);
+				values[row] = Double.longBitsToDouble(bits);
+			}
+			return values;
+		}
+
+		/**
+		 * Reads a STRING column. The rows with the same value share one String.
+		 * @param column The name of the column.
+		 * @return The value of each row, or null.
+		 * @throws IOException if the column cannot be read.
+		 */
+		public String[] readStrings(String column) throws IOException {
+			byte[] data = readChunk(column, ColumnarFormat.STRING);
+			int[] position = {0};
+			String[] distinct = new String[(int) ColumnarFormat.readVarLong(data, position)];
+			for (int i = 0; i < distinct.length; i++) {
+				int length = (int) ColumnarFormat.readVarLong(data, position);
+				distinct[i] = new String(data, position[0], length, "UTF-8");
+				position[0] += length;
+			}
+			String[] values = new String[info.rows];
+			for (int row = 0; row < info.rows; row++) {
+				int index = (int) ColumnarFormat.readVarLong(data, position);
+				values[row] = index == 0 ? null : distinct[index - 1];
+			}
+			return values;
+		}
+
+		/**
+		 * Reads and decompresses a column chunk.
+		 * @param column The name of the column.
+		 * @param type The type the column must have.
+		 * @return The encoded column chunk.
+		 * @throws IOException if the chunk cannot be read.
+		 */
+		private byte[] readChunk(String column, byte type) throws IOException {
+			int index = table.indexOf(column);
+			if (table.info.types[index] != type)
+				throw new IllegalArgumentException("Column " + column + " is not of type " + type);
+			byte[] compressed = new byte[info.lengths[index]];
+			file.seek(info.offsets[index]);
+			file.readFully(compressed);
+			byte[] data = new byte[info.rawLengths[index]];
+			inflater.reset();
+			inflater.setInput(compressed);
+			try {
+				int length = 0;
+				while (length < data.length && !inflater.finished())
+					length += inflater.inflate(data, length, data.length - length);
+				if (length != data.length)
+					throw new IOException("Truncated column chunk of " + column);
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt column chunk of " + column + ": " + e.getMessage());
+			}
+			return data;
+		}
+	}
+
+	/**
+	 * Opens a columnar file, and reads its footer.
+	 * @param path The file.
+	 * @throws IOException if the file cannot be read, or is not a columnar file.
+	 */
+	public ColumnarReader(File path) throws IOException {
+		this.file = new RandomAccessFile(path, "r");
+		try {
+			byte[] start = new byte[ColumnarFormat.MAGIC.length + 1];
+			file.readFully(start);
+			int trailer = 8 + ColumnarFormat.MAGIC.length;
+			long footerEnd = file.length() - trailer;
+			if (!Arrays.equals(Arrays.copyOf(start, ColumnarFormat.MAGIC.length), ColumnarFormat.MAGIC)
+					|| footerEnd < start.length)
+				throw new IOException(path + " is not a columnar file");
+			if (start[ColumnarFormat.MAGIC.length] != ColumnarFormat.VERSION)
+				throw new IOException(path + " is of unknown version " + start[ColumnarFormat.MAGIC.length]);
+			file.seek(footerEnd);
+			long footerStart = file.readLong();
+			if (footerStart < start.length || footerStart > footerEnd)
+				throw new IOException(path + " has no valid footer");
+			byte[] footer = new byte[(int) (footerEnd - footerStart)];
+			file.seek(footerStart);
+			file.readFully(footer);
+			for (ColumnarFormat.TableInfo info : ColumnarFormat.readFooter(new DataInputStream(new ByteArrayInputStream(footer))))
+				tables.add(new Table(info));
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the tables of the file.
+	 * @return The tables, in the order they were written, in a List which never changes.
+	 */
+	public List<Table> getTables() {
+		return Collections.unmodifiableList(tables);
+	}
+
+	/**
+	 * Gets a table of the file.
+	 * @param name The name of the table.
+	 * @return The table, or null if the file has no table of that name.
+	 */
+	public Table getTable(String name) {
+		for (Table table : tables) {
+			if (table.getName().equals(name))
+				return table;
+		}
+		return null;
+	}
+
+	/**
+	 * Closes the file.
+	 * @throws IOException if the file cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		file.close();
+	}
+}
@@ -0,0 +1,289 @@
+package triageapp.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+
+/**
+ * Writes tables to a columnar file (see ColumnarFormat), one row at a time.
+ * The rows of the current block are held in one array per column; once
+ * BLOCK_ROWS rows are held, each column is encoded, compressed and written,
+ * so the memory used does not depend on the number of rows. The footer is
+ * written by close. A ColumnarWriter is used by one thread.
+ * Usage:
+ * 		writer.startTable("ERVisit", columns, types);
+ * 		for each row: writer.setLong(0, id); ...; writer.endRow();
+ * 		writer.close();
+ */
+public final class ColumnarWriter implements Closeable {
+
+	/** The stream written to. */
+	private final OutputStream out;
+	/** The number of bytes written. */
+	private long position;
+	/** The tables written, for the footer. */
+	private final List<ColumnarFormat.TableInfo> tables = new ArrayList<ColumnarFormat.TableInfo>();
+	/** The table being written, or null before the first. */
+	private ColumnarFormat.TableInfo table;
+	/** The values of the LONG columns of the current block, by column. */
+	private long[][] longs;
+	/** The values of the DOUBLE columns of the current block, by column. */
+	private double[][] doubles;
+	/** The values of the STRING columns of the current block, by column. */
+	private String[][] strings;
+	/** The number of rows of the current block, not counting the one being set. */
+	private int rows;
+	/** The compressor of the column chunks. */
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	/** The encoded column chunk, reused. */
+	private final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+	/** The compressed column chunk, grown as needed. */
+	private byte[] compressed = new byte[64 * 1024];
+
+	/**
+	 * Constructs a ColumnarWriter, and writes the start of the file.
+	 * @param out The stream to write to, which should be buffered, and is closed by close.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	public ColumnarWriter(OutputStream out) throws IOException {
+		this.out = out;
+		write(ColumnarFormat.MAGIC, ColumnarFormat.MAGIC.length);
+		write(new byte[] {ColumnarFormat.VERSION}, 1);
+	}
+
+	/**
+	 * Ends the current table, if any, and starts a new one.
+	 * @param name The name of the table.
+	 * @param columns The names of the columns.
+	 * @param types The type of each column: ColumnarFormat.LONG, DOUBLE or STRING.
+	 * @throws IOException if the last block of the current table cannot be written.
+	 */
+	public void startTable(String name, String[] columns, byte[] types) throws IOException {
+		endTable();
+		table = new ColumnarFormat.TableInfo(name, columns.clone(), types.clone());
+		tables.add(table);
+		longs = new long[columns.length][];
+		doubles = new double[columns.length][];
+		strings = new String[columns.length][];
+		for (int column = 0; column < columns.length; column++) {
+			if (types[column] == ColumnarFormat.LONG)
+				longs[column] = new long[ColumnarFormat.BLOCK_ROWS];
+			else if (types[column] == ColumnarFormat.DOUBLE)
+				doubles[column] = new double[ColumnarFormat.BLOCK_ROWS];
+			else if (types[column] == ColumnarFormat.STRING)
+				strings[column] = new String[ColumnarFormat.BLOCK_ROWS];
+			else
+				throw new IllegalArgumentException("Unknown type of column " + columns[column]);
+		}
+		rows = 0;
+	}
+
+	/**
+	 * Sets a value of the row being written.
+	 * @param column The index of the LONG column.
+	 * @param value The value, or ColumnarFormat.NULL.
+	 */
+	public void setLong(int column, long value) {
+		longs[column][rows] = value;
+	}
+
+	/**
+	 * Sets a value of the row being written.
+	 * @param column The index of the DOUBLE column.
+	 * @param value The value.
+	 */
+	public void setDouble(int column, double value) {
+		doubles[column][rows] = value;
+	}
+
+	/**
+	 * Sets a value of the row being written.
+	 * @param column The index of the STRING column.
+	 * @param value The value, or null.
+	 */
+	public void setString(int column, String value) {
+		strings[column][rows] = value;
+	}
+
+	/**
+	 * Ends the row being written, and writes the block if it is full.
+	 * @throws IOException if the block cannot be written.
+	 */
+	public void endRow() throws IOException {
+		if (++rows == ColumnarFormat.BLOCK_ROWS)
+			writeBlock();
+	}
+
+	/**
+	 * Writes the last block and the footer, and closes the stream.
+	 * @throws IOException if the file cannot be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			endTable();
+			ByteArrayOutputStream footer = new ByteArrayOutputStream();
+			DataOutputStream footerOut = new DataOutputStream(footer);
+			ColumnarFormat.writeFooter(footerOut, tables);
+			long footerPosition = position;
+			footerOut.writeLong(footerPosition);
+			footerOut.write(ColumnarFormat.MAGIC);
+			footerOut.flush();
+			write(footer.toByteArray(), footer.size());
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the rows of the current table not yet written.
+	 * @throws IOException if the block cannot be written.
+	 */
+	private void endTable() throws IOException {
+		if (table != null && rows > 0)
+			writeBlock();
+	}
+
+	/**
+	 * Encodes, compresses and writes each column of the current block.
+	 * @throws IOException if the block cannot be written.
+	 */
+	private void writeBlock() throws IOException {
+		ColumnarFormat.BlockInfo block = new ColumnarFormat.BlockInfo(rows, table.columns.length);
+		for (int column = 0; column < table.columns.length; column++) {
+			chunk.reset();
+			if (longs[column] != null)
+				encodeLongs(longs[column], block, column);
+			else if (doubles[column] != null)
+				encodeDoubles(doubles[column], block, column);
+			else
+				encodeStrings(strings[column]);
+			block.offsets[column] = position;
+			block.rawLengths[column] = chunk.size();
+			block.lengths[column] = compress();
+			write(compressed, block.lengths[column]);
+		}
+		table.blocks.add(block);
+		rows = 0;
+	}
+
+	/**
+	 * Encodes a LONG column of the current block into chunk, and sets its statistics.
+	 * @param values The values.
+	 * @param block The block.
+	 * @param column The index of the column.
+	 */
+	private void encodeLongs(long[] values, ColumnarFormat.BlockInfo block, int column) {
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		long previous = 0;
+		for (int row = 0; row < rows; row++) {
+			long value = values[row];
+			if (value == ColumnarFormat.NULL) {
+				ColumnarFormat.writeVarLong(chunk, 0);
+				continue;
+			}
+			ColumnarFormat.writeVarLong(chunk, ColumnarFormat.zigzag(value - previous) + 1);
+			previous = value;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		block.mins[column] = min;
+		block.maxs[column] = max;
+	}
+
+	/**
+	 * Encodes a DOUBLE column of the current block into chunk, and sets its statistics.
+	 * @param values The values.
+	 * @param block The block.
+	 * @param column The index of the column.
+	 */
+	private void encodeDoubles(double[] values, ColumnarFormat.BlockInfo block, int column) {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int row = 0; row < rows; row++) {
+			long bits = Double.doubleToLongBits(values[row]);
+			for (int shift = 56; shift >= 0; shift -= 8)
+				chunk.write((int) (bits >>> shift));
+			min = Math.min(min, values[row]);
+			max = Math.max(max, values[row]);
+		}
+		block.mins[column] = Double.doubleToLongBits(min);
+		block.maxs[column] = Double.doubleToLongBits(max);
+	}
+
+	/**
+	 * Encodes a STRING column of the current block into chunk, as its distinct
+	 * values followed by the index of the value of each row.
+	 * @param values The values.
+	 * @throws UnsupportedEncodingException never, as UTF-8 is always supported.
+	 */
+	private void encodeStrings(String[] values) throws UnsupportedEncodingException {
+		Map<String, Integer> indexes = new HashMap<String, Integer>();
+		List<String> distinct = new ArrayList<String>();
+		int[] rowIndexes = new int[rows];
+		for (int row = 0; row < rows; row++) {
+			String value = values[row];
+			if (value == null)
+				continue;
+			Integer index = indexes.get(value);
+			if (index == null) {
+				index = Integer.valueOf(distinct.size());
+				indexes.put(value, index);
+				distinct.add(value);
+			}
+			rowIndexes[row] = index.intValue() + 1;
+		}
+		ColumnarFormat.writeVarLong(chunk, distinct.size());
+		for (String value : distinct) {
+			byte[] bytes = value.getBytes("UTF-8");
+			ColumnarFormat.writeVarLong(chunk, bytes.length);
+			chunk.write(bytes, 0, bytes.length);
+		}
+		for (int row = 0; row < rows; row++)
+			ColumnarFormat.writeVarLong(chunk, rowIndexes[row]);
+		//The values are dropped, so the block does not keep them from being collected.
+		for (int row = 0; row < rows; row++)
+			values[row] = null;
+	}
+
+	/**
+	 * Compresses chunk into compressed.
+	 * @return The compressed length.
+	 */
+	private int compress() {
+		byte[] raw = chunk.toByteArray();
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length)
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		return length;
+	}
+
+	/**
+	 * Writes bytes to the stream.
+	 * @param bytes The bytes.
+	 * @param length The number of bytes to write.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	private void write(byte[] bytes, int length) throws IOException {
+		out.write(bytes, 0, length);
+		position += length;
+	}
+}
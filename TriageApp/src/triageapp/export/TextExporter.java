@@ -0,0 +1,496 @@
+package triageapp.export;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import triageapp.database.TriageDBAdapter;
+import triageapp.database.VitalSignsBlockCodec;
+import triageapp.metrics.MetricsRegistry;
+import triageapp.metrics.OperationMetrics;
+import android.database.Cursor;
+
+
+/**
+ * Exports the Patients and the history of the main and archive databases
+ * (ERVisits, VitalSigns and Prescriptions) as NDJSON or CSV, the format
+ * handed to other systems. Each database table is read through a Cursor
+ * moved forward once, and each row is written to a buffered Writer as it is
+ * read, so the memory used does not depend on the size of the database.
+ * The tables and columns are those of ColumnarExporter. Times are in
+ * milliseconds since the epoch; null values are written as null (NDJSON) or
+ * as an empty field (CSV).
+ * NDJSON writes one file, NDJSON_FILE_NAME, with one JSON object a line:
+ * 		{"table":"ERVisit","id":1,"healthCardNumber":"1234567890",...}
+ * CSV writes one file a table, named after the table, with a header line.
+ */
+public final class TextExporter {
+
+	/** The format writing one JSON object a line, in one file. */
+	public static final int NDJSON = 0;
+	/** The format writing comma separated values (RFC 4180), in one file a table. */
+	public static final int CSV = 1;
+
+	/** The name of the file written by NDJSON. */
+	public static final String NDJSON_FILE_NAME = "triage-export.ndjson";
+	/** The end of the names of the files written by CSV, following the name of the table. */
+	public static final String CSV_FILE_SUFFIX = ".csv";
+
+	/** The indexes of the tables, in the order they are written. */
+	private static final int PATIENTS = 0;
+	private static final int ERVISITS = 1;
+	private static final int VITALS = 2;
+	private static final int PRESCRIPTIONS = 3;
+	/** The names of the tables, by index. */
+	private static final String[] TABLES = {ColumnarExporter.PATIENT_TABLE, ColumnarExporter.ERVISIT_TABLE,
+		ColumnarExporter.VITALS_TABLE, ColumnarExporter.PRESCRIPTION_TABLE};
+
+	/** The size of the buffer of the Writer, in chars. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** The metrics of the exports. */
+	private static final OperationMetrics EXPORT_METRICS = MetricsRegistry.get("export.text");
+
+	/** This class only has static methods. */
+	private TextExporter() {
+	}
+
+	/**
+	 * Exports the database to a directory, replacing the files of a previous
+	 * export. Each file is first written under a temporary name, so that an
+	 * export which fails leaves no partial file behind.
+	 * @param dbAdapter The database adapter (helper), open.
+	 * @param directory The directory to write the files to.
+	 * @param format NDJSON or CSV.
+	 * @return The number of rows exported.
+	 * @throws IOException if a file cannot be written.
+	 */
+	public static long export(TriageDBAdapter dbAdapter, File directory, int format) throws IOException {
+		long start = System.nanoTime();
+		long sqlStart = MetricsRegistry.threadSqlNanos();
+		long rows = 0;
+		if (format == NDJSON) {
+			rows = exportToFile(dbAdapter, new File(directory, NDJSON_FILE_NAME), format, PATIENTS, PRESCRIPTIONS);
+		} else if (format == CSV) {
+			for (int table = PATIENTS; table <= PRESCRIPTIONS; table++)
+				rows += exportToFile(dbAdapter, new File(directory, TABLES[table] + CSV_FILE_SUFFIX), format, table, table);
+		} else {
+			throw new IllegalArgumentException("Unknown export format " + format);
+		}
+		EXPORT_METRICS.recordOperation(start, sqlStart, (int) Math.min(Integer.MAX_VALUE, rows));
+		return rows;
+	}
+
+	/**
+	 * Exports tables to a file, replacing it.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param file The file.
+	 * @param format NDJSON or CSV.
+	 * @param firstTable The index of the first table to write.
+	 * @param lastTable The index of the last table to write.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportToFile(TriageDBAdapter dbAdapter, File file, int format,
+			int firstTable, int lastTable) throws IOException {
+		File partial = new File(file.getPath() + ".partial");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partial), "UTF-8"), BUFFER_SIZE);
+		RowWriter writer = format == NDJSON ? new NdjsonRowWriter(out) : new CsvRowWriter(out);
+		long rows = 0;
+		boolean written = false;
+		try {
+			for (int table = firstTable; table <= lastTable; table++)
+				rows += exportTable(dbAdapter, writer, table);
+			written = true;
+		} finally {
+			out.close();
+			if (!written)
+				partial.delete();
+		}
+		if (file.exists() && !file.delete() || !partial.renameTo(file))
+			throw new IOException("Cannot replace " + file);
+		return rows;
+	}
+
+	/**
+	 * Writes a table.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param writer The RowWriter.
+	 * @param table The index of the table.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportTable(TriageDBAdapter dbAdapter, RowWriter writer, int table) throws IOException {
+		switch (table) {
+		case PATIENTS:
+			writer.startTable(ColumnarExporter.PATIENT_TABLE, ColumnarExporter.PATIENT_COLUMNS);
+			return exportPatients(dbAdapter, writer);
+		case ERVISITS:
+			writer.startTable(ColumnarExporter.ERVISIT_TABLE, ColumnarExporter.ERVISIT_COLUMNS);
+			return exportERVisits(dbAdapter, writer);
+		case VITALS:
+			writer.startTable(ColumnarExporter.VITALS_TABLE, ColumnarExporter.VITALS_COLUMNS);
+			return exportVitalSigns(dbAdapter, writer);
+		default:
+			writer.startTable(ColumnarExporter.PRESCRIPTION_TABLE, ColumnarExporter.PRESCRIPTION_COLUMNS);
+			return exportPrescriptions(dbAdapter, writer);
+		}
+	}
+
+	/**
+	 * Writes the Patients.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param writer The RowWriter.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportPatients(TriageDBAdapter dbAdapter, RowWriter writer) throws IOException {
+		Cursor cursor = dbAdapter.fetchPatientsForExport();
+		long rows = 0;
+		try {
+			while (cursor.moveToNext()) {
+				writer.writeLong(cursor.getLong(0));
+				writer.writeString(cursor.getString(1));
+				writer.writeString(cursor.getString(2));
+				writer.writeString(cursor.getString(3));
+				writer.endRow();
+				rows++;
+			}
+		} finally {
+			cursor.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the ERVisits.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param writer The RowWriter.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportERVisits(TriageDBAdapter dbAdapter, RowWriter writer) throws IOException {
+		Cursor cursor = dbAdapter.fetchERVisitsForExport();
+		long rows = 0;
+		try {
+			while (cursor.moveToNext()) {
+				writer.writeLong(cursor.getLong(0));
+				writer.writeString(cursor.getString(1));
+				writer.writeLong(cursor.getLong(2));
+				if (cursor.isNull(3))
+					writer.writeNull();
+				else
+					writer.writeLong(cursor.getLong(3));
+				writer.writeLong(cursor.getLong(4));
+				writer.writeLong(cursor.getLong(5));
+				writer.endRow();
+				rows++;
+			}
+		} finally {
+			cursor.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the VitalSigns: those not compacted, then those of the blocks.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param writer The RowWriter.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportVitalSigns(TriageDBAdapter dbAdapter, RowWriter writer) throws IOException {
+		long rows = 0;
+		Cursor cursor = dbAdapter.fetchVitalSignsForExport();
+		try {
+			while (cursor.moveToNext()) {
+				writer.writeLong(cursor.getLong(0));
+				writer.writeLong(cursor.getLong(1));
+				writer.writeLong(cursor.getLong(2));
+				writer.writeLong(cursor.getLong(3));
+				writer.writeFloat(cursor.getFloat(4));
+				writer.writeFloat(cursor.getFloat(5));
+				writer.endRow();
+				rows++;
+			}
+		} finally {
+			cursor.close();
+		}
+		Cursor blockCursor = dbAdapter.fetchVitalSignsBlocksForExport();
+		try {
+			while (blockCursor.moveToNext()) {
+				long ervisitID = blockCursor.getLong(0);
+				VitalSignsBlockCodec.Columns vitals = VitalSignsBlockCodec.decode(blockCursor.getBlob(1));
+				for (int i = 0; i < vitals.count; i++) {
+					writer.writeLong(ervisitID);
+					writer.writeLong(vitals.timestamp[i]);
+					writer.writeLong(vitals.systolic[i]);
+					writer.writeLong(vitals.diastolic[i]);
+					writer.writeFloat(vitals.temperature[i]);
+					writer.writeFloat(vitals.heartRate[i]);
+					writer.endRow();
+				}
+				rows += vitals.count;
+			}
+		} finally {
+			blockCursor.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the Prescriptions.
+	 * @param dbAdapter The database adapter (helper).
+	 * @param writer The RowWriter.
+	 * @return The number of rows written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static long exportPrescriptions(TriageDBAdapter dbAdapter, RowWriter writer) throws IOException {
+		Cursor cursor = dbAdapter.fetchPrescriptionsForExport();
+		long rows = 0;
+		try {
+			while (cursor.moveToNext()) {
+				writer.writeLong(cursor.getLong(0));
+				writer.writeString(cursor.getString(1));
+				writer.writeString(cursor.getString(2));
+				writer.endRow();
+				rows++;
+			}
+		} finally {
+			cursor.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes rows to a Writer, one value at a time, in the order of the columns
+	 * of the table. No row is held: each value is written as it is given.
+	 */
+	abstract static class RowWriter {
+		/** The Writer written to. */
+		final Writer out;
+		/** The index of the column of the next value of the row. */
+		int column;
+
+		/**
+		 * Constructs a RowWriter.
+		 * @param out The Writer to write to, buffered.
+		 */
+		RowWriter(Writer out) {
+			this.out = out;
+		}
+
+		/**
+		 * Starts a table.
+		 * @param table The name of the table.
+		 * @param columns The names of its columns.
+		 * @throws IOException if the Writer cannot be written.
+		 */
+		abstract void startTable(String table, String[] columns) throws IOException;
+
+		/**
+		 * Writes the start of a value: what comes before it in the row.
+		 * @throws IOException if the Writer cannot be written.
+		 */
+		abstract void startValue() throws IOException;
+
+		/**
+		 * Writes a whole number.
+		 * @param value The value.
+		 * @throws IOException if the Writer cannot be written.
+		 */
+		void writeLong(long value) throws IOException {
+			startValue();
+			out.write(Long.toString(value));
+		}
+
+		/**
+		 * Writes a real number, with the digits needed to read back the same float.
+		 * @param value The value.
+		 * @throws IOException if the Writer cannot be written.
+		 */
+		void writeFloat(float value) throws IOException {
+			startValue();
+			if (Float.isNaN(value) || Float.isInfinite(value))
+				writeNullValue();
+			else
+				out.write(Float.toString(value));
+		}
+
+		/**
+		 * Writes a null value.
+		 * @throws IOException if the Writer cannot be written.
+		 */
+		void writeNull() throws IOException {
+			startValue();
+			writeNullValue();
+		}
+
+		/**
+		 * Writes a String, or a null value.
+		 * @param value The value, or null.
+		 * @throws IOException if the Writer cannot be written.
+		 */
+		void writeString(String value) throws IOException {
+			startValue();
+			if (value == null)
+				writeNullValue();
+			else
+				writeStringValue(value);
+		}
+
+		/**
+		 * Writes a null value, once startValue has been written.
+		 * @throws IOException if the Writer cannot be written.
+		 */
+		abstract void writeNullValue() throws IOException;
+
+		/**
+		 * Writes a String, quoted as needed, once startValue has been written.
+		 * @param value The value.
+		 * @throws IOException if the Writer cannot be written.
+		 */
+		abstract void writeStringValue(String value) throws IOException;
+
+		/**
+		 * Ends the row.
+		 * @throws IOException if the Writer cannot be written.
+		 */
+		abstract void endRow() throws IOException;
+	}
+
+	/** Writes each row as a JSON object on its own line. */
+	static final class NdjsonRowWriter extends RowWriter {
+		/** The start of the object of each row of the table, e.g. {"table":"Patient","id": */
+		private String rowStart;
+		/** What comes before each value but the first, e.g. ,"name": */
+		private String[] valueStarts;
+
+		/**
+		 * Constructs a NdjsonRowWriter.
+		 * @param out The Writer to write to, buffered.
+		 */
+		NdjsonRowWriter(Writer out) {
+			super(out);
+		}
+
+		@Override
+		void startTable(String table, String[] columns) throws IOException {
+			//The keys are quoted once a table, not once a row.
+			valueStarts = new String[columns.length];
+			for (int i = 0; i < columns.length; i++)
+				valueStarts[i] = (i == 0 ? "" : ",") + quote(columns[i]) + ":";
+			rowStart = "{\"table\":" + quote(table) + "," + valueStarts[0];
+			column = 0;
+		}
+
+		@Override
+		void startValue() throws IOException {
+			out.write(column == 0 ? rowStart : valueStarts[column]);
+			column++;
+		}
+
+		@Override
+		void writeNullValue() throws IOException {
+			out.write("null");
+		}
+
+		@Override
+		void writeStringValue(String value) throws IOException {
+			out.write('"');
+			int length = value.length();
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\') {
+					out.write('\\');
+					out.write(c);
+				} else if (c == '\n') {
+					out.write("\\n");
+				} else if (c < 0x20) {
+					out.write(String.format("\\u%04x", (int) c));
+				} else {
+					out.write(c);
+				}
+			}
+			out.write('"');
+		}
+
+		@Override
+		void endRow() throws IOException {
+			out.write("}\n");
+			column = 0;
+		}
+
+		/**
+		 * Quotes a String known to hold no character to escape.
+		 * @param value The String.
+		 * @return The JSON string.
+		 */
+		private static String quote(String value) {
+			return "\"" + value + "\"";
+		}
+	}
+
+	/** Writes each row as a line of comma separated values, after a header line. */
+	static final class CsvRowWriter extends RowWriter {
+
+		/**
+		 * Constructs a CsvRowWriter.
+		 * @param out The Writer to write to, buffered.
+		 */
+		CsvRowWriter(Writer out) {
+			super(out);
+		}
+
+		@Override
+		void startTable(String table, String[] columns) throws IOException {
+			column = 0;
+			for (String name : columns)
+				writeString(name);
+			endRow();
+		}
+
+		@Override
+		void startValue() throws IOException {
+			if (column++ > 0)
+				out.write(',');
+		}
+
+		@Override
+		void writeNullValue() {
+			//A null value is an empty field.
+		}
+
+		@Override
+		void writeStringValue(String value) throws IOException {
+			boolean quoted = false;
+			int length = value.length();
+			for (int i = 0; i < length && !quoted; i++) {
+				char c = value.charAt(i);
+				quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+			}
+			//An empty String is quoted, so that it is not read back as null.
+			if (!quoted && length > 0) {
+				out.write(value);
+				return;
+			}
+			out.write('"');
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c == '"')
+					out.write('"');
+				out.write(c);
+			}
+			out.write('"');
+		}
+
+		@Override
+		void endRow() throws IOException {
+			out.write("\r\n");
+			column = 0;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package triageapp.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * An InputStream that adds the number of bytes read from it to the
+ * bytes read counter of the reading thread (see MetricsRegistry.threadBytesRead).
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	/**
+	 * Constructs a CountingInputStream.
+	 * @param in The stream to read from.
+	 */
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b != -1)
+			MetricsRegistry.addThreadBytesRead(1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int read = super.read(buffer, offset, length);
+		if (read > 0)
+			MetricsRegistry.addThreadBytesRead(read);
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		if (skipped > 0)
+			MetricsRegistry.addThreadBytesRead(skipped);
+		return skipped;
+	}
+}
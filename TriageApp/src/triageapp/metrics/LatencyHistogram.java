@@ -0,0 +1,127 @@
+package triageapp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, with log-linear buckets:
+ * every power of two is split into SUB_BUCKETS buckets, so a recorded value
+ * is reported within 1/SUB_BUCKETS (12.5%) of its real value, from one
+ * nanosecond to hundreds of years, in a fixed amount of memory.
+ */
+public final class LatencyHistogram {
+
+	/** The number of bits used to split every power of two. */
+	private static final int SUB_BUCKET_BITS = 3;
+	/** The number of buckets per power of two. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** The total number of buckets, enough for any positive long. */
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+	/** The number of values recorded in each bucket. */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	/** The number of values recorded. */
+	private final AtomicLong count = new AtomicLong();
+	/** The sum of the values recorded. */
+	private final AtomicLong total = new AtomicLong();
+	/** The largest value recorded. */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * @param nanos The latency in nanoseconds. Negative values are recorded as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucketIndex(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long currentMax;
+		while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+			//Another thread changed the max, check again.
+		}
+	}
+
+	/**
+	 * Gets the number of values recorded.
+	 * @return The number of values recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the sum of the values recorded.
+	 * @return The sum of the values recorded, in nanoseconds.
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * Gets the largest value recorded.
+	 * @return The largest value recorded, in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value at a percentile of the recorded values.
+	 * @param percentile The percentile, from 0 to 100.
+	 * @return The upper bound of the bucket holding the percentile (at most the
+	 * largest value recorded), or 0 if no value was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long recorded = count.get();
+		if (recorded == 0)
+			return 0;
+		long rank = (long) Math.ceil(recorded * percentile / 100.0);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(bucketUpperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	/** Removes every recorded value. */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Returns the bucket of a value.
+	 * @param value A positive value.
+	 * @return The index of the bucket holding the value.
+	 */
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		int shift = highestBit - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Returns the largest value of a bucket.
+	 * @param index The index of the bucket.
+	 * @return The largest value held by the bucket.
+	 */
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = (index >> SUB_BUCKET_BITS) - 1;
+		long subBucket = index & (SUB_BUCKETS - 1);
+		return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+}
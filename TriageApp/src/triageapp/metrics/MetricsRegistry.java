@@ -0,0 +1,184 @@
+package triageapp.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import triageapp.components.TimeFormat;
+
+
+/**
+ * The registry of the OperationMetrics of TriageApp, shared by the whole process.
+ * Operations get their OperationMetrics once (usually in a static field) and
+ * record every call in it; a snapshot of every operation can be written as
+ * text or exported to a file.
+ */
+public final class MetricsRegistry {
+
+	/** The name of the file in the app's files directory that snapshots are exported to. */
+	public static final String EXPORT_FILE_NAME = "metrics.txt";
+	/** The size above which the export file is started over, in bytes. */
+	private static final long MAX_EXPORT_FILE_SIZE = 256 * 1024;
+	/** The number of nanoseconds in a millisecond, as a double. */
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	/** The OperationMetrics by name. */
+	private static final ConcurrentMap<String, OperationMetrics> operations =
+			new ConcurrentHashMap<String, OperationMetrics>();
+	/** Index of the SQL time (in nanoseconds) in the counters of a thread. */
+	private static final int THREAD_SQL_NANOS = 0;
+	/** Index of the number of rows in the counters of a thread. */
+	private static final int THREAD_ROWS = 1;
+	/** Index of the number of bytes read in the counters of a thread. */
+	private static final int THREAD_BYTES_READ = 2;
+	/** The SQL time, rows and bytes recorded on each thread. */
+	private static final ThreadLocal<long[]> threadCounters = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[3];
+		}
+	};
+	/** Whether calls are recorded. */
+	private static volatile boolean enabled = true;
+
+	/** This class only has static methods. */
+	private MetricsRegistry() {
+	}
+
+	/**
+	 * Gets the OperationMetrics of an operation, creating them on first use.
+	 * @param name The name of the operation, e.g. "db.fetchAllPatients".
+	 * @return The OperationMetrics of the operation.
+	 */
+	public static OperationMetrics get(String name) {
+		OperationMetrics metrics = operations.get(name);
+		if (metrics == null) {
+			OperationMetrics created = new OperationMetrics(name);
+			metrics = operations.putIfAbsent(name, created);
+			if (metrics == null)
+				metrics = created;
+		}
+		return metrics;
+	}
+
+	/**
+	 * Checks if calls are recorded.
+	 * @return true if calls are recorded.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns recording on or off.
+	 * @param enabled true to record calls.
+	 */
+	public static void setEnabled(boolean enabled) {
+		MetricsRegistry.enabled = enabled;
+	}
+
+	/**
+	 * Gets the total SQL time recorded on the current thread.
+	 * @return The SQL time in nanoseconds.
+	 */
+	public static long threadSqlNanos() {
+		return threadCounters.get()[THREAD_SQL_NANOS];
+	}
+
+	/**
+	 * Gets the total number of rows returned or changed by queries on the current thread.
+	 * @return The number of rows.
+	 */
+	public static long threadRows() {
+		return threadCounters.get()[THREAD_ROWS];
+	}
+
+	/**
+	 * Gets the total number of bytes read through CountingInputStreams on the current thread.
+	 * @return The number of bytes read.
+	 */
+	public static long threadBytesRead() {
+		return threadCounters.get()[THREAD_BYTES_READ];
+	}
+
+	/**
+	 * Adds a query to the counters of the current thread.
+	 * @param nanos The SQL time of the query, in nanoseconds.
+	 * @param rows The number of rows returned or changed by the query.
+	 */
+	static void addThreadQuery(long nanos, int rows) {
+		long[] counters = threadCounters.get();
+		counters[THREAD_SQL_NANOS] += nanos;
+		counters[THREAD_ROWS] += rows;
+	}
+
+	/**
+	 * Adds to the number of bytes read on the current thread.
+	 * @param bytes The number of bytes read.
+	 */
+	static void addThreadBytesRead(long bytes) {
+		threadCounters.get()[THREAD_BYTES_READ] += bytes;
+	}
+
+	/** Resets the metrics of every operation. */
+	public static void reset() {
+		for (OperationMetrics metrics : operations.values())
+			metrics.reset();
+	}
+
+	/**
+	 * Returns a snapshot of the metrics of every operation that was called,
+	 * one line per operation, sorted by name. Times are in milliseconds.
+	 * @return The snapshot as text.
+	 */
+	public static String snapshot() {
+		List<String> names = new ArrayList<String>(operations.keySet());
+		Collections.sort(names);
+		StringBuilder text = new StringBuilder();
+		text.append("operation calls rows p50 p90 p99 max mean sql mapping\n");
+		for (String name : names) {
+			OperationMetrics metrics = operations.get(name);
+			LatencyHistogram latency = metrics.getLatency();
+			long calls = latency.getCount();
+			if (calls == 0)
+				continue;
+			text.append(name).append(' ').append(metrics.getCalls()).append(' ').append(metrics.getRows());
+			text.append(String.format(Locale.US, " %.3f %.3f %.3f %.3f %.3f %.3f %.3f\n",
+					latency.getValueAtPercentile(50) / NANOS_PER_MILLI,
+					latency.getValueAtPercentile(90) / NANOS_PER_MILLI,
+					latency.getValueAtPercentile(99) / NANOS_PER_MILLI,
+					latency.getMax() / NANOS_PER_MILLI,
+					latency.getTotal() / NANOS_PER_MILLI / calls,
+					metrics.getSqlNanos() / NANOS_PER_MILLI,
+					metrics.getMappingNanos() / NANOS_PER_MILLI));
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Appends a timestamped snapshot to a file. The file is started over
+	 * once it grows above MAX_EXPORT_FILE_SIZE. Calls from several threads
+	 * write one after the other.
+	 * @param file The file to export to.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static synchronized void exportTo(File file) throws IOException {
+		boolean append = file.length() < MAX_EXPORT_FILE_SIZE;
+		Writer writer = new FileWriter(file, append);
+		try {
+			writer.write("# " + TimeFormat.DATE_TIME.format(System.currentTimeMillis()) + "\n");
+			writer.write(snapshot());
+			writer.write(WaitTimeStats.snapshot());
+			writer.write("\n");
+		} finally {
+			writer.close();
+		}
+	}
+}
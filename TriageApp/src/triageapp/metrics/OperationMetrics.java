@@ -0,0 +1,130 @@
+package triageapp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The metrics of one operation (e.g. a TriageDBAdapter query, or an ERAdmin
+ * operation): how many times it was called, how many rows it returned or
+ * changed, its latency histogram, and how its time was split between SQL
+ * and mapping rows to objects.
+ * OperationMetrics are created by the MetricsRegistry, and are thread-safe.
+ */
+public final class OperationMetrics {
+
+	/** The name of the operation. */
+	private final String name;
+	/** The number of times the operation was called. */
+	private final AtomicLong calls = new AtomicLong();
+	/** The number of rows returned or changed by the operation. */
+	private final AtomicLong rows = new AtomicLong();
+	/** The total time spent in SQL, in nanoseconds. */
+	private final AtomicLong sqlNanos = new AtomicLong();
+	/** The total time spent mapping rows to objects, in nanoseconds. */
+	private final AtomicLong mappingNanos = new AtomicLong();
+	/** The latency of each call. */
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Constructs the metrics of an operation.
+	 * @param name The name of the operation.
+	 */
+	OperationMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records a call of a database query or mutation, all of whose time is spent in SQL.
+	 * The time and rows are also added to the counters of the current thread, so the
+	 * calling operation can tell its SQL time from its mapping time.
+	 * @param startNanos The System.nanoTime() when the call started.
+	 * @param rowCount The number of rows returned or changed.
+	 */
+	public void recordQuery(long startNanos, int rowCount) {
+		if (!MetricsRegistry.isEnabled())
+			return;
+		long elapsed = System.nanoTime() - startNanos;
+		calls.incrementAndGet();
+		rows.addAndGet(rowCount);
+		sqlNanos.addAndGet(elapsed);
+		latency.record(elapsed);
+		MetricsRegistry.addThreadQuery(elapsed, rowCount);
+	}
+
+	/**
+	 * Records a call of an operation that runs database queries and maps their rows
+	 * to objects. The SQL time is the SQL time recorded by queries on the current
+	 * thread during the call; the rest of the time is mapping time.
+	 * @param startNanos The System.nanoTime() when the call started.
+	 * @param threadSqlNanosAtStart The MetricsRegistry.threadSqlNanos() when the call started.
+	 * @param rowCount The number of rows (or objects) loaded or changed.
+	 */
+	public void recordOperation(long startNanos, long threadSqlNanosAtStart, int rowCount) {
+		if (!MetricsRegistry.isEnabled())
+			return;
+		long elapsed = System.nanoTime() - startNanos;
+		long sql = MetricsRegistry.threadSqlNanos() - threadSqlNanosAtStart;
+		calls.incrementAndGet();
+		rows.addAndGet(rowCount);
+		sqlNanos.addAndGet(sql);
+		mappingNanos.addAndGet(Math.max(0, elapsed - sql));
+		latency.record(elapsed);
+	}
+
+	/**
+	 * Gets the name of the operation.
+	 * @return The name of the operation.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of times the operation was called.
+	 * @return The number of calls.
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * Gets the number of rows returned or changed by the operation.
+	 * @return The number of rows.
+	 */
+	public long getRows() {
+		return rows.get();
+	}
+
+	/**
+	 * Gets the total time spent in SQL.
+	 * @return The SQL time in nanoseconds.
+	 */
+	public long getSqlNanos() {
+		return sqlNanos.get();
+	}
+
+	/**
+	 * Gets the total time spent mapping rows to objects.
+	 * @return The mapping time in nanoseconds.
+	 */
+	public long getMappingNanos() {
+		return mappingNanos.get();
+	}
+
+	/**
+	 * Gets the latency histogram of the operation.
+	 * @return The latency histogram.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/** Resets every metric of the operation. */
+	void reset() {
+		calls.set(0);
+		rows.set(0);
+		sqlNanos.set(0);
+		mappingNanos.set(0);
+		latency.reset();
+	}
+}
@@ -0,0 +1,195 @@
+package triageapp.metrics;
+
+import java.util.Arrays;
+
+
+/**
+ * A streaming estimate of the quantiles of a set of values (a merging t-digest).
+ * The values are summarized by at most about 2 * COMPRESSION centroids
+ * (a mean and a weight), which are small near the extremes and larger in the
+ * middle, so that P50, P90 and P99 are accurate to a fraction of a percent
+ * in a fixed amount of memory, however many values are added. Two sketches
+ * can be merged, e.g. to get the quantiles of a day from those of its hours.
+ * QuantileSketches are thread-safe.
+ */
+public final class QuantileSketch {
+
+	/** The compression: a higher value keeps more centroids, for more accuracy. */
+	private static final int COMPRESSION = 50;
+	/** The largest number of centroids after a merge. */
+	private static final int MAX_CENTROIDS = 2 * COMPRESSION + 2;
+	/** The number of values added before they are merged into the centroids. */
+	private static final int BUFFER_SIZE = 4 * COMPRESSION;
+
+	/** The means of the centroids, in increasing order. */
+	private double[] means = new double[MAX_CENTROIDS];
+	/** The weights of the centroids. */
+	private double[] weights = new double[MAX_CENTROIDS];
+	/** The number of centroids. */
+	private int centroids;
+	/** The values added since the last merge. */
+	private final double[] buffer = new double[BUFFER_SIZE];
+	/** The number of values in buffer. */
+	private int buffered;
+	/** The number of values added. */
+	private long count;
+	/** The smallest value added. */
+	private double min = Double.POSITIVE_INFINITY;
+	/** The largest value added. */
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Adds a value.
+	 * @param value The value.
+	 */
+	public synchronized void add(double value) {
+		buffer[buffered++] = value;
+		count++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		if (buffered == BUFFER_SIZE)
+			flush();
+	}
+
+	/**
+	 * Adds the values of another sketch to this one.
+	 * @param other The other sketch, which is not changed.
+	 */
+	public void merge(QuantileSketch other) {
+		double[] otherMeans;
+		double[] otherWeights;
+		int otherCentroids;
+		long otherCount;
+		double otherMin;
+		double otherMax;
+		synchronized (other) {
+			other.flush();
+			otherMeans = Arrays.copyOf(other.means, other.centroids);
+			otherWeights = Arrays.copyOf(other.weights, other.centroids);
+			otherCentroids = other.centroids;
+			otherCount = other.count;
+			otherMin = other.min;
+			otherMax = other.max;
+		}
+		synchronized (this) {
+			flush();
+			mergeSorted(otherMeans, otherWeights, otherCentroids);
+			count += otherCount;
+			min = Math.min(min, otherMin);
+			max = Math.max(max, otherMax);
+		}
+	}
+
+	/**
+	 * Gets the number of values added.
+	 * @return The number of values.
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Estimates a quantile of the values added.
+	 * @param quantile The quantile, from 0 to 1 (e.g. 0.9 for P90).
+	 * @return The estimate, or NaN if no value was added.
+	 */
+	public synchronized double getQuantile(double quantile) {
+		flush();
+		if (count == 0)
+			return Double.NaN;
+		if (centroids == 1)
+			return means[0];
+		double total = 0;
+		for (int i = 0; i < centroids; i++)
+			total += weights[i];
+		double target = quantile * total;
+		//Before the center of the first centroid, interpolates from the smallest value.
+		if (target < weights[0] / 2)
+			return min + (means[0] - min) * target / (weights[0] / 2);
+		double center = weights[0] / 2;
+		for (int i = 0; i < centroids - 1; i++) {
+			double nextCenter = center + (weights[i] + weights[i + 1]) / 2;
+			if (target < nextCenter)
+				return means[i] + (means[i + 1] - means[i]) * (target - center) / (nextCenter - center);
+			center = nextCenter;
+		}
+		//After the center of the last centroid, interpolates to the largest value.
+		double last = weights[centroids - 1] / 2;
+		return means[centroids - 1] + (max - means[centroids - 1]) * Math.min(1, (target - center) / last);
+	}
+
+	/** Merges the buffered values into the centroids. Must be called holding the lock of this sketch. */
+	private void flush() {
+		if (buffered == 0)
+			return;
+		Arrays.sort(buffer, 0, buffered);
+		double[] ones = new double[buffered];
+		Arrays.fill(ones, 1);
+		int added = buffered;
+		buffered = 0;
+		mergeSorted(Arrays.copyOf(buffer, added), ones, added);
+	}
+
+	/**
+	 * Merges weighted values into the centroids, then merges neighbouring
+	 * centroids as long as they stay under the size limit of their quantile:
+	 * 4 * total * q * (1 - q) / COMPRESSION. Must be called holding the lock of this sketch.
+	 * @param addedMeans The values, in increasing order.
+	 * @param addedWeights The weights of the values.
+	 * @param added The number of values.
+	 */
+	private void mergeSorted(double[] addedMeans, double[] addedWeights, int added) {
+		int size = centroids + added;
+		if (size == 0)
+			return;
+		double[] allMeans = new double[size];
+		double[] allWeights = new double[size];
+		double total = 0;
+		for (int i = 0, a = 0, k = 0; k < size; k++) {
+			if (a >= added || (i < centroids && means[i] <= addedMeans[a])) {
+				allMeans[k] = means[i];
+				allWeights[k] = weights[i++];
+			} else {
+				allMeans[k] = addedMeans[a];
+				allWeights[k] = addedWeights[a++];
+			}
+			total += allWeights[k];
+		}
+
+		double[] newMeans = new double[Math.max(MAX_CENTROIDS, means.length)];
+		double[] newWeights = new double[newMeans.length];
+		int merged = 0;
+		double before = 0;
+		double mean = allMeans[0];
+		double weight = allWeights[0];
+		for (int k = 1; k < size; k++) {
+			double proposed = weight + allWeights[k];
+			double q0 = before / total;
+			double q2 = (before + proposed) / total;
+			double limit = 4 * total * Math.min(q0 * (1 - q0), q2 * (1 - q2)) / COMPRESSION;
+			if (proposed <= limit) {
+				mean += (allMeans[k] - mean) * allWeights[k] / proposed;
+				weight = proposed;
+			} else {
+				if (merged == newMeans.length) {
+					newMeans = Arrays.copyOf(newMeans, merged * 2);
+					newWeights = Arrays.copyOf(newWeights, merged * 2);
+				}
+				newMeans[merged] = mean;
+				newWeights[merged++] = weight;
+				before += weight;
+				mean = allMeans[k];
+				weight = allWeights[k];
+			}
+		}
+		if (merged == newMeans.length) {
+			newMeans = Arrays.copyOf(newMeans, merged + 1);
+			newWeights = Arrays.copyOf(newWeights, merged + 1);
+		}
+		newMeans[merged] = mean;
+		newWeights[merged++] = weight;
+		means = newMeans;
+		weights = newWeights;
+		centroids = merged;
+	}
+}
@@ -0,0 +1,94 @@
+package triageapp.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A timed step of an operation, started by Tracer.begin() and ended by end().
+ * A Span begun while another Span is open on the same thread is nested in it.
+ * When tracing is disabled, Tracer.begin() returns a shared Span that records nothing.
+ */
+public class Span {
+
+	/** The Span returned when tracing is disabled. */
+	static final Span NOOP = new Span(null, 0, 0, null);
+
+	/** The name of the step, e.g. "eradmin.addPatientVitals". */
+	final String name;
+	/** The id of this Span, unique in the process. */
+	final long id;
+	/** The id of the Span this Span is nested in, or 0. */
+	final long parentId;
+	/** The Span this Span is nested in, or null. */
+	final Span parent;
+	/** The id of the thread the Span was begun on. */
+	final long threadId;
+	/** The System.nanoTime() when the Span was begun. */
+	final long startNanos;
+	/** The duration of the Span, or -1 until it is ended. */
+	long durationNanos = -1;
+	/** The attributes of the Span, as alternating keys and values. */
+	List<Object> attributes;
+
+	/**
+	 * Constructs a Span, starting its clock.
+	 * @param name The name of the step.
+	 * @param id The id of the Span.
+	 * @param parentId The id of the enclosing Span, or 0.
+	 * @param parent The enclosing Span, or null.
+	 */
+	Span(String name, long id, long parentId, Span parent) {
+		this.name = name;
+		this.id = id;
+		this.parentId = parentId;
+		this.parent = parent;
+		this.threadId = Thread.currentThread().getId();
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Adds a numeric attribute (e.g. a row count) to this Span.
+	 * @param key The name of the attribute.
+	 * @param value The value of the attribute.
+	 * @return This Span.
+	 */
+	public Span attribute(String key, long value) {
+		if (this != NOOP)
+			addAttribute(key, Long.valueOf(value));
+		return this;
+	}
+
+	/**
+	 * Adds a text attribute to this Span. Never pass a health card number
+	 * or a name; use Tracer.hashHealthCard() instead.
+	 * @param key The name of the attribute.
+	 * @param value The value of the attribute.
+	 * @return This Span.
+	 */
+	public Span attribute(String key, String value) {
+		if (this != NOOP)
+			addAttribute(key, value);
+		return this;
+	}
+
+	/** Ends this Span and records it in the Tracer. */
+	public void end() {
+		if (this == NOOP || durationNanos >= 0)
+			return;
+		durationNanos = System.nanoTime() - startNanos;
+		Tracer.ended(this);
+	}
+
+	/**
+	 * Adds an attribute to this Span.
+	 * @param key The name of the attribute.
+	 * @param value The value of the attribute.
+	 */
+	private void addAttribute(String key, Object value) {
+		if (attributes == null)
+			attributes = new ArrayList<Object>(4);
+		attributes.add(key);
+		attributes.add(value);
+	}
+}
@@ -0,0 +1,203 @@
+package triageapp.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
+import triageapp.components.TimeFormat;
+
+
+/**
+ * Times the phases of the app's startup (e.g. opening the database, loading
+ * the Patients), with the database rows and the bytes read during each phase
+ * (through CountingInputStreams, e.g. the seeded patient records), and keeps
+ * a rolling history of startups in a file.
+ * A startup is cold if it is the first one in the process (the classes and the
+ * database were not loaded yet), and warm otherwise.
+ * A StartupProfiler must be used on a single thread.
+ */
+public final class StartupProfiler {
+
+	/** The name of the history file in the app's files directory. */
+	public static final String HISTORY_FILE_NAME = "startup_history.txt";
+	/** The number of startups kept in the history file. */
+	public static final int MAX_HISTORY = 50;
+	/** The number of nanoseconds in a millisecond, as a double. */
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	/** Whether a startup has already been profiled in this process. */
+	private static boolean processStarted = false;
+
+	/** A timed phase of the startup. */
+	private static final class Phase {
+		/** The name of the phase. */
+		final String name;
+		/** The duration of the phase, in nanoseconds. */
+		long nanos;
+		/** The database rows returned or changed during the phase. */
+		long rows;
+		/** The bytes read during the phase. */
+		long bytes;
+
+		Phase(String name) {
+			this.name = name;
+		}
+	}
+
+	/** Whether this startup is the first one in the process. */
+	private final boolean cold;
+	/** The System.nanoTime() when the startup began. */
+	private final long startNanos;
+	/** The time of day when the startup began. */
+	private final long startMillis;
+	/** The phases ended so far. */
+	private final List<Phase> phases = new ArrayList<Phase>();
+	/** The current phase, or null. */
+	private Phase currentPhase;
+	/** The System.nanoTime() when the current phase began. */
+	private long phaseStartNanos;
+	/** The thread's row count when the current phase began. */
+	private long phaseStartRows;
+	/** The thread's bytes read count when the current phase began. */
+	private long phaseStartBytes;
+	/** The total duration of the startup, or -1 until it is finished. */
+	private long totalNanos = -1;
+
+	/**
+	 * Constructs a StartupProfiler, starting the clock.
+	 */
+	private StartupProfiler() {
+		synchronized (StartupProfiler.class) {
+			cold = !processStarted;
+			processStarted = true;
+		}
+		startNanos = System.nanoTime();
+		startMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts profiling a startup.
+	 * @return The StartupProfiler of the startup.
+	 */
+	public static StartupProfiler start() {
+		return new StartupProfiler();
+	}
+
+	/**
+	 * Ends the current phase, if any, and begins a new one.
+	 * @param name The name of the new phase.
+	 */
+	public void beginPhase(String name) {
+		endPhase();
+		currentPhase = new Phase(name);
+		phaseStartRows = MetricsRegistry.threadRows();
+		phaseStartBytes = MetricsRegistry.threadBytesRead();
+		phaseStartNanos = System.nanoTime();
+	}
+
+	/** Ends the current phase, if any. */
+	public void endPhase() {
+		if (currentPhase == null)
+			return;
+		currentPhase.nanos = System.nanoTime() - phaseStartNanos;
+		currentPhase.rows = MetricsRegistry.threadRows() - phaseStartRows;
+		currentPhase.bytes = MetricsRegistry.threadBytesRead() - phaseStartBytes;
+		phases.add(currentPhase);
+		currentPhase = null;
+	}
+
+	/** Ends the current phase and the startup. */
+	public void finish() {
+		endPhase();
+		totalNanos = System.nanoTime() - startNanos;
+	}
+
+	/**
+	 * Checks if this startup is the first one in the process.
+	 * @return true for a cold startup, false for a warm one.
+	 */
+	public boolean isCold() {
+		return cold;
+	}
+
+	/**
+	 * Gets the total duration of the startup.
+	 * @return The duration in nanoseconds, or -1 if the startup is not finished.
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Returns the summary of this startup as one line of text: the time, whether the
+	 * startup was cold or warm, its total duration and each phase's duration, rows and bytes.
+	 * @return The summary.
+	 */
+	public String summary() {
+		StringBuilder line = new StringBuilder();
+		line.append(TimeFormat.DATE_TIME.format(startMillis));
+		line.append(cold ? " cold" : " warm");
+		line.append(String.format(Locale.US, " total=%.1fms", totalNanos / NANOS_PER_MILLI));
+		for (Phase phase : phases) {
+			line.append(String.format(Locale.US, " %s=%.1fms/%drows/%dB",
+					phase.name, phase.nanos / NANOS_PER_MILLI, phase.rows, phase.bytes));
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Adds the summary of this startup to a history file, keeping only
+	 * the last MAX_HISTORY startups.
+	 * @param file The history file.
+	 * @throws IOException if the file cannot be read or written.
+	 */
+	public void saveHistory(File file) throws IOException {
+		LinkedList<String> history = new LinkedList<String>();
+		if (file.exists()) {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					history.add(line);
+					if (history.size() >= MAX_HISTORY)
+						history.removeFirst();
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		history.add(summary());
+		Writer writer = new FileWriter(file, false);
+		try {
+			for (String line : history)
+				writer.write(line + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Adds the summary of this startup to a history file on a background thread,
+	 * so that writing the history does not delay the startup.
+	 * @param file The history file.
+	 */
+	public void saveHistoryInBackground(final File file) {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					saveHistory(file);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, "StartupProfiler").start();
+	}
+}
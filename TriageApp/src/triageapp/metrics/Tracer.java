@@ -0,0 +1,205 @@
+package triageapp.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Traces operations as nested Spans (e.g. a vitals save through the Nurse,
+ * ERAdmin and TriageDBAdapter) and writes them to a trace file in the Chrome
+ * trace event format, which chrome://tracing and ui.perfetto.dev can open.
+ * Tracing is off by default; while it is off, begin() returns a shared Span
+ * without reading the clock or allocating.
+ */
+public final class Tracer {
+
+	/** The name of the trace file in the app's files directory. */
+	public static final String TRACE_FILE_NAME = "trace.json";
+	/** The number of ended Spans kept; older Spans are dropped. */
+	private static final int MAX_SPANS = 4096;
+	/** The number of hex digits of a hashed health card number. */
+	private static final int HASH_HEX_DIGITS = 12;
+
+	/** Whether Spans are recorded. */
+	private static volatile boolean enabled = false;
+	/** The id of the next Span. */
+	private static final AtomicLong nextId = new AtomicLong(1);
+	/** The innermost open Span of each thread. */
+	private static final ThreadLocal<Span> current = new ThreadLocal<Span>();
+	/** The ended Spans, oldest first. Guarded by itself. */
+	private static final ArrayDeque<Span> ended = new ArrayDeque<Span>();
+	/** The System.nanoTime() that trace timestamps are relative to. */
+	private static final long epochNanos = System.nanoTime();
+	/** The salt of hashed health card numbers, new in every process. */
+	private static final byte[] salt = new byte[16];
+
+	static {
+		new SecureRandom().nextBytes(salt);
+	}
+
+	/** This class only has static methods. */
+	private Tracer() {
+	}
+
+	/**
+	 * Checks if Spans are recorded.
+	 * @return true if Spans are recorded.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns tracing on or off.
+	 * @param enabled true to record Spans.
+	 */
+	public static void setEnabled(boolean enabled) {
+		Tracer.enabled = enabled;
+	}
+
+	/**
+	 * Begins a Span, nested in the open Span of the current thread if there is one.
+	 * The Span must be ended on the same thread, preferably in a finally block.
+	 * @param name The name of the step, e.g. "db.createVitalSigns".
+	 * @return The new Span, or a Span that records nothing if tracing is disabled.
+	 */
+	public static Span begin(String name) {
+		if (!enabled)
+			return Span.NOOP;
+		Span parent = current.get();
+		Span span = new Span(name, nextId.getAndIncrement(), parent == null ? 0 : parent.id, parent);
+		current.set(span);
+		return span;
+	}
+
+	/**
+	 * Records an ended Span, and makes its parent the open Span of the thread.
+	 * @param span The ended Span.
+	 */
+	static void ended(Span span) {
+		if (current.get() == span)
+			current.set(span.parent);
+		synchronized (ended) {
+			if (ended.size() == MAX_SPANS)
+				ended.removeFirst();
+			ended.addLast(span);
+		}
+	}
+
+	/**
+	 * Hashes a health card number so that Spans of the same Patient can be
+	 * matched in a trace without the trace revealing the number. The hash is
+	 * salted per process, so it cannot be matched across app restarts.
+	 * @param healthCardNumber The health card number.
+	 * @return The hash as hex digits.
+	 */
+	public static String hashHealthCard(String healthCardNumber) {
+		if (!enabled || healthCardNumber == null)
+			return "";
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(salt);
+			byte[] hash = digest.digest(healthCardNumber.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(HASH_HEX_DIGITS);
+			for (int i = 0; hex.length() < HASH_HEX_DIGITS; i++)
+				hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return "";
+	}
+
+	/**
+	 * Writes the last MAX_SPANS ended Spans to a trace file, and keeps them in
+	 * the Tracer, so that each call replaces the file with a trace that still
+	 * holds the Spans of the previous one. The trace is written to a temporary
+	 * file renamed over the trace file, so the trace file is always complete.
+	 * Calls from several threads write one after the other.
+	 * @param file The trace file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static synchronized void writeTo(File file) throws IOException {
+		List<Span> spans;
+		synchronized (ended) {
+			spans = new ArrayList<Span>(ended);
+		}
+		File temporary = new File(file.getPath() + ".tmp");
+		Writer writer = new BufferedWriter(new FileWriter(temporary, false));
+		try {
+			writer.write("{\"traceEvents\":[");
+			for (int i = 0; i < spans.size(); i++) {
+				if (i > 0)
+					writer.write(",\n");
+				writeEvent(writer, spans.get(i));
+			}
+			writer.write("],\"displayTimeUnit\":\"ms\"}\n");
+		} finally {
+			writer.close();
+		}
+		if (!temporary.renameTo(file))
+			throw new IOException("Cannot rename " + temporary + " to " + file);
+	}
+
+	/**
+	 * Writes a Span as a complete ("X") trace event.
+	 * @param writer The writer of the trace file.
+	 * @param span The Span.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static void writeEvent(Writer writer, Span span) throws IOException {
+		writer.write("{\"name\":");
+		writeString(writer, span.name);
+		writer.write(",\"cat\":\"triageapp\",\"ph\":\"X\",\"pid\":1,\"tid\":" + span.threadId);
+		// Timestamps and durations are in microseconds.
+		writer.write(",\"ts\":" + (span.startNanos - epochNanos) / 1000.0);
+		writer.write(",\"dur\":" + span.durationNanos / 1000.0);
+		writer.write(",\"args\":{\"span\":" + span.id + ",\"parent\":" + span.parentId);
+		List<Object> attributes = span.attributes;
+		if (attributes != null) {
+			for (int i = 0; i + 1 < attributes.size(); i += 2) {
+				writer.write(',');
+				writeString(writer, (String) attributes.get(i));
+				writer.write(':');
+				Object value = attributes.get(i + 1);
+				if (value instanceof Long)
+					writer.write(value.toString());
+				else
+					writeString(writer, String.valueOf(value));
+			}
+		}
+		writer.write("}}");
+	}
+
+	/**
+	 * Writes a JSON string.
+	 * @param writer The writer of the trace file.
+	 * @param value The string.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static void writeString(Writer writer, String value) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				writer.write('\\');
+			if (c < 0x20)
+				writer.write(String.format("\\u%04x", (int) c));
+			else
+				writer.write(c);
+		}
+		writer.write('"');
+	}
+}
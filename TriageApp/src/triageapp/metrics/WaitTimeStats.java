@@ -0,0 +1,180 @@
+package triageapp.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import triageapp.components.Patient;
+
+
+/**
+ * The distribution of a wait of the ERVisits (e.g. from arrival to being
+ * sent to the doctor), recorded as each ERVisit reaches its end, in one
+ * QuantileSketch per hour of arrival and one per urgency. The quantiles
+ * of any range of recent hours are those of their merged sketches, so
+ * P50, P90 and P99 never need a scan of the ERVisit table. Each sketch has
+ * a fixed size, and only the last RETAINED_HOURS hours are kept.
+ * The stats are shared by the whole process, and are thread-safe.
+ */
+public final class WaitTimeStats {
+
+	/** The number of milliseconds in an hour. */
+	public static final long HOUR_MILLIS = 60 * 60 * 1000L;
+	/** The number of hourly windows kept. */
+	public static final int RETAINED_HOURS = 48;
+	/** The number of milliseconds in a minute, as a double. */
+	private static final double MILLIS_PER_MINUTE = 60 * 1000.0;
+
+	/** The time from arrival to being sent to the doctor. */
+	private static final WaitTimeStats DOOR_TO_DOCTOR = new WaitTimeStats("wait.doorToDoctor");
+	/** The time from arrival to the closing of the ERVisit. */
+	private static final WaitTimeStats LENGTH_OF_STAY = new WaitTimeStats("wait.lengthOfStay");
+
+	/** The name of the wait. */
+	private final String name;
+	/** The sketches of the ERVisits by hour of arrival, as hours since 1970-01-01. */
+	private final ConcurrentMap<Long, QuantileSketch> hours = new ConcurrentHashMap<Long, QuantileSketch>();
+	/** The sketches of the ERVisits by urgency at the end of the wait. */
+	private final QuantileSketch[] urgencies = new QuantileSketch[Patient.MAX_URGENCY + 1];
+
+	/**
+	 * Constructs empty WaitTimeStats.
+	 * @param name The name of the wait.
+	 */
+	private WaitTimeStats(String name) {
+		this.name = name;
+		for (int i = 0; i < urgencies.length; i++)
+			urgencies[i] = new QuantileSketch();
+	}
+
+	/**
+	 * Gets the time from arrival to being sent to the doctor, in milliseconds.
+	 * @return The WaitTimeStats.
+	 */
+	public static WaitTimeStats doorToDoctor() {
+		return DOOR_TO_DOCTOR;
+	}
+
+	/**
+	 * Gets the time from arrival to the closing of the ERVisit, in milliseconds.
+	 * @return The WaitTimeStats.
+	 */
+	public static WaitTimeStats lengthOfStay() {
+		return LENGTH_OF_STAY;
+	}
+
+	/**
+	 * Records the wait of an ERVisit.
+	 * @param arrivalTime The arrival time of the ERVisit.
+	 * @param endTime The time the wait ended.
+	 * @param urgency The urgency of the Patient when the wait ended.
+	 */
+	public void record(long arrivalTime, long endTime, int urgency) {
+		if (!MetricsRegistry.isEnabled() || endTime < arrivalTime)
+			return;
+		long wait = endTime - arrivalTime;
+		urgencies[Math.max(0, Math.min(Patient.MAX_URGENCY, urgency))].add(wait);
+		long hour = arrivalTime / HOUR_MILLIS;
+		long oldest = System.currentTimeMillis() / HOUR_MILLIS - RETAINED_HOURS + 1;
+		//ERVisits received late (e.g. by sync) from hours no longer kept only count by urgency.
+		if (hour < oldest)
+			return;
+		QuantileSketch sketch = hours.get(hour);
+		if (sketch == null) {
+			QuantileSketch created = new QuantileSketch();
+			sketch = hours.putIfAbsent(hour, created);
+			if (sketch == null) {
+				sketch = created;
+				//A new hour starts: the hours no longer kept are dropped.
+				for (Long kept : hours.keySet()) {
+					if (kept.longValue() < oldest)
+						hours.remove(kept);
+				}
+			}
+		}
+		sketch.add(wait);
+	}
+
+	/**
+	 * Gets the waits of the ERVisits arriving in an hour.
+	 * @param time A time in the hour.
+	 * @return A copy of the sketch of the hour; empty if no ERVisit was recorded.
+	 */
+	public QuantileSketch getHour(long time) {
+		QuantileSketch copy = new QuantileSketch();
+		QuantileSketch sketch = hours.get(time / HOUR_MILLIS);
+		if (sketch != null)
+			copy.merge(sketch);
+		return copy;
+	}
+
+	/**
+	 * Gets the waits of the ERVisits arriving since a time, within the last RETAINED_HOURS hours.
+	 * @param time The time; the whole hour holding it is included.
+	 * @return The merged sketches of the hours.
+	 */
+	public QuantileSketch since(long time) {
+		long first = time / HOUR_MILLIS;
+		QuantileSketch merged = new QuantileSketch();
+		for (Map.Entry<Long, QuantileSketch> hour : hours.entrySet()) {
+			if (hour.getKey().longValue() >= first)
+				merged.merge(hour.getValue());
+		}
+		return merged;
+	}
+
+	/**
+	 * Gets the waits of the ERVisits of an urgency, since the process started.
+	 * @param urgency The urgency, from 0 to Patient.MAX_URGENCY.
+	 * @return A copy of the sketch of the urgency.
+	 */
+	public QuantileSketch getUrgency(int urgency) {
+		QuantileSketch copy = new QuantileSketch();
+		copy.merge(urgencies[urgency]);
+		return copy;
+	}
+
+	/**
+	 * Returns the P50, P90 and P99 of both waits, for the last 24 hours and by
+	 * urgency, one line each. Waits are in minutes.
+	 * @return The snapshot as text.
+	 */
+	public static String snapshot() {
+		StringBuilder text = new StringBuilder();
+		text.append("wait window count p50 p90 p99\n");
+		for (WaitTimeStats stats : new WaitTimeStats[] {DOOR_TO_DOCTOR, LENGTH_OF_STAY}) {
+			appendLine(text, stats.name, "last24h", stats.since(System.currentTimeMillis() - 23 * HOUR_MILLIS));
+			for (int urgency = 0; urgency <= Patient.MAX_URGENCY; urgency++)
+				appendLine(text, stats.name, "urgency" + urgency, stats.urgencies[urgency]);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Appends the quantiles of a sketch to a snapshot, if it has values.
+	 * @param text The snapshot.
+	 * @param name The name of the wait.
+	 * @param window The name of the window.
+	 * @param sketch The sketch.
+	 */
+	private static void appendLine(StringBuilder text, String name, String window, QuantileSketch sketch) {
+		long count = sketch.getCount();
+		if (count == 0)
+			return;
+		text.append(name).append(' ').append(window).append(' ').append(count);
+		text.append(String.format(Locale.US, " %.1f %.1f %.1f\n",
+				sketch.getQuantile(0.5) / MILLIS_PER_MINUTE,
+				sketch.getQuantile(0.9) / MILLIS_PER_MINUTE,
+				sketch.getQuantile(0.99) / MILLIS_PER_MINUTE));
+	}
+
+	/** Removes every wait recorded. */
+	public static void reset() {
+		for (WaitTimeStats stats : new WaitTimeStats[] {DOOR_TO_DOCTOR, LENGTH_OF_STAY}) {
+			stats.hours.clear();
+			for (int i = 0; i < stats.urgencies.length; i++)
+				stats.urgencies[i] = new QuantileSketch();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package triageapp.reactive;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A Publisher of the latest value of something that changes in bursts, such as
+ * an ER board. Values submitted while a Subscriber is waiting for its next
+ * emission are coalesced: the Subscriber only receives the latest of them,
+ * at most once per interval (by default, once per frame). A Subscriber with
+ * no outstanding demand receives nothing until it requests more, and then
+ * receives the latest value. Items are emitted on a shared background thread,
+ * one Subscriber at a time.
+ * @param <T> The type of the values. Values must not be changed once submitted.
+ */
+public class CoalescingPublisher<T> implements Flow.Publisher<T> {
+
+	/** The default interval between two emissions to a Subscriber: one frame at 60 frames per second. */
+	public static final long FRAME_MILLIS = 16;
+
+	/** The thread emitting the items of every CoalescingPublisher. */
+	private static final ScheduledExecutorService EMITTER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "CoalescingPublisher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/** The current subscriptions. */
+	private final List<CoalescingSubscription> subscriptions = new CopyOnWriteArrayList<CoalescingSubscription>();
+	/** The latest value submitted, or null. */
+	private volatile T latest;
+
+	/**
+	 * Adds a Subscriber receiving at most one value per frame.
+	 * @param subscriber The Subscriber.
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		subscribe(subscriber, FRAME_MILLIS);
+	}
+
+	/**
+	 * Adds a Subscriber receiving at most one value per interval. The Subscriber
+	 * receives the latest value submitted, if any, once it requests it.
+	 * @param subscriber The Subscriber.
+	 * @param intervalMillis The interval.
+	 */
+	public void subscribe(Flow.Subscriber<? super T> subscriber, long intervalMillis) {
+		CoalescingSubscription subscription = new CoalescingSubscription(subscriber, intervalMillis);
+		subscriptions.add(subscription);
+		subscriber.onSubscribe(subscription);
+		if (latest != null)
+			subscription.markChanged();
+	}
+
+	/**
+	 * Submits a new value, to be emitted to every Subscriber at its next emission.
+	 * @param value The value.
+	 */
+	public void submit(T value) {
+		latest = value;
+		for (CoalescingSubscription subscription : subscriptions)
+			subscription.markChanged();
+	}
+
+	/**
+	 * Gets the latest value submitted.
+	 * @return The value, or null if none was submitted.
+	 */
+	public T getLatest() {
+		return latest;
+	}
+
+	/** The emissions to one Subscriber. */
+	private final class CoalescingSubscription implements Flow.Subscription, Runnable {
+		/** The Subscriber. */
+		private final Flow.Subscriber<? super T> subscriber;
+		/** The least time between two emissions, in nanoseconds. */
+		private final long intervalNanos;
+		/** The number of values requested and not yet emitted. Guarded by this. */
+		private long demand;
+		/** Whether a value was submitted since the last emission. Guarded by this. */
+		private boolean changed;
+		/** Whether an emission is scheduled. Guarded by this. */
+		private boolean scheduled;
+		/** Whether the Subscription was cancelled. Guarded by this. */
+		private boolean cancelled;
+
+		/**
+		 * Constructs a CoalescingSubscription.
+		 * @param subscriber The Subscriber.
+		 * @param intervalMillis The least time between two emissions.
+		 */
+		CoalescingSubscription(Flow.Subscriber<? super T> subscriber, long intervalMillis) {
+			this.subscriber = subscriber;
+			this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException("Non-positive request " + n));
+				return;
+			}
+			synchronized (this) {
+				//Demand saturates instead of overflowing.
+				demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				scheduleIfNeeded();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+			}
+			subscriptions.remove(this);
+		}
+
+		/** Records that a value was submitted, and schedules its emission. */
+		synchronized void markChanged() {
+			changed = true;
+			scheduleIfNeeded();
+		}
+
+		/**
+		 * Schedules an emission one interval from now if there is a value to
+		 * emit and demand for it; values submitted until then are coalesced.
+		 */
+		private void scheduleIfNeeded() {
+			if (cancelled || scheduled || !changed || demand == 0)
+				return;
+			scheduled = true;
+			EMITTER.schedule(this, intervalNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/** Emits the latest value. */
+		@Override
+		public void run() {
+			synchronized (this) {
+				scheduled = false;
+				if (cancelled || !changed || demand == 0)
+					return;
+				changed = false;
+				if (demand != Long.MAX_VALUE)
+					demand--;
+			}
+			try {
+				subscriber.onNext(latest);
+			} catch (RuntimeException e) {
+				//A Subscriber must not throw; it is dropped so it does not stop the others.
+				e.printStackTrace();
+				cancel();
+				return;
+			}
+			synchronized (this) {
+				scheduleIfNeeded();
+			}
+		}
+	}
+}
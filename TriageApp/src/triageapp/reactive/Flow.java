@@ -0,0 +1,66 @@
+package triageapp.reactive;
+
+
+/**
+ * The interfaces of reactive streams, with the same names and methods as
+ * java.util.concurrent.Flow, which Android does not provide at the API level
+ * of this app. Code written against them moves to java.util.concurrent.Flow
+ * by changing its imports.
+ */
+public final class Flow {
+
+	/** This class only has nested interfaces. */
+	private Flow() {
+	}
+
+	/**
+	 * A producer of items received by its Subscribers.
+	 * @param <T> The type of the items.
+	 */
+	public interface Publisher<T> {
+		/**
+		 * Adds a Subscriber, which receives a Subscription through onSubscribe.
+		 * @param subscriber The Subscriber.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items. Items are only sent as requested through the Subscription.
+	 * @param <T> The type of the items.
+	 */
+	public interface Subscriber<T> {
+		/**
+		 * Called before any other method, with the Subscription to request items with.
+		 * @param subscription The Subscription.
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Called with the next item.
+		 * @param item The item.
+		 */
+		void onNext(T item);
+
+		/**
+		 * Called when the Publisher fails; no method is called after it.
+		 * @param throwable The failure.
+		 */
+		void onError(Throwable throwable);
+
+		/** Called when the Publisher has no more items; no method is called after it. */
+		void onComplete();
+	}
+
+	/** The link between a Publisher and one of its Subscribers. */
+	public interface Subscription {
+		/**
+		 * Requests more items.
+		 * @param n The number of items, more than 0.
+		 */
+		void request(long n);
+
+		/** Stops sending items to the Subscriber. */
+		void cancel();
+	}
+}
@@ -0,0 +1,192 @@
+package triageapp.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * A station's connection to a BoardServer. A BoardClient sends one request at
+ * a time and must be used by one thread at a time. It only uses the Java
+ * library, so it also runs on a desktop JVM, e.g. against an emulator
+ * after "adb forward tcp:7207 tcp:7207", with the token shown by the
+ * station which started the server.
+ */
+public class BoardClient {
+
+	/** The socket connected to the server. */
+	private final Socket socket;
+	/** The responses of the server. */
+	private final BufferedReader in;
+	/** The requests to the server. */
+	private final Writer out;
+
+	/**
+	 * Connects to a BoardServer and authenticates.
+	 * @param host The host of the server.
+	 * @param port The port of the server.
+	 * @param token The token of the server.
+	 * @throws IOException if the server cannot be reached, or the token is wrong.
+	 */
+	public BoardClient(String host, int port, String token) throws IOException {
+		socket = new Socket(host, port);
+		try {
+			socket.setTcpNoDelay(true);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+			request(BoardProtocol.AUTH + " " + token);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the board: the Patients waiting for a doctor, most urgent first.
+	 * @return For each Patient: health card number, name, urgency and arrival time.
+	 * @throws IOException if the request fails.
+	 */
+	public List<String[]> getBoard() throws IOException {
+		return request(BoardProtocol.BOARD);
+	}
+
+	/**
+	 * Gets the Patients sent to a doctor.
+	 * @return For each Patient: health card number, name, time seen by the doctor,
+	 * Physician assigned or taking them (empty if none), and "1" if the Physician took them.
+	 * @throws IOException if the request fails.
+	 */
+	public List<String[]> getSentToDoctor() throws IOException {
+		return request(BoardProtocol.DOCTOR);
+	}
+
+	/**
+	 * Gets a Patient.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @return The health card number, name, date of birth, urgency, and "1" if the Patient is in the ER.
+	 * @throws IOException if the request fails.
+	 */
+	public String[] getPatient(String healthCardNumber) throws IOException {
+		return request(BoardProtocol.PATIENT + " " + healthCardNumber).get(0);
+	}
+
+	/**
+	 * Signs in a Patient.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @throws IOException if the request fails.
+	 */
+	public void signIn(String healthCardNumber) throws IOException {
+		request(BoardProtocol.SIGN_IN + " " + healthCardNumber);
+	}
+
+	/**
+	 * Adds VitalSigns to a Patient's current ERVisit.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param sys The systolic blood pressure.
+	 * @param dia The diastolic blood pressure.
+	 * @param temp The temperature.
+	 * @param heartRate The heart rate.
+	 * @return The Patient's new urgency.
+	 * @throws IOException if the request fails.
+	 */
+	public int addVitals(String healthCardNumber, int sys, int dia, float temp, float heartRate) throws IOException {
+		List<String[]> rows = request(String.format(Locale.US, "%s %s %d %d %.1f %.1f",
+				BoardProtocol.VITALS, healthCardNumber, sys, dia, temp, heartRate));
+		return Integer.parseInt(rows.get(0)[0]);
+	}
+
+	/**
+	 * Sends a Patient to a doctor.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @throws IOException if the request fails.
+	 */
+	public void sendToDoctor(String healthCardNumber) throws IOException {
+		request(BoardProtocol.SEND_TO_DOCTOR + " " + healthCardNumber);
+	}
+
+	/**
+	 * Closes a Patient's current ERVisit.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @throws IOException if the request fails.
+	 */
+	public void closeCase(String healthCardNumber) throws IOException {
+		request(BoardProtocol.CLOSE_CASE + " " + healthCardNumber);
+	}
+
+	/**
+	 * Adds a Physician logged in on this station, to whom the Patients sent to
+	 * a doctor may be assigned.
+	 * @param physician The username of the Physician.
+	 * @throws IOException if the request fails.
+	 */
+	public void registerPhysician(String physician) throws IOException {
+		request(BoardProtocol.REGISTER + " " + physician);
+	}
+
+	/**
+	 * Removes a Physician logging out of this station; the Patients waiting
+	 * for them are assigned again.
+	 * @param physician The username of the Physician.
+	 * @throws IOException if the request fails.
+	 */
+	public void unregisterPhysician(String physician) throws IOException {
+		request(BoardProtocol.UNREGISTER + " " + physician);
+	}
+
+	/**
+	 * Takes the next Patient for a Physician to see. The Patient stays on the
+	 * Patients sent to a doctor, as taken by the Physician.
+	 * @param physician The username of the Physician.
+	 * @return The health card number and name of the Patient, or null if no Patient is waiting.
+	 * @throws IOException if the request fails.
+	 */
+	public String[] takeNextPatient(String physician) throws IOException {
+		List<String[]> rows = request(BoardProtocol.TAKE + " " + physician);
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	/**
+	 * Disconnects from the server.
+	 * @throws IOException if the connection cannot be closed.
+	 */
+	public void close() throws IOException {
+		try {
+			out.write(BoardProtocol.QUIT + "\n");
+			out.flush();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Sends a request and reads its response.
+	 * @param request The request line.
+	 * @return The lines of the response, as fields.
+	 * @throws IOException if the connection fails or the server answers with an error.
+	 */
+	private List<String[]> request(String request) throws IOException {
+		out.write(request + "\n");
+		out.flush();
+		String status = in.readLine();
+		if (status == null)
+			throw new IOException("The server closed the connection");
+		if (!status.startsWith(BoardProtocol.OK + " "))
+			throw new IOException(status.startsWith(BoardProtocol.ERROR + " ")
+					? status.substring(BoardProtocol.ERROR.length() + 1) : "Unexpected response " + status);
+		int count = Integer.parseInt(status.substring(BoardProtocol.OK.length() + 1));
+		List<String[]> rows = new ArrayList<String[]>(count);
+		for (int i = 0; i < count; i++) {
+			String line = in.readLine();
+			if (line == null)
+				throw new IOException("The server closed the connection");
+			rows.add(line.split(String.valueOf(BoardProtocol.FIELD_SEPARATOR), -1));
+		}
+		return rows;
+	}
+}
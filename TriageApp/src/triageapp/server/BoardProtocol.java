@@ -0,0 +1,81 @@
+package triageapp.server;
+
+
+/**
+ * The line protocol spoken between a BoardServer and its BoardClients.
+ * A request is one line: a command followed by its arguments, separated by
+ * spaces. A response is either "OK n" followed by n lines of tab separated
+ * fields, or "ERR message". Lines are UTF-8. The first request of a station
+ * must be AUTH with the server's token; the server disconnects a station
+ * whose first request is anything else.
+ *
+ * AUTH token                   Authenticates the station.
+ * BOARD                        The Patients waiting for a doctor, most urgent first:
+ *                              health card, name, urgency, arrival time.
+ * DOCTOR                       The Patients sent to a doctor: health card, name, time seen,
+ *                              Physician assigned or taking them (empty if none),
+ *                              1 if the Physician took them, 0 otherwise.
+ * PATIENT hcn                  The Patient: health card, name, date of birth, urgency,
+ *                              1 if the Patient is in the ER, 0 otherwise.
+ * SIGNIN hcn                   Signs in the Patient.
+ * VITALS hcn sys dia temp hr   Adds VitalSigns to the Patient's ERVisit; returns the urgency.
+ * SEND hcn                     Sends the Patient to a doctor.
+ * CLOSE hcn                    Closes the Patient's ERVisit.
+ * REGISTER physician           Adds a Physician logged in on a station, who is
+ *                              assigned Patients sent to a doctor.
+ * UNREGISTER physician         Removes a Physician logging out, whose Patients
+ *                              waiting are assigned again.
+ * TAKE physician               Takes the next Patient for the Physician to see:
+ *                              health card, name; no line if no Patient is waiting.
+ * QUIT                         Closes the connection.
+ */
+public final class BoardProtocol {
+
+	/** The default port of the BoardServer. */
+	public static final int DEFAULT_PORT = 7207;
+
+	/** The command authenticating a station. */
+	public static final String AUTH = "AUTH";
+	/** The command requesting the urgency board. */
+	public static final String BOARD = "BOARD";
+	/** The command requesting the Patients sent to a doctor. */
+	public static final String DOCTOR = "DOCTOR";
+	/** The command requesting a Patient. */
+	public static final String PATIENT = "PATIENT";
+	/** The command signing in a Patient. */
+	public static final String SIGN_IN = "SIGNIN";
+	/** The command adding VitalSigns to a Patient. */
+	public static final String VITALS = "VITALS";
+	/** The command sending a Patient to a doctor. */
+	public static final String SEND_TO_DOCTOR = "SEND";
+	/** The command closing a Patient's ERVisit. */
+	public static final String CLOSE_CASE = "CLOSE";
+	/** The command adding a Physician to whom Patients are assigned. */
+	public static final String REGISTER = "REGISTER";
+	/** The command removing a Physician to whom Patients are assigned. */
+	public static final String UNREGISTER = "UNREGISTER";
+	/** The command taking the next Patient for a Physician. */
+	public static final String TAKE = "TAKE";
+	/** The command closing the connection. */
+	public static final String QUIT = "QUIT";
+
+	/** The start of a successful response. */
+	public static final String OK = "OK";
+	/** The start of a failed response. */
+	public static final String ERROR = "ERR";
+	/** The separator of the fields of a response line. */
+	public static final char FIELD_SEPARATOR = '\t';
+
+	/** This class only has constants. */
+	private BoardProtocol() {
+	}
+
+	/**
+	 * Returns a field with the characters that would break a response line removed.
+	 * @param field The field.
+	 * @return The field without tabs or line breaks.
+	 */
+	static String clean(String field) {
+		return field.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+}
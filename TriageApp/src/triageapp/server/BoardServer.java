@@ -0,0 +1,677 @@
+package triageapp.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import triageapp.components.ERAdmin;
+import triageapp.components.ERVisit;
+import triageapp.components.InvalidUserInputException;
+import triageapp.components.Patient;
+import triageapp.components.VitalSigns;
+import triageapp.database.TriageDBAdapter;
+import android.content.Context;
+import android.database.SQLException;
+import android.util.Log;
+
+
+/**
+ * Serves the ER board to several stations (BoardClients) over a socket, so that
+ * the nurses and physicians on every station share one board. The server owns
+ * an ERAdmin loaded from its own connection to the database, and every
+ * station's request goes through it: requests changing the board run one at
+ * a time under a write lock, so every station sees a single consistent urgency
+ * board, while requests reading it run together under a read lock.
+ * The database stays the reference: before a request, the ERAdmin is loaded
+ * again if another connection (e.g. the app's Activities) committed a change
+ * since it was loaded.
+ * A station must first authenticate with the server's token, which the user
+ * starting the server gives to the other stations. The server is only
+ * started on request, never with the app, and accepts stations from other
+ * devices only if the user starting it chose to. A station idle for
+ * STATION_TIMEOUT_MILLIS is disconnected.
+ * The Physicians registered by the stations are kept by the server, and
+ * registered again with each ERAdmin loaded.
+ * Each connected station is served by its own pooled thread, up to MAX_STATIONS.
+ * The server speaks the BoardProtocol.
+ */
+public class BoardServer implements Runnable {
+
+	/** The largest number of stations connected at the same time. */
+	public static final int MAX_STATIONS = 64;
+	/** The tag of the server's log messages. */
+	private static final String TAG = "BoardServer";
+	/** The number of random bytes of a token. */
+	private static final int TOKEN_BYTES = 16;
+	/** The time a station may stay without sending a request before it is disconnected. */
+	static final int STATION_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+	/** The server started by startInBackground(), or null. */
+	private static BoardServer running;
+
+	/** The context to use to open the database. */
+	private final Context context;
+	/** The port the server listens on. */
+	private final int port;
+	/** Whether the server accepts stations from other devices, or only from this one. */
+	private final boolean acceptRemote;
+	/** The token the stations authenticate with. */
+	private final String token;
+	/** The ERAdmin holding the shared board. Guarded by lock. */
+	private ERAdmin erAdmin;
+	/** The server's connection to the database. Guarded by lock. */
+	private TriageDBAdapter dbAdapter;
+	/** The sequence number of the last ChangeEvent in erAdmin. */
+	private volatile long loadedSequence;
+	/** Serializes the requests changing the board. */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
+	/** The threads serving the stations. */
+	private final ExecutorService stations;
+	/** The usernames of the Physicians registered by the stations. Guarded by lock. */
+	private final Set<String> physicians = new HashSet<String>();
+	/** The sockets of the connected stations. */
+	private final Set<Socket> connected = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	/** The socket accepting the stations, or null until the server runs. */
+	private volatile ServerSocket serverSocket;
+
+	/**
+	 * Constructs a BoardServer.
+	 * @param context The context to use to open the database. The application
+	 * context should be used, as the server outlives the Activity starting it.
+	 * @param port The port to listen on.
+	 * @param acceptRemote true to accept stations on other devices, false to
+	 * accept only stations on this device (the loopback interface).
+	 * @param token The token the stations must authenticate with.
+	 */
+	public BoardServer(Context context, int port, boolean acceptRemote, String token) {
+		this.context = context;
+		this.port = port;
+		this.acceptRemote = acceptRemote;
+		this.token = token;
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.stations = new ThreadPoolExecutor(0, MAX_STATIONS, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						return new Thread(runnable, "BoardStation-" + threadCount.incrementAndGet());
+					}
+				});
+	}
+
+	/**
+	 * Starts a BoardServer on the default port, with a new random token,
+	 * unless one is already running.
+	 * @param context The context to use to open the database.
+	 * @param acceptRemote true to accept stations on other devices, false to
+	 * accept only stations on this device.
+	 * @return The token of the running server.
+	 */
+	public static synchronized String startInBackground(Context context, boolean acceptRemote) {
+		if (running == null) {
+			running = new BoardServer(context.getApplicationContext(), BoardProtocol.DEFAULT_PORT, acceptRemote, newToken());
+			new Thread(running, "BoardServer").start();
+		}
+		return running.token;
+	}
+
+	/**
+	 * Returns whether a BoardServer started by startInBackground() is running.
+	 * @return true iff the server is running.
+	 */
+	public static synchronized boolean isRunning() {
+		return running != null;
+	}
+
+	/**
+	 * Returns the IPv4 addresses the other devices can reach this one at, for
+	 * the user sharing the board to give to the other stations.
+	 * @return The addresses, without the loopback one; empty if there is no network.
+	 */
+	public static List<String> localAddresses() {
+		List<String> addresses = new ArrayList<String>();
+		try {
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+			while (interfaces != null && interfaces.hasMoreElements()) {
+				NetworkInterface networkInterface = interfaces.nextElement();
+				if (!networkInterface.isUp() || networkInterface.isLoopback())
+					continue;
+				Enumeration<InetAddress> inetAddresses = networkInterface.getInetAddresses();
+				while (inetAddresses.hasMoreElements()) {
+					InetAddress address = inetAddresses.nextElement();
+					if (address instanceof Inet4Address)
+						addresses.add(address.getHostAddress());
+				}
+			}
+		} catch (SocketException e) {
+			Log.w(TAG, "Listing the network addresses failed", e);
+		}
+		return addresses;
+	}
+
+	/** Stops the BoardServer started by startInBackground(), if any. */
+	public static synchronized void stopRunning() {
+		if (running != null) {
+			running.stop();
+			running = null;
+		}
+	}
+
+	/**
+	 * Makes a random token.
+	 * @return The token, in hexadecimal.
+	 */
+	public static String newToken() {
+		byte[] bytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder token = new StringBuilder(2 * TOKEN_BYTES);
+		for (byte b : bytes)
+			token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return token.toString();
+	}
+
+	/**
+	 * Loads the board from the database, then accepts stations until the server is stopped.
+	 */
+	@Override
+	public void run() {
+		try {
+			load();
+			ServerSocket socket = new ServerSocket();
+			socket.setReuseAddress(true);
+			socket.bind(acceptRemote ? new InetSocketAddress(port)
+					: new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+			serverSocket = socket;
+			Log.i(TAG, "Serving the board on port " + port);
+			while (!socket.isClosed()) {
+				Socket station;
+				try {
+					station = socket.accept();
+				} catch (SocketException e) {
+					//The server was stopped.
+					break;
+				}
+				serve(station);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "The board server stopped", e);
+		} catch (SQLException e) {
+			Log.w(TAG, "The board server could not load the board", e);
+		} catch (InvalidUserInputException e) {
+			Log.w(TAG, "The board server could not load the board", e);
+		} finally {
+			stop();
+			synchronized (BoardServer.class) {
+				if (running == this)
+					running = null;
+			}
+		}
+	}
+
+	/** Stops accepting stations, disconnects them and closes the database connection. */
+	public void stop() {
+		ServerSocket socket = serverSocket;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				Log.e(TAG, "Closing the server socket failed", e);
+			}
+		}
+		stations.shutdownNow();
+		for (Socket station : connected)
+			close(station);
+		lock.writeLock().lock();
+		try {
+			if (dbAdapter != null && dbAdapter.isOpen())
+				dbAdapter.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Opens the server's database connection and loads the Patients and the board.
+	 * @throws InvalidUserInputException if a Patient in the database is invalid.
+	 */
+	private void load() throws InvalidUserInputException {
+		lock.writeLock().lock();
+		try {
+			dbAdapter = new TriageDBAdapter(context);
+			dbAdapter.open();
+			reload();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Loads the ERAdmin again from the database if another connection
+	 * committed a change since it was loaded. The database connection is
+	 * read under the lock, as stop() closes it under the write lock.
+	 * Must not be called holding the read lock.
+	 * @throws InvalidUserInputException if a Patient in the database is invalid.
+	 * @throws SQLException if the server was stopped.
+	 */
+	private void refresh() throws InvalidUserInputException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			if (dbAdapter.getLastChangeSequence() == loadedSequence)
+				return;
+		} finally {
+			lock.readLock().unlock();
+		}
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			if (dbAdapter.getLastChangeSequence() != loadedSequence)
+				reload();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Checks that the server's database connection is open. Must be called holding the lock.
+	 * @throws SQLException if the server was stopped, and closed the connection.
+	 */
+	private void checkOpen() {
+		if (dbAdapter == null || !dbAdapter.isOpen())
+			throw new SQLException("The board server is stopped");
+	}
+
+	/**
+	 * Loads a new ERAdmin from the database. Must be called holding the write lock.
+	 * @throws InvalidUserInputException if a Patient in the database is invalid.
+	 */
+	private void reload() throws InvalidUserInputException {
+		//Read first, so that a change committed while loading is loaded by the next refresh().
+		long sequence = dbAdapter.getLastChangeSequence();
+		ERAdmin loaded = new ERAdmin();
+		loaded.loadPatients(dbAdapter);
+		loaded.loadUrgencyList(dbAdapter);
+		loaded.loadSentToDoctorList(dbAdapter);
+		//Only assigns the Patients waiting for no Physician, which a later reload finds assigned.
+		for (String physician : physicians)
+			loaded.registerPhysician(physician, dbAdapter);
+		erAdmin = loaded;
+		loadedSequence = sequence;
+	}
+
+	/**
+	 * Makes the ERAdmin current again after a mutation of this server, made
+	 * holding the write lock: the ChangeEvents the server logged are already
+	 * in the ERAdmin, but any other one means the ERAdmin must be loaded again.
+	 * @param sequenceBefore The last sequence number before the mutation.
+	 * @param changesBefore The number of events the server logged before the mutation.
+	 */
+	private void afterMutation(long sequenceBefore, long changesBefore) {
+		long sequence = dbAdapter.getLastChangeSequence();
+		if (sequenceBefore == loadedSequence && sequence - sequenceBefore == dbAdapter.getChangesLogged() - changesBefore)
+			loadedSequence = sequence;
+	}
+
+	/**
+	 * Serves a station on its own thread, or turns it away if MAX_STATIONS are connected.
+	 * @param station The station's socket.
+	 */
+	private void serve(final Socket station) {
+		try {
+			stations.execute(new Runnable() {
+				@Override
+				public void run() {
+					serveStation(station);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			try {
+				Writer out = new OutputStreamWriter(station.getOutputStream(), "UTF-8");
+				out.write(BoardProtocol.ERROR + " too many stations\n");
+				out.flush();
+			} catch (IOException ignored) {
+				//The station is turned away anyway.
+			}
+			close(station);
+		}
+	}
+
+	/**
+	 * Answers a station's requests, in order, until it quits or disconnects.
+	 * A station failing to authenticate with its first request is disconnected.
+	 * @param station The station's socket.
+	 */
+	private void serveStation(Socket station) {
+		connected.add(station);
+		try {
+			//A station gone without closing its connection must not hold a thread forever.
+			station.setSoTimeout(STATION_TIMEOUT_MILLIS);
+			BufferedReader in = new BufferedReader(new InputStreamReader(station.getInputStream(), "UTF-8"));
+			Writer out = new OutputStreamWriter(station.getOutputStream(), "UTF-8");
+			String request = in.readLine();
+			if (request == null)
+				return;
+			if (!authenticate(request.trim().split(" +"))) {
+				out.write(error("not authenticated"));
+				out.flush();
+				return;
+			}
+			out.write(ok(new ArrayList<String[]>()));
+			out.flush();
+			while ((request = in.readLine()) != null) {
+				String[] words = request.trim().split(" +");
+				if (words[0].equals(BoardProtocol.QUIT))
+					break;
+				out.write(handle(words));
+				out.flush();
+			}
+		} catch (IOException e) {
+			//The station disconnected, or was idle for STATION_TIMEOUT_MILLIS.
+		} finally {
+			connected.remove(station);
+			close(station);
+		}
+	}
+
+	/**
+	 * Checks a station's authentication request, in a time not depending on
+	 * how much of the token it got right.
+	 * @param words The command and its arguments.
+	 * @return true iff the request is AUTH with the server's token.
+	 */
+	boolean authenticate(String[] words) {
+		if (words.length != 2 || !words[0].equals(BoardProtocol.AUTH))
+			return false;
+		try {
+			return MessageDigest.isEqual(words[1].getBytes("UTF-8"), token.getBytes("UTF-8"));
+		} catch (IOException e) {
+			//UTF-8 is always supported.
+			return false;
+		}
+	}
+
+	/**
+	 * Handles a request of an authenticated station.
+	 * @param words The command and its arguments.
+	 * @return The response, ending with a line break.
+	 */
+	String handle(String[] words) {
+		String command = words[0];
+		try {
+			refresh();
+			if (command.equals(BoardProtocol.BOARD))
+				return board();
+			if (command.equals(BoardProtocol.DOCTOR))
+				return sentToDoctor();
+			if ((command.equals(BoardProtocol.REGISTER) || command.equals(BoardProtocol.UNREGISTER)
+					|| command.equals(BoardProtocol.TAKE)) && words.length < 2)
+				return error("missing physician");
+			if (command.equals(BoardProtocol.REGISTER) || command.equals(BoardProtocol.UNREGISTER))
+				return changePhysician(command, words[1]);
+			if (command.equals(BoardProtocol.TAKE))
+				return takeNextPatient(words[1]);
+			if (words.length < 2)
+				return error("missing health card number");
+			String healthCardNumber = words[1];
+			if (command.equals(BoardProtocol.PATIENT))
+				return patient(healthCardNumber);
+			if (command.equals(BoardProtocol.VITALS)) {
+				if (words.length != 6)
+					return error("usage: VITALS hcn sys dia temp hr");
+				return addVitals(healthCardNumber, Integer.parseInt(words[2]), Integer.parseInt(words[3]),
+						Float.parseFloat(words[4]), Float.parseFloat(words[5]));
+			}
+			if (command.equals(BoardProtocol.SIGN_IN) || command.equals(BoardProtocol.SEND_TO_DOCTOR)
+					|| command.equals(BoardProtocol.CLOSE_CASE))
+				return changeVisit(command, healthCardNumber);
+			return error("unknown command " + command);
+		} catch (NumberFormatException e) {
+			return error("invalid number");
+		} catch (InvalidUserInputException e) {
+			return error("invalid data");
+		} catch (SQLException e) {
+			Log.w(TAG, "Request " + command + " failed", e);
+			return error("database error");
+		}
+	}
+
+	/**
+	 * Returns the board: the Patients waiting for a doctor, most urgent first.
+	 * @return The response.
+	 */
+	private String board() {
+		List<String[]> rows = new ArrayList<String[]>();
+		lock.readLock().lock();
+		try {
+			for (Patient patient : erAdmin.getUrgencyList()) {
+				rows.add(new String[] {patient.getHealthCardNumber(), patient.getName(),
+						Integer.toString(patient.getUrgency()),
+						Long.toString(patient.getCurrentERVisit().getArrivalTime())});
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return ok(rows);
+	}
+
+	/**
+	 * Returns the Patients sent to a doctor.
+	 * @return The response.
+	 */
+	private String sentToDoctor() {
+		List<String[]> rows = new ArrayList<String[]>();
+		lock.readLock().lock();
+		try {
+			for (Patient patient : erAdmin.getPatientsSentToDoctorList()) {
+				ERVisit visit = patient.getCurrentERVisit();
+				rows.add(new String[] {patient.getHealthCardNumber(), patient.getName(),
+						Long.toString(visit.getTimeSeenByDoctor()), 
+						visit.getPhysician() != null ? visit.getPhysician() : "", visit.isTaken() ? "1" : "0"});
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return ok(rows);
+	}
+
+	/**
+	 * Returns a Patient.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @return The response.
+	 */
+	private String patient(String healthCardNumber) {
+		List<String[]> rows = new ArrayList<String[]>();
+		lock.readLock().lock();
+		try {
+			Patient patient = erAdmin.lookUpPatient(healthCardNumber);
+			if (patient == null)
+				return error("unknown patient " + healthCardNumber);
+			rows.add(new String[] {patient.getHealthCardNumber(), patient.getName(), patient.getDob(),
+					Integer.toString(patient.getUrgency()), patient.getCurrentERVisit() != null ? "1" : "0"});
+		} finally {
+			lock.readLock().unlock();
+		}
+		return ok(rows);
+	}
+
+	/**
+	 * Adds VitalSigns to a Patient's current ERVisit.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param sys The systolic blood pressure.
+	 * @param dia The diastolic blood pressure.
+	 * @param temp The temperature.
+	 * @param heartRate The heart rate.
+	 * @return The response, holding the Patient's new urgency.
+	 * @throws InvalidUserInputException if the vital signs are not reasonable.
+	 */
+	private String addVitals(String healthCardNumber, int sys, int dia, float temp, float heartRate)
+			throws InvalidUserInputException {
+		VitalSigns vitals = new VitalSigns(sys, dia, temp, heartRate);
+		List<String[]> rows = new ArrayList<String[]>();
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			Patient patient = erAdmin.lookUpPatient(healthCardNumber);
+			if (patient == null || patient.getCurrentERVisit() == null)
+				return error("patient " + healthCardNumber + " is not in the ER");
+			long sequenceBefore = dbAdapter.getLastChangeSequence();
+			long changesBefore = dbAdapter.getChangesLogged();
+			erAdmin.addPatientVitals(patient, vitals, dbAdapter);
+			afterMutation(sequenceBefore, changesBefore);
+			rows.add(new String[] {Integer.toString(patient.getUrgency())});
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return ok(rows);
+	}
+
+	/**
+	 * Signs in a Patient, sends them to a doctor, or closes their ERVisit.
+	 * @param command The SIGNIN, SEND or CLOSE command.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @return The response.
+	 */
+	private String changeVisit(String command, String healthCardNumber) {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			Patient patient = erAdmin.lookUpPatient(healthCardNumber);
+			if (patient == null)
+				return error("unknown patient " + healthCardNumber);
+			boolean inER = patient.getCurrentERVisit() != null;
+			long sequenceBefore = dbAdapter.getLastChangeSequence();
+			long changesBefore = dbAdapter.getChangesLogged();
+			if (command.equals(BoardProtocol.SIGN_IN)) {
+				if (inER)
+					return error("patient " + healthCardNumber + " is already in the ER");
+				erAdmin.signInPatient(healthCardNumber, dbAdapter);
+			} else if (!inER) {
+				return error("patient " + healthCardNumber + " is not in the ER");
+			} else if (command.equals(BoardProtocol.SEND_TO_DOCTOR)) {
+				if (patient.getCurrentERVisit().isSeenByDoctor())
+					return error("patient " + healthCardNumber + " was already sent to a doctor");
+				erAdmin.sendToDoctor(patient, dbAdapter);
+			} else {
+				erAdmin.closeCase(patient, dbAdapter);
+			}
+			afterMutation(sequenceBefore, changesBefore);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return ok(new ArrayList<String[]>());
+	}
+
+	/**
+	 * Registers or unregisters a Physician.
+	 * @param command The REGISTER or UNREGISTER command.
+	 * @param physician The username of the Physician.
+	 * @return The response.
+	 */
+	private String changePhysician(String command, String physician) {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			long sequenceBefore = dbAdapter.getLastChangeSequence();
+			long changesBefore = dbAdapter.getChangesLogged();
+			if (command.equals(BoardProtocol.REGISTER)) {
+				physicians.add(physician);
+				erAdmin.registerPhysician(physician, dbAdapter);
+			} else {
+				physicians.remove(physician);
+				erAdmin.unregisterPhysician(physician, dbAdapter);
+			}
+			afterMutation(sequenceBefore, changesBefore);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return ok(new ArrayList<String[]>());
+	}
+
+	/**
+	 * Takes the next Patient for a Physician to see.
+	 * @param physician The username of the Physician.
+	 * @return The response, holding the Patient's health card number and name, if one was waiting.
+	 */
+	private String takeNextPatient(String physician) {
+		List<String[]> rows = new ArrayList<String[]>();
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			long sequenceBefore = dbAdapter.getLastChangeSequence();
+			long changesBefore = dbAdapter.getChangesLogged();
+			Patient patient = erAdmin.takeNextPatient(physician, dbAdapter);
+			afterMutation(sequenceBefore, changesBefore);
+			if (patient != null)
+				rows.add(new String[] {patient.getHealthCardNumber(), patient.getName()});
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return ok(rows);
+	}
+
+	/**
+	 * Builds a successful response.
+	 * @param rows The lines of the response, as fields.
+	 * @return The response.
+	 */
+	private static String ok(List<String[]> rows) {
+		StringBuilder response = new StringBuilder();
+		response.append(BoardProtocol.OK).append(' ').append(rows.size()).append('\n');
+		for (String[] row : rows) {
+			for (int i = 0; i < row.length; i++) {
+				if (i > 0)
+					response.append(BoardProtocol.FIELD_SEPARATOR);
+				response.append(BoardProtocol.clean(row[i]));
+			}
+			response.append('\n');
+		}
+		return response.toString();
+	}
+
+	/**
+	 * Builds a failed response.
+	 * @param message The reason of the failure.
+	 * @return The response.
+	 */
+	private static String error(String message) {
+		return BoardProtocol.ERROR + " " + BoardProtocol.clean(message) + "\n";
+	}
+
+	/**
+	 * Closes a station's socket.
+	 * @param station The station's socket.
+	 */
+	private static void close(Socket station) {
+		try {
+			station.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Closing a station's socket failed", e);
+		}
+	}
+}
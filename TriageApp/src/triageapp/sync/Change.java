@@ -0,0 +1,424 @@
+package triageapp.sync;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import triageapp.components.Prescription;
+import triageapp.components.VitalSigns;
+
+
+/**
+ * One change made to the ER board by a device: a new Patient, a Patient signed
+ * in, VitalSigns or a Prescription added to an ERVisit, a Patient sent to a
+ * doctor, assigned to or taken by a Physician, or an ERVisit closed. A Change is identified by the device it was
+ * made on (its origin) and its sequence number on that device. An ERVisit is
+ * identified by its Patient's health card number and its arrival time, as the
+ * ids of the ERVisit table differ from one device to another.
+ */
+public final class Change {
+
+	/** A new Patient, with name and date of birth. */
+	public static final int PATIENT = 1;
+	/** A Patient signed in; the ERVisit's arrival time. */
+	public static final int SIGN_IN = 2;
+	/** VitalSigns added to an ERVisit. */
+	public static final int VITALS = 3;
+	/** A Prescription added to an ERVisit, with medication and instructions. */
+	public static final int PRESCRIPTION = 4;
+	/** A Patient sent to a doctor, with the time seen by the doctor. */
+	public static final int SEND_TO_DOCTOR = 5;
+	/** An ERVisit closed. */
+	public static final int CLOSE = 6;
+	/** A Patient sent to a doctor assigned to a Physician, or to none. */
+	public static final int ASSIGN = 7;
+	/** A Patient sent to a doctor taken by a Physician, with the time taken. */
+	public static final int TAKE = 8;
+
+	/** The device the Change was made on, or null until it is recorded. */
+	private final String origin;
+	/** The sequence number of the Change on its device, from 1, or 0 until it is recorded. */
+	private final long sequence;
+	/** The type of the Change. */
+	private final int type;
+	/** The health card number of the Patient. */
+	private final String healthCardNumber;
+	/** The arrival time of the ERVisit, or 0 for a new Patient. */
+	private final long visitArrival;
+	/** The time of the VitalSigns, the time seen by a doctor or the time taken by a Physician, or 0. */
+	private final long time;
+	/** The systolic and diastolic blood pressure of the VitalSigns, or 0. */
+	private final int systolic, diastolic;
+	/** The temperature and heart rate of the VitalSigns, or 0. */
+	private final float temperature, heartRate;
+	/** The Patient's name, the medication or the username of the Physician, or null. */
+	private final String text;
+	/** The Patient's date of birth or the instructions, or null. */
+	private final String detail;
+
+	/**
+	 * Constructs a Change.
+	 * @param origin The device the Change was made on, or null.
+	 * @param sequence The sequence number of the Change on its device, or 0.
+	 * @param type The type of the Change.
+	 * @param healthCardNumber The health card number of the Patient.
+	 * @param visitArrival The arrival time of the ERVisit, or 0.
+	 * @param time The time of the VitalSigns or the time seen by a doctor, or 0.
+	 * @param systolic The systolic blood pressure, or 0.
+	 * @param diastolic The diastolic blood pressure, or 0.
+	 * @param temperature The temperature, or 0.
+	 * @param heartRate The heart rate, or 0.
+	 * @param text The Patient's name, the medication or the username of the Physician, or null.
+	 * @param detail The Patient's date of birth or the instructions, or null.
+	 */
+	private Change(String origin, long sequence, int type, String healthCardNumber, long visitArrival,
+			long time, int systolic, int diastolic, float temperature, float heartRate, String text, String detail) {
+		this.origin = origin;
+		this.sequence = sequence;
+		this.type = type;
+		this.healthCardNumber = healthCardNumber;
+		this.visitArrival = visitArrival;
+		this.time = time;
+		this.systolic = systolic;
+		this.diastolic = diastolic;
+		this.temperature = temperature;
+		this.heartRate = heartRate;
+		this.text = text;
+		this.detail = detail;
+	}
+
+	/**
+	 * Returns the Change adding a new Patient.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param name The Patient's name.
+	 * @param dob The Patient's date of birth.
+	 * @return The Change.
+	 */
+	public static Change patient(String healthCardNumber, String name, String dob) {
+		return new Change(null, 0, PATIENT, healthCardNumber, 0, 0, 0, 0, 0, 0, name, dob);
+	}
+
+	/**
+	 * Returns the Change signing in a Patient.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param arrivalTime The arrival time of the new ERVisit.
+	 * @return The Change.
+	 */
+	public static Change signIn(String healthCardNumber, long arrivalTime) {
+		return new Change(null, 0, SIGN_IN, healthCardNumber, arrivalTime, 0, 0, 0, 0, 0, null, null);
+	}
+
+	/**
+	 * Returns the Change adding VitalSigns to an ERVisit.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param arrivalTime The arrival time of the ERVisit.
+	 * @param vitals The VitalSigns.
+	 * @return The Change.
+	 */
+	public static Change vitals(String healthCardNumber, long arrivalTime, VitalSigns vitals) {
+		return new Change(null, 0, VITALS, healthCardNumber, arrivalTime, vitals.getTimestamp(), vitals.getSystolic(),
+				vitals.getDiastolic(), vitals.getTemperature(), vitals.getHeartRate(), null, null);
+	}
+
+	/**
+	 * Returns the Change adding a Prescription to an ERVisit.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param arrivalTime The arrival time of the ERVisit.
+	 * @param prescription The Prescription.
+	 * @return The Change.
+	 */
+	public static Change prescription(String healthCardNumber, long arrivalTime, Prescription prescription) {
+		return new Change(null, 0, PRESCRIPTION, healthCardNumber, arrivalTime, 0, 0, 0, 0, 0,
+				prescription.getMedicationName(), prescription.getInstructions());
+	}
+
+	/**
+	 * Returns the Change sending a Patient to a doctor.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param arrivalTime The arrival time of the ERVisit.
+	 * @param timeSeenByDoctor The time the Patient was sent to the doctor.
+	 * @return The Change.
+	 */
+	public static Change sendToDoctor(String healthCardNumber, long arrivalTime, long timeSeenByDoctor) {
+		return new Change(null, 0, SEND_TO_DOCTOR, healthCardNumber, arrivalTime, timeSeenByDoctor, 0, 0, 0, 0, null, null);
+	}
+
+	/**
+	 * Returns the Change closing an ERVisit.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param arrivalTime The arrival time of the ERVisit.
+	 * @return The Change.
+	 */
+	public static Change close(String healthCardNumber, long arrivalTime) {
+		return new Change(null, 0, CLOSE, healthCardNumber, arrivalTime, 0, 0, 0, 0, 0, null, null);
+	}
+
+	/**
+	 * Returns the Change assigning a Patient sent to a doctor to a Physician.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param arrivalTime The arrival time of the ERVisit.
+	 * @param physician The username of the Physician, or null for no Physician.
+	 * @return The Change.
+	 */
+	public static Change assign(String healthCardNumber, long arrivalTime, String physician) {
+		return new Change(null, 0, ASSIGN, healthCardNumber, arrivalTime, 0, 0, 0, 0, 0, physician, null);
+	}
+
+	/**
+	 * Returns the Change of a Physician taking a Patient sent to a doctor.
+	 * @param healthCardNumber The Patient's health card number.
+	 * @param arrivalTime The arrival time of the ERVisit.
+	 * @param physician The username of the Physician.
+	 * @param timeTaken The time the Physician took the Patient.
+	 * @return The Change.
+	 */
+	public static Change take(String healthCardNumber, long arrivalTime, String physician, long timeTaken) {
+		return new Change(null, 0, TAKE, healthCardNumber, arrivalTime, timeTaken, 0, 0, 0, 0, physician, null);
+	}
+
+	/**
+	 * Returns this Change as recorded on a device.
+	 * @param origin The device.
+	 * @param sequence The sequence number of the Change on the device.
+	 * @return The recorded Change.
+	 */
+	Change recordedAs(String origin, long sequence) {
+		return new Change(origin, sequence, type, healthCardNumber, visitArrival, time,
+				systolic, diastolic, temperature, heartRate, text, detail);
+	}
+
+	/**
+	 * Writes this Change, except its origin which is written once per batch.
+	 * @param out The output.
+	 * @throws IOException if the output fails.
+	 */
+	void write(DataOutput out) throws IOException {
+		writeVarLong(out, sequence);
+		out.writeByte(type);
+		out.writeUTF(healthCardNumber);
+		if (type != PATIENT)
+			writeVarLong(out, visitArrival);
+		switch (type) {
+		case PATIENT:
+		case PRESCRIPTION:
+			out.writeUTF(text);
+			out.writeUTF(detail);
+			break;
+		case VITALS:
+			//The time is written relative to the arrival time, which is close.
+			writeVarLong(out, zigzag(time - visitArrival));
+			writeVarLong(out, systolic);
+			writeVarLong(out, diastolic);
+			out.writeFloat(temperature);
+			out.writeFloat(heartRate);
+			break;
+		case SEND_TO_DOCTOR:
+			writeVarLong(out, zigzag(time - visitArrival));
+			break;
+		case ASSIGN:
+			out.writeBoolean(text != null);
+			if (text != null)
+				out.writeUTF(text);
+			break;
+		case TAKE:
+			writeVarLong(out, zigzag(time - visitArrival));
+			out.writeUTF(text);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Reads a Change written by write().
+	 * @param in The input.
+	 * @param origin The origin of the Change.
+	 * @return The Change.
+	 * @throws IOException if the input fails or holds an unknown type of Change.
+	 */
+	static Change read(DataInput in, String origin) throws IOException {
+		long sequence = readVarLong(in);
+		int type = in.readByte();
+		String healthCardNumber = in.readUTF();
+		long visitArrival = type != PATIENT ? readVarLong(in) : 0;
+		switch (type) {
+		case PATIENT:
+		case PRESCRIPTION:
+			return new Change(origin, sequence, type, healthCardNumber, visitArrival, 0, 0, 0, 0, 0,
+					in.readUTF(), in.readUTF());
+		case VITALS:
+			long time = visitArrival + unzigzag(readVarLong(in));
+			int systolic = (int) readVarLong(in);
+			int diastolic = (int) readVarLong(in);
+			float temperature = in.readFloat();
+			return new Change(origin, sequence, type, healthCardNumber, visitArrival, time,
+					systolic, diastolic, temperature, in.readFloat(), null, null);
+		case SEND_TO_DOCTOR:
+			return new Change(origin, sequence, type, healthCardNumber, visitArrival,
+					visitArrival + unzigzag(readVarLong(in)), 0, 0, 0, 0, null, null);
+		case ASSIGN:
+			return new Change(origin, sequence, type, healthCardNumber, visitArrival, 0, 0, 0, 0, 0,
+					in.readBoolean() ? in.readUTF() : null, null);
+		case TAKE:
+			long timeTaken = visitArrival + unzigzag(readVarLong(in));
+			return new Change(origin, sequence, type, healthCardNumber, visitArrival, timeTaken, 0, 0, 0, 0,
+					in.readUTF(), null);
+		case SIGN_IN:
+		case CLOSE:
+			return new Change(origin, sequence, type, healthCardNumber, visitArrival, 0, 0, 0, 0, 0, null, null);
+		default:
+			throw new IOException("Unknown type of change " + type);
+		}
+	}
+
+	/**
+	 * Maps a signed number to an unsigned one, so that numbers close to 0 stay small.
+	 * @param value The signed number.
+	 * @return The unsigned number.
+	 */
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Maps back a number mapped by zigzag().
+	 * @param value The unsigned number.
+	 * @return The signed number.
+	 */
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes a non negative number in as few bytes as it needs, 7 bits per byte.
+	 * @param out The output.
+	 * @param value The number.
+	 * @throws IOException if the output fails.
+	 */
+	private static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Reads a number written by writeVarLong().
+	 * @param in The input.
+	 * @return The number.
+	 * @throws IOException if the input fails.
+	 */
+	private static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+	}
+
+	/**
+	 * Gets the device this Change was made on.
+	 * @return The device, or null if the Change is not recorded.
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Gets the sequence number of this Change on its device.
+	 * @return The sequence number, or 0 if the Change is not recorded.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the type of this Change.
+	 * @return PATIENT, SIGN_IN, VITALS, PRESCRIPTION, SEND_TO_DOCTOR, CLOSE, ASSIGN or TAKE.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the health card number of the Patient.
+	 * @return The health card number.
+	 */
+	public String getHealthCardNumber() {
+		return healthCardNumber;
+	}
+
+	/**
+	 * Gets the arrival time identifying the ERVisit.
+	 * @return The arrival time, or 0 for a new Patient.
+	 */
+	public long getVisitArrival() {
+		return visitArrival;
+	}
+
+	/**
+	 * Gets the time of the VitalSigns, the time the Patient was seen by a doctor,
+	 * or the time a Physician took the Patient.
+	 * @return The time, or 0.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Gets the systolic blood pressure of the VitalSigns.
+	 * @return The systolic blood pressure.
+	 */
+	public int getSystolic() {
+		return systolic;
+	}
+
+	/**
+	 * Gets the diastolic blood pressure of the VitalSigns.
+	 * @return The diastolic blood pressure.
+	 */
+	public int getDiastolic() {
+		return diastolic;
+	}
+
+	/**
+	 * Gets the temperature of the VitalSigns.
+	 * @return The temperature.
+	 */
+	public float getTemperature() {
+		return temperature;
+	}
+
+	/**
+	 * Gets the heart rate of the VitalSigns.
+	 * @return The heart rate.
+	 */
+	public float getHeartRate() {
+		return heartRate;
+	}
+
+	/**
+	 * Gets the Patient's name, the medication of the Prescription, or the
+	 * username of the Physician assigned to or taking the Patient.
+	 * @return The name, medication or username, or null.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Gets the Patient's date of birth, or the instructions of the Prescription.
+	 * @return The date of birth or instructions, or null.
+	 */
+	public String getDetail() {
+		return detail;
+	}
+
+	@Override
+	public String toString() {
+		return origin + ":" + sequence + " " + type + " " + healthCardNumber + "@" + visitArrival;
+	}
+}
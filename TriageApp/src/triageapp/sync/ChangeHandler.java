@@ -0,0 +1,16 @@
+package triageapp.sync;
+
+import triageapp.components.InvalidUserInputException;
+
+
+/** Applies the Changes received from other devices to this device's board. */
+public interface ChangeHandler {
+
+	/**
+	 * Applies a Change. Applying a Change which no longer applies (e.g. VitalSigns
+	 * of an ERVisit closed on this device) does nothing.
+	 * @param change The Change.
+	 * @throws InvalidUserInputException if the Change holds invalid data.
+	 */
+	void apply(Change change) throws InvalidUserInputException;
+}
@@ -0,0 +1,365 @@
+package triageapp.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import triageapp.database.TriageDBAdapter;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+
+
+/**
+ * The Changes known to a device, in the order they were applied on it: its own
+ * Changes, and those received from other devices. As a device applies the
+ * Changes it receives before making its own, this order never puts a Change
+ * before one it depends on (e.g. VitalSigns before the sign in of their ERVisit).
+ * The log of the device is kept in the database (see open()), so that it keeps
+ * its origin and its Changes when the app restarts. Once every device has
+ * seen a Change, it is trimmed from the log; only the VersionVector
+ * remembers it. So that the log stays bounded while no other device
+ * synchronizes (or one stops), it keeps at most MAX_CHANGES Changes: the
+ * oldest are trimmed even if a device has not seen them, and that device
+ * must then be brought up to date otherwise, e.g. from a copy of the database.
+ */
+public class ChangeLog {
+
+	/** The most Changes kept in a log. */
+	public static final int MAX_CHANGES = 10000;
+	/** The number of Changes trimmed at once when the log is full, so that it is not trimmed on every Change. */
+	private static final int TRIM_CHANGES = MAX_CHANGES / 10;
+
+	/** The log of this device, recording the changes made through ERAdmin. */
+	private static ChangeLog local;
+	/** Set on the threads applying received Changes, which must not be recorded again. */
+	private static final ThreadLocal<Boolean> APPLYING = new ThreadLocal<Boolean>();
+
+	/** Keeps the Changes of a ChangeLog. */
+	interface Store {
+		/**
+		 * Appends a Change.
+		 * @param change The recorded Change.
+		 */
+		void append(Change change);
+
+		/**
+		 * Returns the Changes another device has not seen, in the order they were appended.
+		 * @param seen The VersionVector of the other device.
+		 * @return The Changes.
+		 */
+		List<Change> changesSince(VersionVector seen);
+
+		/**
+		 * Deletes the Changes seen.
+		 * @param seen The Changes seen by every device.
+		 */
+		void trim(VersionVector seen);
+
+		/**
+		 * Deletes the oldest Changes, whatever their origin.
+		 * @param count The number of Changes to delete.
+		 */
+		void trimOldest(int count);
+
+		/**
+		 * Counts the Changes kept.
+		 * @return The number of Changes.
+		 */
+		int size();
+	}
+
+	/** Keeps the Changes in memory. */
+	private static final class MemoryStore implements Store {
+		/** The Changes, in the order they were appended. */
+		private final List<Change> changes = new ArrayList<Change>();
+
+		@Override
+		public void append(Change change) {
+			changes.add(change);
+		}
+
+		@Override
+		public List<Change> changesSince(VersionVector seen) {
+			List<Change> missing = new ArrayList<Change>();
+			for (Change change : changes) {
+				if (!seen.contains(change))
+					missing.add(change);
+			}
+			return missing;
+		}
+
+		@Override
+		public void trim(VersionVector seen) {
+			for (Iterator<Change> iterator = changes.iterator(); iterator.hasNext(); ) {
+				if (seen.contains(iterator.next()))
+					iterator.remove();
+			}
+		}
+
+		@Override
+		public void trimOldest(int count) {
+			changes.subList(0, Math.min(count, changes.size())).clear();
+		}
+
+		@Override
+		public int size() {
+			return changes.size();
+		}
+	}
+
+	/** Keeps the Changes in the SyncChange table of the database. */
+	private static final class DatabaseStore implements Store {
+		/** The database adapter (helper), open. */
+		private final TriageDBAdapter dbAdapter;
+
+		/**
+		 * Constructs a DatabaseStore.
+		 * @param dbAdapter The database adapter (helper), open.
+		 */
+		DatabaseStore(TriageDBAdapter dbAdapter) {
+			this.dbAdapter = dbAdapter;
+		}
+
+		@Override
+		public void append(Change change) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try {
+				change.write(new DataOutputStream(bytes));
+			} catch (IOException e) {
+				//Writing to memory does not fail.
+				throw new IllegalStateException(e);
+			}
+			if (!dbAdapter.createSyncChange(change.getOrigin(), change.getSequence(), bytes.toByteArray()))
+				throw new SQLException("Cannot record the change " + change);
+		}
+
+		@Override
+		public List<Change> changesSince(VersionVector seen) {
+			List<Change> missing = new ArrayList<Change>();
+			Cursor cursor = dbAdapter.fetchSyncChanges();
+			try {
+				for (boolean hasItem = cursor.moveToFirst(); hasItem; hasItem = cursor.moveToNext()) {
+					String origin = cursor.getString(0);
+					if (cursor.getLong(1) <= seen.get(origin))
+						continue;
+					try {
+						missing.add(Change.read(new DataInputStream(new ByteArrayInputStream(cursor.getBlob(2))), origin));
+					} catch (IOException e) {
+						throw new SQLException("Corrupt change " + origin + ":" + cursor.getLong(1));
+					}
+				}
+			} finally {
+				cursor.close();
+			}
+			return missing;
+		}
+
+		@Override
+		public void trim(VersionVector seen) {
+			for (String origin : seen.origins())
+				dbAdapter.deleteSyncChanges(origin, seen.get(origin));
+		}
+
+		@Override
+		public void trimOldest(int count) {
+			dbAdapter.deleteOldestSyncChanges(count);
+		}
+
+		@Override
+		public int size() {
+			return dbAdapter.countSyncChanges();
+		}
+	}
+
+	/** The origin of the Changes made on this device. */
+	private final String origin;
+	/** The Changes not yet trimmed. */
+	private final Store store;
+	/** The Changes in the log, trimmed or not. */
+	private final VersionVector version;
+	/** The number of Changes in the store. */
+	private int kept;
+
+	/**
+	 * Constructs an empty ChangeLog kept in memory.
+	 * @param origin The origin of the Changes made on this device.
+	 */
+	public ChangeLog(String origin) {
+		this(origin, new MemoryStore(), new VersionVector());
+	}
+
+	/**
+	 * Constructs a ChangeLog.
+	 * @param origin The origin of the Changes made on this device.
+	 * @param store The Changes not yet trimmed.
+	 * @param version The Changes in the log.
+	 */
+	private ChangeLog(String origin, Store store, VersionVector version) {
+		this.origin = origin;
+		this.store = store;
+		this.version = version;
+		this.kept = store.size();
+	}
+
+	/**
+	 * Opens the ChangeLog kept in a database, choosing the origin of the
+	 * device the first time.
+	 * @param dbAdapter The database adapter (helper), open for as long as the log is used.
+	 * @return The ChangeLog.
+	 */
+	public static ChangeLog open(TriageDBAdapter dbAdapter) {
+		String origin = null;
+		VersionVector version = new VersionVector();
+		Cursor cursor = dbAdapter.fetchSyncVersion();
+		try {
+			for (boolean hasItem = cursor.moveToFirst(); hasItem; hasItem = cursor.moveToNext()) {
+				version.advance(cursor.getString(0), cursor.getLong(1));
+				if (cursor.getInt(2) == 1)
+					origin = cursor.getString(0);
+			}
+		} finally {
+			cursor.close();
+		}
+		if (origin == null) {
+			origin = UUID.randomUUID().toString().substring(0, 8);
+			if (!dbAdapter.createLocalSyncOrigin(origin))
+				throw new SQLException("Cannot record the origin of this device");
+		}
+		return new ChangeLog(origin, new DatabaseStore(dbAdapter), version);
+	}
+
+	/**
+	 * Opens the log of this device in the app's database, on its own connection,
+	 * unless it is open already. Called once the database exists.
+	 * @param context The context to use to open the database.
+	 */
+	public static synchronized void openLocal(Context context) {
+		if (local != null && local.store instanceof DatabaseStore)
+			return;
+		TriageDBAdapter dbAdapter = new TriageDBAdapter(context.getApplicationContext());
+		dbAdapter.open();
+		local = open(dbAdapter);
+	}
+
+	/**
+	 * Gets the log of this device. Until openLocal() is called (e.g. in tests),
+	 * it is kept in memory, with a new origin.
+	 * @return The ChangeLog of this device.
+	 */
+	public static synchronized ChangeLog local() {
+		if (local == null)
+			local = new ChangeLog(UUID.randomUUID().toString().substring(0, 8));
+		return local;
+	}
+
+	/**
+	 * Records a Change made on this device, unless the current thread is
+	 * applying a Change received from another device.
+	 * @param change The Change.
+	 * @return The recorded Change, or null if it was not recorded.
+	 */
+	public synchronized Change record(Change change) {
+		if (APPLYING.get() != null)
+			return null;
+		Change recorded = change.recordedAs(origin, version.get(origin) + 1);
+		append(recorded);
+		return recorded;
+	}
+
+	/**
+	 * Returns whether a Change received from another device is the next
+	 * Change of its origin, so that it must be applied.
+	 * @param change The Change.
+	 * @return true iff the Change follows the last Change of its origin.
+	 */
+	public synchronized boolean isNext(Change change) {
+		return change.getSequence() == version.get(change.getOrigin()) + 1;
+	}
+
+	/**
+	 * Adds a Change received from another device, once it has been applied.
+	 * @param change The Change.
+	 * @return false if the Change was already in the log, or does not follow
+	 * the last Change of its origin.
+	 */
+	synchronized boolean add(Change change) {
+		if (!isNext(change))
+			return false;
+		append(change);
+		return true;
+	}
+
+	/**
+	 * Appends a Change to the store, then trims the oldest Changes if there
+	 * are more than MAX_CHANGES.
+	 * @param change The recorded Change.
+	 */
+	private void append(Change change) {
+		store.append(change);
+		version.advance(change.getOrigin(), change.getSequence());
+		if (++kept > MAX_CHANGES) {
+			store.trimOldest(kept - MAX_CHANGES + TRIM_CHANGES);
+			kept = store.size();
+		}
+	}
+
+	/**
+	 * Returns the Changes another device has not seen, in the order they were
+	 * applied. Changes already trimmed are not returned.
+	 * @param seen The VersionVector of the other device.
+	 * @return The Changes missing from the other device.
+	 */
+	public synchronized List<Change> changesSince(VersionVector seen) {
+		return store.changesSince(seen);
+	}
+
+	/**
+	 * Deletes the Changes every device has seen.
+	 * @param seen The Changes seen by every device.
+	 */
+	synchronized void trim(VersionVector seen) {
+		store.trim(seen);
+		kept = store.size();
+	}
+
+	/**
+	 * Gets the Changes in this log.
+	 * @return A copy of the VersionVector of this log.
+	 */
+	public synchronized VersionVector getVersion() {
+		return version.copy();
+	}
+
+	/**
+	 * Gets the origin of the Changes made on this device.
+	 * @return The origin.
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Gets the number of Changes in this log, not yet trimmed.
+	 * @return The number of Changes.
+	 */
+	public synchronized int size() {
+		return store.size();
+	}
+
+	/** Stops recording the Changes made on the current thread, while it applies received Changes. */
+	static void beginApplying() {
+		APPLYING.set(Boolean.TRUE);
+	}
+
+	/** Records the Changes made on the current thread again. */
+	static void endApplying() {
+		APPLYING.remove();
+	}
+}
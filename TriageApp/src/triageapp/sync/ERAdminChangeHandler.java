@@ -0,0 +1,90 @@
+package triageapp.sync;
+
+import triageapp.components.ERAdmin;
+import triageapp.components.ERVisit;
+import triageapp.components.InvalidUserInputException;
+import triageapp.components.Patient;
+import triageapp.components.Prescription;
+import triageapp.components.VitalSigns;
+import triageapp.database.TriageDBAdapter;
+
+
+/**
+ * Applies the Changes received from other devices through an ERAdmin, so
+ * that they reach both the board and the database of this device.
+ * A Change for an ERVisit is only applied if it is the Patient's current
+ * ERVisit (same arrival time). When two devices sign in the same Patient
+ * at once, the ERVisit which arrived last wins on every device, whatever
+ * the order the sign ins are received in: a sign in is ignored unless it
+ * arrived after every ERVisit of the Patient known to this device, open or
+ * closed, and it replaces the Patient's current ERVisit if there is one.
+ * Two ERVisits with the same arrival time are the same ERVisit, as Changes
+ * identify an ERVisit by its Patient and arrival time.
+ * A Patient sent to the doctor waits for the Physician of the last
+ * assignment received, until taken; when two Physicians take them at once,
+ * the one who took them first keeps them (see ERAdmin.takePatient).
+ */
+public class ERAdminChangeHandler implements ChangeHandler {
+
+	/** The ERAdmin of this device. */
+	private final ERAdmin erAdmin;
+	/** The database adapter (helper). */
+	private final TriageDBAdapter dbAdapter;
+
+	/**
+	 * Constructs an ERAdminChangeHandler.
+	 * @param erAdmin The ERAdmin of this device.
+	 * @param dbAdapter The database adapter (helper).
+	 */
+	public ERAdminChangeHandler(ERAdmin erAdmin, TriageDBAdapter dbAdapter) {
+		this.erAdmin = erAdmin;
+		this.dbAdapter = dbAdapter;
+	}
+
+	@Override
+	public void apply(Change change) throws InvalidUserInputException {
+		Patient patient = erAdmin.lookUpPatient(change.getHealthCardNumber());
+		if (change.getType() == Change.PATIENT) {
+			if (patient == null)
+				erAdmin.registerPatient(change.getText(), change.getDetail(), change.getHealthCardNumber(), dbAdapter);
+			return;
+		}
+		if (patient == null)
+			return;
+		ERVisit visit = patient.getCurrentERVisit();
+		if (change.getType() == Change.SIGN_IN) {
+			if (change.getVisitArrival() <= dbAdapter.getLastArrivalTime(change.getHealthCardNumber()))
+				return;
+			if (visit != null)
+				erAdmin.discardCurrentERVisit(patient, dbAdapter);
+			erAdmin.signInPatient(change.getHealthCardNumber(), change.getVisitArrival(), dbAdapter);
+			return;
+		}
+		if (visit == null || visit.getArrivalTime() != change.getVisitArrival())
+			return;
+		switch (change.getType()) {
+		case Change.VITALS:
+			erAdmin.addPatientVitals(patient, new VitalSigns(change.getSystolic(), change.getDiastolic(),
+					change.getTemperature(), change.getHeartRate(), change.getTime()), dbAdapter);
+			break;
+		case Change.PRESCRIPTION:
+			erAdmin.addPatientPrescription(patient, new Prescription(change.getText(), change.getDetail()), dbAdapter);
+			break;
+		case Change.SEND_TO_DOCTOR:
+			if (!visit.isSeenByDoctor())
+				erAdmin.sendToDoctor(patient, change.getTime(), dbAdapter);
+			break;
+		case Change.ASSIGN:
+			erAdmin.assignPatient(patient, change.getText(), dbAdapter);
+			break;
+		case Change.TAKE:
+			erAdmin.takePatient(patient, change.getText(), change.getTime(), dbAdapter);
+			break;
+		case Change.CLOSE:
+			erAdmin.closeCase(patient, dbAdapter);
+			break;
+		default:
+			break;
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package triageapp.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import triageapp.components.InvalidUserInputException;
+import android.util.Log;
+
+
+/**
+ * Keeps the board of this device in step with other devices by exchanging
+ * only the Changes they have not seen. When two devices meet, each tells
+ * the other its VersionVector (getVersion(), acknowledge()). From then on,
+ * each device keeps the VersionVector of the other up to date itself:
+ * 		batchesFor(peer) returns the Changes the other device is missing, and
+ * 		counts them as seen by it,
+ * 		receive(peer, batch) applies the Changes of a batch, and counts
+ * 		them as seen by the device which sent them,
+ * so that a synchronization with no new Changes exchanges nothing. If a
+ * batch is lost, acknowledge() is called again with the other device's
+ * VersionVector. Batches are compressed, and receiving a batch twice, or a
+ * Change through two devices, applies it once. A Change which cannot be
+ * applied is not added to the ChangeLog: the batch is rejected from it on,
+ * and the Change is applied again when the batch is received again. The Changes every other device
+ * has seen are trimmed from the ChangeLog; a device which is not known yet
+ * (never acknowledged since this one started) does not hold them back.
+ */
+public class SyncPeer {
+
+	/** The largest number of Changes in a batch. */
+	public static final int MAX_BATCH_CHANGES = 256;
+	/** The version of the batch format, written as the first byte of a batch. */
+	private static final int FORMAT_VERSION = 3;
+	/** The tag of the log messages. */
+	private static final String TAG = "SyncPeer";
+
+	/** The Changes known to this device. */
+	private final ChangeLog log;
+	/** Applies the received Changes to this device's board. */
+	private final ChangeHandler handler;
+	/** The Changes seen by the other devices, by origin of the device. */
+	private final Map<String, VersionVector> peers = new HashMap<String, VersionVector>();
+
+	/**
+	 * Constructs a SyncPeer.
+	 * @param log The Changes known to this device.
+	 * @param handler Applies the received Changes to this device's board.
+	 */
+	public SyncPeer(ChangeLog log, ChangeHandler handler) {
+		this.log = log;
+		this.handler = handler;
+	}
+
+	/**
+	 * Gets the Changes known to this device, to send to another device.
+	 * @return The VersionVector of this device.
+	 */
+	public VersionVector getVersion() {
+		return log.getVersion();
+	}
+
+	/**
+	 * Gets the ChangeLog of this device.
+	 * @return The ChangeLog.
+	 */
+	public ChangeLog getLog() {
+		return log;
+	}
+
+	/**
+	 * Records the Changes another device has seen, e.g. when it connects.
+	 * @param peer The origin of the other device.
+	 * @param seen The VersionVector of the other device.
+	 */
+	public synchronized void acknowledge(String peer, VersionVector seen) {
+		peers.put(peer, seen.copy());
+		trim();
+	}
+
+	/**
+	 * Returns the batches of Changes another device has not seen, and counts
+	 * them as seen by it.
+	 * @param peer The origin of the other device, which must have been acknowledged.
+	 * @return The compressed batches, in the order they must be received; empty
+	 * if the other device is up to date.
+	 * @throws IOException if a batch cannot be written.
+	 */
+	public synchronized List<byte[]> batchesFor(String peer) throws IOException {
+		VersionVector seen = peers.get(peer);
+		if (seen == null)
+			throw new IllegalStateException("Unknown device " + peer);
+		List<byte[]> batches = batchesFor(seen);
+		seen.merge(log.getVersion());
+		trim();
+		return batches;
+	}
+
+	/**
+	 * Returns the batches of Changes another device has not seen.
+	 * @param seen The VersionVector of the other device.
+	 * @return The compressed batches, in the order they must be received; empty
+	 * if the other device is up to date.
+	 * @throws IOException if a batch cannot be written.
+	 */
+	public List<byte[]> batchesFor(VersionVector seen) throws IOException {
+		List<Change> missing = log.changesSince(seen);
+		List<byte[]> batches = new ArrayList<byte[]>();
+		for (int from = 0; from < missing.size(); from += MAX_BATCH_CHANGES)
+			batches.add(encode(missing.subList(from, Math.min(from + MAX_BATCH_CHANGES, missing.size()))));
+		return batches;
+	}
+
+	/**
+	 * Applies the Changes of a batch sent by another device, which has seen
+	 * them, then trims those every other device has seen.
+	 * @param peer The origin of the other device.
+	 * @param batch A batch from batchesFor().
+	 * @return The number of Changes applied.
+	 * @throws IOException if the batch is corrupt, or one of its Changes cannot be applied.
+	 */
+	public synchronized int receive(String peer, byte[] batch) throws IOException {
+		List<Change> changes = decode(batch);
+		VersionVector seen = peers.get(peer);
+		if (seen != null) {
+			for (Change change : changes)
+				seen.advance(change.getOrigin(), change.getSequence());
+		}
+		int applied = apply(changes);
+		if (seen != null)
+			trim();
+		return applied;
+	}
+
+	/**
+	 * Applies the Changes of a batch this device has not seen yet.
+	 * @param batch A batch from batchesFor().
+	 * @return The number of Changes applied.
+	 * @throws IOException if the batch is corrupt, or one of its Changes cannot be applied.
+	 */
+	public synchronized int receive(byte[] batch) throws IOException {
+		return apply(decode(batch));
+	}
+
+	/**
+	 * Applies the Changes this device has not seen yet, up to the first one
+	 * which cannot be applied.
+	 * @param changes The Changes, in the order they were applied on their device.
+	 * @return The number of Changes applied.
+	 * @throws IOException if a Change cannot be applied.
+	 */
+	private int apply(List<Change> changes) throws IOException {
+		int applied = 0;
+		ChangeLog.beginApplying();
+		try {
+			for (Change change : changes) {
+				//Skips the Changes already applied, and those arriving out of order.
+				if (!log.isNext(change))
+					continue;
+				try {
+					handler.apply(change);
+				} catch (InvalidUserInputException e) {
+					//Only the Changes applied are added, so that this one is tried again.
+					Log.e(TAG, "Cannot apply the change " + change, e);
+					throw new IOException("Cannot apply the change " + change, e);
+				}
+				log.add(change);
+				applied++;
+			}
+		} finally {
+			ChangeLog.endApplying();
+		}
+		return applied;
+	}
+
+	/** Trims the Changes every other device has seen from the ChangeLog. */
+	private void trim() {
+		VersionVector seenByAll = null;
+		for (VersionVector seen : peers.values()) {
+			if (seenByAll == null)
+				seenByAll = log.getVersion();
+			seenByAll.retain(seen);
+		}
+		if (seenByAll != null)
+			log.trim(seenByAll);
+	}
+
+	/**
+	 * Encodes and compresses a batch of Changes. The origins of the Changes
+	 * are written once, before the Changes, which refer to them by index: a
+	 * batch has at most MAX_BATCH_CHANGES Changes, so an index fits in a byte,
+	 * but not their number.
+	 * @param changes The Changes.
+	 * @return The batch.
+	 * @throws IOException if the batch cannot be written.
+	 */
+	static byte[] encode(List<Change> changes) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater));
+		out.writeByte(FORMAT_VERSION);
+		List<String> origins = new ArrayList<String>();
+		for (Change change : changes) {
+			if (!origins.contains(change.getOrigin()))
+				origins.add(change.getOrigin());
+		}
+		out.writeInt(origins.size());
+		for (String origin : origins)
+			out.writeUTF(origin);
+		out.writeShort(changes.size());
+		for (Change change : changes) {
+			out.writeByte(origins.indexOf(change.getOrigin()));
+			change.write(out);
+		}
+		out.close();
+		deflater.end();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decompresses and decodes a batch of Changes.
+	 * @param batch The batch.
+	 * @return The Changes.
+	 * @throws IOException if the batch is corrupt.
+	 */
+	static List<Change> decode(byte[] batch) throws IOException {
+		DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(batch)));
+		try {
+			int version = in.readUnsignedByte();
+			if (version != FORMAT_VERSION)
+				throw new IOException("Unknown batch format " + version);
+			int originCount = in.readInt();
+			if (originCount < 0 || originCount > MAX_BATCH_CHANGES)
+				throw new IOException("Too many origins " + originCount);
+			String[] origins = new String[originCount];
+			for (int i = 0; i < origins.length; i++)
+				origins[i] = in.readUTF();
+			int count = in.readUnsignedShort();
+			List<Change> changes = new ArrayList<Change>(count);
+			for (int i = 0; i < count; i++) {
+				int origin = in.readUnsignedByte();
+				if (origin >= origins.length)
+					throw new IOException("Unknown origin " + origin);
+				changes.add(Change.read(in, origins[origin]));
+			}
+			return changes;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package triageapp.sync;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * The Changes a device has seen: for every origin, the sequence number of the
+ * last Change of that origin applied on the device. As the Changes of an
+ * origin are applied in order, every Change with a smaller sequence number
+ * has been applied too.
+ */
+public class VersionVector {
+
+	/** The last sequence number seen, by origin. */
+	private final Map<String, Long> sequences = new HashMap<String, Long>();
+
+	/**
+	 * Gets the last sequence number seen from an origin.
+	 * @param origin The origin.
+	 * @return The sequence number, or 0 if no Change of the origin was seen.
+	 */
+	public long get(String origin) {
+		Long sequence = sequences.get(origin);
+		return sequence == null ? 0 : sequence.longValue();
+	}
+
+	/**
+	 * Records that a Change was seen.
+	 * @param origin The origin of the Change.
+	 * @param sequence The sequence number of the Change.
+	 */
+	void advance(String origin, long sequence) {
+		if (sequence > get(origin))
+			sequences.put(origin, Long.valueOf(sequence));
+	}
+
+	/**
+	 * Records that every Change seen by another VersionVector was seen.
+	 * @param other The other VersionVector.
+	 */
+	void merge(VersionVector other) {
+		for (Map.Entry<String, Long> entry : other.sequences.entrySet())
+			advance(entry.getKey(), entry.getValue().longValue());
+	}
+
+	/**
+	 * Keeps, for every origin, the smaller of the sequence numbers seen by this
+	 * and another VersionVector, so that this one holds the Changes both have seen.
+	 * @param other The other VersionVector.
+	 */
+	void retain(VersionVector other) {
+		for (Iterator<Map.Entry<String, Long>> iterator = sequences.entrySet().iterator(); iterator.hasNext(); ) {
+			Map.Entry<String, Long> entry = iterator.next();
+			long sequence = other.get(entry.getKey());
+			if (sequence == 0)
+				iterator.remove();
+			else if (sequence < entry.getValue().longValue())
+				entry.setValue(Long.valueOf(sequence));
+		}
+	}
+
+	/**
+	 * Gets the origins of the Changes seen.
+	 * @return The origins.
+	 */
+	public Set<String> origins() {
+		return Collections.unmodifiableSet(sequences.keySet());
+	}
+
+	/**
+	 * Returns whether a Change was seen.
+	 * @param change The Change.
+	 * @return true iff the Change was seen.
+	 */
+	public boolean contains(Change change) {
+		return change.getSequence() <= get(change.getOrigin());
+	}
+
+	/**
+	 * Returns a copy of this VersionVector.
+	 * @return The copy.
+	 */
+	public VersionVector copy() {
+		VersionVector copy = new VersionVector();
+		copy.sequences.putAll(sequences);
+		return copy;
+	}
+
+	/**
+	 * Writes this VersionVector.
+	 * @param out The output.
+	 * @throws IOException if the output fails.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeShort(sequences.size());
+		for (Map.Entry<String, Long> entry : sequences.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeLong(entry.getValue().longValue());
+		}
+	}
+
+	/**
+	 * Reads a VersionVector written by write().
+	 * @param in The input.
+	 * @return The VersionVector.
+	 * @throws IOException if the input fails.
+	 */
+	public static VersionVector read(DataInput in) throws IOException {
+		VersionVector vector = new VersionVector();
+		int size = in.readUnsignedShort();
+		for (int i = 0; i < size; i++)
+			vector.sequences.put(in.readUTF(), Long.valueOf(in.readLong()));
+		return vector;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof VersionVector && sequences.equals(((VersionVector) other).sequences);
+	}
+
+	@Override
+	public int hashCode() {
+		return sequences.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return sequences.toString();
+	}
+}
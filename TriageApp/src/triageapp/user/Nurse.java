@@ -8,6 +8,8 @@ import triageapp.components.InvalidUserInputException;
 import triageapp.components.Patient;
 import triageapp.components.VitalSigns;
 import triageapp.database.TriageDBAdapter;
+import triageapp.metrics.Span;
+import triageapp.metrics.Tracer;
 
 
 /** Nurse is a User of the system. */
@@ -64,6 +66,11 @@ public class Nurse extends User implements Serializable {
      * @param mDbHelper The database adapter (helper).
      */
 	public void addPatientVitals(ERAdmin eradmin, Patient patient, VitalSigns vitals, TriageDBAdapter mDbHelper){
-		eradmin.addPatientVitals(patient, vitals, mDbHelper);
+		Span span = Tracer.begin("nurse.addPatientVitals");
+		try {
+			eradmin.addPatientVitals(patient, vitals, mDbHelper);
+		} finally {
+			span.end();
+		}
 	}
 }
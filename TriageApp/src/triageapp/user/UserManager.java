@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.util.Scanner;
 
 import triageapp.database.TriageDBAdapter;
+import triageapp.metrics.CountingInputStream;
 
 
 import android.database.Cursor;
@@ -53,7 +54,7 @@ public class UserManager implements Serializable{
 	 */
 	public void loadUserInformation(TriageDBAdapter dbAdapter){
 		try{
-			Scanner scanner = new Scanner(getClass().getResourceAsStream(PASSWORDS_PATH));
+			Scanner scanner = new Scanner(new CountingInputStream(getClass().getResourceAsStream(PASSWORDS_PATH)));
             String nxt_line;
             String[] tokens;
             while (scanner.hasNextLine()){
@@ -0,0 +1,198 @@
+package triageapp.analytics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks that VisitAnalytics computes the same VisitReport on any number of
+ * threads, and that the VisitReport counts every ERVisit of its range once.
+ */
+public class VisitAnalyticsTest extends TestCase {
+
+	/** The number of ERVisits a day. */
+	private static final int VISITS_PER_DAY = 300;
+	/** The number of days of history, enough for several chunks per thread. */
+	private static final int DAYS = 2 * 365;
+	/** The number of different medications prescribed. */
+	private static final int MEDICATIONS = 200;
+	/** The number of milliseconds in a minute. */
+	private static final long MINUTE_MILLIS = 60 * 1000L;
+	/** The number of milliseconds in a day. */
+	private static final long DAY_MILLIS = 24 * VisitReport.HOUR_MILLIS;
+	/** The time the history starts. */
+	private static final long START = 1104537600000L;
+	/** The end of the history. */
+	private static final long END = START + DAYS * DAY_MILLIS;
+	/** The number of threads of the parallel VisitAnalytics. */
+	private static final int THREADS = 8;
+
+	/** The VisitHistory, shared by the tests as it takes a while to build. */
+	private static VisitHistory history;
+
+	/** The VisitAnalytics on one thread. */
+	private VisitAnalytics sequential;
+	/** The VisitAnalytics on THREADS threads. */
+	private VisitAnalytics parallel;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (history == null)
+			history = makeHistory(new Random(5));
+		sequential = new VisitAnalytics(1);
+		parallel = new VisitAnalytics(THREADS);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		sequential.shutdown();
+		parallel.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * Checks that the VisitReports of the whole history and of its last month
+	 * are the same on one thread and on THREADS threads.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	public void testParallelMatchesSequential() throws InterruptedException {
+		assertSameReport(sequential.analyze(history, START, END), parallel.analyze(history, START, END));
+		long monthStart = END - 30 * DAY_MILLIS;
+		assertSameReport(sequential.analyze(history, monthStart, END), parallel.analyze(history, monthStart, END));
+	}
+
+	/**
+	 * Checks that the VisitReport of the whole history counts every ERVisit
+	 * and every Prescription once.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	public void testTotals() throws InterruptedException {
+		VisitReport report = parallel.analyze(history, START, END);
+		assertEquals(history.size(), report.getVisits());
+		assertEquals(DAYS * 24, report.getArrivalsPerHour().length);
+		assertEquals(history.size(), sum(report.getArrivalsPerHour()));
+		long urgencies = 0;
+		for (int urgency = 0; urgency < 5; urgency++)
+			urgencies += report.getUrgencyCount(urgency);
+		assertEquals(history.size(), urgencies);
+		assertEquals(history.size(), report.getLengthOfStay().getCount());
+		long prescriptions = 0;
+		for (String name : report.getTopMedications(MEDICATIONS))
+			prescriptions += report.getPrescriptionCount(name);
+		assertEquals(history.getPrescriptionStart(history.size()), prescriptions);
+	}
+
+	/**
+	 * Checks that the VisitReport of one month counts exactly the ERVisits that
+	 * arrived in it.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	public void testRange() throws InterruptedException {
+		long from = START + 100 * DAY_MILLIS + VisitReport.HOUR_MILLIS / 2;
+		long to = from + 30 * DAY_MILLIS;
+		int expected = 0;
+		for (int visit = 0; visit < history.size(); visit++) {
+			if (history.getArrivalTime(visit) >= from && history.getArrivalTime(visit) < to)
+				expected++;
+		}
+		VisitReport report = parallel.analyze(history, from, to);
+		assertEquals(expected, report.getVisits());
+		assertEquals(30 * 24, report.getArrivalsPerHour().length);
+		assertEquals(expected, sum(report.getArrivalsPerHour()));
+		assertEquals(0, parallel.analyze(history, END, END + DAY_MILLIS).getVisits());
+	}
+
+	/**
+	 * Checks every aggregate of a VisitReport of three known ERVisits.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	public void testKnownVisits() throws InterruptedException {
+		VisitHistory small = new VisitHistory.Builder()
+			.addVisit(START, START + 10 * MINUTE_MILLIS, START + 60 * MINUTE_MILLIS, 1)
+				.addPrescription("Aspirin").addPrescription("Morphine")
+			.addVisit(START + 30 * MINUTE_MILLIS, VisitHistory.NOT_SEEN, START + 40 * MINUTE_MILLIS, 3)
+				.addPrescription("Aspirin")
+			.addVisit(START + 90 * MINUTE_MILLIS, START + 120 * MINUTE_MILLIS, START + 150 * MINUTE_MILLIS, 3)
+			.build();
+		VisitReport report = parallel.analyze(small, START, START + 2 * VisitReport.HOUR_MILLIS);
+		assertEquals(3, report.getVisits());
+		assertTrue(Arrays.equals(new long[] {2, 1}, report.getArrivalsPerHour()));
+		assertEquals(1, report.getUrgencyCount(1));
+		assertEquals(2, report.getUrgencyCount(3));
+		assertEquals(2, report.getDoorToDoctor().getCount());
+		assertEquals(20.0, report.getDoorToDoctor().getMeanMinutes(), 1e-9);
+		assertEquals(10, report.getDoorToDoctor().getPercentileMinutes(50));
+		assertEquals(30, report.getDoorToDoctor().getPercentileMinutes(100));
+		assertEquals(3, report.getLengthOfStay().getCount());
+		assertEquals(60, report.getLengthOfStay().getPercentileMinutes(100));
+		assertTrue(Arrays.equals(new String[] {"Aspirin", "Morphine"}, report.getTopMedications(10)));
+		assertEquals(2, report.getPrescriptionCount("Aspirin"));
+		assertEquals(0, report.getPrescriptionCount("Insulin"));
+	}
+
+	/**
+	 * Asserts that two VisitReports of the same ERVisits are the same.
+	 * @param expected The expected VisitReport.
+	 * @param actual The VisitReport to check.
+	 */
+	private static void assertSameReport(VisitReport expected, VisitReport actual) {
+		assertEquals(expected.getVisits(), actual.getVisits());
+		assertTrue(Arrays.equals(expected.getArrivalsPerHour(), actual.getArrivalsPerHour()));
+		for (int urgency = 0; urgency < 5; urgency++)
+			assertEquals("urgency " + urgency, expected.getUrgencyCount(urgency), actual.getUrgencyCount(urgency));
+		for (double percentile : new double[] {50, 90, 99}) {
+			assertEquals("door to doctor p" + percentile, expected.getDoorToDoctor().getPercentileMinutes(percentile),
+					actual.getDoorToDoctor().getPercentileMinutes(percentile));
+			assertEquals("length of stay p" + percentile, expected.getLengthOfStay().getPercentileMinutes(percentile),
+					actual.getLengthOfStay().getPercentileMinutes(percentile));
+		}
+		assertTrue(Arrays.equals(expected.getTopMedications(MEDICATIONS), actual.getTopMedications(MEDICATIONS)));
+		for (String name : expected.getTopMedications(MEDICATIONS))
+			assertEquals(name, expected.getPrescriptionCount(name), actual.getPrescriptionCount(name));
+	}
+
+	/**
+	 * Adds up counts.
+	 * @param counts The counts.
+	 * @return The sum.
+	 */
+	private static long sum(long[] counts) {
+		long sum = 0;
+		for (long count : counts)
+			sum += count;
+		return sum;
+	}
+
+	/**
+	 * Makes DAYS days of ERVisits, VISITS_PER_DAY a day on average, more in the
+	 * evening, with one to three Prescriptions each.
+	 * @param random The random numbers.
+	 * @return The VisitHistory.
+	 */
+	private static VisitHistory makeHistory(Random random) {
+		VisitHistory.Builder builder = new VisitHistory.Builder();
+		long time = START;
+		double meanGap = (double) DAY_MILLIS / VISITS_PER_DAY;
+		while (true) {
+			//Arrivals are twice as frequent from noon to midnight.
+			boolean evening = (time % DAY_MILLIS) >= DAY_MILLIS / 2;
+			time += (long) (-Math.log(1 - random.nextDouble()) * meanGap * (evening ? 2.0 / 3 : 4.0 / 3));
+			if (time >= END)
+				break;
+			long seen = random.nextInt(10) == 0 ? VisitHistory.NOT_SEEN
+					: time + (long) (-Math.log(1 - random.nextDouble()) * 45 * MINUTE_MILLIS);
+			long lastEvent = Math.max(time, seen) + random.nextInt(4 * 60) * MINUTE_MILLIS;
+			builder.addVisit(time, seen, lastEvent, random.nextInt(5));
+			int prescriptions = 1 + random.nextInt(3);
+			for (int i = 0; i < prescriptions; i++) {
+				//A few medications are prescribed far more often than the others.
+				int medication = (int) (MEDICATIONS * Math.pow(random.nextDouble(), 3));
+				builder.addPrescription("Medication " + medication);
+			}
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,294 @@
+package triageapp.components;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import triageapp.database.DBAdapter;
+import triageapp.database.TriageDBAdapter;
+import triageapp.sync.ChangeLog;
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+
+/**
+ * Checks that an ERAdmin stays consistent when many threads use it at once,
+ * on a test database.
+ */
+public class ERAdminConcurrencyTest extends AndroidTestCase {
+
+	/** The number of Patients of the stress test. */
+	private static final int STRESS_PATIENTS = 256;
+	/** The number of threads of the tests. */
+	private static final int THREADS = 8;
+	/** The number of VitalSigns added to each Patient left waiting by the stress test. */
+	private static final int STRESS_VITALS_PER_PATIENT = 4;
+	/** The number of Patients signed in for the mixed test. */
+	private static final int MIXED_PATIENTS = 64;
+	/** The number of operations of the mixed test, over all threads. */
+	private static final int MIXED_OPERATIONS = 4000;
+	/** The share of the operations of the mixed test which add VitalSigns; the others look up a Patient. */
+	private static final double MIXED_WRITE_SHARE = 0.2;
+	/** The time the first Patient arrives. */
+	private static final long FIRST_ARRIVAL = 1400000000000L;
+
+	/** The context the test database is opened with. */
+	private Context context;
+	/** The connection to the test database. */
+	private TriageDBAdapter dbAdapter;
+	/** The ERAdmin tested. */
+	private ERAdmin erAdmin;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), "test_");
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		dbAdapter = new TriageDBAdapter(context);
+		dbAdapter.open();
+		erAdmin = new ERAdmin(new ChangeLog("test"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		dbAdapter.close();
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		super.tearDown();
+	}
+
+	/**
+	 * Registers, signs in, sends to the doctor and discharges Patients from
+	 * several threads, while adding VitalSigns to the same Patients from
+	 * several threads and reading the boards, then checks the ERAdmin.
+	 * The Patients are split by their index modulo 4: those of 0 are
+	 * discharged, those of 1 are sent to the doctor, the others are left
+	 * waiting with STRESS_VITALS_PER_PATIENT VitalSigns each.
+	 * @throws Exception if interrupted while waiting for the threads, or a Patient is invalid.
+	 */
+	public void testStress() throws Exception {
+		final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+		//Every Patient is registered twice, by two threads: one of them must fail.
+		final AtomicInteger registered = new AtomicInteger();
+		runInParallel(THREADS, 2 * STRESS_PATIENTS, new Task() {
+			@Override
+			public void run(int index, Random random) {
+				try {
+					erAdmin.registerPatient("Patient " + index / 2, "1980-01-01", healthCardNumber(index / 2), dbAdapter);
+					registered.incrementAndGet();
+				} catch (InvalidUserInputException e) {
+					//The other thread registered the Patient.
+				}
+			}
+		});
+		if (registered.get() != STRESS_PATIENTS)
+			failures.add(registered.get() + " registrations succeeded for " + STRESS_PATIENTS + " patients");
+
+		runInParallel(THREADS, STRESS_PATIENTS, new Task() {
+			@Override
+			public void run(int index, Random random) {
+				erAdmin.signInPatient(healthCardNumber(index), FIRST_ARRIVAL + index * 1000L, dbAdapter);
+			}
+		});
+
+		//One task per Patient discharged or sent to the doctor, and one per VitalSigns added.
+		final List<Integer> tasks = new ArrayList<Integer>();
+		for (int i = 0; i < STRESS_PATIENTS; i++) {
+			int count = i % 4 < 2 ? 1 : STRESS_VITALS_PER_PATIENT;
+			for (int j = 0; j < count; j++)
+				tasks.add(Integer.valueOf(i));
+		}
+		Collections.shuffle(tasks, new Random(42));
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random random = new Random();
+				while (!done.get()) {
+					if (erAdmin.lookUpPatient(healthCardNumber(random.nextInt(STRESS_PATIENTS))) == null)
+						failures.add("A registered patient was not found");
+					//The urgencies keep changing, but a snapshot of the boards must hold each Patient once.
+					BoardSnapshot snapshot = erAdmin.getBoardSnapshot();
+					Set<Patient> onBoards = new HashSet<Patient>(snapshot.getUrgencyList());
+					onBoards.addAll(snapshot.getSentToDoctorList());
+					if (onBoards.contains(null) || onBoards.size() 
+							!= snapshot.getUrgencyList().size() + snapshot.getSentToDoctorList().size())
+						failures.add("A snapshot of the boards holds a patient twice");
+				}
+			}
+		});
+		reader.start();
+		runInParallel(THREADS, tasks.size(), new Task() {
+			@Override
+			public void run(int index, Random random) {
+				int patientIndex = tasks.get(index).intValue();
+				Patient patient = erAdmin.lookUpPatient(healthCardNumber(patientIndex));
+				if (patientIndex % 4 == 0) {
+					erAdmin.closeCase(patient, dbAdapter);
+				} else if (patientIndex % 4 == 1) {
+					erAdmin.sendToDoctor(patient, FIRST_ARRIVAL + STRESS_PATIENTS * 1000L, dbAdapter);
+				} else {
+					erAdmin.addPatientVitals(patient, new VitalSigns(80 + random.nextInt(120),
+							50 + random.nextInt(60), 35 + random.nextInt(6), 50 + random.nextInt(100),
+							FIRST_ARRIVAL + STRESS_PATIENTS * 1000L + index), dbAdapter);
+				}
+			}
+		});
+		done.set(true);
+		reader.join();
+
+		List<Patient> urgencyList = erAdmin.getUrgencyList();
+		List<Patient> sentToDoctor = erAdmin.getPatientsSentToDoctorList();
+		Set<Patient> waiting = new HashSet<Patient>(urgencyList);
+		Set<Patient> seen = new HashSet<Patient>(sentToDoctor);
+		if (waiting.size() != urgencyList.size() || seen.size() != sentToDoctor.size())
+			failures.add("A patient is on a board twice");
+		String order = checkOrder(urgencyList);
+		if (order != null)
+			failures.add(order);
+		Census census = erAdmin.getCensus();
+		if (census.getTotal(false) != urgencyList.size() || census.getTotal(true) != sentToDoctor.size())
+			failures.add("The census counts " + census.getTotal(false) + " waiting and " + census.getTotal(true) 
+					+ " seen for boards of " + urgencyList.size() + " and " + sentToDoctor.size());
+		for (int urgency = 0; urgency <= Patient.MAX_URGENCY; urgency++) {
+			int count = 0;
+			for (Patient patient : urgencyList) {
+				if (patient.getUrgency() == urgency)
+					count++;
+			}
+			if (census.getCount(urgency, false) != count)
+				failures.add("The census counts " + census.getCount(urgency, false) + " waiting at urgency " 
+						+ urgency + " for " + count + " on the board");
+		}
+		for (int i = 0; i < STRESS_PATIENTS; i++) {
+			Patient patient = erAdmin.lookUpPatient(healthCardNumber(i));
+			boolean discharged = i % 4 == 0;
+			boolean sent = i % 4 == 1;
+			if (discharged != (patient.getCurrentERVisit() == null))
+				failures.add("Patient " + i + (discharged ? " was not discharged" : " lost their visit"));
+			if (sent != seen.contains(patient) || (!discharged && !sent) != waiting.contains(patient))
+				failures.add("Patient " + i + " is on the wrong board");
+			if (!discharged && !sent) {
+				int count = patient.getCurrentERVisit().getVitalsCount();
+				if (count != STRESS_VITALS_PER_PATIENT)
+					failures.add("Patient " + i + " has " + count + " vital signs");
+				int urgency = patient.getUrgency();
+				patient.setUrgency();
+				if (urgency != patient.getUrgency())
+					failures.add("Patient " + i + " has a stale urgency");
+			}
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		//The database holds the boards of the ERAdmin.
+		ERAdmin reloaded = new ERAdmin(new ChangeLog("test"));
+		reloaded.loadPatients(dbAdapter);
+		assertEquals(urgencyList.size(), reloaded.getUrgencyList().size());
+		assertEquals(sentToDoctor.size(), reloaded.getPatientsSentToDoctorList().size());
+	}
+
+	/**
+	 * Looks up Patients and adds VitalSigns to them from several threads,
+	 * then checks that every VitalSigns was added once.
+	 * @throws Exception if interrupted while waiting for the threads, or a Patient is invalid.
+	 */
+	public void testConcurrentReadsAndWrites() throws Exception {
+		for (int i = 0; i < MIXED_PATIENTS; i++) {
+			erAdmin.registerPatient("Patient " + i, "1980-01-01", healthCardNumber(i), dbAdapter);
+			erAdmin.signInPatient(healthCardNumber(i), FIRST_ARRIVAL + i * 1000L, dbAdapter);
+		}
+		final AtomicInteger writes = new AtomicInteger();
+		runInParallel(THREADS, MIXED_OPERATIONS, new Task() {
+			@Override
+			public void run(int index, Random random) {
+				Patient patient = erAdmin.lookUpPatient(healthCardNumber(random.nextInt(MIXED_PATIENTS)));
+				if (random.nextDouble() < MIXED_WRITE_SHARE) {
+					erAdmin.addPatientVitals(patient, new VitalSigns(80 + random.nextInt(120),
+							50 + random.nextInt(60), 35 + random.nextInt(6), 50 + random.nextInt(100),
+							FIRST_ARRIVAL + MIXED_PATIENTS * 1000L + index), dbAdapter);
+					writes.incrementAndGet();
+				}
+			}
+		});
+		int vitals = 0;
+		for (int i = 0; i < MIXED_PATIENTS; i++)
+			vitals += erAdmin.lookUpPatient(healthCardNumber(i)).getCurrentERVisit().getVitalsCount();
+		assertEquals(writes.get(), vitals);
+		assertNull(checkOrder(erAdmin.getUrgencyList()));
+	}
+
+	/**
+	 * Checks that a board is ordered by urgency, then by arrival time.
+	 * @param board The board.
+	 * @return A description of the first Patient out of order, or null if the board is ordered.
+	 */
+	private static String checkOrder(List<Patient> board) {
+		for (int i = 1; i < board.size(); i++) {
+			Patient previous = board.get(i - 1);
+			Patient patient = board.get(i);
+			if (previous.getUrgency() < patient.getUrgency() || (previous.getUrgency() == patient.getUrgency()
+					&& previous.getCurrentERVisit().getArrivalTime() > patient.getCurrentERVisit().getArrivalTime()))
+				return "Patient " + patient.getHealthCardNumber() + " is out of order at " + i;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the health card number of the Patient of an index.
+	 * @param index The index.
+	 * @return The health card number.
+	 */
+	private static String healthCardNumber(int index) {
+		return String.valueOf(100000 + index);
+	}
+
+	/** A unit of work run by runInParallel. */
+	private interface Task {
+		/**
+		 * Runs the unit of work of an index.
+		 * @param index The index.
+		 * @param random The random numbers of the thread.
+		 */
+		void run(int index, Random random);
+	}
+
+	/**
+	 * Runs a Task for the indexes from 0 to count - 1, spread over threads
+	 * which take the next index when they are done with one.
+	 * @param threads The number of threads.
+	 * @param count The number of indexes.
+	 * @param task The Task.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	private static void runInParallel(int threads, final int count, final Task task) throws InterruptedException {
+		final AtomicInteger next = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					try {
+						start.await();
+						for (int index = next.getAndIncrement(); index < count; index = next.getAndIncrement())
+							task.run(index, random);
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					} finally {
+						finished.countDown();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		finished.await();
+	}
+}
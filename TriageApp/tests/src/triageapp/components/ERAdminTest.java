@@ -0,0 +1,92 @@
+package triageapp.components;
+
+import triageapp.database.DBAdapter;
+import triageapp.database.TriageDBAdapter;
+import triageapp.sync.ChangeLog;
+import android.content.Context;
+import android.database.SQLException;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+
+/**
+ * Checks that an ERAdmin leaves a Patient, the boards and the ChangeLog
+ * unchanged when the database cannot store a change, on a test database.
+ */
+public class ERAdminTest extends AndroidTestCase {
+
+	/** The time the Patient arrives. */
+	private static final long ARRIVAL = 1400000000000L;
+	/** The ID of an ERVisit which is not in the database. */
+	private static final long MISSING_ERVISIT = -5;
+
+	/** The context the test database is opened with. */
+	private Context context;
+	/** The connection to the test database. */
+	private TriageDBAdapter dbAdapter;
+	/** The ChangeLog of the ERAdmin. */
+	private ChangeLog changeLog;
+	/** The ERAdmin tested. */
+	private ERAdmin erAdmin;
+	/** The Patient signed in, whose ERVisit is not in the database. */
+	private Patient patient;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), "test_");
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		dbAdapter = new TriageDBAdapter(context);
+		dbAdapter.open();
+		changeLog = new ChangeLog("test");
+		erAdmin = new ERAdmin(changeLog);
+		erAdmin.registerPatient("Patient", "1980-01-01", "1234567890", dbAdapter);
+		patient = erAdmin.signInPatient("1234567890", ARRIVAL, dbAdapter);
+		patient.getCurrentERVisit().setID(MISSING_ERVISIT);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		dbAdapter.close();
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		super.tearDown();
+	}
+
+	/**
+	 * Checks that an ERVisit the database cannot close stays open, on the
+	 * urgency board, without a Change.
+	 */
+	public void testCloseCaseFails() {
+		int changes = changeLog.size();
+		try {
+			erAdmin.closeCase(patient, dbAdapter);
+			fail("An ERVisit missing from the database was closed");
+		} catch (SQLException e) {
+			//Expected.
+		}
+		assertNotNull(patient.getCurrentERVisit());
+		assertFalse(patient.getCurrentERVisit().getClosed());
+		assertTrue(erAdmin.getUrgencyList().contains(patient));
+		assertEquals(changes, changeLog.size());
+	}
+
+	/**
+	 * Checks that VitalSigns the database cannot store are not added to the
+	 * ERVisit, and do not change the urgency of the Patient or the ChangeLog.
+	 * @throws InvalidUserInputException never, as the VitalSigns are valid.
+	 */
+	public void testAddPatientVitalsFails() throws InvalidUserInputException {
+		int changes = changeLog.size();
+		int urgency = patient.getUrgency();
+		try {
+			erAdmin.addPatientVitals(patient, new VitalSigns(190, 120, 40.5f, 150), dbAdapter);
+			fail("VitalSigns of an ERVisit missing from the database were added");
+		} catch (SQLException e) {
+			//Expected.
+		}
+		assertEquals(0, patient.getCurrentERVisit().getVitalsCount());
+		assertEquals(urgency, patient.getUrgency());
+		assertTrue(erAdmin.getUrgencyList().contains(patient));
+		assertEquals(changes, changeLog.size());
+	}
+}
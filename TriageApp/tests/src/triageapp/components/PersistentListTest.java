@@ -0,0 +1,145 @@
+package triageapp.components;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks PersistentList against an ArrayList: inserting and removing at the
+ * boundaries of its chunks, splitting a chunk grown too large and dropping a
+ * chunk emptied, and that every older PersistentList is left unchanged by the
+ * changes made from it.
+ */
+public class PersistentListTest extends TestCase {
+
+	/** The size of the chunks of a PersistentList made from a List (PersistentList.CHUNK_SIZE). */
+	private static final int CHUNK_SIZE = 32;
+	/** The number of random changes. */
+	private static final int CHANGES = 2000;
+
+	/**
+	 * Checks inserting at the first and last index of each chunk, and at the
+	 * end, of a PersistentList made of three full chunks.
+	 */
+	public void testInsertAtChunkBoundaries() {
+		List<Integer> expected = numbers(3 * CHUNK_SIZE);
+		PersistentList<Integer> list = PersistentList.of(expected);
+		int[] indexes = {3 * CHUNK_SIZE, 2 * CHUNK_SIZE, 2 * CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE - 1, 0};
+		for (int index : indexes) {
+			list = list.plus(index, -index);
+			expected.add(index, -index);
+			assertSameElements(expected, list);
+		}
+	}
+
+	/**
+	 * Checks inserting into one chunk until it is split, more than once, and
+	 * that the elements of the other chunks keep their indexes.
+	 */
+	public void testInsertSplitsChunk() {
+		List<Integer> expected = numbers(3 * CHUNK_SIZE);
+		PersistentList<Integer> list = PersistentList.of(expected);
+		for (int i = 0; i < 3 * CHUNK_SIZE; i++) {
+			list = list.plus(CHUNK_SIZE + 1, -i - 1);
+			expected.add(CHUNK_SIZE + 1, -i - 1);
+			assertSameElements(expected, list);
+		}
+	}
+
+	/**
+	 * Checks removing at the first and last index of each chunk, and removing
+	 * every element of a chunk so that it is dropped.
+	 */
+	public void testRemoveAtChunkBoundaries() {
+		List<Integer> expected = numbers(3 * CHUNK_SIZE + 1);
+		PersistentList<Integer> list = PersistentList.of(expected);
+		//The last chunk holds one element.
+		int[] indexes = {3 * CHUNK_SIZE, 2 * CHUNK_SIZE, 2 * CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE - 1, 0};
+		for (int index : indexes) {
+			list = list.minus(index);
+			expected.remove(index);
+			assertSameElements(expected, list);
+		}
+		while (!expected.isEmpty()) {
+			list = list.minus(expected.size() / 2);
+			expected.remove(expected.size() / 2);
+			assertSameElements(expected, list);
+		}
+		assertEquals(0, list.size());
+		list = list.plus(0, 7);
+		expected.add(7);
+		assertSameElements(expected, list);
+	}
+
+	/** Checks removing an element by value, and an element which is not in the list. */
+	public void testRemoveElement() {
+		List<Integer> expected = numbers(2 * CHUNK_SIZE);
+		PersistentList<Integer> list = PersistentList.of(expected);
+		list = list.minus(Integer.valueOf(CHUNK_SIZE));
+		expected.remove(Integer.valueOf(CHUNK_SIZE));
+		assertSameElements(expected, list);
+		assertSame(list, list.minus(Integer.valueOf(-1)));
+	}
+
+	/**
+	 * Checks random insertions and removals against an ArrayList, keeping
+	 * every PersistentList made, then checks that each of them still holds
+	 * the elements it had when it was made.
+	 */
+	public void testOlderSnapshotsUnchanged() {
+		Random random = new Random(43);
+		List<Integer> expected = numbers(CHUNK_SIZE + CHUNK_SIZE / 2);
+		PersistentList<Integer> list = PersistentList.of(expected);
+		List<PersistentList<Integer>> snapshots = new ArrayList<PersistentList<Integer>>();
+		List<List<Integer>> snapshotElements = new ArrayList<List<Integer>>();
+		for (int change = 0; change < CHANGES; change++) {
+			snapshots.add(list);
+			snapshotElements.add(new ArrayList<Integer>(expected));
+			//Grows the list a little more often than it shrinks it.
+			if (expected.isEmpty() || random.nextInt(5) < 3) {
+				int index = random.nextInt(expected.size() + 1);
+				list = list.plus(index, change);
+				expected.add(index, change);
+			} else {
+				int index = random.nextInt(expected.size());
+				list = list.minus(index);
+				expected.remove(index);
+			}
+			assertSameElements(expected, list);
+		}
+		for (int i = 0; i < snapshots.size(); i++)
+			assertSameElements(snapshotElements.get(i), snapshots.get(i));
+	}
+
+	/**
+	 * Checks that a PersistentList holds the same elements as a List, through
+	 * get(), its iterator and indexOf().
+	 * @param expected The elements, in order.
+	 * @param list The PersistentList.
+	 */
+	private static void assertSameElements(List<Integer> expected, PersistentList<Integer> list) {
+		assertEquals(expected.size(), list.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals("index " + i, expected.get(i), list.get(i));
+		assertEquals(expected, new ArrayList<Integer>(list));
+		if (!expected.isEmpty()) {
+			Integer last = expected.get(expected.size() - 1);
+			assertEquals(expected.indexOf(last), list.indexOf(last));
+		}
+	}
+
+	/**
+	 * Makes a List of the numbers from 0.
+	 * @param count The number of numbers.
+	 * @return The List.
+	 */
+	private static List<Integer> numbers(int count) {
+		List<Integer> numbers = new ArrayList<Integer>(count);
+		for (int i = 0; i < count; i++)
+			numbers.add(i);
+		return numbers;
+	}
+}
@@ -0,0 +1,221 @@
+package triageapp.components;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks the assignment and stealing of PhysicianQueues, alone and with
+ * one thread per Physician taking Patients at once.
+ */
+public class PhysicianQueuesTest extends TestCase {
+
+	/** The number of Physicians of the department. */
+	private static final int PHYSICIANS = 20;
+	/** The number of Patients waiting for a Physician. */
+	private static final int IN_PROGRESS = 500;
+	/** The number of Patients taken by each Physician thread. */
+	private static final int TAKES_PER_PHYSICIAN = 5000;
+	/** The time the first Patient arrives. */
+	private static final long FIRST_ARRIVAL = 1400000000000L;
+
+	/** The queues, with the Physicians of the department registered. */
+	private PhysicianQueues queues;
+	/** The Patients, with a current ERVisit and a random urgency. */
+	private Patient[] patients;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		queues = new PhysicianQueues();
+		for (int i = 0; i < PHYSICIANS; i++)
+			queues.registerPhysician(physician(i));
+		patients = makePatients(IN_PROGRESS, new Random(3));
+	}
+
+	/** Checks that the Patients are spread evenly over the Physicians. */
+	public void testSpread() {
+		for (Patient patient : patients)
+			assertNotNull(queues.assign(patient));
+		for (int i = 0; i < PHYSICIANS; i++)
+			assertEquals(physician(i), IN_PROGRESS / PHYSICIANS, queues.getQueue(physician(i)).size());
+	}
+
+	/** Checks that a queue is ordered by urgency, and its most urgent Patient is taken first. */
+	public void testMostUrgentFirst() {
+		for (Patient patient : patients)
+			queues.assign(patient);
+		List<Patient> first = queues.getQueue(physician(0));
+		for (int i = 1; i < first.size(); i++)
+			assertFalse("Out of order at " + i, before(first.get(i), first.get(i - 1)));
+		assertSame(first.get(0), queues.takeNext(physician(0)));
+		assertEquals(first.size() - 1, queues.getQueue(physician(0)).size());
+	}
+
+	/** Checks that a Physician with an empty queue steals from the longest queue. */
+	public void testIdlePhysicianSteals() {
+		for (Patient patient : patients)
+			queues.assign(patient);
+		List<Patient> shorter = queues.getQueue(physician(0));
+		queues.takeNext(physician(0));
+		queues.registerPhysician("idle");
+		Patient stolen = queues.takeNext("idle");
+		assertNotNull(stolen);
+		assertNull(queues.getPhysician(stolen.getHealthCardNumber()));
+		assertTrue("Stolen from a shorter queue", shorter.indexOf(stolen) < 0);
+	}
+
+	/** Checks that every Patient is taken once, by whoever asks. */
+	public void testEveryPatientTakenOnce() {
+		for (Patient patient : patients)
+			queues.assign(patient);
+		int taken = 0;
+		while (queues.takeNext("idle") != null)
+			taken++;
+		assertEquals(IN_PROGRESS, taken);
+	}
+
+	/** Checks that the Patients sent while no Physician was registered go to the next one registered. */
+	public void testUnassignedGoToNextPhysician() {
+		PhysicianQueues empty = new PhysicianQueues();
+		for (int i = 0; i < 10; i++)
+			assertNull(empty.assign(patients[i]));
+		assertEquals(10, empty.registerPhysician("first").size());
+		assertEquals(10, empty.getQueue("first").size());
+		assertEquals("first", empty.getPhysician(patients[0].getHealthCardNumber()));
+		assertTrue(empty.remove(patients[0]));
+		assertEquals(9, empty.getQueue("first").size());
+		empty.registerPhysician("second");
+		assertEquals(0, empty.getQueue("second").size());
+	}
+
+	/** Checks that a Physician unregistered gives back the Patients waiting for them, and gets no more. */
+	public void testUnregisterGivesBackQueue() {
+		for (Patient patient : patients)
+			queues.assign(patient);
+		List<Patient> first = queues.getQueue(physician(0));
+		assertEquals(first, queues.unregisterPhysician(physician(0)));
+		assertTrue(queues.getQueue(physician(0)).isEmpty());
+		assertNull(queues.getPhysician(first.get(0).getHealthCardNumber()));
+		for (Patient patient : first)
+			assertFalse(physician(0).equals(queues.assign(patient)));
+		assertTrue(queues.getQueue(physician(0)).isEmpty());
+		assertTrue(queues.unregisterPhysician(physician(0)).isEmpty());
+	}
+
+	/** Checks that a Patient is assigned to a given Physician, even one not registered, or to none. */
+	public void testAssignToPhysician() {
+		queues.assign(patients[0], "elsewhere");
+		assertEquals("elsewhere", queues.getPhysician(patients[0].getHealthCardNumber()));
+		assertSame(patients[0], queues.getQueue("elsewhere").get(0));
+		queues.assign(patients[1], null);
+		assertNull(queues.getPhysician(patients[1].getHealthCardNumber()));
+		assertEquals(1, queues.registerPhysician("next").size());
+		assertEquals("next", queues.getPhysician(patients[1].getHealthCardNumber()));
+	}
+
+	/** Checks that a Patient moves to its place in its queue when its urgency changes. */
+	public void testRequeue() {
+		for (Patient patient : patients)
+			queues.assign(patient);
+		List<Patient> first = queues.getQueue(physician(0));
+		Patient last = first.get(first.size() - 1);
+		last.setUrgency(Patient.MAX_URGENCY + 1);
+		queues.requeue(last);
+		assertSame(last, queues.getQueue(physician(0)).get(0));
+	}
+
+	/**
+	 * Runs one thread per Physician, which take their next Patient and send it
+	 * back, and checks that no Patient is missing or taken twice.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	public void testConcurrentTakes() throws InterruptedException {
+		//1 if the Patient of the index is waiting, 0 if taken by a Physician.
+		final AtomicIntegerArray waiting = new AtomicIntegerArray(patients.length);
+		for (int i = 0; i < patients.length; i++) {
+			queues.assign(patients[i]);
+			waiting.set(i, 1);
+		}
+		final AtomicLong errors = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(PHYSICIANS);
+		for (int p = 0; p < PHYSICIANS; p++) {
+			final String physician = physician(p);
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < TAKES_PER_PHYSICIAN; i++) {
+							Patient patient = queues.takeNext(physician);
+							if (patient == null) {
+								errors.incrementAndGet();
+								continue;
+							}
+							int index = Integer.parseInt(patient.getHealthCardNumber()) - 100000;
+							if (!waiting.compareAndSet(index, 1, 0))
+								errors.incrementAndGet();
+							waiting.set(index, 1);
+							queues.assign(patient);
+						}
+					} catch (InterruptedException e) {
+						errors.incrementAndGet();
+					} finally {
+						finished.countDown();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		finished.await();
+		assertEquals("Patients missing or taken twice", 0, errors.get());
+		int queued = 0;
+		for (int i = 0; i < PHYSICIANS; i++)
+			queued += queues.getQueue(physician(i)).size();
+		assertEquals(IN_PROGRESS, queued);
+	}
+
+	/**
+	 * Makes Patients with a current ERVisit and a random urgency.
+	 * @param count The number of Patients.
+	 * @param random The random numbers.
+	 * @return The Patients, whose health card numbers start at 100000.
+	 * @throws InvalidUserInputException if a Patient cannot be made.
+	 */
+	private static Patient[] makePatients(int count, Random random) throws InvalidUserInputException {
+		Patient[] patients = new Patient[count];
+		for (int i = 0; i < count; i++) {
+			patients[i] = new Patient("Patient " + i, "1980-01-01", String.valueOf(100000 + i));
+			patients[i].setCurrentERVisit(new ERVisit(i, FIRST_ARRIVAL + i * 1000L, false, null));
+			patients[i].setUrgency(random.nextInt(5));
+		}
+		return patients;
+	}
+
+	/**
+	 * Checks whether a Patient is seen before another one.
+	 * @param patient The Patient.
+	 * @param other The other Patient.
+	 * @return true if the Patient is more urgent, or as urgent and arrived first.
+	 */
+	private static boolean before(Patient patient, Patient other) {
+		if (patient.getUrgency() != other.getUrgency())
+			return patient.getUrgency() > other.getUrgency();
+		return patient.getCurrentERVisit().getArrivalTime() < other.getCurrentERVisit().getArrivalTime();
+	}
+
+	/**
+	 * Gets the username of a Physician.
+	 * @param index The index of the Physician.
+	 * @return The username.
+	 */
+	private static String physician(int index) {
+		return "physician" + index;
+	}
+}
@@ -0,0 +1,200 @@
+package triageapp.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+
+/**
+ * Checks that the ChangeStream delivers the ChangeEvents of a test database
+ * in sequence order, that a Subscriber resuming from a sequence number gets
+ * the events following it, and that a Subscriber resuming from an event
+ * already deleted (as VisitArchiver deletes the old ones) is reset first.
+ */
+public class ChangeStreamTest extends AndroidTestCase {
+
+	/** The number of Patients created by each test. */
+	private static final int PATIENTS = 50;
+	/** The time to wait for the stream to deliver the events, in seconds. */
+	private static final long DELIVERY_TIMEOUT_SECONDS = 10;
+
+	/** A Subscriber keeping the events it receives, and the resets, in order. */
+	private static final class RecordingSubscriber implements ChangeStream.Subscriber {
+		/** The events received, or null where the Subscriber was reset. */
+		final List<ChangeEvent> received = new ArrayList<ChangeEvent>();
+		/** Counted down by each event received. */
+		final CountDownLatch expected;
+
+		/**
+		 * Constructs a RecordingSubscriber.
+		 * @param expectedEvents The number of events to wait for.
+		 */
+		RecordingSubscriber(int expectedEvents) {
+			expected = new CountDownLatch(expectedEvents);
+		}
+
+		@Override
+		public synchronized void onChange(ChangeEvent event) {
+			received.add(event);
+			expected.countDown();
+		}
+
+		@Override
+		public synchronized void onReset() {
+			received.add(null);
+		}
+
+		/**
+		 * Gets the events received, with null where the Subscriber was reset.
+		 * @return A copy of the events.
+		 */
+		synchronized List<ChangeEvent> received() {
+			return new ArrayList<ChangeEvent>(received);
+		}
+	}
+
+	/** The context the test database is opened with. */
+	private Context context;
+	/** The connection to the test database. */
+	private TriageDBAdapter dbAdapter;
+	/** The Subscription of the test, or null. */
+	private ChangeStream.Subscription subscription;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), "test_");
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		context.deleteDatabase(DBAdapter.ARCHIVE_DATABASE_NAME);
+		dbAdapter = new TriageDBAdapter(context);
+		dbAdapter.open();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (subscription != null)
+			subscription.cancel();
+		awaitDelivery();
+		dbAdapter.close();
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		context.deleteDatabase(DBAdapter.ARCHIVE_DATABASE_NAME);
+		super.tearDown();
+	}
+
+	/**
+	 * Checks that the events of mutations committed after subscribing arrive
+	 * once each, in sequence order, which is the order of the mutations.
+	 * @throws InterruptedException if the test is interrupted.
+	 */
+	public void testOrderedDelivery() throws InterruptedException {
+		RecordingSubscriber subscriber = new RecordingSubscriber(PATIENTS);
+		long start = dbAdapter.getLastChangeSequence();
+		subscription = ChangeStream.subscribe(subscriber, start, dbAdapter);
+		createPatients(0, PATIENTS);
+		assertTrue(subscriber.expected.await(DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		List<ChangeEvent> received = subscriber.received();
+		assertEquals(PATIENTS, received.size());
+		for (int i = 0; i < PATIENTS; i++) {
+			ChangeEvent event = received.get(i);
+			assertEquals(start + i + 1, event.sequence);
+			assertEquals(ChangeEvent.PATIENT_CREATED, event.type);
+			assertEquals(healthCard(i), event.healthCardNumber);
+		}
+		assertEquals(start + PATIENTS, subscription.getLastSequence());
+	}
+
+	/**
+	 * Checks that a Subscriber resuming after a sequence number gets the events
+	 * following it, and only them, replayed on the subscribing thread, without
+	 * a reset, then the new events.
+	 * @throws InterruptedException if the test is interrupted.
+	 */
+	public void testResumeAfterSequence() throws InterruptedException {
+		createPatients(0, PATIENTS);
+		long last = dbAdapter.getLastChangeSequence();
+		long resumeAfter = last - PATIENTS / 2;
+		RecordingSubscriber subscriber = new RecordingSubscriber(PATIENTS / 2 + 1);
+		subscription = ChangeStream.subscribe(subscriber, resumeAfter, dbAdapter);
+		List<ChangeEvent> replayed = subscriber.received();
+		assertEquals(PATIENTS / 2, replayed.size());
+		for (int i = 0; i < replayed.size(); i++) {
+			assertNotNull("The Subscriber was reset", replayed.get(i));
+			assertEquals(resumeAfter + i + 1, replayed.get(i).sequence);
+		}
+
+		createPatients(PATIENTS, 1);
+		assertTrue(subscriber.expected.await(DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		List<ChangeEvent> received = subscriber.received();
+		assertEquals(last + 1, received.get(received.size() - 1).sequence);
+		assertEquals(healthCard(PATIENTS), received.get(received.size() - 1).healthCardNumber);
+	}
+
+	/**
+	 * Checks that a Subscriber resuming after an event that was deleted since
+	 * is reset before any event, then gets the events still in the table.
+	 * @throws InterruptedException if the test is interrupted.
+	 */
+	public void testResumeAfterPrunedSequence() throws InterruptedException {
+		createPatients(0, PATIENTS / 2);
+		long resumeAfter = dbAdapter.getLastChangeSequence() - PATIENTS / 4;
+		//The events kept are committed strictly later than those deleted.
+		Thread.sleep(10);
+		long pruneBefore = System.currentTimeMillis();
+		Thread.sleep(10);
+		createPatients(PATIENTS / 2, PATIENTS / 2);
+		long last = dbAdapter.getLastChangeSequence();
+		assertEquals(PATIENTS / 2, dbAdapter.deleteChangeEventsBefore(pruneBefore));
+		long first = dbAdapter.getFirstChangeSequence();
+		assertTrue(first > resumeAfter + 1);
+
+		RecordingSubscriber subscriber = new RecordingSubscriber(0);
+		subscription = ChangeStream.subscribe(subscriber, resumeAfter, dbAdapter);
+		List<ChangeEvent> received = subscriber.received();
+		assertNull("The Subscriber was not reset first", received.get(0));
+		assertEquals(last - first + 2, received.size());
+		for (int i = 1; i < received.size(); i++)
+			assertEquals(first + i - 1, received.get(i).sequence);
+		assertEquals(last, subscription.getLastSequence());
+	}
+
+	/**
+	 * Waits for the stream to deliver the events published so far, so that
+	 * none reaches the Subscriber of the next test: the stream delivers in
+	 * order, so once the event of one more mutation arrives, all did.
+	 * @throws InterruptedException if the test is interrupted.
+	 */
+	private void awaitDelivery() throws InterruptedException {
+		RecordingSubscriber subscriber = new RecordingSubscriber(1);
+		ChangeStream.Subscription last = ChangeStream.subscribe(subscriber, dbAdapter.getLastChangeSequence(), dbAdapter);
+		try {
+			createPatients(PATIENTS + 1, 1);
+			assertTrue(subscriber.expected.await(DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		} finally {
+			last.cancel();
+		}
+	}
+
+	/**
+	 * Creates Patients, each logging a PATIENT_CREATED event.
+	 * @param from The index of the first Patient.
+	 * @param count The number of Patients.
+	 */
+	private void createPatients(int from, int count) {
+		for (int i = from; i < from + count; i++)
+			assertTrue(dbAdapter.createPatient(healthCard(i), "Patient " + i, "1980-01-01"));
+	}
+
+	/**
+	 * Returns the health card number of a test Patient.
+	 * @param index The index of the Patient.
+	 * @return The health card number.
+	 */
+	private static String healthCard(int index) {
+		return String.valueOf(100000 + index);
+	}
+}
@@ -0,0 +1,221 @@
+package triageapp.database;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks that PatientImporter imports the bundled patient_records.txt without
+ * rejects, that it counts and rejects the lines of a generated file that are
+ * not valid or duplicates, on any number of threads, and that an import
+ * stopped part way resumes to the same result as an import run at once. The
+ * database is replaced by a BatchWriter keeping the health card numbers
+ * inserted in memory.
+ */
+public class PatientImporterTest extends TestCase {
+
+	/** The number of lines of the generated file, enough for about ten chunks. */
+	private static final int LINES = 300 * 1000;
+	/** The bundled patient records, as a resource of the app. */
+	private static final String PATIENT_RECORDS = "/files/patient_records.txt";
+
+	/** A BatchWriter inserting into memory, optionally failing after some batches. */
+	private static final class MemoryBatchWriter implements PatientImporter.BatchWriter {
+		/** The health card numbers inserted. */
+		final BitSet inserted = new BitSet();
+		/** The number of batches written before failing, or -1 to never fail. */
+		int batchesBeforeFailure = -1;
+
+		@Override
+		public int write(String[] healthCards, String[] names, String[] dobs, int count, boolean[] created) {
+			if (batchesBeforeFailure == 0)
+				throw new IllegalStateException("Simulated crash");
+			if (batchesBeforeFailure > 0)
+				batchesBeforeFailure--;
+			int insertedCount = 0;
+			for (int i = 0; i < count; i++) {
+				int card = Integer.parseInt(healthCards[i]);
+				created[i] = !inserted.get(card);
+				if (created[i]) {
+					inserted.set(card);
+					insertedCount++;
+				}
+			}
+			return insertedCount;
+		}
+	}
+
+	/** The generated file of patient records. */
+	private File file;
+	/** The checkpoint file of the imports. */
+	private File checkpoint;
+	/** The rejects file of the imports. */
+	private File rejects;
+	/** The number of lines of the generated file that are not valid. */
+	private int expectedInvalid;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("patients", ".txt");
+		checkpoint = new File(file.getPath() + ".checkpoint");
+		rejects = new File(file.getPath() + ".rejects");
+		expectedInvalid = makeFile(file, new Random(11));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		checkpoint.delete();
+		rejects.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Checks that every line of the bundled patient_records.txt is imported.
+	 * @throws IOException if patient_records.txt cannot be read.
+	 */
+	public void testBundledRecords() throws IOException {
+		InputStream records = PatientImporter.class.getResourceAsStream(PATIENT_RECORDS);
+		assertNotNull(PATIENT_RECORDS, records);
+		PatientImporter.Result result = new PatientImporter(new MemoryBatchWriter(), 1).importStream(records, null);
+		assertTrue(result.getImported() > 0);
+		assertEquals(0, result.getDuplicates());
+		assertEquals(0, result.getInvalid());
+	}
+
+	/**
+	 * Checks that an import run at once counts every line once, inserts each
+	 * health card number once, writes every line not imported to the rejects
+	 * file with its reason, and deletes the checkpoint.
+	 * @throws Exception if a file cannot be written or read.
+	 */
+	public void testImport() throws Exception {
+		MemoryBatchWriter writer = new MemoryBatchWriter();
+		PatientImporter.Result result = new PatientImporter(writer, 2).importFile(file, checkpoint, rejects);
+		assertFalse(result.isResumed());
+		assertEquals(expectedInvalid, result.getInvalid());
+		assertTrue(result.getDuplicates() > 0);
+		assertEquals(LINES, result.getImported() + result.getDuplicates() + result.getInvalid());
+		assertEquals(writer.inserted.cardinality(), result.getImported());
+		assertEquals(result.getDuplicates() + result.getInvalid(), countLines(rejects, null));
+		assertEquals(result.getDuplicates(), countLines(rejects, PatientImporter.REJECT_DUPLICATE));
+		assertFalse(checkpoint.exists());
+	}
+
+	/**
+	 * Checks that imports on 1 and 4 threads insert the same Patients and count
+	 * the same lines.
+	 * @throws Exception if a file cannot be written or read.
+	 */
+	public void testThreadCounts() throws Exception {
+		MemoryBatchWriter single = new MemoryBatchWriter();
+		PatientImporter.Result expected = new PatientImporter(single, 1).importFile(file, checkpoint, rejects);
+		long expectedRejects = countLines(rejects, null);
+		MemoryBatchWriter multiple = new MemoryBatchWriter();
+		PatientImporter.Result actual = new PatientImporter(multiple, 4).importFile(file, checkpoint, rejects);
+		assertEquals(expected.getImported(), actual.getImported());
+		assertEquals(expected.getDuplicates(), actual.getDuplicates());
+		assertEquals(expected.getInvalid(), actual.getInvalid());
+		assertEquals(expectedRejects, countLines(rejects, null));
+		assertEquals(single.inserted, multiple.inserted);
+	}
+
+	/**
+	 * Checks that an import stopped part way, then resumed with the Patients
+	 * inserted before the crash kept, ends as the import run at once.
+	 * @throws Exception if a file cannot be written or read.
+	 */
+	public void testResume() throws Exception {
+		MemoryBatchWriter writer = new MemoryBatchWriter();
+		PatientImporter.Result expected = new PatientImporter(writer, 2).importFile(file, checkpoint, rejects);
+		long expectedRejects = countLines(rejects, null);
+
+		MemoryBatchWriter crashing = new MemoryBatchWriter();
+		crashing.batchesBeforeFailure = 3;
+		try {
+			new PatientImporter(crashing, 2).importFile(file, checkpoint, rejects);
+			fail("The simulated crash did not happen");
+		} catch (IllegalStateException e) {
+			//Expected.
+		}
+		assertTrue(checkpoint.exists());
+		crashing.batchesBeforeFailure = -1;
+		PatientImporter.Result resumed = new PatientImporter(crashing, 2).importFile(file, checkpoint, rejects);
+		assertTrue(resumed.isResumed());
+		assertEquals(expected.getImported(), resumed.getImported());
+		assertEquals(expected.getDuplicates(), resumed.getDuplicates());
+		assertEquals(expected.getInvalid(), resumed.getInvalid());
+		assertEquals(expectedRejects, countLines(rejects, null));
+		assertEquals(writer.inserted, crashing.inserted);
+		assertFalse(checkpoint.exists());
+	}
+
+	/**
+	 * Writes LINES patient records, 1% of them not valid, the rest with health
+	 * card numbers drawn among the million possible, so that some are duplicates.
+	 * @param file The file.
+	 * @param random The random numbers.
+	 * @return The number of lines that are not valid.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static int makeFile(File file, Random random) throws IOException {
+		String[] invalid = {"12345,Too Short,1990-01-01", "1234567,Too Long,1990-01-01", "12a456,Not Digits,1990-01-01",
+			"123456,Tilde ~ Name,1990-01-01", "123456,,1990-01-01", "123456,Bad Month,1990-13-01",
+			"123456,Not Leap,1900-02-29", "123456,Future,2999-01-01", "123456,Too,Many,Fields", "no commas"};
+		int invalidCount = 0;
+		Writer out = new BufferedWriter(new FileWriter(file), 64 * 1024);
+		try {
+			for (int line = 0; line < LINES; line++) {
+				if (random.nextInt(100) == 0) {
+					out.write(invalid[random.nextInt(invalid.length)]);
+					invalidCount++;
+				} else {
+					out.write(Integer.toString(1000000 + random.nextInt(1000000)).substring(1));
+					out.write(",Patient Name ");
+					out.write(Integer.toString(line));
+					out.write("," + (1920 + random.nextInt(100)) + "-" + Integer.toString(101 + random.nextInt(12)).substring(1)
+							+ "-" + Integer.toString(101 + random.nextInt(28)).substring(1));
+				}
+				//Some files come from Windows.
+				out.write(line % 2 == 0 ? "\n" : "\r\n");
+			}
+		} finally {
+			out.close();
+		}
+		return invalidCount;
+	}
+
+	/**
+	 * Counts the lines of a rejects file.
+	 * @param file The rejects file.
+	 * @param reason The reason of the lines counted, or null to count every line.
+	 * @return The number of lines.
+	 * @throws IOException if the file cannot be read.
+	 */
+	private static long countLines(File file, String reason) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		long lines = 0;
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t", 3);
+				if (reason == null || (fields.length == 3 && fields[1].equals(reason)))
+					lines++;
+			}
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+}
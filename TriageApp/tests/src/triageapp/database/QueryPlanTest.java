@@ -0,0 +1,474 @@
+package triageapp.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks how SQLite runs the SQL of TriageDBAdapter. Builds the database
+ * schema (main and archive tables, indexes and views) in memory, fills it
+ * with a large generated ER, then captures the EXPLAIN QUERY PLAN and the
+ * median latency of every query. A query fails if it scans a whole table
+ * (unless it has to, like fetchAllPatients) or is slower than its budget.
+ * The database is generated once, for every test.
+ * <p>
+ * It runs on a desktop JVM, on plain Linux, with an embedded SQLite JDBC
+ * driver (such as org.xerial:sqlite-jdbc) on the classpath, next to JUnit,
+ * the Android SDK's android.jar and the app's classes:
+ * "java -cp junit.jar:sqlite-jdbc.jar:android.jar:bin/classes:tests/bin/classes
+ * junit.textui.TestRunner triageapp.database.QueryPlanTest".
+ * The SQL checked is that of the TriageDBAdapter constants the app runs.
+ */
+public class QueryPlanTest extends TestCase {
+
+	/** The number of generated Patients. */
+	private static final int PATIENTS = 10000;
+	/** The number of closed ERVisits of each generated Patient. */
+	private static final int CLOSED_VISITS_PER_PATIENT = 4;
+	/** One generated Patient in OPEN_VISIT_EVERY has an open ERVisit. */
+	private static final int OPEN_VISIT_EVERY = 20;
+	/** The number of VitalSigns of each generated ERVisit. */
+	private static final int VITALS_PER_VISIT = 4;
+	/** The number of times each query is timed. */
+	private static final int RUNS = 25;
+	/** The arrival time of the first generated ERVisit (2013-01-01). */
+	private static final long FIRST_ARRIVAL = 1356998400000L;
+	/** The time between two generated ERVisits of a Patient (30 days). */
+	private static final long VISIT_INTERVAL = 30L * 24 * 60 * 60 * 1000;
+	/** The class name of the SQLite JDBC driver. */
+	private static final String DRIVER = "org.sqlite.JDBC";
+	/** The URL of an in-memory database of the SQLite JDBC driver. */
+	private static final String IN_MEMORY = "jdbc:sqlite::memory:";
+
+	/** A query of TriageDBAdapter with its sample parameters and its budget. */
+	private static final class CheckedQuery {
+		/** The TriageDBAdapter method running the query. */
+		final String name;
+		/** The SQL of the query. */
+		final String sql;
+		/** Whether the query has to scan a whole table. */
+		final boolean mayScan;
+		/** The latency budget of a SELECT, in milliseconds. */
+		final double budgetMillis;
+		/** The names of the sample parameters of the query, in order. */
+		final String[] params;
+
+		CheckedQuery(String name, String sql, boolean mayScan, double budgetMillis, String... params) {
+			this.name = name;
+			this.sql = sql;
+			this.mayScan = mayScan;
+			this.budgetMillis = budgetMillis;
+			this.params = params;
+		}
+	}
+
+	/** The sample health card number, of a Patient with an open ERVisit. */
+	private static final String SAMPLE_HEALTH_CARD = "000100";
+	/** The name of the health card number parameter. */
+	private static final String HEALTH_CARD = "healthCard";
+	/** The name of the ERVisit id parameter. */
+	private static final String VISIT_ID = "visit";
+	/** The name of the arrival time parameter of the archiving query. */
+	private static final String ARRIVED_BEFORE = "arrivedBefore";
+	/** The name of the username (and password) parameter. */
+	private static final String USERNAME = "username";
+	/** The name of the role name parameter. */
+	private static final String ROLE = "role";
+	/** The name of the urgency parameter. */
+	private static final String URGENCY = "urgency";
+	/** The name of the page size parameter of the medical record. */
+	private static final String LIMIT = "limit";
+	/** The name of the page offset parameter of the medical record. */
+	private static final String OFFSET = "offset";
+
+	/** The generated database, shared by the tests. */
+	private static Connection db;
+	/** The id of a closed ERVisit of the sample Patient. */
+	private static long sampleVisitId;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		synchronized (QueryPlanTest.class) {
+			if (db == null) {
+				Class.forName(DRIVER);
+				Connection connection = DriverManager.getConnection(IN_MEMORY);
+				createSchema(connection);
+				sampleVisitId = populate(connection, PATIENTS);
+				db = connection;
+			}
+		}
+	}
+
+	/**
+	 * Checks that no query scans a whole table, unless it has to.
+	 * @throws SQLException if a query cannot be explained.
+	 */
+	public void testNoQueryScansATable() throws SQLException {
+		List<String> problems = new ArrayList<String>();
+		Set<String> tables = tables(db);
+		for (CheckedQuery query : queries()) {
+			if (query.mayScan)
+				continue;
+			for (String step : explain(db, query.sql, sampleParameters(query))) {
+				String scanned = scannedTable(step);
+				if (scanned != null && tables.contains(scanned))
+					problems.add(query.name + ": " + step);
+			}
+		}
+		assertTrue("Full scans: " + problems, problems.isEmpty());
+	}
+
+	/**
+	 * Checks that every SELECT runs within its budget.
+	 * @throws SQLException if a query cannot be run.
+	 */
+	public void testQueriesWithinBudget() throws SQLException {
+		List<String> problems = new ArrayList<String>();
+		for (CheckedQuery query : queries()) {
+			if (!query.sql.trim().toUpperCase(Locale.US).startsWith("SELECT"))
+				continue;
+			double millis = medianMillis(db, query.sql, sampleParameters(query));
+			if (millis > query.budgetMillis)
+				problems.add(String.format(Locale.US, "%s: %.3f ms over the budget of %.1f ms",
+						query.name, millis, query.budgetMillis));
+		}
+		assertTrue(problems.toString(), problems.isEmpty());
+	}
+
+	/**
+	 * Returns the queries to check: every query and lookup statement of TriageDBAdapter.
+	 * @return The queries.
+	 */
+	private static List<CheckedQuery> queries() {
+		List<CheckedQuery> queries = new ArrayList<CheckedQuery>();
+		queries.add(new CheckedQuery("fetchAllPatients",
+				TriageDBAdapter.FETCH_ALL_PATIENTS, true, 50));
+		queries.add(new CheckedQuery("fetchCurrentERVisitForThisPatient",
+				TriageDBAdapter.FETCH_CURRENT_ERVISIT_FOR_THIS_PATIENT, false, 2, HEALTH_CARD));
+		queries.add(new CheckedQuery("fetchPrescriptionsForThisVisit",
+				TriageDBAdapter.FETCH_PRESCRIPTIONS_FOR_THIS_VISIT, false, 2, VISIT_ID));
+		queries.add(new CheckedQuery("fetchVitalSignsForThisVisit",
+				TriageDBAdapter.FETCH_VITALS_FOR_THIS_VISIT, false, 2, VISIT_ID));
+		queries.add(new CheckedQuery("fetchVitalSignsBlockForThisVisit",
+				TriageDBAdapter.FETCH_VITALS_BLOCK_FOR_THIS_VISIT, false, 2, VISIT_ID));
+		queries.add(new CheckedQuery("fetchMedicalRecordForThisPatient",
+				TriageDBAdapter.FETCH_MEDICAL_RECORD, false, 2, HEALTH_CARD));
+		queries.add(new CheckedQuery("fetchMedicalRecordPageForThisPatient",
+				TriageDBAdapter.FETCH_MEDICAL_RECORD_PAGE, false, 2, HEALTH_CARD, LIMIT, OFFSET));
+		queries.add(new CheckedQuery("fetchPatientsByUrgency",
+				TriageDBAdapter.FETCH_PATIENTS_BY_URGENCY, false, 10));
+		queries.add(new CheckedQuery("fetchPatientsSentToDoctor",
+				TriageDBAdapter.FETCH_PATIENTS_SENT_TO_DOCTOR, false, 10));
+		queries.add(new CheckedQuery("fetchUser",
+				TriageDBAdapter.FETCH_USER, false, 1, USERNAME, USERNAME));
+		queries.add(new CheckedQuery("createUser (role)",
+				TriageDBAdapter.FETCH_ROLE_ID, false, 1, ROLE));
+		queries.add(new CheckedQuery("createERVisit (patient)",
+				TriageDBAdapter.FETCH_PATIENT_ID, false, 1, HEALTH_CARD));
+		queries.add(new CheckedQuery("createVitalSigns (update)",
+				TriageDBAdapter.UPDATE_ERVISIT_URGENCY, false, 0, URGENCY, VISIT_ID));
+		queries.add(new CheckedQuery("compactVitalSignsForThisVisit (delete block)",
+				TriageDBAdapter.DELETE_VITALS_BLOCK_FOR_THIS_VISIT, false, 0, VISIT_ID));
+		queries.add(new CheckedQuery("compactVitalSignsForThisVisit (delete rows)",
+				TriageDBAdapter.DELETE_VITALS_FOR_THIS_VISIT, false, 0, VISIT_ID));
+		queries.add(new CheckedQuery("compactClosedVisits",
+				TriageDBAdapter.FETCH_CLOSED_VISITS_TO_COMPACT, true, 100));
+		queries.add(new CheckedQuery("archiveClosedVisits (batch)",
+				TriageDBAdapter.FETCH_VISITS_TO_ARCHIVE, false, 10, ARRIVED_BEFORE));
+		for (int i = 0; i < TriageDBAdapter.ARCHIVE_BATCH.length; i++)
+			queries.add(new CheckedQuery("archiveClosedVisits (move " + (i + 1) + ")",
+					TriageDBAdapter.ARCHIVE_BATCH[i], false, 0));
+		return queries;
+	}
+
+	/**
+	 * Returns the sample parameters of a query.
+	 * @param query The query.
+	 * @return The sample values of its parameters.
+	 */
+	private static String[] sampleParameters(CheckedQuery query) {
+		String[] params = new String[query.params.length];
+		for (int i = 0; i < params.length; i++)
+			params[i] = sampleParameter(query.params[i], sampleVisitId);
+		return params;
+	}
+
+	/**
+	 * Returns the sample value of a query parameter.
+	 * @param name The name of the parameter.
+	 * @param visitId The id of a closed ERVisit of the sample Patient.
+	 * @return The sample value.
+	 */
+	private static String sampleParameter(String name, long visitId) {
+		if (HEALTH_CARD.equals(name))
+			return SAMPLE_HEALTH_CARD;
+		if (VISIT_ID.equals(name))
+			return Long.toString(visitId);
+		if (ARRIVED_BEFORE.equals(name))
+			return Long.toString(FIRST_ARRIVAL + VISIT_INTERVAL);
+		if (URGENCY.equals(name))
+			return "1";
+		if (LIMIT.equals(name))
+			return "20";
+		if (OFFSET.equals(name))
+			return "0";
+		// The generated nurse's username, password and role are all "nurse".
+		return "nurse";
+	}
+
+	/**
+	 * Creates the tables, indexes and views of DBAdapter, with an in-memory archive database.
+	 * @param db The database.
+	 * @throws SQLException if the schema cannot be created.
+	 */
+	private static void createSchema(Connection db) throws SQLException {
+		List<String> schema = new ArrayList<String>();
+		schema.add("ATTACH DATABASE ':memory:' AS archive");
+		for (String sql : Arrays.asList(DBAdapter.DATABASE_CREATE_ROLE, DBAdapter.DATABASE_CREATE_PATIENT,
+				DBAdapter.DATABASE_CREATE_ERVISIT, DBAdapter.DATABASE_CREATE_VITALSIGNS,
+				DBAdapter.DATABASE_CREATE_VITALSIGNS_BLOCK, DBAdapter.DATABASE_CREATE_USER,
+				DBAdapter.DATABASE_CREATE_PRESCRIPTION, DBAdapter.DATABASE_CREATE_PHYSICIAN_ASSIGNMENT,
+				DBAdapter.ARCHIVE_CREATE_ERVISIT,
+				DBAdapter.ARCHIVE_CREATE_VITALSIGNS, DBAdapter.ARCHIVE_CREATE_VITALSIGNS_BLOCK,
+				DBAdapter.ARCHIVE_CREATE_PRESCRIPTION, TriageDBAdapter.CREATE_ARCHIVE_BATCH))
+			schema.add(sql);
+		schema.addAll(Arrays.asList(DBAdapter.DATABASE_CREATE_INDEXES));
+		schema.addAll(Arrays.asList(DBAdapter.ARCHIVE_CREATE_INDEXES));
+		schema.addAll(Arrays.asList(DBAdapter.CREATE_HISTORY_VIEWS));
+		Statement statement = db.createStatement();
+		try {
+			for (String sql : schema)
+				statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Fills the database: Patients with closed ERVisits (the older half archived,
+	 * with compacted VitalSigns), some open ERVisits with VitalSigns rows,
+	 * Prescriptions, and the nurse User.
+	 * @param db The database.
+	 * @param patients The number of Patients.
+	 * @return The id of a closed ERVisit of the sample Patient.
+	 * @throws SQLException if the database cannot be filled.
+	 */
+	private static long populate(Connection db, int patients) throws SQLException {
+		db.setAutoCommit(false);
+		long sampleVisitId = 0;
+		List<PreparedStatement> statements = new ArrayList<PreparedStatement>();
+		try {
+			Statement statement = db.createStatement();
+			statement.execute("INSERT INTO Role (roleName) VALUES ('nurse')");
+			statement.execute("INSERT INTO Role (roleName) VALUES ('physician')");
+			statement.execute("INSERT INTO User (username, password, RoleID) VALUES ('nurse', 'nurse', 1)");
+			statement.close();
+			PreparedStatement patient = prepare(db, statements,
+					"INSERT INTO Patient (_ID, healthCardNumber, name, dob) VALUES (?, ?, ?, '1980-01-01')");
+			PreparedStatement[] visit = {
+					prepare(db, statements, "INSERT INTO main.ERVisit VALUES (?, ?, ?, ?, ?, ?)"),
+					prepare(db, statements, "INSERT INTO archive.ERVisit VALUES (?, ?, ?, ?, ?, ?)")};
+			PreparedStatement[] block = {
+					prepare(db, statements, "INSERT INTO main.VitalSignsBlock VALUES (?, ?, ?, ?)"),
+					prepare(db, statements, "INSERT INTO archive.VitalSignsBlock VALUES (?, ?, ?, ?)")};
+			PreparedStatement[] prescription = {
+					prepare(db, statements, "INSERT INTO main.Prescription VALUES (?, ?, 'Medication', 'Instructions')"),
+					prepare(db, statements, "INSERT INTO archive.Prescription VALUES (?, ?, 'Medication', 'Instructions')")};
+			PreparedStatement vitals = prepare(db, statements,
+					"INSERT INTO VitalSigns (ERVisitID, systolic, diastolic, temperature, heartRate, timestamp) "
+					+ "VALUES (?, 120, 80, 37.0, 70.0, ?)");
+			long visitId = 0;
+			for (int p = 1; p <= patients; p++) {
+				String healthCard = String.format(Locale.US, "%06d", p);
+				patient.setLong(1, p);
+				patient.setString(2, healthCard);
+				patient.setString(3, "Patient " + p);
+				patient.executeUpdate();
+				int visits = CLOSED_VISITS_PER_PATIENT + (p % OPEN_VISIT_EVERY == 0 ? 1 : 0);
+				for (int v = 0; v < visits; v++) {
+					visitId++;
+					boolean closed = v < CLOSED_VISITS_PER_PATIENT;
+					// The older half of the closed ERVisits are in the archive database.
+					int database = closed && v < CLOSED_VISITS_PER_PATIENT / 2 ? 1 : 0;
+					long arrival = FIRST_ARRIVAL + v * VISIT_INTERVAL + p;
+					visit[database].setLong(1, visitId);
+					visit[database].setLong(2, p);
+					visit[database].setLong(3, arrival);
+					if (closed || p % (2 * OPEN_VISIT_EVERY) == 0)
+						visit[database].setLong(4, arrival + 60000);
+					else
+						visit[database].setNull(4, Types.INTEGER);
+					visit[database].setInt(5, closed ? 1 : 0);
+					visit[database].setInt(6, p % 5);
+					visit[database].executeUpdate();
+					prescription[database].setLong(1, visitId);
+					prescription[database].setLong(2, visitId);
+					prescription[database].executeUpdate();
+					if (closed) {
+						block[database].setLong(1, visitId);
+						block[database].setLong(2, visitId);
+						block[database].setInt(3, VITALS_PER_VISIT);
+						block[database].setBytes(4, new byte[8 * VITALS_PER_VISIT]);
+						block[database].executeUpdate();
+						if (healthCard.equals(SAMPLE_HEALTH_CARD))
+							sampleVisitId = visitId;
+					} else {
+						for (int i = 0; i < VITALS_PER_VISIT; i++) {
+							vitals.setLong(1, visitId);
+							vitals.setLong(2, arrival + i * 60000L);
+							vitals.executeUpdate();
+						}
+					}
+				}
+			}
+			db.commit();
+		} finally {
+			for (PreparedStatement statement : statements)
+				statement.close();
+			db.setAutoCommit(true);
+		}
+		Statement analyze = db.createStatement();
+		try {
+			analyze.execute("ANALYZE");
+		} finally {
+			analyze.close();
+		}
+		return sampleVisitId;
+	}
+
+	/**
+	 * Prepares a statement, and adds it to the statements to close.
+	 * @param db The database.
+	 * @param statements The statements to close.
+	 * @param sql The SQL of the statement.
+	 * @return The statement.
+	 * @throws SQLException if the statement cannot be prepared.
+	 */
+	private static PreparedStatement prepare(Connection db, List<PreparedStatement> statements, String sql)
+			throws SQLException {
+		PreparedStatement statement = db.prepareStatement(sql);
+		statements.add(statement);
+		return statement;
+	}
+
+	/**
+	 * Prepares a query with its parameters, bound as Strings like
+	 * SQLiteDatabase.rawQuery() binds them.
+	 * @param db The database.
+	 * @param sql The query.
+	 * @param params The parameters of the query.
+	 * @return The statement, to be closed by the caller.
+	 * @throws SQLException if the query cannot be prepared.
+	 */
+	private static PreparedStatement prepare(Connection db, String sql, String[] params) throws SQLException {
+		PreparedStatement statement = db.prepareStatement(sql);
+		for (int i = 0; i < params.length; i++)
+			statement.setString(i + 1, params[i]);
+		return statement;
+	}
+
+	/**
+	 * Returns the EXPLAIN QUERY PLAN of a query, one line per step.
+	 * @param db The database.
+	 * @param sql The query.
+	 * @param params The parameters of the query.
+	 * @return The steps of the plan.
+	 * @throws SQLException if the query cannot be explained.
+	 */
+	private static List<String> explain(Connection db, String sql, String[] params) throws SQLException {
+		List<String> plan = new ArrayList<String>();
+		PreparedStatement statement = prepare(db, "EXPLAIN QUERY PLAN " + sql, params);
+		try {
+			ResultSet rows = statement.executeQuery();
+			int detail = rows.getMetaData().getColumnCount(); //The detail column is the last.
+			while (rows.next())
+				plan.add(rows.getString(detail));
+			rows.close();
+		} finally {
+			statement.close();
+		}
+		return plan;
+	}
+
+	/**
+	 * Returns the table scanned by a step of a plan.
+	 * @param step The step, e.g. "SCAN ERVisit" or "SCAN TABLE main.ERVisit USING INDEX ...".
+	 * @return The name of the scanned table or view, or null if the step is not a scan.
+	 */
+	private static String scannedTable(String step) {
+		if (!step.startsWith("SCAN "))
+			return null;
+		String name = step.substring("SCAN ".length());
+		if (name.startsWith("TABLE "))
+			name = name.substring("TABLE ".length());
+		int end = name.indexOf(' ');
+		if (end >= 0)
+			name = name.substring(0, end);
+		int dot = name.indexOf('.');
+		return dot >= 0 ? name.substring(dot + 1) : name;
+	}
+
+	/**
+	 * Returns the names of the tables (not views) of the main and archive databases.
+	 * Temporary tables, like the ArchiveBatch list of ERVisit ids, are meant to be scanned.
+	 * @param db The database.
+	 * @return The names of the tables.
+	 * @throws SQLException if the schema cannot be read.
+	 */
+	private static Set<String> tables(Connection db) throws SQLException {
+		Set<String> tables = new HashSet<String>();
+		Statement statement = db.createStatement();
+		try {
+			ResultSet rows = statement.executeQuery("SELECT name FROM main.sqlite_master WHERE type='table' "
+					+ "UNION SELECT name FROM archive.sqlite_master WHERE type='table'");
+			while (rows.next())
+				tables.add(rows.getString(1));
+			rows.close();
+		} finally {
+			statement.close();
+		}
+		return tables;
+	}
+
+	/**
+	 * Runs a query RUNS times, reading every row, and returns its median latency.
+	 * @param db The database.
+	 * @param sql The query.
+	 * @param params The parameters of the query.
+	 * @return The median latency in milliseconds.
+	 * @throws SQLException if the query cannot be run.
+	 */
+	private static double medianMillis(Connection db, String sql, String[] params) throws SQLException {
+		long[] nanos = new long[RUNS];
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			PreparedStatement statement = prepare(db, sql, params);
+			try {
+				//Reads every row, like ERAdmin does.
+				ResultSet rows = statement.executeQuery();
+				while (rows.next())
+					rows.getObject(1);
+				rows.close();
+			} finally {
+				statement.close();
+			}
+			nanos[run] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		return nanos[RUNS / 2] / 1000000.0;
+	}
+}
@@ -0,0 +1,191 @@
+package triageapp.export;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks that a columnar file written by ColumnarWriter reads back through
+ * ColumnarReader as written, nulls included, and that the blocks outside a
+ * range of arrival times are skipped.
+ */
+public class ColumnarWriterTest extends TestCase {
+
+	/** The number of ERVisits a day. */
+	private static final int VISITS_PER_DAY = 300;
+	/** The number of days of history. */
+	private static final int DAYS = 365;
+	/** The number of ERVisits written. */
+	private static final int VISITS = VISITS_PER_DAY * DAYS;
+	/** The number of milliseconds in a day. */
+	private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+	/** The time the history starts. */
+	private static final long START = 1104537600000L;
+
+	/** The arrival time of each ERVisit. */
+	private long[] arrivals;
+	/** The time each ERVisit was seen by the doctor, or NULL. */
+	private long[] seen;
+	/** The urgency of each ERVisit. */
+	private long[] urgencies;
+	/** The temperature of each ERVisit. */
+	private double[] temperatures;
+	/** The health card number of each ERVisit, or null. */
+	private String[] healthCardNumbers;
+	/** The columnar file. */
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(7);
+		arrivals = new long[VISITS];
+		seen = new long[VISITS];
+		urgencies = new long[VISITS];
+		temperatures = new double[VISITS];
+		healthCardNumbers = new String[VISITS];
+		long time = START;
+		for (int i = 0; i < VISITS; i++) {
+			time += random.nextInt((int) (2 * DAY_MILLIS / VISITS_PER_DAY));
+			arrivals[i] = time;
+			seen[i] = random.nextInt(10) == 0 ? ColumnarFormat.NULL : time + random.nextInt(3 * 60 * 60 * 1000);
+			urgencies[i] = random.nextInt(5);
+			temperatures[i] = 36 + random.nextInt(50) / 10.0;
+			//Patients come back, so health card numbers repeat; a few are unknown.
+			healthCardNumbers[i] = random.nextInt(100) == 0 ? null
+					: String.valueOf(1000000000L + random.nextInt(VISITS / 3));
+		}
+		file = File.createTempFile("visits", ".tcf");
+		ColumnarWriter writer = new ColumnarWriter(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		writer.startTable(ColumnarExporter.ERVISIT_TABLE,
+				new String[] {"id", "healthCardNumber", "arrivalTime", "timeSeenByDoctor", "urgency", "temperature"},
+				new byte[] {ColumnarFormat.LONG, ColumnarFormat.STRING, ColumnarFormat.LONG,
+					ColumnarFormat.LONG, ColumnarFormat.LONG, ColumnarFormat.DOUBLE});
+		for (int i = 0; i < VISITS; i++) {
+			writer.setLong(0, i + 1);
+			writer.setString(1, healthCardNumbers[i]);
+			writer.setLong(2, arrivals[i]);
+			writer.setLong(3, seen[i]);
+			writer.setLong(4, urgencies[i]);
+			writer.setDouble(5, temperatures[i]);
+			writer.endRow();
+		}
+		writer.startTable("Empty", new String[] {"id"}, new byte[] {ColumnarFormat.LONG});
+		writer.close();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Checks that every column of every row reads back as written.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public void testRoundTrip() throws IOException {
+		ColumnarReader reader = new ColumnarReader(file);
+		try {
+			assertEquals(2, reader.getTables().size());
+			ColumnarReader.Table table = reader.getTable(ColumnarExporter.ERVISIT_TABLE);
+			assertEquals(VISITS, table.getRowCount());
+			assertEquals(ColumnarFormat.STRING, table.getType("healthCardNumber"));
+			assertEquals(ColumnarFormat.DOUBLE, table.getType("temperature"));
+			int row = 0;
+			for (ColumnarReader.Block block : table.getBlocks()) {
+				long[] blockIds = block.readLongs("id");
+				String[] blockHealthCardNumbers = block.readStrings("healthCardNumber");
+				long[] blockArrivals = block.readLongs("arrivalTime");
+				long[] blockSeen = block.readLongs("timeSeenByDoctor");
+				long[] blockUrgencies = block.readLongs("urgency");
+				double[] blockTemperatures = block.readDoubles("temperature");
+				for (int i = 0; i < block.getRowCount(); i++, row++) {
+					assertEquals(row + 1, blockIds[i]);
+					assertEquals("row " + row, healthCardNumbers[row], blockHealthCardNumbers[i]);
+					assertEquals("row " + row, arrivals[row], blockArrivals[i]);
+					assertEquals("row " + row, seen[row], blockSeen[i]);
+					assertEquals("row " + row, urgencies[row], blockUrgencies[i]);
+					assertEquals("row " + row, temperatures[row], blockTemperatures[i], 0);
+				}
+			}
+			assertEquals(VISITS, row);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Checks that a table without rows reads back empty, and that a missing
+	 * table is null.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public void testEmptyTable() throws IOException {
+		ColumnarReader reader = new ColumnarReader(file);
+		try {
+			ColumnarReader.Table table = reader.getTable("Empty");
+			assertEquals(0, table.getRowCount());
+			assertTrue(table.getBlocks().isEmpty());
+			assertNull(reader.getTable("Missing"));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Checks that reading one month of arrivals finds every ERVisit of the
+	 * month in the few blocks around it.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public void testRangeSkipsBlocks() throws IOException {
+		long from = START + 180 * DAY_MILLIS;
+		long to = from + 30 * DAY_MILLIS;
+		int expected = 0;
+		for (long arrival : arrivals) {
+			if (arrival >= from && arrival < to)
+				expected++;
+		}
+		ColumnarReader reader = new ColumnarReader(file);
+		try {
+			ColumnarReader.Table table = reader.getTable(ColumnarExporter.ERVISIT_TABLE);
+			int inRange = 0;
+			int blocksRead = 0;
+			for (ColumnarReader.Block block : table.getBlocks("arrivalTime", from, to)) {
+				blocksRead++;
+				for (long arrival : block.readLongs("arrivalTime")) {
+					if (arrival >= from && arrival < to)
+						inRange++;
+				}
+			}
+			assertEquals(expected, inRange);
+			assertTrue(blocksRead + " of " + table.getBlocks().size() + " blocks read",
+					blocksRead <= 2 + expected / ColumnarFormat.BLOCK_ROWS);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Checks that a file which is not a columnar file is rejected.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void testNotColumnarFile() throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("id,arrivalTime\n1,1104537600000\n".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		try {
+			new ColumnarReader(file).close();
+			fail("A text file was read as a columnar file");
+		} catch (IOException e) {
+			//Expected.
+		}
+	}
+}
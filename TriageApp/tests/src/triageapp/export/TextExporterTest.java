@@ -0,0 +1,167 @@
+package triageapp.export;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks the NDJSON and CSV rows written by the RowWriters of TextExporter,
+ * escaping and null values included, and that each row reaches the Writer as
+ * it is written rather than being held.
+ */
+public class TextExporterTest extends TestCase {
+
+	/** The number of rows streamed. */
+	private static final int ROWS = 100 * 1000;
+
+	/**
+	 * Checks the NDJSON of two Prescription rows, one with a null and an empty String.
+	 * @throws IOException never, as the Writer is in memory.
+	 */
+	public void testNdjsonPrescriptions() throws IOException {
+		assertEquals("{\"table\":\"Prescription\",\"ervisitId\":7,\"medication\":\"Tylenol, \\\"extra\\\"\",\"instructions\":\"a\\nb\\\\\"}\n"
+				+ "{\"table\":\"Prescription\",\"ervisitId\":8,\"medication\":null,\"instructions\":\"\"}\n",
+				writePrescriptions(new TextExporter.NdjsonRowWriter(new StringWriter())));
+	}
+
+	/**
+	 * Checks the CSV of two Prescription rows, one with a null and an empty String.
+	 * @throws IOException never, as the Writer is in memory.
+	 */
+	public void testCsvPrescriptions() throws IOException {
+		assertEquals("ervisitId,medication,instructions\r\n"
+				+ "7,\"Tylenol, \"\"extra\"\"\",\"a\nb\\\"\r\n"
+				+ "8,,\"\"\r\n",
+				writePrescriptions(new TextExporter.CsvRowWriter(new StringWriter())));
+	}
+
+	/**
+	 * Checks a VitalSigns row in both formats, a temperature which is not a
+	 * number being written as a null value.
+	 * @throws IOException never, as the Writer is in memory.
+	 */
+	public void testVitalSigns() throws IOException {
+		assertEquals("{\"table\":\"VitalSigns\",\"ervisitId\":3,\"timestamp\":1104537600000,\"systolic\":120,"
+				+ "\"diastolic\":80,\"temperature\":36.6,\"heartRate\":72.0}\n"
+				+ "{\"table\":\"VitalSigns\",\"ervisitId\":3,\"timestamp\":1104537660000,\"systolic\":121,"
+				+ "\"diastolic\":81,\"temperature\":null,\"heartRate\":73.5}\n",
+				writeVitalSigns(new TextExporter.NdjsonRowWriter(new StringWriter())));
+		assertEquals("ervisitId,timestamp,systolic,diastolic,temperature,heartRate\r\n"
+				+ "3,1104537600000,120,80,36.6,72.0\r\n"
+				+ "3,1104537660000,121,81,,73.5\r\n",
+				writeVitalSigns(new TextExporter.CsvRowWriter(new StringWriter())));
+	}
+
+	/**
+	 * Checks that each of ROWS VitalSigns rows is written to the Writer as soon
+	 * as it ends, in both formats, so that the memory used does not grow with
+	 * the number of rows.
+	 * @throws IOException never, as the Writers are in memory.
+	 */
+	public void testRowsStreamed() throws IOException {
+		for (int format = TextExporter.NDJSON; format <= TextExporter.CSV; format++) {
+			CountingWriter out = new CountingWriter();
+			TextExporter.RowWriter writer = format == TextExporter.NDJSON
+					? new TextExporter.NdjsonRowWriter(out) : new TextExporter.CsvRowWriter(out);
+			writer.startTable(ColumnarExporter.VITALS_TABLE, ColumnarExporter.VITALS_COLUMNS);
+			long time = 1104537600000L;
+			for (int row = 0; row < ROWS; row++) {
+				long before = out.count;
+				writer.writeLong(row / 4);
+				writer.writeLong(time + row * 60000L);
+				writer.writeLong(110 + row % 40);
+				writer.writeLong(70 + row % 25);
+				writer.writeFloat(36.5f + (row % 30) / 10f);
+				writer.writeFloat(60 + row % 50);
+				writer.endRow();
+				assertTrue("row " + row, out.count > before);
+				assertEquals("row " + row, '\n', out.last);
+			}
+		}
+	}
+
+	/**
+	 * Writes two Prescription rows, one with a null and an empty String.
+	 * @param writer The RowWriter, writing to a StringWriter.
+	 * @return The text written.
+	 * @throws IOException never, as the Writer is in memory.
+	 */
+	private static String writePrescriptions(TextExporter.RowWriter writer) throws IOException {
+		writer.startTable(ColumnarExporter.PRESCRIPTION_TABLE, ColumnarExporter.PRESCRIPTION_COLUMNS);
+		writer.writeLong(7);
+		writer.writeString("Tylenol, \"extra\"");
+		writer.writeString("a\nb\\");
+		writer.endRow();
+		writer.writeLong(8);
+		writer.writeString(null);
+		writer.writeString("");
+		writer.endRow();
+		return writer.out.toString();
+	}
+
+	/**
+	 * Writes two VitalSigns rows, the second without a temperature.
+	 * @param writer The RowWriter, writing to a StringWriter.
+	 * @return The text written.
+	 * @throws IOException never, as the Writer is in memory.
+	 */
+	private static String writeVitalSigns(TextExporter.RowWriter writer) throws IOException {
+		writer.startTable(ColumnarExporter.VITALS_TABLE, ColumnarExporter.VITALS_COLUMNS);
+		writer.writeLong(3);
+		writer.writeLong(1104537600000L);
+		writer.writeLong(120);
+		writer.writeLong(80);
+		writer.writeFloat(36.6f);
+		writer.writeFloat(72);
+		writer.endRow();
+		writer.writeLong(3);
+		writer.writeLong(1104537660000L);
+		writer.writeLong(121);
+		writer.writeLong(81);
+		writer.writeFloat(Float.NaN);
+		writer.writeFloat(73.5f);
+		writer.endRow();
+		return writer.out.toString();
+	}
+
+	/** A Writer that counts the chars written to it, keeps the last one, and discards them. */
+	private static final class CountingWriter extends Writer {
+		/** The number of chars written. */
+		long count;
+		/** The last char written. */
+		char last;
+
+		@Override
+		public void write(int c) {
+			count++;
+			last = (char) c;
+		}
+
+		@Override
+		public void write(String text) {
+			if (text.length() > 0) {
+				count += text.length();
+				last = text.charAt(text.length() - 1);
+			}
+		}
+
+		@Override
+		public void write(char[] buffer, int offset, int length) {
+			if (length > 0) {
+				count += length;
+				last = buffer[offset + length - 1];
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package triageapp.metrics;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import triageapp.components.InvalidUserInputException;
+import triageapp.components.Patient;
+import triageapp.components.Prescription;
+import triageapp.components.VitalSigns;
+
+
+/**
+ * Measures the heap footprint of the triageapp.components object model:
+ * builds the Patient directory at a given scale (Patients, each with an
+ * ERVisit holding VitalSigns and Prescriptions) and reports the retained
+ * bytes per Patient, per ERVisit, per VitalSigns and per Prescription.
+ * FootprintAnalyzerTest fails if a budget is exceeded, so a change that
+ * makes the model bigger is noticed.
+ *
+ * Sizes are estimated by walking the object graph with the Dalvik object
+ * layout (8 byte object header, 12 byte array header, 4 byte references,
+ * objects aligned to 8 bytes), so the numbers are the same on every JVM.
+ */
+public final class FootprintAnalyzer {
+
+	/** The retained bytes a Patient may use, including its directory entry. */
+	public static final long BUDGET_BYTES_PER_PATIENT = 256;
+	/** The retained bytes an ERVisit without records may use. */
+	public static final long BUDGET_BYTES_PER_VISIT = 72;
+	/** The retained bytes a VitalSigns record may use. */
+	public static final long BUDGET_BYTES_PER_VITAL = 48;
+	/** The retained bytes a Prescription may use, without its Strings. */
+	public static final long BUDGET_BYTES_PER_PRESCRIPTION = 48;
+
+	/** The size of an object header, in bytes. */
+	private static final int OBJECT_HEADER = 8;
+	/** The size of an array header (object header and length), in bytes. */
+	private static final int ARRAY_HEADER = 12;
+	/** The size of a reference, in bytes. */
+	private static final int REFERENCE = 4;
+	/** The alignment of objects, in bytes. */
+	private static final int ALIGNMENT = 8;
+	/** The shallow size of an ArrayList (header, size, modCount, array). */
+	private static final int ARRAY_LIST_SIZE = align(OBJECT_HEADER + 4 + 4 + REFERENCE);
+	/** The shallow size of a HashMap (header, table, size, modCount, threshold, views). */
+	private static final int HASH_MAP_SIZE = align(OBJECT_HEADER + REFERENCE + 4 + 4 + 4 + 3 * REFERENCE);
+	/** The size of a HashMap entry (header, hash, key, value, next). */
+	private static final int HASH_MAP_ENTRY_SIZE = align(OBJECT_HEADER + 4 + 3 * REFERENCE);
+	/** The shallow size of a String (header, value, offset, count, hash). */
+	private static final int STRING_SIZE = align(OBJECT_HEADER + REFERENCE + 4 + 4 + 4);
+	/** The fields of each class that has been walked, instance fields only. */
+	private static final Map<Class<?>, List<Field>> fieldsByClass = new HashMap<Class<?>, List<Field>>();
+
+	/** The per-record footprint of the object model at one scale. */
+	public static final class Report {
+		/** The number of Patients built. */
+		public final int patients;
+		/** The number of VitalSigns per ERVisit. */
+		public final int vitalsPerVisit;
+		/** The number of Prescriptions per ERVisit. */
+		public final int prescriptionsPerVisit;
+		/** The retained bytes per Patient. */
+		public final long bytesPerPatient;
+		/** The retained bytes per ERVisit. */
+		public final long bytesPerVisit;
+		/** The retained bytes per VitalSigns record. */
+		public final long bytesPerVital;
+		/** The retained bytes per Prescription, without its Strings. */
+		public final long bytesPerPrescription;
+
+		Report(int patients, int vitalsPerVisit, int prescriptionsPerVisit, long bytesPerPatient,
+				long bytesPerVisit, long bytesPerVital, long bytesPerPrescription) {
+			this.patients = patients;
+			this.vitalsPerVisit = vitalsPerVisit;
+			this.prescriptionsPerVisit = prescriptionsPerVisit;
+			this.bytesPerPatient = bytesPerPatient;
+			this.bytesPerVisit = bytesPerVisit;
+			this.bytesPerVital = bytesPerVital;
+			this.bytesPerPrescription = bytesPerPrescription;
+		}
+
+		/**
+		 * Returns the budgets this Report exceeds.
+		 * @return A description of every exceeded budget, empty if none is exceeded.
+		 */
+		public List<String> checkBudgets() {
+			List<String> failures = new ArrayList<String>();
+			checkBudget(failures, "patient", bytesPerPatient, BUDGET_BYTES_PER_PATIENT);
+			checkBudget(failures, "visit", bytesPerVisit, BUDGET_BYTES_PER_VISIT);
+			if (vitalsPerVisit > 0)
+				checkBudget(failures, "vital", bytesPerVital, BUDGET_BYTES_PER_VITAL);
+			if (prescriptionsPerVisit > 0)
+				checkBudget(failures, "prescription", bytesPerPrescription, BUDGET_BYTES_PER_PRESCRIPTION);
+			return failures;
+		}
+
+		/**
+		 * Adds a failure if a measured size is over its budget.
+		 * @param failures The failures found so far.
+		 * @param record The kind of record measured.
+		 * @param bytes The measured bytes per record.
+		 * @param budget The budget in bytes per record.
+		 */
+		private static void checkBudget(List<String> failures, String record, long bytes, long budget) {
+			if (bytes > budget)
+				failures.add(record + ": " + bytes + " bytes, budget " + budget + " bytes");
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US,
+					"patients=%d vitals/visit=%d prescriptions/visit=%d bytes/patient=%d bytes/visit=%d bytes/vital=%d bytes/prescription=%d",
+					patients, vitalsPerVisit, prescriptionsPerVisit, bytesPerPatient, bytesPerVisit,
+					bytesPerVital, bytesPerPrescription);
+		}
+	}
+
+	/** This class only has static methods. */
+	private FootprintAnalyzer() {
+	}
+
+	/**
+	 * Builds the object model at a scale and measures it. Each record's cost is the
+	 * difference between the graph with and without records of its kind.
+	 * @param patients The number of Patients.
+	 * @param vitalsPerVisit The number of VitalSigns per ERVisit.
+	 * @param prescriptionsPerVisit The number of Prescriptions per ERVisit.
+	 * @return The Report of the scale.
+	 * @throws InvalidUserInputException if a generated record is invalid.
+	 */
+	public static Report analyze(int patients, int vitalsPerVisit, int prescriptionsPerVisit)
+			throws InvalidUserInputException {
+		if (patients <= 0)
+			throw new IllegalArgumentException("patients must be positive");
+		long directory = retainedSize(buildDirectory(patients, false, 0, 0));
+		long withVisits = retainedSize(buildDirectory(patients, true, 0, 0));
+		long withVitals = retainedSize(buildDirectory(patients, true, vitalsPerVisit, 0));
+		long withPrescriptions = retainedSize(buildDirectory(patients, true, vitalsPerVisit, prescriptionsPerVisit));
+		long emptyDirectory = retainedSize(new HashMap<String, Patient>());
+		// The name, date of birth and health card number are measured with the Patient.
+		// Every Prescription shares the same Strings, so only the record is measured.
+		return new Report(patients, vitalsPerVisit, prescriptionsPerVisit,
+				(directory - emptyDirectory) / patients,
+				(withVisits - directory) / patients,
+				vitalsPerVisit == 0 ? 0 : (withVitals - withVisits) / ((long) patients * vitalsPerVisit),
+				prescriptionsPerVisit == 0 ? 0 : (withPrescriptions - withVitals) / ((long) patients * prescriptionsPerVisit));
+	}
+
+	/**
+	 * Builds a Patient directory keyed by health card number, like ERAdmin's.
+	 * @param patients The number of Patients.
+	 * @param withVisits Whether each Patient has a current ERVisit.
+	 * @param vitalsPerVisit The number of VitalSigns per ERVisit.
+	 * @param prescriptionsPerVisit The number of Prescriptions per ERVisit.
+	 * @return The directory.
+	 * @throws InvalidUserInputException if a generated record is invalid.
+	 */
+	private static Map<String, Patient> buildDirectory(int patients, boolean withVisits,
+			int vitalsPerVisit, int prescriptionsPerVisit) throws InvalidUserInputException {
+		Map<String, Patient> directory = new HashMap<String, Patient>();
+		Prescription[] prescriptions = new Prescription[prescriptionsPerVisit];
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < patients; i++) {
+			String healthCardNumber = String.format(Locale.US, "%06d", i % 1000000);
+			String dob = String.format(Locale.US, "19%02d-%02d-%02d", i % 100, i % 12 + 1, i % 28 + 1);
+			Patient patient = new Patient("Patient " + i, dob, healthCardNumber);
+			if (withVisits) {
+				patient.addNewERVisit();
+				for (int v = 0; v < vitalsPerVisit; v++)
+					patient.getCurrentERVisit().addVitalsSignRecord(
+							new VitalSigns(120 + v, 80, 37.0f, 70 + v, now + v));
+				for (int p = 0; p < prescriptionsPerVisit; p++) {
+					if (prescriptions[p] == null)
+						prescriptions[p] = new Prescription("Medication " + p, "Instructions " + p);
+					patient.getCurrentERVisit().addPrescriptionRecord(
+							new Prescription(prescriptions[p].getMedicationName(), prescriptions[p].getInstructions()));
+				}
+			}
+			directory.put(healthCardNumber, patient);
+		}
+		return directory;
+	}
+
+	/**
+	 * Estimates the bytes retained by an object: the object and everything
+	 * reachable from it through instance fields, each counted once.
+	 * @param root The object.
+	 * @return The retained size in bytes.
+	 */
+	public static long retainedSize(Object root) {
+		IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+		LinkedList<Object> pending = new LinkedList<Object>();
+		pending.add(root);
+		long size = 0;
+		while (!pending.isEmpty()) {
+			Object object = pending.removeFirst();
+			if (object == null || visited.put(object, Boolean.TRUE) != null)
+				continue;
+			size += shallowSize(object, pending);
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the size of an object without the objects it refers to, and adds
+	 * those objects to the objects to visit.
+	 * @param object The object.
+	 * @param pending The objects to visit.
+	 * @return The shallow size in bytes.
+	 */
+	private static long shallowSize(Object object, List<Object> pending) {
+		Class<?> type = object.getClass();
+		if (type.isArray())
+			return arraySize(object, pending);
+		if (object instanceof String)
+			return STRING_SIZE + align(ARRAY_HEADER + 2 * ((String) object).length());
+		// Library collections are modelled rather than walked, since their
+		// fields differ between platforms and cannot always be reflected.
+		if (type == ArrayList.class) {
+			Collection<?> list = (Collection<?>) object;
+			pending.addAll(list);
+			return ARRAY_LIST_SIZE + (list.isEmpty() ? 0 : align(ARRAY_HEADER + REFERENCE * list.size()));
+		}
+		if (type == HashMap.class) {
+			Map<?, ?> map = (Map<?, ?>) object;
+			pending.addAll(map.keySet());
+			pending.addAll(map.values());
+			int capacity = 1;
+			while (capacity * 3 < map.size() * 4)
+				capacity <<= 1;
+			return HASH_MAP_SIZE + (long) HASH_MAP_ENTRY_SIZE * map.size()
+					+ (map.isEmpty() ? 0 : align(ARRAY_HEADER + REFERENCE * capacity));
+		}
+		if (type.getName().startsWith("java.")) {
+			// Boxed values and shared singletons such as Collections.emptyList().
+			return align(OBJECT_HEADER + 8);
+		}
+		long size = OBJECT_HEADER;
+		for (Field field : fields(type)) {
+			Class<?> fieldType = field.getType();
+			size += primitiveSize(fieldType);
+			if (!fieldType.isPrimitive()) {
+				try {
+					pending.add(field.get(object));
+				} catch (IllegalAccessException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return align(size);
+	}
+
+	/**
+	 * Returns the size of an array, and adds the objects it holds to the objects to visit.
+	 * @param array The array.
+	 * @param pending The objects to visit.
+	 * @return The size in bytes.
+	 */
+	private static long arraySize(Object array, List<Object> pending) {
+		Class<?> componentType = array.getClass().getComponentType();
+		int length = Array.getLength(array);
+		if (!componentType.isPrimitive()) {
+			for (int i = 0; i < length; i++)
+				pending.add(Array.get(array, i));
+		}
+		return align(ARRAY_HEADER + (long) primitiveSize(componentType) * length);
+	}
+
+	/**
+	 * Returns the size of a field or array element of a type.
+	 * @param type The type.
+	 * @return The size in bytes.
+	 */
+	private static int primitiveSize(Class<?> type) {
+		if (type == long.class || type == double.class)
+			return 8;
+		if (type == int.class || type == float.class)
+			return 4;
+		if (type == short.class || type == char.class)
+			return 2;
+		if (type == byte.class || type == boolean.class)
+			return 1;
+		return REFERENCE;
+	}
+
+	/**
+	 * Returns the instance fields of a class and its superclasses, made accessible.
+	 * @param type The class.
+	 * @return The instance fields.
+	 */
+	private static synchronized List<Field> fields(Class<?> type) {
+		List<Field> fields = fieldsByClass.get(type);
+		if (fields == null) {
+			fields = new ArrayList<Field>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers()))
+						continue;
+					field.setAccessible(true);
+					fields.add(field);
+				}
+			}
+			fieldsByClass.put(type, fields);
+		}
+		return fields;
+	}
+
+	/**
+	 * Rounds a size up to the object alignment.
+	 * @param size The size in bytes.
+	 * @return The aligned size.
+	 */
+	private static int align(long size) {
+		return (int) ((size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+	}
+}
@@ -0,0 +1,57 @@
+package triageapp.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks that the object model stays within its per-record heap budgets,
+ * at several scales, as measured by FootprintAnalyzer.
+ */
+public class FootprintAnalyzerTest extends TestCase {
+
+	/** The VitalSigns per ERVisit of the measured model. */
+	private static final int VITALS_PER_VISIT = 4;
+	/** The Prescriptions per ERVisit of the measured model. */
+	private static final int PRESCRIPTIONS_PER_VISIT = 2;
+
+	/**
+	 * Checks the budgets at 100, 1000 and 10000 Patients.
+	 * @throws Exception if a generated record is invalid.
+	 */
+	public void testBudgets() throws Exception {
+		for (int patients : new int[] {100, 1000, 10000}) {
+			FootprintAnalyzer.Report report = FootprintAnalyzer.analyze(patients, VITALS_PER_VISIT, PRESCRIPTIONS_PER_VISIT);
+			assertEquals(report.toString(), 0, report.checkBudgets().size());
+			assertTrue(report.toString(), report.bytesPerPatient > 0);
+			assertTrue(report.toString(), report.bytesPerVisit > 0);
+			assertTrue(report.toString(), report.bytesPerVital > 0);
+			assertTrue(report.toString(), report.bytesPerPrescription > 0);
+		}
+	}
+
+	/**
+	 * Checks that a record of a kind the model does not hold costs nothing.
+	 * @throws Exception if a generated record is invalid.
+	 */
+	public void testNoRecords() throws Exception {
+		FootprintAnalyzer.Report report = FootprintAnalyzer.analyze(100, 0, 0);
+		assertEquals(0, report.bytesPerVital);
+		assertEquals(0, report.bytesPerPrescription);
+		assertEquals(report.toString(), 0, report.checkBudgets().size());
+	}
+
+	/** Checks that an object reachable twice is counted once. */
+	public void testSharedObjectsCountedOnce() {
+		String shared = "shared";
+		List<String> once = new ArrayList<String>();
+		once.add(shared);
+		List<String> twice = new ArrayList<String>();
+		twice.add(shared);
+		twice.add(shared);
+		//The second reference only costs its slot in the array.
+		assertTrue(FootprintAnalyzer.retainedSize(twice) - FootprintAnalyzer.retainedSize(once) <= 8);
+	}
+}
@@ -0,0 +1,69 @@
+package triageapp.metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks the accuracy of the quantiles estimated by QuantileSketch, alone
+ * and merged, against the exact quantiles.
+ */
+public class QuantileSketchTest extends TestCase {
+
+	/** The number of values added. */
+	private static final int COUNT = 1000000;
+	/** The largest relative error of an estimate. */
+	private static final double MAX_ERROR = 0.01;
+
+	/**
+	 * Checks that for 1,000,000 exponentially distributed waits (mean 30
+	 * minutes), added to one sketch and to 24 hourly sketches then merged,
+	 * P50, P90 and P99 are within 1% of the exact quantiles.
+	 */
+	public void testAccuracy() {
+		Random random = new Random(11);
+		double[] values = new double[COUNT];
+		QuantileSketch whole = new QuantileSketch();
+		QuantileSketch[] hours = new QuantileSketch[24];
+		for (int i = 0; i < hours.length; i++)
+			hours[i] = new QuantileSketch();
+		for (int i = 0; i < COUNT; i++) {
+			values[i] = -30 * 60000 * Math.log(1 - random.nextDouble());
+			whole.add(values[i]);
+			hours[i % hours.length].add(values[i]);
+		}
+		QuantileSketch merged = new QuantileSketch();
+		for (QuantileSketch hour : hours)
+			merged.merge(hour);
+		Arrays.sort(values);
+		assertEquals(COUNT, whole.getCount());
+		assertEquals(COUNT, merged.getCount());
+		for (double quantile : new double[] {0.5, 0.9, 0.99}) {
+			double exact = values[(int) (quantile * (COUNT - 1))];
+			assertEquals("p" + quantile, exact, whole.getQuantile(quantile), exact * MAX_ERROR);
+			assertEquals("merged p" + quantile, exact, merged.getQuantile(quantile), exact * MAX_ERROR);
+		}
+	}
+
+	/** Checks the estimates of an empty sketch and of a sketch of one value. */
+	public void testFewValues() {
+		QuantileSketch sketch = new QuantileSketch();
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+		sketch.add(42);
+		assertEquals(1, sketch.getCount());
+		assertEquals(42, sketch.getQuantile(0.5), 0);
+		assertEquals(42, sketch.getQuantile(0.99), 0);
+	}
+
+	/** Checks that the extreme quantiles stay within the values added. */
+	public void testExtremes() {
+		QuantileSketch sketch = new QuantileSketch();
+		for (int i = 1; i <= 1000; i++)
+			sketch.add(i);
+		assertEquals(1, sketch.getQuantile(0), 0);
+		assertEquals(1000, sketch.getQuantile(1), 0);
+		assertEquals(500, sketch.getQuantile(0.5), 5);
+	}
+}
@@ -0,0 +1,68 @@
+package triageapp.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks that writing the trace file keeps the Spans in the Tracer, so that
+ * a trace written after another one still holds the Spans of the first.
+ */
+public class TracerTest extends TestCase {
+
+	/** The trace file. */
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("trace", ".json");
+		Tracer.setEnabled(true);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Tracer.setEnabled(false);
+		file.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Checks that a Span written to a first trace is also in the second one.
+	 * @throws IOException if the trace file cannot be written or read.
+	 */
+	public void testSecondTraceKeepsFirstSpans() throws IOException {
+		Tracer.begin("test.first").end();
+		Tracer.writeTo(file);
+		assertTrue(read(file).contains("\"test.first\""));
+		Tracer.begin("test.second").end();
+		Tracer.writeTo(file);
+		String trace = read(file);
+		assertTrue(trace.contains("\"test.first\""));
+		assertTrue(trace.contains("\"test.second\""));
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	/**
+	 * Reads a file.
+	 * @param file The file.
+	 * @return The text of the file.
+	 * @throws IOException if the file cannot be read.
+	 */
+	private static String read(File file) throws IOException {
+		StringBuilder text = new StringBuilder();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null)
+				text.append(line).append('\n');
+		} finally {
+			in.close();
+		}
+		return text.toString();
+	}
+}
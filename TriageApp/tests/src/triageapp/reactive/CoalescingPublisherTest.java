@@ -0,0 +1,140 @@
+package triageapp.reactive;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks that a CoalescingPublisher coalesces bursts of values, and honours
+ * the demand and cancellation of its Subscribers.
+ */
+public class CoalescingPublisherTest extends TestCase {
+
+	/** The interval between two emissions of the tests, in milliseconds. */
+	private static final long INTERVAL_MILLIS = 50;
+	/** The time to wait for an emission that must happen, in milliseconds. */
+	private static final long TIMEOUT_MILLIS = 1000;
+	/** The time to wait to be confident an emission does not happen, in milliseconds. */
+	private static final long QUIET_MILLIS = 4 * INTERVAL_MILLIS;
+
+	/** A Subscriber recording the values it receives. */
+	private static final class RecordingSubscriber implements Flow.Subscriber<Integer> {
+		/** The demand requested on subscription. */
+		private final long initialDemand;
+		/** The values received, in order. */
+		final List<Integer> values = new CopyOnWriteArrayList<Integer>();
+		/** Counted down on the first value. */
+		final CountDownLatch received = new CountDownLatch(1);
+		/** The Subscription, once subscribed. */
+		volatile Flow.Subscription subscription;
+
+		/**
+		 * Constructs a RecordingSubscriber.
+		 * @param initialDemand The demand requested on subscription, or 0.
+		 */
+		RecordingSubscriber(long initialDemand) {
+			this.initialDemand = initialDemand;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (initialDemand > 0)
+				subscription.request(initialDemand);
+		}
+
+		@Override
+		public void onNext(Integer item) {
+			values.add(item);
+			received.countDown();
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			fail(throwable.toString());
+		}
+
+		@Override
+		public void onComplete() {
+		}
+
+		/**
+		 * Waits for the first value.
+		 * @throws InterruptedException if interrupted while waiting.
+		 */
+		void awaitValue() throws InterruptedException {
+			assertTrue("No value was received", received.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * Checks that a burst of 50 values submitted within an interval reaches
+	 * a Subscriber as one emission of the last value.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void testBurstCoalesced() throws InterruptedException {
+		CoalescingPublisher<Integer> publisher = new CoalescingPublisher<Integer>();
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		publisher.subscribe(subscriber, INTERVAL_MILLIS);
+		for (int i = 1; i <= 50; i++)
+			publisher.submit(Integer.valueOf(i));
+		subscriber.awaitValue();
+		Thread.sleep(QUIET_MILLIS);
+		assertEquals(1, subscriber.values.size());
+		assertEquals(Integer.valueOf(50), subscriber.values.get(0));
+	}
+
+	/**
+	 * Checks that a Subscriber without demand receives nothing until it
+	 * requests a value, and then receives the latest one.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void testNoEmissionWithoutDemand() throws InterruptedException {
+		CoalescingPublisher<Integer> publisher = new CoalescingPublisher<Integer>();
+		RecordingSubscriber subscriber = new RecordingSubscriber(0);
+		publisher.subscribe(subscriber, INTERVAL_MILLIS);
+		publisher.submit(Integer.valueOf(1));
+		publisher.submit(Integer.valueOf(2));
+		Thread.sleep(QUIET_MILLIS);
+		assertEquals(0, subscriber.values.size());
+		subscriber.subscription.request(1);
+		subscriber.awaitValue();
+		Thread.sleep(QUIET_MILLIS);
+		assertEquals(1, subscriber.values.size());
+		assertEquals(Integer.valueOf(2), subscriber.values.get(0));
+	}
+
+	/**
+	 * Checks that a Subscriber subscribing after a value was submitted receives it.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void testLateSubscriberReceivesLatest() throws InterruptedException {
+		CoalescingPublisher<Integer> publisher = new CoalescingPublisher<Integer>();
+		publisher.submit(Integer.valueOf(7));
+		RecordingSubscriber subscriber = new RecordingSubscriber(1);
+		publisher.subscribe(subscriber, INTERVAL_MILLIS);
+		subscriber.awaitValue();
+		assertEquals(Integer.valueOf(7), subscriber.values.get(0));
+		assertEquals(Integer.valueOf(7), publisher.getLatest());
+	}
+
+	/**
+	 * Checks that a cancelled Subscriber receives nothing more.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void testCancel() throws InterruptedException {
+		CoalescingPublisher<Integer> publisher = new CoalescingPublisher<Integer>();
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		publisher.subscribe(subscriber, INTERVAL_MILLIS);
+		publisher.submit(Integer.valueOf(1));
+		subscriber.awaitValue();
+		subscriber.subscription.cancel();
+		publisher.submit(Integer.valueOf(2));
+		Thread.sleep(QUIET_MILLIS);
+		assertEquals(1, subscriber.values.size());
+	}
+}
@@ -0,0 +1,228 @@
+package triageapp.server;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import triageapp.components.ERAdmin;
+import triageapp.components.VitalSigns;
+import triageapp.database.DBAdapter;
+import triageapp.database.TriageDBAdapter;
+import triageapp.sync.ChangeLog;
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+
+/**
+ * Runs a BoardServer on a test database and exercises it from several
+ * stations at once, the way the stations of an ER would.
+ */
+public class BoardServerTest extends AndroidTestCase {
+
+	/** The port of the test server, next to the default one. */
+	private static final int PORT = BoardProtocol.DEFAULT_PORT + 1;
+	/** The number of Patients on the board. */
+	private static final int PATIENTS = 20;
+	/** The number of stations connected at once. */
+	private static final int STATIONS = 8;
+	/** The number of rounds of requests of each station. */
+	private static final int ROUNDS = 20;
+	/** The time to wait for the server to listen, in milliseconds. */
+	private static final long START_TIMEOUT_MILLIS = 5000;
+
+	/** The context the test database is opened with. */
+	private Context context;
+	/** The test's own connection to the database, like the UI's. */
+	private TriageDBAdapter dbAdapter;
+	/** The ERAdmin changing the database, like the UI's. */
+	private ERAdmin erAdmin;
+	/** The server. */
+	private BoardServer server;
+	/** The token of the server. */
+	private String token;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), "test_");
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		context.deleteDatabase(DBAdapter.ARCHIVE_DATABASE_NAME);
+		dbAdapter = new TriageDBAdapter(context);
+		dbAdapter.open();
+		erAdmin = new ERAdmin(new ChangeLog("test"));
+		for (int i = 0; i < PATIENTS; i++)
+			erAdmin.addPatient("Patient " + i, "1980-01-" + (10 + i), String.valueOf(100000 + i), dbAdapter);
+		token = BoardServer.newToken();
+		server = new BoardServer(context, PORT, false, token);
+		new Thread(server, "BoardServer").start();
+		connect(token).close();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop();
+		dbAdapter.close();
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		context.deleteDatabase(DBAdapter.ARCHIVE_DATABASE_NAME);
+		super.tearDown();
+	}
+
+	/**
+	 * Connects a station, waiting for the server to listen.
+	 * @param stationToken The token the station authenticates with.
+	 * @return The station's BoardClient.
+	 * @throws Exception if the server does not listen in time, or rejects the station.
+	 */
+	private BoardClient connect(String stationToken) throws Exception {
+		long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+		while (true) {
+			try {
+				return new BoardClient("127.0.0.1", PORT, stationToken);
+			} catch (ConnectException e) {
+				if (System.currentTimeMillis() > deadline)
+					throw e;
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a station with a wrong token is rejected.
+	 * @throws Exception if the server cannot be reached.
+	 */
+	public void testWrongTokenRejected() throws Exception {
+		try {
+			connect(BoardServer.newToken()).close();
+			fail("A station with a wrong token was accepted");
+		} catch (IOException e) {
+			//Expected.
+		}
+	}
+
+	/**
+	 * Checks that a request reaching the server once it is stopped, and its
+	 * database connection closed, fails instead of using the closed connection.
+	 */
+	public void testRequestAfterStop() {
+		server.stop();
+		assertTrue(server.handle(new String[] {BoardProtocol.BOARD}).startsWith(BoardProtocol.ERROR + " "));
+	}
+
+	/**
+	 * Checks that the server serves the board of the database.
+	 * @throws Exception if a request fails.
+	 */
+	public void testBoard() throws Exception {
+		BoardClient client = connect(token);
+		try {
+			assertEquals(PATIENTS, client.getBoard().size());
+			assertEquals(0, client.getSentToDoctor().size());
+			String[] patient = client.getPatient("100000");
+			assertEquals("100000", patient[0]);
+			assertEquals("Patient 0", patient[1]);
+		} finally {
+			client.close();
+		}
+	}
+
+	/**
+	 * Checks that a change made through another connection to the database,
+	 * like the UI's, is on the board the server serves.
+	 * @throws Exception if a request fails.
+	 */
+	public void testFollowsTheDatabase() throws Exception {
+		BoardClient client = connect(token);
+		try {
+			erAdmin.addPatientVitals(erAdmin.lookUpPatient("100005"), new VitalSigns(190, 120, 40.0f, 130.0f), dbAdapter);
+			List<String[]> board = client.getBoard();
+			assertEquals("100005", board.get(0)[0]);
+			erAdmin.sendToDoctor(erAdmin.lookUpPatient("100005"), dbAdapter);
+			assertEquals(PATIENTS - 1, client.getBoard().size());
+			assertEquals("100005", client.getSentToDoctor().get(0)[0]);
+		} finally {
+			client.close();
+		}
+	}
+
+	/**
+	 * Checks that a Patient sent to a doctor is assigned to the Physician
+	 * registered, stays on the Patients sent to a doctor once taken, and is
+	 * assigned again when the Physician is unregistered before taking them.
+	 * @throws Exception if a request fails.
+	 */
+	public void testTakeNextPatient() throws Exception {
+		BoardClient client = connect(token);
+		try {
+			client.registerPhysician("house");
+			client.sendToDoctor("100001");
+			client.sendToDoctor("100002");
+			List<String[]> sent = client.getSentToDoctor();
+			assertEquals("house", sent.get(0)[3]);
+			assertEquals("0", sent.get(0)[4]);
+			String[] taken = client.takeNextPatient("house");
+			assertNotNull(taken);
+			client.unregisterPhysician("house");
+			for (String[] patient : client.getSentToDoctor()) {
+				boolean isTaken = patient[0].equals(taken[0]);
+				assertEquals(isTaken ? "house" : "", patient[3]);
+				assertEquals(isTaken ? "1" : "0", patient[4]);
+			}
+			assertEquals(2, client.getSentToDoctor().size());
+		} finally {
+			client.close();
+		}
+	}
+
+	/**
+	 * Adds VitalSigns to the Patients on the board from several stations at
+	 * once, then checks that every request succeeded and that the board is
+	 * ordered by urgency.
+	 * @throws Exception if a request fails.
+	 */
+	public void testConcurrentStations() throws Exception {
+		BoardClient client = connect(token);
+		final List<String[]> board = client.getBoard();
+		final AtomicInteger requests = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(STATIONS);
+		for (int s = 0; s < STATIONS; s++) {
+			final int station = s;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						BoardClient stationClient = new BoardClient("127.0.0.1", PORT, token);
+						try {
+							for (int r = 0; r < ROUNDS; r++) {
+								String healthCardNumber = board.get((station + r) % board.size())[0];
+								stationClient.addVitals(healthCardNumber, 110 + (r * 7 + station) % 60,
+										70 + r % 30, 36.5f + (r % 4), 60 + (r * 3) % 70);
+								stationClient.getBoard();
+								requests.addAndGet(2);
+							}
+						} finally {
+							stationClient.close();
+						}
+					} catch (IOException e) {
+						failures.incrementAndGet();
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "Station-" + s).start();
+		}
+		done.await();
+		assertEquals(0, failures.get());
+		assertEquals(2 * STATIONS * ROUNDS, requests.get());
+
+		List<String[]> finalBoard = client.getBoard();
+		client.close();
+		assertEquals(PATIENTS, finalBoard.size());
+		for (int i = 1; i < finalBoard.size(); i++)
+			assertTrue("The board is not ordered by urgency at row " + i,
+					Integer.parseInt(finalBoard.get(i)[2]) <= Integer.parseInt(finalBoard.get(i - 1)[2]));
+	}
+}
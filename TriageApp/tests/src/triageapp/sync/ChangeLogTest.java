@@ -0,0 +1,75 @@
+package triageapp.sync;
+
+import triageapp.database.DBAdapter;
+import triageapp.database.TriageDBAdapter;
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+
+/**
+ * Checks the ChangeLog kept in the database: its origin and its Changes
+ * survive reopening it, and trimming deletes the Changes but not the version.
+ */
+public class ChangeLogTest extends AndroidTestCase {
+
+	/** The context the test database is opened with. */
+	private Context context;
+	/** The connection to the test database. */
+	private TriageDBAdapter dbAdapter;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), "test_");
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		dbAdapter = new TriageDBAdapter(context);
+		dbAdapter.open();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		dbAdapter.close();
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		super.tearDown();
+	}
+
+	/** Checks that the origin is chosen once, and kept when the log is opened again. */
+	public void testOriginIsStable() {
+		String origin = ChangeLog.open(dbAdapter).getOrigin();
+		assertNotNull(origin);
+		assertEquals(origin, ChangeLog.open(dbAdapter).getOrigin());
+		dbAdapter.close();
+		dbAdapter.open();
+		assertEquals(origin, ChangeLog.open(dbAdapter).getOrigin());
+	}
+
+	/** Checks that the recorded Changes are read back, in order, after reopening the log. */
+	public void testChangesSurviveReopening() {
+		ChangeLog log = ChangeLog.open(dbAdapter);
+		log.record(Change.patient("123456", "Ada Lovelace", "1990-12-10"));
+		log.record(Change.signIn("123456", 1400000000000L));
+		ChangeLog reopened = ChangeLog.open(dbAdapter);
+		assertEquals(2, reopened.getVersion().get(log.getOrigin()));
+		assertEquals(2, reopened.size());
+		assertEquals(Change.SIGN_IN, reopened.changesSince(new VersionVector()).get(1).getType());
+		//The next Change follows the ones recorded before reopening.
+		assertEquals(3, reopened.record(Change.close("123456", 1400000000000L)).getSequence());
+	}
+
+	/** Checks that trimming deletes the Changes seen, and keeps the version. */
+	public void testTrim() {
+		ChangeLog log = ChangeLog.open(dbAdapter);
+		for (int i = 0; i < 3; i++)
+			log.record(Change.signIn("123456", 1400000000000L + i));
+		VersionVector seen = new VersionVector();
+		seen.advance(log.getOrigin(), 2);
+		log.trim(seen);
+		assertEquals(1, log.size());
+		assertEquals(1, log.changesSince(seen).size());
+		log.trim(log.getVersion());
+		ChangeLog reopened = ChangeLog.open(dbAdapter);
+		assertEquals(0, reopened.size());
+		assertEquals(3, reopened.getVersion().get(log.getOrigin()));
+	}
+}
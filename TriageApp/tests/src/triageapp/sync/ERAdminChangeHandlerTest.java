@@ -0,0 +1,252 @@
+package triageapp.sync;
+
+import java.io.IOException;
+import java.util.List;
+
+import triageapp.components.ERAdmin;
+import triageapp.components.ERVisit;
+import triageapp.components.Patient;
+import triageapp.components.Prescription;
+import triageapp.components.VitalSigns;
+import triageapp.database.DBAdapter;
+import triageapp.database.TriageDBAdapter;
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+
+/**
+ * Synchronizes two devices in this process, each with its own database,
+ * ChangeLog and ERAdmin, and checks that the Changes made on one device
+ * reach the board and the database of the other through ERAdminChangeHandler.
+ */
+public class ERAdminChangeHandlerTest extends AndroidTestCase {
+
+	/** A device: its database, ChangeLog, ERAdmin and SyncPeer. */
+	private static final class Device {
+		/** The context the device's database is opened with. */
+		final Context context;
+		/** The device's connection to its database. */
+		final TriageDBAdapter dbAdapter;
+		/** The device's ChangeLog, kept in its database. */
+		final ChangeLog log;
+		/** The device's ERAdmin. */
+		final ERAdmin erAdmin;
+		/** The device's SyncPeer. */
+		final SyncPeer peer;
+
+		/**
+		 * Constructs a device on a new database.
+		 * @param context The context to open the database with.
+		 */
+		Device(Context context) {
+			this.context = context;
+			deleteDatabases(context);
+			dbAdapter = new TriageDBAdapter(context);
+			dbAdapter.open();
+			log = ChangeLog.open(dbAdapter);
+			erAdmin = new ERAdmin(log);
+			peer = new SyncPeer(log, new ERAdminChangeHandler(erAdmin, dbAdapter));
+		}
+
+		/** Closes the device's database and deletes it. */
+		void close() {
+			dbAdapter.close();
+			deleteDatabases(context);
+		}
+	}
+
+	/** The device making the changes. */
+	private Device first;
+	/** The device receiving them. */
+	private Device second;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		first = new Device(new RenamingDelegatingContext(getContext(), "first_"));
+		second = new Device(new RenamingDelegatingContext(getContext(), "second_"));
+		first.peer.acknowledge(second.log.getOrigin(), second.peer.getVersion());
+		second.peer.acknowledge(first.log.getOrigin(), first.peer.getVersion());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		first.close();
+		second.close();
+		super.tearDown();
+	}
+
+	/**
+	 * Deletes the databases of a device.
+	 * @param context The context the databases are opened with.
+	 */
+	private static void deleteDatabases(Context context) {
+		context.deleteDatabase(DBAdapter.DATABASE_NAME);
+		context.deleteDatabase(DBAdapter.ARCHIVE_DATABASE_NAME);
+	}
+
+	/**
+	 * Sends the Changes one device is missing from another.
+	 * @param from The device sending its Changes.
+	 * @param to The device receiving them.
+	 * @return The number of Changes applied.
+	 * @throws IOException if a batch cannot be encoded or decoded.
+	 */
+	private static int sync(Device from, Device to) throws IOException {
+		int applied = 0;
+		for (byte[] batch : from.peer.batchesFor(to.log.getOrigin()))
+			applied += to.peer.receive(from.log.getOrigin(), batch);
+		return applied;
+	}
+
+	/**
+	 * Checks that a new Patient, their sign in, VitalSigns, Prescription,
+	 * sending to the doctor and assignment to no Physician reach the board
+	 * and the database of the other device.
+	 * @throws Exception if a change fails.
+	 */
+	public void testVisitReachesTheOtherDevice() throws Exception {
+		first.erAdmin.addPatient("Ada Lovelace", "1990-12-10", "123456", first.dbAdapter);
+		Patient patient = first.erAdmin.lookUpPatient("123456");
+		first.erAdmin.addPatientVitals(patient, new VitalSigns(150, 95, 39.5f, 110.0f), first.dbAdapter);
+		first.erAdmin.addPatientPrescription(patient, new Prescription("Ibuprofen", "2 tablets every 6 hours"), first.dbAdapter);
+		first.erAdmin.sendToDoctor(patient, first.dbAdapter);
+		assertEquals(6, sync(first, second));
+
+		Patient received = second.erAdmin.lookUpPatient("123456");
+		assertNotNull(received);
+		assertEquals("Ada Lovelace", received.getName());
+		assertVisit(patient.getCurrentERVisit(), received.getCurrentERVisit());
+		assertEquals(patient.getUrgency(), received.getUrgency());
+		List<Patient> sentToDoctor = second.erAdmin.getPatientsSentToDoctorList();
+		assertEquals(1, sentToDoctor.size());
+		assertEquals("123456", sentToDoctor.get(0).getHealthCardNumber());
+
+		//The other device's database has the same visit.
+		ERAdmin reloaded = new ERAdmin(second.log);
+		reloaded.loadPatients(second.dbAdapter);
+		assertVisit(patient.getCurrentERVisit(), reloaded.lookUpPatient("123456").getCurrentERVisit());
+	}
+
+	/**
+	 * Checks that a Patient assigned to a Physician on one device, then taken
+	 * by them, is taken on the other device and stays on its sent to doctor
+	 * board, also once loaded again from its database.
+	 * @throws Exception if a change fails.
+	 */
+	public void testTakeReachesTheOtherDevice() throws Exception {
+		first.erAdmin.registerPhysician("house", first.dbAdapter);
+		first.erAdmin.addPatient("Ada Lovelace", "1990-12-10", "123456", first.dbAdapter);
+		Patient patient = first.erAdmin.lookUpPatient("123456");
+		first.erAdmin.sendToDoctor(patient, first.dbAdapter);
+		sync(first, second);
+		Patient received = second.erAdmin.lookUpPatient("123456");
+		assertEquals("house", received.getCurrentERVisit().getPhysician());
+		assertFalse(received.getCurrentERVisit().isTaken());
+
+		assertSame(patient, first.erAdmin.takeNextPatient("house", first.dbAdapter));
+		assertEquals(1, sync(first, second));
+		assertTrue(received.getCurrentERVisit().isTaken());
+		assertEquals(patient.getCurrentERVisit().getTimeTaken(), received.getCurrentERVisit().getTimeTaken());
+		//Taken, the Patient no longer waits for any Physician on the other device.
+		assertNull(second.erAdmin.takeNextPatient("wilson", second.dbAdapter));
+		assertEquals(1, second.erAdmin.getPatientsSentToDoctorList().size());
+
+		ERAdmin reloaded = new ERAdmin(second.log);
+		reloaded.loadPatients(second.dbAdapter);
+		reloaded.loadSentToDoctorList(second.dbAdapter);
+		ERVisit visit = reloaded.lookUpPatient("123456").getCurrentERVisit();
+		assertEquals("house", visit.getPhysician());
+		assertTrue(visit.isTaken());
+	}
+
+	/**
+	 * Checks that closing a visit on the device which did not sign the
+	 * Patient in takes the Patient off the board of both devices.
+	 * @throws Exception if a change fails.
+	 */
+	public void testCloseReachesTheOtherDevice() throws Exception {
+		first.erAdmin.addPatient("Alan Turing", "1992-06-23", "654321", first.dbAdapter);
+		sync(first, second);
+		assertEquals(1, second.erAdmin.getUrgencyList().size());
+		second.erAdmin.closeCase(second.erAdmin.lookUpPatient("654321"), second.dbAdapter);
+		assertEquals(1, sync(second, first));
+		assertNull(first.erAdmin.lookUpPatient("654321").getCurrentERVisit());
+		assertEquals(0, first.erAdmin.getUrgencyList().size());
+	}
+
+	/**
+	 * Checks that Changes received twice are applied once, and are not
+	 * recorded again as Changes of the receiving device.
+	 * @throws Exception if a change fails.
+	 */
+	public void testChangesAppliedOnce() throws Exception {
+		first.erAdmin.addPatient("Grace Hopper", "1986-12-09", "111111", first.dbAdapter);
+		List<byte[]> batches = first.peer.batchesFor(new VersionVector());
+		assertEquals(2, sync(first, second));
+		for (byte[] batch : batches)
+			assertEquals(0, second.peer.receive(batch));
+		assertEquals(0, second.peer.getVersion().get(second.log.getOrigin()));
+		assertEquals(first.peer.getVersion(), second.peer.getVersion());
+	}
+
+	/**
+	 * Checks that the Changes are trimmed from both logs once both devices
+	 * have them, and that the version of each log survives reopening it.
+	 * @throws Exception if a change fails.
+	 */
+	public void testTrimmedOnceBothDevicesHaveTheChanges() throws Exception {
+		first.erAdmin.addPatient("Edsger Dijkstra", "1980-05-11", "222222", first.dbAdapter);
+		second.erAdmin.addPatient("Barbara Liskov", "1979-11-07", "333333", second.dbAdapter);
+		sync(first, second);
+		sync(second, first);
+		assertEquals(0, first.log.size());
+		assertEquals(0, second.log.size());
+		VersionVector version = ChangeLog.open(first.dbAdapter).getVersion();
+		assertEquals(2, version.get(first.log.getOrigin()));
+		assertEquals(2, version.get(second.log.getOrigin()));
+	}
+
+	/**
+	 * Checks that when both devices sign in the same Patient before they
+	 * synchronize, both keep the ERVisit which arrived last, and the other
+	 * ERVisit is deleted from the database of the device which made it.
+	 * @throws Exception if a change fails.
+	 */
+	public void testLastSignInWins() throws Exception {
+		first.erAdmin.registerPatient("Katherine Johnson", "1988-08-26", "444444", first.dbAdapter);
+		sync(first, second);
+		long arrival = 1400000000000L;
+		Patient patient = first.erAdmin.signInPatient("444444", arrival, first.dbAdapter);
+		first.erAdmin.addPatientVitals(patient, new VitalSigns(150, 95, 39.5f, 110.0f), first.dbAdapter);
+		second.erAdmin.signInPatient("444444", arrival + 60000L, second.dbAdapter);
+		sync(first, second);
+		sync(second, first);
+
+		assertEquals(arrival + 60000L, first.erAdmin.lookUpPatient("444444").getCurrentERVisit().getArrivalTime());
+		assertEquals(0, first.erAdmin.lookUpPatient("444444").getCurrentERVisit().getVitalsCount());
+		assertEquals(arrival + 60000L, second.erAdmin.lookUpPatient("444444").getCurrentERVisit().getArrivalTime());
+		assertEquals(1, first.erAdmin.getUrgencyList().size());
+		assertEquals(1, second.erAdmin.getUrgencyList().size());
+		ERAdmin reloaded = new ERAdmin(first.log);
+		reloaded.loadPatients(first.dbAdapter);
+		assertEquals(arrival + 60000L, reloaded.lookUpPatient("444444").getCurrentERVisit().getArrivalTime());
+		assertEquals(arrival + 60000L, first.dbAdapter.getLastArrivalTime("444444"));
+	}
+
+	/**
+	 * Checks that two ERVisits have the same records.
+	 * @param expected The ERVisit on the device which made the changes.
+	 * @param actual The ERVisit on the other device.
+	 */
+	private static void assertVisit(ERVisit expected, ERVisit actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getArrivalTime(), actual.getArrivalTime());
+		assertEquals(expected.getVitalsCount(), actual.getVitalsCount());
+		assertEquals(expected.getVitalsTimestamp(0), actual.getVitalsTimestamp(0));
+		assertEquals(expected.getPrescriptionRecords().size(), actual.getPrescriptionRecords().size());
+		assertEquals(expected.isSeenByDoctor(), actual.isSeenByDoctor());
+		assertEquals(expected.getTimeSeenByDoctor(), actual.getTimeSeenByDoctor());
+	}
+}
@@ -0,0 +1,120 @@
+package triageapp.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import triageapp.components.InvalidUserInputException;
+
+
+/**
+ * Checks that a batch holds Changes of as many origins as it has Changes,
+ * and the assignments of Patients to Physicians, that a Change which cannot be applied is not added to the ChangeLog and is
+ * applied when its batch is received again, and that a ChangeLog keeps at
+ * most ChangeLog.MAX_CHANGES Changes.
+ */
+public class SyncPeerTest extends TestCase {
+
+	/** The time the first Patient arrives. */
+	private static final long ARRIVAL = 1400000000000L;
+
+	/** A ChangeHandler keeping the Changes applied, which fails while asked to. */
+	private static final class RecordingHandler implements ChangeHandler {
+		/** The Changes applied. */
+		final List<Change> applied = new ArrayList<Change>();
+		/** Whether the next Changes fail to apply. */
+		boolean failing;
+
+		@Override
+		public void apply(Change change) throws InvalidUserInputException {
+			if (failing)
+				throw new InvalidUserInputException();
+			applied.add(change);
+		}
+	}
+
+	/**
+	 * Checks that a batch of MAX_BATCH_CHANGES Changes, each from its own
+	 * origin, decodes as encoded.
+	 * @throws IOException if the batch cannot be encoded or decoded.
+	 */
+	public void testEveryChangeFromItsOwnOrigin() throws IOException {
+		List<Change> changes = new ArrayList<Change>();
+		for (int i = 0; i < SyncPeer.MAX_BATCH_CHANGES; i++)
+			changes.add(Change.signIn("123456", ARRIVAL + i).recordedAs("device-" + i, 1));
+		List<Change> decoded = SyncPeer.decode(SyncPeer.encode(changes));
+		assertEquals(changes.size(), decoded.size());
+		for (int i = 0; i < changes.size(); i++) {
+			assertEquals(changes.get(i).getOrigin(), decoded.get(i).getOrigin());
+			assertEquals(changes.get(i).getVisitArrival(), decoded.get(i).getVisitArrival());
+		}
+	}
+
+	/**
+	 * Checks that the Changes assigning a Patient to a Physician, or to none,
+	 * and taking them decode as encoded.
+	 * @throws IOException if the batch cannot be encoded or decoded.
+	 */
+	public void testAssignAndTake() throws IOException {
+		List<Change> changes = new ArrayList<Change>();
+		changes.add(Change.assign("123456", ARRIVAL, "house").recordedAs("device", 1));
+		changes.add(Change.assign("123456", ARRIVAL, null).recordedAs("device", 2));
+		changes.add(Change.take("123456", ARRIVAL, "house", ARRIVAL + 60000).recordedAs("device", 3));
+		List<Change> decoded = SyncPeer.decode(SyncPeer.encode(changes));
+		assertEquals(Change.ASSIGN, decoded.get(0).getType());
+		assertEquals("house", decoded.get(0).getText());
+		assertNull(decoded.get(1).getText());
+		assertEquals(Change.TAKE, decoded.get(2).getType());
+		assertEquals("house", decoded.get(2).getText());
+		assertEquals(ARRIVAL + 60000, decoded.get(2).getTime());
+	}
+
+	/**
+	 * Checks that a batch whose second Change cannot be applied is rejected
+	 * from that Change on, and that receiving it again applies the rest.
+	 * @throws IOException if a batch cannot be encoded or decoded.
+	 */
+	public void testChangeNotAppliedIsNotAdded() throws IOException {
+		ChangeLog sent = new ChangeLog("sender");
+		for (int i = 0; i < 3; i++)
+			sent.record(Change.signIn("123456", ARRIVAL + i));
+		byte[] batch = new SyncPeer(sent, new RecordingHandler()).batchesFor(new VersionVector()).get(0);
+
+		final RecordingHandler handler = new RecordingHandler();
+		ChangeLog received = new ChangeLog("receiver");
+		SyncPeer peer = new SyncPeer(received, new ChangeHandler() {
+			@Override
+			public void apply(Change change) throws InvalidUserInputException {
+				handler.apply(change);
+				handler.failing = true;
+			}
+		});
+		try {
+			peer.receive(batch);
+			fail("A Change which could not be applied was accepted");
+		} catch (IOException e) {
+			//Expected.
+		}
+		assertEquals(1, handler.applied.size());
+		assertEquals(1, received.getVersion().get("sender"));
+
+		handler.failing = false;
+		peer = new SyncPeer(received, handler);
+		assertEquals(2, peer.receive(batch));
+		assertEquals(3, handler.applied.size());
+		assertEquals(3, received.getVersion().get("sender"));
+	}
+
+	/** Checks that a ChangeLog trims its oldest Changes once it holds more than MAX_CHANGES. */
+	public void testLogIsBounded() {
+		ChangeLog log = new ChangeLog("device");
+		int changes = 2 * ChangeLog.MAX_CHANGES;
+		for (int i = 0; i < changes; i++)
+			log.record(Change.signIn("123456", ARRIVAL + i));
+		assertTrue(log.size() + " changes kept", log.size() <= ChangeLog.MAX_CHANGES);
+		assertEquals(changes, log.getVersion().get("device"));
+		List<Change> kept = log.changesSince(new VersionVector());
+		assertEquals(changes, kept.get(kept.size() - 1).getSequence());
+	}
+}
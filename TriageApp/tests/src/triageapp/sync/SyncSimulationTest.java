@@ -0,0 +1,375 @@
+package triageapp.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import triageapp.components.InvalidUserInputException;
+import triageapp.components.Prescription;
+import triageapp.components.VitalSigns;
+
+
+/**
+ * Runs a shift on two devices in this process and synchronizes them with
+ * SyncPeers, then checks that:
+ * 		both devices end up with the same board and the same VersionVector,
+ * 		the Changes both devices have seen are trimmed from their logs,
+ * 		receiving every batch again applies nothing,
+ * 		the whole shift took at most MAX_BYTES_PER_CHANGE bytes per Change.
+ * Each device keeps its board in a Replica, which applies Changes the same
+ * way as ERAdminChangeHandler, without a database.
+ */
+public class SyncSimulationTest extends TestCase {
+
+	/** The most bytes two devices may exchange per Change, counting every batch and VersionVector. */
+	public static final int MAX_BYTES_PER_CHANGE = 48;
+	/** The length of a shift, in minutes. */
+	private static final int SHIFT_MINUTES = 12 * 60;
+	/** The minutes between two synchronizations. */
+	private static final int SYNC_INTERVAL_MINUTES = 5;
+	/** The number of Patients both devices know at the start of the shift. */
+	private static final int KNOWN_PATIENTS = 500;
+
+	/** The board of one device: the state of each Patient. */
+	static class Replica implements ChangeHandler {
+		/** The Patients, by health card number. */
+		final Map<String, PatientState> patients = new HashMap<String, PatientState>();
+
+		@Override
+		public void apply(Change change) {
+			PatientState patient = patients.get(change.getHealthCardNumber());
+			if (change.getType() == Change.PATIENT) {
+				if (patient == null)
+					patients.put(change.getHealthCardNumber(), new PatientState(change.getText()));
+				return;
+			}
+			if (patient == null)
+				return;
+			if (change.getType() == Change.SIGN_IN) {
+				//The ERVisit which arrived last wins.
+				if (change.getVisitArrival() <= patient.lastArrivalTime)
+					return;
+				if (patient.arrivalTime != 0)
+					patient.discard();
+				patient.arrivalTime = change.getVisitArrival();
+				patient.lastArrivalTime = change.getVisitArrival();
+				return;
+			}
+			if (patient.arrivalTime == 0 || patient.arrivalTime != change.getVisitArrival())
+				return;
+			switch (change.getType()) {
+			case Change.VITALS:
+				patient.vitalsCount++;
+				patient.lastVitalsTime = Math.max(patient.lastVitalsTime, change.getTime());
+				break;
+			case Change.PRESCRIPTION:
+				patient.prescriptionCount++;
+				break;
+			case Change.SEND_TO_DOCTOR:
+				if (patient.timeSeenByDoctor == 0)
+					patient.timeSeenByDoctor = change.getTime();
+				break;
+			case Change.CLOSE:
+				patient.close();
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/** The state of a Patient on a Replica. */
+	static class PatientState {
+		/** The Patient's name. */
+		final String name;
+		/** The arrival time of the current ERVisit, or 0 if the Patient is not in the ER. */
+		long arrivalTime;
+		/** The arrival time of the latest ERVisit, open or closed, or 0. */
+		long lastArrivalTime;
+		/** The number of VitalSigns of the current ERVisit. */
+		int vitalsCount;
+		/** The latest time of the VitalSigns of the current ERVisit. */
+		long lastVitalsTime;
+		/** The number of Prescriptions of the current ERVisit. */
+		int prescriptionCount;
+		/** The time seen by a doctor, or 0. */
+		long timeSeenByDoctor;
+		/** The number of closed ERVisits. */
+		int closedVisits;
+
+		/**
+		 * Constructs the state of a Patient not in the ER.
+		 * @param name The Patient's name.
+		 */
+		PatientState(String name) {
+			this.name = name;
+		}
+
+		/** Closes the current ERVisit. */
+		void close() {
+			discard();
+			closedVisits++;
+		}
+
+		/** Discards the current ERVisit, which lost to another sign in. */
+		void discard() {
+			arrivalTime = 0;
+			vitalsCount = 0;
+			lastVitalsTime = 0;
+			prescriptionCount = 0;
+			timeSeenByDoctor = 0;
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + arrivalTime + " " + vitalsCount + " " + lastVitalsTime + " "
+					+ prescriptionCount + " " + timeSeenByDoctor + " " + closedVisits;
+		}
+	}
+
+	/** A device: its board, and its SyncPeer. */
+	static class Device {
+		/** The index of the device. */
+		final int index;
+		/** The board of the device. */
+		final Replica replica = new Replica();
+		/** The SyncPeer of the device. */
+		final SyncPeer peer;
+
+		/**
+		 * Constructs a device knowing the initial Patients.
+		 * @param index The index of the device.
+		 */
+		Device(int index) {
+			this.index = index;
+			this.peer = new SyncPeer(new ChangeLog("device-" + index), replica);
+			for (int i = 0; i < KNOWN_PATIENTS; i++)
+				replica.patients.put(healthCardNumber(i), new PatientState("Patient " + i));
+		}
+
+		/**
+		 * Makes a Change on this device: applies it to the board and records it.
+		 * @param change The Change.
+		 */
+		void make(Change change) {
+			replica.apply(change);
+			peer.getLog().record(change);
+		}
+	}
+
+	/** Counts the bytes exchanged. */
+	private long bytesExchanged;
+	/** Counts the batches exchanged. */
+	private int batchesExchanged;
+
+	/**
+	 * Returns the health card number of the i-th Patient.
+	 * @param i The index of the Patient.
+	 * @return The health card number.
+	 */
+	static String healthCardNumber(int i) {
+		return String.format(Locale.US, "%06d", 100000 + i);
+	}
+
+	/**
+	 * Tells a device the Changes another device has seen, as when they connect.
+	 * @param from The device telling its VersionVector.
+	 * @param to The device told.
+	 * @throws IOException if the VersionVector cannot be encoded.
+	 */
+	void acknowledge(Device from, Device to) throws IOException {
+		VersionVector seen = from.peer.getVersion();
+		ByteArrayOutputStream vectorBytes = new ByteArrayOutputStream();
+		seen.write(new DataOutputStream(vectorBytes));
+		bytesExchanged += vectorBytes.size();
+		to.peer.acknowledge(from.peer.getLog().getOrigin(), seen);
+	}
+
+	/**
+	 * Sends the Changes one device is missing from another.
+	 * @param from The device sending its Changes.
+	 * @param to The device receiving them.
+	 * @return The batches sent.
+	 * @throws IOException if a batch cannot be encoded or decoded.
+	 */
+	List<byte[]> send(Device from, Device to) throws IOException {
+		List<byte[]> batches = from.peer.batchesFor(to.peer.getLog().getOrigin());
+		for (byte[] batch : batches) {
+			to.peer.receive(from.peer.getLog().getOrigin(), batch);
+			bytesExchanged += batch.length;
+			batchesExchanged++;
+		}
+		return batches;
+	}
+
+	/**
+	 * Runs a quiet shift: 6 Patients arriving at each device per hour.
+	 * @throws IOException if a batch cannot be encoded or decoded.
+	 */
+	public void testShift() throws IOException {
+		run(6, 207);
+	}
+
+	/**
+	 * Runs a busy shift: 30 Patients arriving at each device per hour, with
+	 * more Patients in the ER changed on both devices between two synchronizations.
+	 * @throws IOException if a batch cannot be encoded or decoded.
+	 */
+	public void testBusyShift() throws IOException {
+		run(30, 11);
+	}
+
+	/**
+	 * Signs the same Patients in on both devices between two synchronizations,
+	 * one of them closing its ERVisit and signing the Patient in again, and
+	 * checks that both devices keep the same ERVisit, whatever the order the
+	 * sign ins are received in.
+	 * @throws IOException if a batch cannot be encoded or decoded.
+	 */
+	public void testConcurrentSignIns() throws IOException {
+		Device[] devices = {new Device(0), new Device(1)};
+		acknowledge(devices[0], devices[1]);
+		acknowledge(devices[1], devices[0]);
+		long time = 1400000000000L;
+		String first = healthCardNumber(0);
+		String second = healthCardNumber(1);
+		String third = healthCardNumber(2);
+		//Both devices sign in the first Patient, the second device later.
+		devices[0].make(Change.signIn(first, time));
+		devices[0].make(Change.vitals(first, time, new VitalSigns(120, 80, 37.0f, 70, time + 1)));
+		devices[1].make(Change.signIn(first, time + 60000L));
+		//The first device signs in the second Patient later, and the third at the same time.
+		devices[1].make(Change.signIn(second, time));
+		devices[0].make(Change.signIn(second, time + 60000L));
+		devices[0].make(Change.signIn(third, time));
+		devices[1].make(Change.signIn(third, time));
+		devices[1].make(Change.prescription(third, time, newPrescription(new Random(3))));
+		//The first device closes its ERVisit of the second Patient and signs them in again.
+		devices[0].make(Change.close(second, time + 60000L));
+		devices[0].make(Change.signIn(second, time + 120000L));
+
+		send(devices[0], devices[1]);
+		send(devices[1], devices[0]);
+
+		for (Map.Entry<String, PatientState> entry : devices[0].replica.patients.entrySet())
+			assertEquals(entry.getKey(), entry.getValue().toString(), devices[1].replica.patients.get(entry.getKey()).toString());
+		assertEquals(time + 60000L, devices[0].replica.patients.get(first).arrivalTime);
+		assertEquals(0, devices[0].replica.patients.get(first).vitalsCount);
+		assertEquals(time + 120000L, devices[0].replica.patients.get(second).arrivalTime);
+		assertEquals(1, devices[0].replica.patients.get(second).closedVisits);
+		assertEquals(time, devices[0].replica.patients.get(third).arrivalTime);
+		assertEquals(1, devices[0].replica.patients.get(third).prescriptionCount);
+	}
+
+	/**
+	 * Runs a shift and checks the devices converged.
+	 * @param arrivalsPerHour The Patients arriving at each device per hour.
+	 * @param seed The seed of the random activity.
+	 * @throws IOException if a batch cannot be encoded or decoded.
+	 */
+	private void run(int arrivalsPerHour, long seed) throws IOException {
+		Random random = new Random(seed);
+		Device[] devices = {new Device(0), new Device(1)};
+		long shiftStart = 1400000000000L;
+		int newPatients = 0;
+		List<byte[]> lastBatches = new ArrayList<byte[]>();
+		List<byte[]> allBatches = new ArrayList<byte[]>();
+		acknowledge(devices[0], devices[1]);
+		acknowledge(devices[1], devices[0]);
+		for (int minute = 0; minute < SHIFT_MINUTES; minute++) {
+			long now = shiftStart + minute * 60000L;
+			for (Device device : devices) {
+				long time = now + device.index;
+				//Arrivals: a quarter are new Patients.
+				if (random.nextInt(60) < arrivalsPerHour) {
+					String healthCardNumber;
+					if (random.nextInt(4) == 0) {
+						healthCardNumber = healthCardNumber(KNOWN_PATIENTS + newPatients++);
+						device.make(Change.patient(healthCardNumber, "New patient " + newPatients, "1980-01-01"));
+					} else {
+						//Each device signs in its own half of the known Patients.
+						healthCardNumber = healthCardNumber(random.nextInt(KNOWN_PATIENTS / 2) * 2 + device.index);
+					}
+					PatientState patient = device.replica.patients.get(healthCardNumber);
+					if (patient.arrivalTime == 0)
+						device.make(Change.signIn(healthCardNumber, time));
+				}
+				//Care: the Patients in the ER get VitalSigns and Prescriptions on either device,
+				//and are sent to a doctor and discharged by the device which signed them in.
+				for (Map.Entry<String, PatientState> entry : device.replica.patients.entrySet()) {
+					PatientState patient = entry.getValue();
+					if (patient.arrivalTime == 0)
+						continue;
+					String healthCardNumber = entry.getKey();
+					boolean signedInHere = (patient.arrivalTime - shiftStart) % 60000L == device.index;
+					int roll = random.nextInt(1000);
+					if (roll < 12)
+						device.make(Change.vitals(healthCardNumber, patient.arrivalTime,
+								new VitalSigns(110 + random.nextInt(60), 60 + random.nextInt(40),
+										36.0f + random.nextInt(40) / 10.0f, 55 + random.nextInt(70), time)));
+					else if (roll < 15)
+						device.make(Change.prescription(healthCardNumber, patient.arrivalTime,
+								newPrescription(random)));
+					else if (signedInHere && roll < 20 && patient.timeSeenByDoctor == 0 && patient.vitalsCount > 0)
+						device.make(Change.sendToDoctor(healthCardNumber, patient.arrivalTime, time));
+					else if (signedInHere && roll < 24 && patient.timeSeenByDoctor != 0)
+						device.make(Change.close(healthCardNumber, patient.arrivalTime));
+				}
+			}
+			if ((minute + 1) % SYNC_INTERVAL_MINUTES == 0) {
+				lastBatches = send(devices[0], devices[1]);
+				allBatches.addAll(lastBatches);
+				send(devices[1], devices[0]);
+				//A batch delivered twice is applied once.
+				for (byte[] batch : lastBatches)
+					assertEquals("A batch delivered twice was applied twice", 0, devices[1].peer.receive(batch));
+			}
+		}
+		allBatches.addAll(send(devices[0], devices[1]));
+		send(devices[1], devices[0]);
+
+		VersionVector version = devices[0].peer.getVersion();
+		long changes = 0;
+		for (String origin : version.origins())
+			changes += version.get(origin);
+		assertTrue(changes > 0);
+		assertEquals(version, devices[1].peer.getVersion());
+		assertEquals(devices[0].replica.patients.size(), devices[1].replica.patients.size());
+		for (Map.Entry<String, PatientState> entry : devices[0].replica.patients.entrySet()) {
+			PatientState other = devices[1].replica.patients.get(entry.getKey());
+			assertNotNull(entry.getKey(), other);
+			assertEquals(entry.getKey(), entry.getValue().toString(), other.toString());
+		}
+		//The Changes were trimmed from the logs once both devices had them.
+		assertEquals(0, devices[0].peer.getLog().size());
+		assertEquals(0, devices[1].peer.getLog().size());
+		//Receiving the whole shift again applies nothing.
+		for (byte[] batch : allBatches)
+			assertEquals(0, devices[1].peer.receive(batch));
+		assertTrue(String.format(Locale.US, "%d bytes for %d changes (%.1f bytes per change, %d batches)",
+				bytesExchanged, changes, bytesExchanged / (double) changes, batchesExchanged),
+				bytesExchanged <= (long) MAX_BYTES_PER_CHANGE * changes);
+	}
+
+	/**
+	 * Returns a Prescription.
+	 * @param random The random activity.
+	 * @return The Prescription.
+	 */
+	private static Prescription newPrescription(Random random) {
+		String[] medications = {"Acetaminophen", "Ibuprofen", "Amoxicillin", "Morphine", "Salbutamol"};
+		try {
+			return new Prescription(medications[random.nextInt(medications.length)],
+					(1 + random.nextInt(3)) + " tablets every " + (4 + random.nextInt(5)) + " hours");
+		} catch (InvalidUserInputException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}